@@ -435,6 +435,26 @@ def drpc():
         jvmopts=jvmopts,
         extrajars=[CLUSTER_CONF_DIR])
 
+def heartbeat_server():
+    """Syntax: [storm heartbeat-server]
+
+    Launches a heartbeat server, which keeps worker heartbeats in memory
+    instead of ZooKeeper. Only needed if heartbeat.server.enabled is set
+    and heartbeat.server.host points to this machine; otherwise nimbus
+    runs the heartbeat server. This command should be run under
+    supervision with a tool like daemontools or monit.
+    """
+    cppaths = [CLUSTER_CONF_DIR]
+    jvmopts = parse_args(confvalue("heartbeat.server.childopts", cppaths)) + [
+        "-Dlogfile.name=heartbeat-server.log",
+        "-Dlogback.configurationFile=" + os.path.join(get_logback_conf_dir(), "cluster.xml")
+    ]
+    exec_storm_class(
+        "backtype.storm.heartbeat.HeartbeatServer",
+        jvmtype="-server",
+        jvmopts=jvmopts,
+        extrajars=[CLUSTER_CONF_DIR])
+
 def dev_zookeeper():
     """Syntax: [storm dev-zookeeper]
 
@@ -508,7 +528,7 @@ def unknown_command(*args):
     sys.exit(254)
 
 COMMANDS = {"jar": jar, "kill": kill, "shell": shell, "nimbus": nimbus, "ui": ui, "logviewer": logviewer,
-            "drpc": drpc, "supervisor": supervisor, "localconfvalue": print_localconfvalue,
+            "drpc": drpc, "heartbeat-server": heartbeat_server, "supervisor": supervisor, "localconfvalue": print_localconfvalue,
             "remoteconfvalue": print_remoteconfvalue, "repl": repl, "classpath": print_classpath,
             "activate": activate, "deactivate": deactivate, "rebalance": rebalance, "help": print_usage,
             "list": listtopos, "dev-zookeeper": dev_zookeeper, "version": version, "monitor": monitor,
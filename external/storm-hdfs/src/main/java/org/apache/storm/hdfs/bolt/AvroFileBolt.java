@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.hdfs.bolt;
+
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Tuple;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.storm.hdfs.bolt.format.AvroFormat;
+import org.apache.storm.hdfs.bolt.format.FileNameFormat;
+import org.apache.storm.hdfs.bolt.rotation.FileRotationPolicy;
+import org.apache.storm.hdfs.bolt.sync.SyncPolicy;
+import org.apache.storm.hdfs.common.HdfsUtils;
+import org.apache.storm.hdfs.common.rotation.RotationAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * Writes tuples to HDFS as records of Avro container files, which compress their records in blocks.
+ *
+ * A sync ends the current block.  Sync and rotation policies see the size of the blocks written so far, so it trails
+ * the records appended by up to one block.
+ */
+public class AvroFileBolt extends AbstractHdfsBolt {
+    private static final Logger LOG = LoggerFactory.getLogger(AvroFileBolt.class);
+
+    private AvroFormat format;
+    private transient FSDataOutputStream out;
+    private transient DataFileWriter<GenericRecord> writer;
+
+    private String compressionCodec = "deflate";
+    private transient CodecFactory codecFactory;
+
+    public AvroFileBolt() {
+    }
+
+    /**
+     * @param codec name of an Avro codec, such as "deflate", "snappy" or "null"
+     */
+    public AvroFileBolt withCompressionCodec(String codec){
+        this.compressionCodec = codec;
+        return this;
+    }
+
+    public AvroFileBolt withFsUrl(String fsUrl) {
+        this.fsUrl = fsUrl;
+        return this;
+    }
+
+    public AvroFileBolt withConfigKey(String configKey){
+        this.configKey = configKey;
+        return this;
+    }
+
+    public AvroFileBolt withFileNameFormat(FileNameFormat fileNameFormat) {
+        this.fileNameFormat = fileNameFormat;
+        return this;
+    }
+
+    public AvroFileBolt withAvroFormat(AvroFormat format) {
+        this.format = format;
+        return this;
+    }
+
+    public AvroFileBolt withSyncPolicy(SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+        return this;
+    }
+
+    public AvroFileBolt withRotationPolicy(FileRotationPolicy rotationPolicy) {
+        this.rotationPolicy = rotationPolicy;
+        return this;
+    }
+
+    public AvroFileBolt addRotationAction(RotationAction action){
+        this.rotationActions.add(action);
+        return this;
+    }
+
+    @Override
+    public void doPrepare(Map conf, TopologyContext topologyContext, OutputCollector collector) throws IOException {
+        LOG.info("Preparing Avro File Bolt...");
+        if (this.format == null) throw new IllegalStateException("AvroFormat must be specified.");
+
+        this.fs = FileSystem.get(URI.create(this.fsUrl), hdfsConfig);
+        this.codecFactory = CodecFactory.fromString(this.compressionCodec);
+    }
+
+    @Override
+    public void execute(Tuple tuple) {
+        try {
+            long offset;
+            synchronized (this.writeLock) {
+                this.writer.append(this.format.toRecord(tuple));
+                offset = this.out.getPos();
+
+                if (this.syncPolicy.mark(tuple, offset)) {
+                    this.writer.flush();
+                    HdfsUtils.hsync(this.out);
+                    this.syncPolicy.reset();
+                }
+            }
+
+            this.collector.ack(tuple);
+            if (this.rotationPolicy.mark(tuple, offset)) {
+                rotateOutputFile(); // synchronized
+                this.rotationPolicy.reset();
+            }
+        } catch (IOException e) {
+            this.collector.reportError(e);
+            this.collector.fail(tuple);
+        }
+    }
+
+    @Override
+    Path createOutputFile() throws IOException {
+        Path path = new Path(this.fileNameFormat.getPath(), this.fileNameFormat.getName(this.rotation, System.currentTimeMillis()));
+        this.out = this.fs.create(path);
+        this.writer = new DataFileWriter<GenericRecord>(new GenericDatumWriter<GenericRecord>(this.format.getSchema()));
+        this.writer.setCodec(this.codecFactory);
+        this.writer.create(this.format.getSchema(), this.out);
+        return path;
+    }
+
+    @Override
+    void closeOutputFile() throws IOException {
+        this.writer.close();
+    }
+}
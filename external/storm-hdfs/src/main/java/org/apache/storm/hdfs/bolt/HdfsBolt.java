@@ -17,34 +17,63 @@
  */
 package org.apache.storm.hdfs.bolt;
 
+import backtype.storm.Config;
+import backtype.storm.metric.api.MeanReducer;
+import backtype.storm.metric.api.ReducedMetric;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.tuple.Tuple;
-import org.apache.hadoop.fs.FSDataOutputStream;
+import backtype.storm.utils.TupleUtils;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
-import org.apache.hadoop.hdfs.client.HdfsDataOutputStream.SyncFlag;
+import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.storm.hdfs.bolt.format.FileNameFormat;
 import org.apache.storm.hdfs.bolt.format.RecordFormat;
 import org.apache.storm.hdfs.bolt.rotation.FileRotationPolicy;
 import org.apache.storm.hdfs.bolt.sync.SyncPolicy;
+import org.apache.storm.hdfs.common.HdfsUtils;
+import org.apache.storm.hdfs.common.RecordOutputStream;
 import org.apache.storm.hdfs.common.rotation.RotationAction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URI;
-import java.util.EnumSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * Writes tuples to HDFS as records of a {@link RecordFormat}.
+ *
+ * By default a tuple is acked as soon as it has been written, so tuples written since the last sync may be lost.  With
+ * {@link #withGroupCommit(int, long, int)} tuples are only acked after a sync that covers them.  A sync is performed
+ * when the pending tuples reach a count or a size, when the {@link SyncPolicy} asks for one, and on tick tuples, which
+ * bound how long a tuple waits.
+ *
+ * With {@link #withCompressionCodec(String)} records are compressed in blocks that end at every sync.  Sync and rotation
+ * policies still see the sizes of uncompressed records.
+ */
 public class HdfsBolt extends AbstractHdfsBolt{
     private static final Logger LOG = LoggerFactory.getLogger(HdfsBolt.class);
+    private static final int METRICS_TIME_BUCKET_SECS = 60;
 
-    private transient FSDataOutputStream out;
+    private transient RecordOutputStream out;
+    private String compressionCodec = null;
+    private transient CompressionCodec codec;
     private RecordFormat format;
     private long offset = 0;
 
+    // group commit, on if groupCommitTuples > 0
+    private int groupCommitTuples = 0;
+    private long groupCommitBytes = 0;
+    private int groupCommitIntervalSecs = 0;
+    private transient List<Tuple> pending;
+    private transient long pendingBytes;
+    private transient ReducedMetric groupSizeMetric;
+    private transient ReducedMetric syncLatencyMetric;
+
     public HdfsBolt withFsUrl(String fsUrl){
         this.fsUrl = fsUrl;
         return this;
@@ -80,33 +109,86 @@ public class HdfsBolt extends AbstractHdfsBolt{
         return this;
     }
 
+    /**
+     * Compress records with a Hadoop codec, such as "snappy", "lz4", "deflate", "gzip" or "bzip2".
+     *
+     * @param codec name or class name of the codec
+     */
+    public HdfsBolt withCompressionCodec(String codec){
+        this.compressionCodec = codec;
+        return this;
+    }
+
+    /**
+     * Ack tuples only after they have been synced, syncing once per group of tuples.
+     *
+     * @param maxTuples # of pending tuples that triggers a sync
+     * @param maxBytes size of the records of pending tuples that triggers a sync
+     * @param intervalSecs how often pending tuples are synced at the latest
+     */
+    public HdfsBolt withGroupCommit(int maxTuples, long maxBytes, int intervalSecs){
+        if (maxTuples < 1 || maxBytes < 1 || intervalSecs < 1) {
+            throw new IllegalArgumentException("Group commit thresholds must be positive");
+        }
+        this.groupCommitTuples = maxTuples;
+        this.groupCommitBytes = maxBytes;
+        this.groupCommitIntervalSecs = intervalSecs;
+        return this;
+    }
+
     @Override
     public void doPrepare(Map conf, TopologyContext topologyContext, OutputCollector collector) throws IOException {
         LOG.info("Preparing HDFS Bolt...");
         this.fs = FileSystem.get(URI.create(this.fsUrl), hdfsConfig);
+        if (this.compressionCodec != null) {
+            this.codec = HdfsUtils.getCodec(hdfsConfig, this.compressionCodec);
+        }
+        if (this.groupCommitTuples > 0) {
+            this.pending = new ArrayList<Tuple>();
+            this.pendingBytes = 0;
+            this.groupSizeMetric = topologyContext.registerMetric("hdfsGroupCommitSize", new MeanReducer(), METRICS_TIME_BUCKET_SECS);
+            this.syncLatencyMetric = topologyContext.registerMetric("hdfsSyncLatencyMs", new MeanReducer(), METRICS_TIME_BUCKET_SECS);
+        }
     }
 
     @Override
     public void execute(Tuple tuple) {
+        if (TupleUtils.isTick(tuple)) {
+            if (this.pending != null) {
+                commit();
+            }
+            this.collector.ack(tuple);
+            return;
+        }
         try {
             byte[] bytes = this.format.format(tuple);
+            boolean commit = false;
             synchronized (this.writeLock) {
-                out.write(bytes);
+                this.out.write(bytes);
                 this.offset += bytes.length;
 
-                if (this.syncPolicy.mark(tuple, this.offset)) {
-                    if (this.out instanceof HdfsDataOutputStream) {
-                        ((HdfsDataOutputStream) this.out).hsync(EnumSet.of(SyncFlag.UPDATE_LENGTH));
-                    } else {
-                        this.out.hsync();
-                    }
+                if (this.pending != null) {
+                    this.pending.add(tuple);
+                    this.pendingBytes += bytes.length;
+                    commit = this.syncPolicy.mark(tuple, this.offset)
+                            || this.pending.size() >= this.groupCommitTuples
+                            || this.pendingBytes >= this.groupCommitBytes;
+                } else if (this.syncPolicy.mark(tuple, this.offset)) {
+                    sync();
                     this.syncPolicy.reset();
                 }
             }
 
-            this.collector.ack(tuple);
+            if (this.pending == null) {
+                this.collector.ack(tuple);
+            } else if (commit) {
+                commit();
+            }
 
             if(this.rotationPolicy.mark(tuple, this.offset)){
+                if (this.pending != null) {
+                    commit();
+                }
                 rotateOutputFile(); // synchronized
                 this.offset = 0;
                 this.rotationPolicy.reset();
@@ -117,6 +199,53 @@ public class HdfsBolt extends AbstractHdfsBolt{
         }
     }
 
+    /**
+     * Sync the pending tuples, then ack them, or fail them if the sync failed.
+     */
+    private void commit() {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        boolean synced = false;
+        try {
+            synchronized (this.writeLock) {
+                sync();
+                this.syncPolicy.reset();
+            }
+            synced = true;
+        } catch (IOException e) {
+            this.collector.reportError(e);
+        }
+        if (synced) {
+            this.syncLatencyMetric.update(System.currentTimeMillis() - start);
+            this.groupSizeMetric.update(this.pending.size());
+        }
+        for (Tuple tuple : this.pending) {
+            if (synced) {
+                this.collector.ack(tuple);
+            } else {
+                this.collector.fail(tuple);
+            }
+        }
+        this.pending.clear();
+        this.pendingBytes = 0;
+    }
+
+    private void sync() throws IOException {
+        this.out.hsync();
+    }
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        if (this.groupCommitTuples == 0) {
+            return null;
+        }
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, this.groupCommitIntervalSecs);
+        return conf;
+    }
+
     @Override
     void closeOutputFile() throws IOException {
         this.out.close();
@@ -125,7 +254,7 @@ public class HdfsBolt extends AbstractHdfsBolt{
     @Override
     Path createOutputFile() throws IOException {
         Path path = new Path(this.fileNameFormat.getPath(), this.fileNameFormat.getName(this.rotation, System.currentTimeMillis()));
-        this.out = this.fs.create(path);
+        this.out = new RecordOutputStream(this.fs.create(path), this.codec);
         return path;
     }
 }
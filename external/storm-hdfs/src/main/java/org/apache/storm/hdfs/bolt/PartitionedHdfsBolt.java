@@ -0,0 +1,392 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.hdfs.bolt;
+
+import backtype.storm.Config;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Time;
+import backtype.storm.utils.TupleUtils;
+import backtype.storm.utils.Utils;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.storm.hdfs.bolt.format.FileNameFormat;
+import org.apache.storm.hdfs.bolt.format.RecordFormat;
+import org.apache.storm.hdfs.bolt.partition.Partitioner;
+import org.apache.storm.hdfs.bolt.rotation.FileRotationPolicy;
+import org.apache.storm.hdfs.bolt.sync.SyncPolicy;
+import org.apache.storm.hdfs.common.HdfsUtils;
+import org.apache.storm.hdfs.common.rotation.RotationAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Like the HdfsBolt, but writes each tuple to a file of its partition, as chosen by a {@link Partitioner}.  Files of
+ * a partition go to a directory named by the partition under the path of the file name format.
+ *
+ * Every open partition has its own copy of the sync and rotation policies.  Up to a maximum number of partitions
+ * have an open file; writing to another one closes the file of the least recently written partition.  With
+ * {@link #withMaxIdleSecs(int)} the files of partitions that have not been written for a while are closed as well, on
+ * tick tuples.  Files are
+ * closed, and rotation actions performed, on a background thread.  The next file of a partition is opened ahead on
+ * that thread as well, so a rotation only has to switch files.
+ */
+public class PartitionedHdfsBolt extends AbstractHdfsBolt {
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionedHdfsBolt.class);
+
+    private RecordFormat format;
+    private Partitioner partitioner;
+    private int maxOpenFiles = 10;
+    private int maxIdleSecs = 0;
+    private transient Map<String, PartitionWriter> writers;
+    private transient ExecutorService fileOps;
+
+    public PartitionedHdfsBolt withFsUrl(String fsUrl){
+        this.fsUrl = fsUrl;
+        return this;
+    }
+
+    public PartitionedHdfsBolt withConfigKey(String configKey){
+        this.configKey = configKey;
+        return this;
+    }
+
+    public PartitionedHdfsBolt withFileNameFormat(FileNameFormat fileNameFormat){
+        this.fileNameFormat = fileNameFormat;
+        return this;
+    }
+
+    public PartitionedHdfsBolt withRecordFormat(RecordFormat format){
+        this.format = format;
+        return this;
+    }
+
+    public PartitionedHdfsBolt withSyncPolicy(SyncPolicy syncPolicy){
+        this.syncPolicy = syncPolicy;
+        return this;
+    }
+
+    public PartitionedHdfsBolt withRotationPolicy(FileRotationPolicy rotationPolicy){
+        this.rotationPolicy = rotationPolicy;
+        return this;
+    }
+
+    public PartitionedHdfsBolt addRotationAction(RotationAction action){
+        this.rotationActions.add(action);
+        return this;
+    }
+
+    public PartitionedHdfsBolt withPartitioner(Partitioner partitioner){
+        this.partitioner = partitioner;
+        return this;
+    }
+
+    /**
+     * Overrides the default maximum of 10 partitions with an open file.
+     */
+    public PartitionedHdfsBolt withMaxOpenFiles(int maxOpenFiles){
+        this.maxOpenFiles = maxOpenFiles;
+        return this;
+    }
+
+    /**
+     * Close the file of a partition that has not been written for this long.  Idle partitions are looked for on tick
+     * tuples, which the bolt asks for every maxIdleSecs.
+     */
+    public PartitionedHdfsBolt withMaxIdleSecs(int maxIdleSecs){
+        if (maxIdleSecs < 1) {
+            throw new IllegalArgumentException("Maximum idle time must be positive");
+        }
+        this.maxIdleSecs = maxIdleSecs;
+        return this;
+    }
+
+    @Override
+    void doPrepare(Map conf, TopologyContext topologyContext, OutputCollector collector) throws IOException {
+        LOG.info("Preparing Partitioned HDFS Bolt...");
+        if (this.partitioner == null) throw new IllegalStateException("Partitioner must be specified.");
+        this.fs = FileSystem.get(URI.create(this.fsUrl), hdfsConfig);
+        this.fileOps = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "hdfs-file-ops");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.writers = new LinkedHashMap<String, PartitionWriter>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PartitionWriter> eldest) {
+                if (size() > maxOpenFiles) {
+                    eldest.getValue().close(true);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public void execute(Tuple tuple) {
+        if (TupleUtils.isTick(tuple)) {
+            if (this.maxIdleSecs > 0) {
+                closeIdleFiles();
+            }
+            this.collector.ack(tuple);
+            return;
+        }
+        try {
+            byte[] bytes = this.format.format(tuple);
+            String partition = this.partitioner.getPartitionPath(tuple);
+            synchronized (this.writeLock) {
+                PartitionWriter writer = this.writers.get(partition);
+                if (writer == null) {
+                    writer = new PartitionWriter(partition);
+                    this.writers.put(partition, writer);
+                }
+                writer.write(tuple, bytes);
+            }
+            this.collector.ack(tuple);
+        } catch (IOException e) {
+            this.collector.reportError(e);
+            this.collector.fail(tuple);
+        }
+    }
+
+    private void closeIdleFiles() {
+        long idleSince = Time.currentTimeMillis() - this.maxIdleSecs * 1000L;
+        synchronized (this.writeLock) {
+            // least recently written first
+            Iterator<PartitionWriter> it = this.writers.values().iterator();
+            while (it.hasNext()) {
+                PartitionWriter writer = it.next();
+                if (writer.lastWrite > idleSince) {
+                    break;
+                }
+                LOG.info("Closing the file of idle partition {}.", writer.partition);
+                writer.close(true);
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        if (this.maxIdleSecs == 0) {
+            return null;
+        }
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, this.maxIdleSecs);
+        return conf;
+    }
+
+    /**
+     * Rotates the files of all open partitions, for the TimedRotationPolicy.
+     */
+    @Override
+    protected void rotateOutputFile() throws IOException {
+        synchronized (this.writeLock) {
+            for (PartitionWriter writer : this.writers.values()) {
+                writer.rotate();
+            }
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        try {
+            closeOutputFile();
+        } catch (IOException e) {
+            LOG.warn("Failed to close output files.", e);
+        }
+        this.fileOps.shutdown();
+        try {
+            this.fileOps.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    void closeOutputFile() throws IOException {
+        synchronized (this.writeLock) {
+            for (PartitionWriter writer : this.writers.values()) {
+                writer.close(false);
+            }
+            this.writers.clear();
+        }
+    }
+
+    /**
+     * Files are opened per partition as tuples come in.
+     */
+    @Override
+    Path createOutputFile() throws IOException {
+        return null;
+    }
+
+    // called with the write lock held, so that file numbers are unique
+    private Path nextPath(String partition) {
+        String name = this.fileNameFormat.getName(this.rotation++, System.currentTimeMillis());
+        return new Path(this.fileNameFormat.getPath() + "/" + partition, name);
+    }
+
+    private Future<OpenFile> openInBackground(final Path path) {
+        return this.fileOps.submit(new Callable<OpenFile>() {
+            @Override
+            public OpenFile call() throws IOException {
+                return new OpenFile(path, fs.create(path));
+            }
+        });
+    }
+
+    private static OpenFile await(Future<OpenFile> file) throws IOException {
+        try {
+            return file.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static class OpenFile {
+        final Path path;
+        final FSDataOutputStream out;
+
+        OpenFile(Path path, FSDataOutputStream out) {
+            this.path = path;
+            this.out = out;
+        }
+    }
+
+    // only used with the write lock held
+    private class PartitionWriter {
+        private final String partition;
+        private final FileRotationPolicy partitionRotationPolicy;
+        private final SyncPolicy partitionSyncPolicy;
+        private OpenFile current;
+        private Future<OpenFile> next;
+        private long offset = 0;
+        private long lastWrite = Time.currentTimeMillis();
+
+        PartitionWriter(String partition) throws IOException {
+            this.partition = partition;
+            this.partitionRotationPolicy = Utils.javaDeserialize(Utils.javaSerialize(rotationPolicy), FileRotationPolicy.class);
+            this.partitionSyncPolicy = Utils.javaDeserialize(Utils.javaSerialize(syncPolicy), SyncPolicy.class);
+            Path path = nextPath(partition);
+            this.current = new OpenFile(path, fs.create(path));
+            this.next = openInBackground(nextPath(partition));
+        }
+
+        void write(Tuple tuple, byte[] bytes) throws IOException {
+            this.current.out.write(bytes);
+            this.offset += bytes.length;
+            this.lastWrite = Time.currentTimeMillis();
+
+            if (this.partitionSyncPolicy.mark(tuple, this.offset)) {
+                HdfsUtils.hsync(this.current.out);
+                this.partitionSyncPolicy.reset();
+            }
+            if (this.partitionRotationPolicy.mark(tuple, this.offset)) {
+                rotate();
+            }
+        }
+
+        void rotate() throws IOException {
+            OpenFile opened;
+            try {
+                // only waits if the next file is still being opened
+                opened = await(this.next);
+            } catch (IOException e) {
+                // keep writing to the current file, and try again on the next rotation
+                this.next = openInBackground(nextPath(this.partition));
+                throw e;
+            }
+            OpenFile done = this.current;
+            this.current = opened;
+            this.offset = 0;
+            this.partitionRotationPolicy.reset();
+            this.next = openInBackground(nextPath(this.partition));
+            fileOps.submit(closer(done, true));
+        }
+
+        /**
+         * Close the current file in the background and drop the next one.
+         *
+         * @param rotated whether to perform the rotation actions on the current file
+         */
+        void close(boolean rotated) {
+            fileOps.submit(closer(this.current, rotated));
+            final Future<OpenFile> unused = this.next;
+            fileOps.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        OpenFile file = await(unused);
+                        file.out.close();
+                        fs.delete(file.path, false);
+                    } catch (IOException e) {
+                        LOG.warn("Failed to delete unused file of partition " + partition, e);
+                    }
+                }
+            });
+        }
+    }
+
+    private Runnable closer(final OpenFile file, final boolean rotated) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                try {
+                    file.out.close();
+                    if (rotated) {
+                        LOG.info("Performing {} file rotation actions.", rotationActions.size());
+                        for (RotationAction action : rotationActions) {
+                            action.execute(fs, file.path);
+                        }
+                    }
+                } catch (IOException e) {
+                    LOG.warn("Failed to close " + file.path, e);
+                }
+                LOG.info("Closing {} took {} ms.", file.path, System.currentTimeMillis() - start);
+            }
+        };
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.hdfs.bolt.format;
+
+import backtype.storm.tuple.Tuple;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * Basic <code>AvroFormat</code> implementation that fills every field of a record schema with the tuple field of the
+ * same name.
+ *
+ */
+public class DefaultAvroFormat implements AvroFormat {
+    private String schemaJson;
+    private transient Schema schema;
+
+    /**
+     * @param schemaJson the JSON definition of a record schema
+     */
+    public DefaultAvroFormat(String schemaJson){
+        this.schemaJson = schemaJson;
+    }
+
+    @Override
+    public Schema getSchema() {
+        if(this.schema == null){
+            this.schema = new Schema.Parser().parse(this.schemaJson);
+        }
+        return this.schema;
+    }
+
+    @Override
+    public GenericRecord toRecord(Tuple tuple) {
+        Schema schema = getSchema();
+        GenericRecord record = new GenericData.Record(schema);
+        for(Schema.Field field : schema.getFields()){
+            record.put(field.pos(), tuple.getValueByField(field.name()));
+        }
+        return record;
+    }
+}
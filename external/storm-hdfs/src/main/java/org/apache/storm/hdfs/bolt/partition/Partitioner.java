@@ -0,0 +1,34 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.hdfs.bolt.partition;
+
+import backtype.storm.tuple.Tuple;
+
+import java.io.Serializable;
+
+/**
+ * Interface for choosing the partition, and with it the directory, a tuple is written to by the
+ * PartitionedHdfsBolt.
+ */
+public interface Partitioner extends Serializable {
+    /**
+     * @param tuple The tuple to write.
+     * @return the path of the partition, relative to the path of the file name format
+     */
+    String getPartitionPath(Tuple tuple);
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.hdfs.bolt.partition;
+
+import backtype.storm.tuple.Tuple;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Partitions tuples by time, formatted with a {@link SimpleDateFormat} pattern such as "yyyy/MM/dd/HH".
+ *
+ * The time is the current time unless a field holding a timestamp in milliseconds is given.
+ */
+public class TimePartitioner implements Partitioner {
+    private String pattern;
+    private String timestampField;
+    private String timeZone = "UTC";
+    private transient SimpleDateFormat format;
+
+    public TimePartitioner(String pattern){
+        this.pattern = pattern;
+    }
+
+    public TimePartitioner withTimestampField(String timestampField){
+        this.timestampField = timestampField;
+        return this;
+    }
+
+    public TimePartitioner withTimeZone(String timeZone){
+        this.timeZone = timeZone;
+        return this;
+    }
+
+    @Override
+    public String getPartitionPath(Tuple tuple) {
+        if (this.format == null) {
+            this.format = new SimpleDateFormat(this.pattern);
+            this.format.setTimeZone(TimeZone.getTimeZone(this.timeZone));
+        }
+        long time = this.timestampField == null
+                ? System.currentTimeMillis()
+                : ((Number) tuple.getValueByField(this.timestampField)).longValue();
+        return this.format.format(new Date(time));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.hdfs.common;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+
+/**
+ * Compresses records written to an HDFS file with a Hadoop {@link CompressionCodec}.
+ *
+ * Records are buffered and compressed in blocks.  {@link #hsync()} ends the current block before syncing the file,
+ * so everything synced can be read back with the codec, and the file is a concatenation of compressed blocks.
+ *
+ * Every block is written by a stream of its own, as the codec streams cannot always start a new block after finishing
+ * one: without native zlib, a reset gzip stream does not write the header of the next member.
+ */
+public class BlockCompressedStream {
+    private final FSDataOutputStream out;
+    private final CompressionCodec codec;
+    private final Compressor compressor;
+    // out, but closing a block only flushes it
+    private final FilterOutputStream blockOut;
+    private CompressionOutputStream block;
+
+    public BlockCompressedStream(final FSDataOutputStream out, CompressionCodec codec) throws IOException {
+        this.out = out;
+        this.codec = codec;
+        // null for codecs that do not use a compressor without native code, such as gzip
+        this.compressor = CodecPool.getCompressor(codec);
+        this.blockOut = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.flush();
+            }
+        };
+        this.block = newBlock();
+    }
+
+    private CompressionOutputStream newBlock() throws IOException {
+        if (this.compressor != null) {
+            this.compressor.reset();
+        }
+        return this.codec.createOutputStream(this.blockOut, this.compressor);
+    }
+
+    public void write(byte[] bytes) throws IOException {
+        this.block.write(bytes);
+    }
+
+    public void hsync() throws IOException {
+        // finishes the block and frees what its stream holds, but leaves the pooled compressor to the next block
+        this.block.close();
+        HdfsUtils.hsync(this.out);
+        this.block = newBlock();
+    }
+
+    public void close() throws IOException {
+        try {
+            this.block.close();
+            this.out.close();
+        } finally {
+            CodecPool.returnCompressor(this.compressor);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.hdfs.common;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+
+import java.io.IOException;
+import java.util.EnumSet;
+
+public class HdfsUtils {
+
+    /**
+     * @param name name or class name of the codec, such as "snappy", "lz4", "deflate", "gzip" or "bzip2"
+     * @throws IllegalArgumentException if there is no such codec
+     */
+    public static CompressionCodec getCodec(Configuration hdfsConfig, String name) {
+        CompressionCodec codec = new CompressionCodecFactory(hdfsConfig).getCodecByName(name);
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown compression codec " + name);
+        }
+        return codec;
+    }
+
+    /**
+     * Sync a file, making HDFS update the length it reports for the file so that readers see the synced data.
+     */
+    public static void hsync(FSDataOutputStream out) throws IOException {
+        if (out instanceof HdfsDataOutputStream) {
+            ((HdfsDataOutputStream) out).hsync(EnumSet.of(HdfsDataOutputStream.SyncFlag.UPDATE_LENGTH));
+        } else {
+            out.hsync();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.hdfs.common;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.io.compress.CompressionCodec;
+
+import java.io.IOException;
+
+/**
+ * Writes records to an HDFS file, compressed in blocks by a {@link BlockCompressedStream} if there is a codec.
+ */
+public class RecordOutputStream {
+    private final FSDataOutputStream out;
+    private final BlockCompressedStream compressed;
+
+    /**
+     * @param codec null to write records as they are
+     */
+    public RecordOutputStream(FSDataOutputStream out, CompressionCodec codec) throws IOException {
+        this.out = out;
+        this.compressed = codec == null ? null : new BlockCompressedStream(out, codec);
+    }
+
+    public void write(byte[] bytes) throws IOException {
+        if (this.compressed != null) {
+            this.compressed.write(bytes);
+        } else {
+            this.out.write(bytes);
+        }
+    }
+
+    public void hsync() throws IOException {
+        if (this.compressed != null) {
+            this.compressed.hsync();
+        } else {
+            HdfsUtils.hsync(this.out);
+        }
+    }
+
+    public void close() throws IOException {
+        if (this.compressed != null) {
+            this.compressed.close();
+        } else {
+            this.out.close();
+        }
+    }
+}
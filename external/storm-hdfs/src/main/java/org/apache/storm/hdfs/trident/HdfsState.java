@@ -19,15 +19,22 @@ package org.apache.storm.hdfs.trident;
 
 import backtype.storm.task.IMetricsContext;
 import backtype.storm.topology.FailedException;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
 import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.storm.hdfs.common.HdfsUtils;
+import org.apache.storm.hdfs.common.RecordOutputStream;
 import org.apache.storm.hdfs.common.rotation.RotationAction;
 import org.apache.storm.hdfs.common.security.HdfsSecurityUtil;
+import org.apache.storm.hdfs.trident.format.AvroFormat;
 import org.apache.storm.hdfs.trident.format.FileNameFormat;
 import org.apache.storm.hdfs.trident.format.RecordFormat;
 import org.apache.storm.hdfs.trident.format.SequenceFormat;
@@ -133,9 +140,11 @@ public class HdfsState implements State {
 
     public static class HdfsFileOptions extends Options {
 
-        private transient FSDataOutputStream out;
+        private transient RecordOutputStream out;
         protected RecordFormat format;
         private long offset = 0;
+        private String compressionCodec = null;
+        private transient CompressionCodec codec;
 
         public HdfsFileOptions withFsUrl(String fsUrl){
             this.fsUrl = fsUrl;
@@ -167,10 +176,24 @@ public class HdfsState implements State {
             return this;
         }
 
+        /**
+         * Compress records with a Hadoop codec, such as "snappy", "lz4", "deflate", "gzip" or "bzip2".  Every batch
+         * ends a compressed block.
+         *
+         * @param codec name or class name of the codec
+         */
+        public HdfsFileOptions withCompressionCodec(String codec){
+            this.compressionCodec = codec;
+            return this;
+        }
+
         @Override
         void doPrepare(Map conf, int partitionIndex, int numPartitions) throws IOException {
             LOG.info("Preparing HDFS Bolt...");
             this.fs = FileSystem.get(URI.create(this.fsUrl), hdfsConfig);
+            if (this.compressionCodec != null) {
+                this.codec = HdfsUtils.getCodec(hdfsConfig, this.compressionCodec);
+            }
         }
 
         @Override
@@ -181,7 +204,7 @@ public class HdfsState implements State {
         @Override
         Path createOutputFile() throws IOException {
             Path path = new Path(this.fileNameFormat.getPath(), this.fileNameFormat.getName(this.rotation, System.currentTimeMillis()));
-            this.out = this.fs.create(path);
+            this.out = new RecordOutputStream(this.fs.create(path), this.codec);
             return path;
         }
 
@@ -191,7 +214,7 @@ public class HdfsState implements State {
             synchronized (this.writeLock) {
                 for (TridentTuple tuple : tuples) {
                     byte[] bytes = this.format.format(tuple);
-                    out.write(bytes);
+                    this.out.write(bytes);
                     this.offset += bytes.length;
 
                     if (this.rotationPolicy.mark(tuple, this.offset)) {
@@ -202,12 +225,97 @@ public class HdfsState implements State {
                     }
                 }
                 if (!rotated) {
-                    if (this.out instanceof HdfsDataOutputStream) {
-                        ((HdfsDataOutputStream) this.out).hsync(EnumSet.of(HdfsDataOutputStream.SyncFlag.UPDATE_LENGTH));
-                    } else {
-                        this.out.hsync();
+                    this.out.hsync();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes tuples as records of Avro container files, ending a block with every batch.
+     */
+    public static class AvroFileOptions extends Options {
+        private AvroFormat format;
+        private transient FSDataOutputStream out;
+        private transient DataFileWriter<GenericRecord> writer;
+        private String compressionCodec = "deflate";
+        private transient CodecFactory codecFactory;
+
+        /**
+         * @param codec name of an Avro codec, such as "deflate", "snappy" or "null"
+         */
+        public AvroFileOptions withCompressionCodec(String codec){
+            this.compressionCodec = codec;
+            return this;
+        }
+
+        public AvroFileOptions withFsUrl(String fsUrl) {
+            this.fsUrl = fsUrl;
+            return this;
+        }
+
+        public AvroFileOptions withConfigKey(String configKey){
+            this.configKey = configKey;
+            return this;
+        }
+
+        public AvroFileOptions withFileNameFormat(FileNameFormat fileNameFormat) {
+            this.fileNameFormat = fileNameFormat;
+            return this;
+        }
+
+        public AvroFileOptions withAvroFormat(AvroFormat format) {
+            this.format = format;
+            return this;
+        }
+
+        public AvroFileOptions withRotationPolicy(FileRotationPolicy rotationPolicy) {
+            this.rotationPolicy = rotationPolicy;
+            return this;
+        }
+
+        public AvroFileOptions addRotationAction(RotationAction action){
+            this.rotationActions.add(action);
+            return this;
+        }
+
+        @Override
+        void doPrepare(Map conf, int partitionIndex, int numPartitions) throws IOException {
+            LOG.info("Preparing Avro File State...");
+            if (this.format == null) throw new IllegalStateException("AvroFormat must be specified.");
+
+            this.fs = FileSystem.get(URI.create(this.fsUrl), hdfsConfig);
+            this.codecFactory = CodecFactory.fromString(this.compressionCodec);
+        }
+
+        @Override
+        Path createOutputFile() throws IOException {
+            Path path = new Path(this.fileNameFormat.getPath(), this.fileNameFormat.getName(this.rotation, System.currentTimeMillis()));
+            this.out = this.fs.create(path);
+            this.writer = new DataFileWriter<GenericRecord>(new GenericDatumWriter<GenericRecord>(this.format.getSchema()));
+            this.writer.setCodec(this.codecFactory);
+            this.writer.create(this.format.getSchema(), this.out);
+            return path;
+        }
+
+        @Override
+        void closeOutputFile() throws IOException {
+            this.writer.close();
+        }
+
+        @Override
+        public void execute(List<TridentTuple> tuples) throws IOException {
+            synchronized (this.writeLock) {
+                for (TridentTuple tuple : tuples) {
+                    this.writer.append(this.format.toRecord(tuple));
+
+                    if (this.rotationPolicy.mark(tuple, this.out.getPos())) {
+                        rotateOutputFile();
+                        this.rotationPolicy.reset();
                     }
                 }
+                this.writer.flush();
+                HdfsUtils.hsync(this.out);
             }
         }
     }
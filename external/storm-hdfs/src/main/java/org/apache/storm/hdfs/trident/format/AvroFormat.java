@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.hdfs.trident.format;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import storm.trident.tuple.TridentTuple;
+
+import java.io.Serializable;
+
+/**
+ * Interface for converting <code>TridentTuple</code> objects to records of an Avro container file.
+ *
+ */
+public interface AvroFormat extends Serializable {
+    /**
+     * Schema of the records, written to the header of every file.
+     *
+     * @return
+     */
+    Schema getSchema();
+
+    /**
+     * Given a tuple, return the record that should be written to the file.
+     *
+     * @param tuple
+     * @return
+     */
+    GenericRecord toRecord(TridentTuple tuple);
+}
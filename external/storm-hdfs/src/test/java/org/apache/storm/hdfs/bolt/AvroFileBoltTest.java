@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.hdfs.bolt;
+
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Tuple;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.storm.hdfs.bolt.format.DefaultAvroFormat;
+import org.apache.storm.hdfs.bolt.format.DefaultFileNameFormat;
+import org.apache.storm.hdfs.bolt.rotation.FileSizeRotationPolicy;
+import org.apache.storm.hdfs.bolt.rotation.NoRotationPolicy;
+import org.apache.storm.hdfs.bolt.sync.CountSyncPolicy;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AvroFileBoltTest {
+    private static final String LINE_SCHEMA =
+            "{\"type\": \"record\", \"name\": \"Line\", \"fields\": [{\"name\": \"line\", \"type\": \"string\"}]}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OutputCollector collector;
+
+    @Before
+    public void setUp() {
+        HdfsBoltTest.SyncCountingFileSystem.syncs = 0;
+        HdfsBoltTest.SyncCountingFileSystem.failSyncs = false;
+        collector = mock(OutputCollector.class);
+    }
+
+    @Test
+    public void testRecordsReadBackAfterEverySync() throws IOException {
+        AvroFileBolt bolt = prepare(bolt().withRotationPolicy(new NoRotationPolicy()));
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 6; i++) {
+            Tuple tuple = tuple(String.valueOf(i));
+            bolt.execute(tuple);
+            verify(collector).ack(tuple);
+            expected.add(String.valueOf(i));
+            if (i % 2 == 1) {
+                // a sync ends the current block, so everything synced so far reads back
+                assertEquals(expected, lines(onlyFile()));
+            }
+        }
+        assertEquals(3, HdfsBoltTest.SyncCountingFileSystem.syncs);
+    }
+
+    @Test
+    public void testRotatesOnWrittenBlocks() throws IOException {
+        AvroFileBolt bolt = prepare(bolt().withRotationPolicy(new FileSizeRotationPolicy(1, FileSizeRotationPolicy.Units.KB)));
+        for (int i = 0; i < 1000; i++) {
+            bolt.execute(tuple(String.valueOf(i)));
+        }
+        File[] files = folder.getRoot().listFiles();
+        assertTrue(files.length > 1);
+    }
+
+    private AvroFileBolt bolt() {
+        return new AvroFileBolt()
+                .withFsUrl("file:///")
+                .withConfigKey("hdfs.config")
+                .withFileNameFormat(new DefaultFileNameFormat().withPath(folder.getRoot().getAbsolutePath()))
+                .withAvroFormat(new DefaultAvroFormat(LINE_SCHEMA))
+                .withSyncPolicy(new CountSyncPolicy(2));
+    }
+
+    private AvroFileBolt prepare(AvroFileBolt bolt) {
+        Map<String, Object> hdfsConfig = new HashMap<String, Object>();
+        hdfsConfig.put("fs.file.impl", HdfsBoltTest.SyncCountingFileSystem.class.getName());
+        hdfsConfig.put("fs.file.impl.disable.cache", "true");
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put("hdfs.config", hdfsConfig);
+
+        TopologyContext context = mock(TopologyContext.class);
+        when(context.getThisComponentId()).thenReturn("bolt");
+        when(context.getThisTaskId()).thenReturn(1);
+        bolt.prepare(conf, context, collector);
+        return bolt;
+    }
+
+    private File onlyFile() {
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private static List<String> lines(File file) throws IOException {
+        DataFileReader<GenericRecord> reader = new DataFileReader<GenericRecord>(file, new GenericDatumReader<GenericRecord>());
+        try {
+            List<String> lines = new ArrayList<String>();
+            for (GenericRecord record : reader) {
+                lines.add(record.get("line").toString());
+            }
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Tuple tuple(String value) {
+        Tuple ret = mock(Tuple.class);
+        when(ret.getValueByField("line")).thenReturn(value);
+        return ret;
+    }
+}
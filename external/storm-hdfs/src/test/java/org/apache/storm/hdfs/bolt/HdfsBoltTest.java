@@ -0,0 +1,280 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.hdfs.bolt;
+
+import backtype.storm.Config;
+import backtype.storm.Constants;
+import backtype.storm.metric.api.IReducer;
+import backtype.storm.metric.api.MeanReducer;
+import backtype.storm.metric.api.ReducedMetric;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Tuple;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.fs.Syncable;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.storm.hdfs.bolt.format.DefaultFileNameFormat;
+import org.apache.storm.hdfs.bolt.format.RecordFormat;
+import org.apache.storm.hdfs.bolt.rotation.NoRotationPolicy;
+import org.apache.storm.hdfs.bolt.sync.CountSyncPolicy;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InOrder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HdfsBoltTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OutputCollector collector;
+
+    @Before
+    public void setUp() {
+        SyncCountingFileSystem.syncs = 0;
+        SyncCountingFileSystem.failSyncs = false;
+        collector = mock(OutputCollector.class);
+    }
+
+    @Test
+    public void testGroupCommitAcksAfterSync() throws IOException {
+        HdfsBolt bolt = prepare(bolt().withGroupCommit(3, 1024 * 1024, 60));
+        Tuple first = tuple("1");
+        Tuple second = tuple("2");
+        Tuple third = tuple("3");
+
+        bolt.execute(first);
+        bolt.execute(second);
+        verify(collector, never()).ack(any(Tuple.class));
+        assertEquals(0, SyncCountingFileSystem.syncs);
+
+        bolt.execute(third);
+        assertEquals(1, SyncCountingFileSystem.syncs);
+        InOrder inOrder = inOrder(collector);
+        inOrder.verify(collector).ack(first);
+        inOrder.verify(collector).ack(second);
+        inOrder.verify(collector).ack(third);
+        assertEquals("1\n2\n3\n", contents());
+    }
+
+    @Test
+    public void testGroupCommitFailsGroupWhenSyncFails() {
+        HdfsBolt bolt = prepare(bolt().withGroupCommit(2, 1024 * 1024, 60));
+        SyncCountingFileSystem.failSyncs = true;
+        Tuple first = tuple("1");
+        Tuple second = tuple("2");
+
+        bolt.execute(first);
+        bolt.execute(second);
+
+        verify(collector).reportError(any(IOException.class));
+        verify(collector).fail(first);
+        verify(collector).fail(second);
+        verify(collector, never()).ack(any(Tuple.class));
+    }
+
+    @Test
+    public void testTickCommitsPendingTuples() throws IOException {
+        HdfsBolt bolt = prepare(bolt().withGroupCommit(100, 1024 * 1024, 5));
+        assertEquals(5, bolt.getComponentConfiguration().get(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS));
+        Tuple input = tuple("1");
+        Tuple tick = tick();
+
+        bolt.execute(input);
+        verify(collector, never()).ack(input);
+
+        bolt.execute(tick);
+        assertEquals(1, SyncCountingFileSystem.syncs);
+        verify(collector).ack(input);
+        verify(collector).ack(tick);
+        assertEquals("1\n", contents());
+
+        // nothing pending, nothing to sync
+        bolt.execute(tick);
+        assertEquals(1, SyncCountingFileSystem.syncs);
+    }
+
+    @Test
+    public void testDefaultCodecRoundTripsAcrossSyncs() throws IOException {
+        assertRoundTripsAcrossSyncs(DefaultCodec.class);
+    }
+
+    @Test
+    public void testGzipCodecRoundTripsAcrossSyncs() throws IOException {
+        assertRoundTripsAcrossSyncs(GzipCodec.class);
+    }
+
+    private void assertRoundTripsAcrossSyncs(Class<? extends CompressionCodec> codecClass) throws IOException {
+        HdfsBolt bolt = prepare(bolt().withSyncPolicy(new CountSyncPolicy(2)).withCompressionCodec(codecClass.getName()));
+        CompressionCodec codec = ReflectionUtils.newInstance(codecClass, new Configuration());
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            bolt.execute(tuple(String.valueOf(i)));
+            expected.append(i).append('\n');
+            if (i % 2 == 1) {
+                // everything synced so far reads back, with the blocks of earlier syncs
+                assertEquals(expected.toString(), decompressed(codec));
+            }
+        }
+        assertEquals(3, SyncCountingFileSystem.syncs);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGroupCommitThresholdsMustBePositive() {
+        new HdfsBolt().withGroupCommit(10, 0, 1);
+    }
+
+    private HdfsBolt bolt() {
+        return new HdfsBolt()
+                .withFsUrl("file:///")
+                .withConfigKey("hdfs.config")
+                .withFileNameFormat(new DefaultFileNameFormat().withPath(folder.getRoot().getAbsolutePath()))
+                .withRecordFormat(new LineFormat())
+                .withSyncPolicy(new CountSyncPolicy(1000))
+                .withRotationPolicy(new NoRotationPolicy());
+    }
+
+    private HdfsBolt prepare(HdfsBolt bolt) {
+        Map<String, Object> hdfsConfig = new HashMap<String, Object>();
+        hdfsConfig.put("fs.file.impl", SyncCountingFileSystem.class.getName());
+        hdfsConfig.put("fs.file.impl.disable.cache", "true");
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put("hdfs.config", hdfsConfig);
+
+        TopologyContext context = mock(TopologyContext.class);
+        when(context.getThisComponentId()).thenReturn("bolt");
+        when(context.getThisTaskId()).thenReturn(1);
+        when(context.registerMetric(anyString(), any(IReducer.class), anyInt())).thenReturn(new ReducedMetric(new MeanReducer()));
+        bolt.prepare(conf, context, collector);
+        return bolt;
+    }
+
+    /**
+     * @return what has been written to the only file of the bolt
+     */
+    private String contents() throws IOException {
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+        return FileUtils.readFileToString(files[0]);
+    }
+
+    private String decompressed(CompressionCodec codec) throws IOException {
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+        InputStream in = codec.createInputStream(new FileInputStream(files[0]));
+        try {
+            return IOUtils.toString(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Tuple tuple(String value) {
+        Tuple ret = mock(Tuple.class);
+        when(ret.getString(0)).thenReturn(value);
+        return ret;
+    }
+
+    private static Tuple tick() {
+        Tuple ret = mock(Tuple.class);
+        when(ret.getSourceComponent()).thenReturn(Constants.SYSTEM_COMPONENT_ID);
+        when(ret.getSourceStreamId()).thenReturn(Constants.SYSTEM_TICK_STREAM_ID);
+        return ret;
+    }
+
+    private static class LineFormat implements RecordFormat {
+        @Override
+        public byte[] format(Tuple tuple) {
+            return (tuple.getString(0) + "\n").getBytes();
+        }
+    }
+
+    /**
+     * The local file system, without checksums, counting syncs of its files and failing them on demand.
+     */
+    public static class SyncCountingFileSystem extends RawLocalFileSystem {
+        static volatile int syncs;
+        static volatile boolean failSyncs;
+
+        @Override
+        public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite, int bufferSize,
+                                         short replication, long blockSize, Progressable progress) throws IOException {
+            FSDataOutputStream out = super.create(f, permission, overwrite, bufferSize, replication, blockSize, progress);
+            return new FSDataOutputStream(new SyncableStream(out), statistics);
+        }
+    }
+
+    private static class SyncableStream extends FilterOutputStream implements Syncable {
+        SyncableStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void sync() throws IOException {
+            hsync();
+        }
+
+        @Override
+        public void hflush() throws IOException {
+            flush();
+        }
+
+        @Override
+        public void hsync() throws IOException {
+            if (SyncCountingFileSystem.failSyncs) {
+                throw new IOException("sync failed");
+            }
+            flush();
+            SyncCountingFileSystem.syncs++;
+        }
+    }
+}
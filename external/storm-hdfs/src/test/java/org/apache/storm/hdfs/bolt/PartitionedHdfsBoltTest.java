@@ -0,0 +1,237 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.hdfs.bolt;
+
+import backtype.storm.Constants;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Time;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.storm.hdfs.bolt.format.DefaultFileNameFormat;
+import org.apache.storm.hdfs.bolt.format.RecordFormat;
+import org.apache.storm.hdfs.bolt.partition.Partitioner;
+import org.apache.storm.hdfs.bolt.rotation.FileRotationPolicy;
+import org.apache.storm.hdfs.bolt.rotation.FileSizeRotationPolicy;
+import org.apache.storm.hdfs.bolt.rotation.NoRotationPolicy;
+import org.apache.storm.hdfs.bolt.sync.CountSyncPolicy;
+import org.apache.storm.hdfs.common.rotation.RotationAction;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PartitionedHdfsBoltTest {
+    // paths the rotation actions ran on, in order
+    private static final List<String> rotated = Collections.synchronizedList(new ArrayList<String>());
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OutputCollector collector;
+
+    @Before
+    public void setUp() {
+        rotated.clear();
+        collector = mock(OutputCollector.class);
+    }
+
+    @Test
+    public void testRoutesTuplesToTheirPartition() throws IOException {
+        PartitionedHdfsBolt bolt = prepare(bolt(new NoRotationPolicy()));
+        Tuple first = tuple("a", "1");
+        bolt.execute(first);
+        bolt.execute(tuple("b", "2"));
+        bolt.execute(tuple("a", "3"));
+        bolt.cleanup();
+
+        verify(collector).ack(first);
+        // the file opened ahead for each partition is deleted, as it was never used
+        assertEquals(Arrays.asList("1\n3\n"), contents("a"));
+        assertEquals(Arrays.asList("2\n"), contents("b"));
+        assertEquals(0, rotated.size());
+    }
+
+    @Test
+    public void testRotatesToTheFileOpenedAhead() throws IOException {
+        // rotates after every record
+        PartitionedHdfsBolt bolt = prepare(bolt(new FileSizeRotationPolicy(0.001f, FileSizeRotationPolicy.Units.KB)));
+        bolt.execute(tuple("a", "1"));
+        bolt.execute(tuple("a", "2"));
+        bolt.cleanup();
+
+        // files 0 and 1 were opened with the partition, 2 after the first rotation, 3 after the second
+        assertEquals(Arrays.asList("1\n", "2\n", ""), contents("a"));
+        assertEquals(2, rotated.size());
+        assertEquals(Arrays.asList(0, 1), rotations(rotated));
+    }
+
+    @Test
+    public void testClosesLeastRecentlyWrittenPartition() throws IOException {
+        PartitionedHdfsBolt bolt = prepare(bolt(new NoRotationPolicy()).withMaxOpenFiles(1));
+        bolt.execute(tuple("a", "1"));
+        bolt.execute(tuple("b", "2"));
+        bolt.execute(tuple("b", "3"));
+        bolt.cleanup();
+
+        // closing a full partition performs the rotation actions, cleanup does not
+        assertEquals(1, rotated.size());
+        assertEquals("a", new Path(rotated.get(0)).getParent().getName());
+        assertEquals(Arrays.asList("1\n"), contents("a"));
+        assertEquals(Arrays.asList("2\n3\n"), contents("b"));
+    }
+
+    @Test
+    public void testClosesIdlePartitionsOnTick() throws IOException {
+        Time.startSimulating();
+        try {
+            PartitionedHdfsBolt bolt = prepare(bolt(new NoRotationPolicy()).withMaxIdleSecs(10));
+            bolt.execute(tuple("a", "1"));
+            Time.advanceTime(11000);
+            bolt.execute(tuple("b", "2"));
+            Tuple tick = tick();
+            bolt.execute(tick);
+            verify(collector).ack(tick);
+
+            // writing to an idle partition opens a new file
+            bolt.execute(tuple("a", "3"));
+            bolt.cleanup();
+
+            assertEquals(1, rotated.size());
+            assertEquals("a", new Path(rotated.get(0)).getParent().getName());
+            assertEquals(Arrays.asList("1\n", "3\n"), contents("a"));
+            assertEquals(Arrays.asList("2\n"), contents("b"));
+            verify(collector, never()).fail(tick);
+        } finally {
+            Time.stopSimulating();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxIdleSecsMustBePositive() {
+        new PartitionedHdfsBolt().withMaxIdleSecs(0);
+    }
+
+    private PartitionedHdfsBolt bolt(FileRotationPolicy rotationPolicy) {
+        return new PartitionedHdfsBolt()
+                .withFsUrl("file:///")
+                .withFileNameFormat(new DefaultFileNameFormat().withPath(folder.getRoot().getAbsolutePath()))
+                .withRecordFormat(new LineFormat())
+                .withPartitioner(new FirstFieldPartitioner())
+                .withSyncPolicy(new CountSyncPolicy(1))
+                .withRotationPolicy(rotationPolicy)
+                .addRotationAction(new RecordRotation());
+    }
+
+    private PartitionedHdfsBolt prepare(PartitionedHdfsBolt bolt) {
+        TopologyContext context = mock(TopologyContext.class);
+        when(context.getThisComponentId()).thenReturn("bolt");
+        when(context.getThisTaskId()).thenReturn(1);
+        bolt.prepare(new HashMap(), context, collector);
+        return bolt;
+    }
+
+    /**
+     * @return the contents of the files of a partition, in the order they were opened
+     */
+    private List<String> contents(String partition) throws IOException {
+        List<File> files = new ArrayList<File>();
+        for (File file : new File(folder.getRoot(), partition).listFiles()) {
+            // skip checksums
+            if (!file.getName().startsWith(".")) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return rotation(a.getName()) - rotation(b.getName());
+            }
+        });
+        List<String> ret = new ArrayList<String>();
+        for (File file : files) {
+            ret.add(FileUtils.readFileToString(file));
+        }
+        return ret;
+    }
+
+    private static List<Integer> rotations(List<String> paths) {
+        List<Integer> ret = new ArrayList<Integer>();
+        for (String path : paths) {
+            ret.add(rotation(new Path(path).getName()));
+        }
+        return ret;
+    }
+
+    // names are <component>-<task>-<rotation>-<timestamp>.txt
+    private static int rotation(String name) {
+        return Integer.parseInt(name.split("-")[2]);
+    }
+
+    private static Tuple tuple(String partition, String value) {
+        Tuple ret = mock(Tuple.class);
+        when(ret.getString(0)).thenReturn(partition);
+        when(ret.getString(1)).thenReturn(value);
+        return ret;
+    }
+
+    private static Tuple tick() {
+        Tuple ret = mock(Tuple.class);
+        when(ret.getSourceComponent()).thenReturn(Constants.SYSTEM_COMPONENT_ID);
+        when(ret.getSourceStreamId()).thenReturn(Constants.SYSTEM_TICK_STREAM_ID);
+        return ret;
+    }
+
+    private static class LineFormat implements RecordFormat {
+        @Override
+        public byte[] format(Tuple tuple) {
+            return (tuple.getString(1) + "\n").getBytes();
+        }
+    }
+
+    private static class FirstFieldPartitioner implements Partitioner {
+        @Override
+        public String getPartitionPath(Tuple tuple) {
+            return tuple.getString(0);
+        }
+    }
+
+    private static class RecordRotation implements RotationAction {
+        @Override
+        public void execute(FileSystem fileSystem, Path filePath) {
+            rotated.add(filePath.toString());
+        }
+    }
+}
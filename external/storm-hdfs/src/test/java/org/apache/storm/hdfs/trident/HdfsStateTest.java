@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.hdfs.trident;
+
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.storm.hdfs.trident.format.DefaultAvroFormat;
+import org.apache.storm.hdfs.trident.format.DefaultFileNameFormat;
+import org.apache.storm.hdfs.trident.format.RecordFormat;
+import org.apache.storm.hdfs.trident.rotation.NoRotationPolicy;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import storm.trident.tuple.TridentTuple;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HdfsStateTest {
+    private static final String LINE_SCHEMA =
+            "{\"type\": \"record\", \"name\": \"Line\", \"fields\": [{\"name\": \"line\", \"type\": \"string\"}]}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDefaultCodecRoundTripsAcrossBatches() throws IOException {
+        assertRoundTripsAcrossBatches(DefaultCodec.class);
+    }
+
+    @Test
+    public void testGzipCodecRoundTripsAcrossBatches() throws IOException {
+        assertRoundTripsAcrossBatches(GzipCodec.class);
+    }
+
+    private void assertRoundTripsAcrossBatches(Class<? extends CompressionCodec> codecClass) throws IOException {
+        HdfsState.Options options = new HdfsState.HdfsFileOptions()
+                .withFsUrl("file:///")
+                .withConfigKey("hdfs.config")
+                .withFileNameFormat(new DefaultFileNameFormat().withPath(folder.getRoot().getAbsolutePath()))
+                .withRecordFormat(new LineFormat())
+                .withRotationPolicy(new NoRotationPolicy())
+                .withCompressionCodec(codecClass.getName());
+        HdfsState state = new HdfsState(options);
+        state.prepare(conf(), null, 0, 1);
+        CompressionCodec codec = ReflectionUtils.newInstance(codecClass, new Configuration());
+
+        StringBuilder expected = new StringBuilder();
+        for (int batch = 0; batch < 3; batch++) {
+            List<TridentTuple> tuples = new ArrayList<TridentTuple>();
+            for (int i = 0; i < 2; i++) {
+                String value = batch + "." + i;
+                tuples.add(tuple(value));
+                expected.append(value).append('\n');
+            }
+            // every batch ends with a sync, and a compressed block
+            state.updateState(tuples, null);
+            assertEquals(expected.toString(), decompressed(codec));
+        }
+    }
+
+    @Test
+    public void testAvroFileRoundTripsAcrossBatches() throws IOException {
+        HdfsState.Options options = new HdfsState.AvroFileOptions()
+                .withFsUrl("file:///")
+                .withConfigKey("hdfs.config")
+                .withFileNameFormat(new DefaultFileNameFormat().withPath(folder.getRoot().getAbsolutePath()))
+                .withAvroFormat(new DefaultAvroFormat(LINE_SCHEMA))
+                .withRotationPolicy(new NoRotationPolicy());
+        HdfsState state = new HdfsState(options);
+        state.prepare(conf(), null, 0, 1);
+
+        List<String> expected = new ArrayList<String>();
+        for (int batch = 0; batch < 3; batch++) {
+            List<TridentTuple> tuples = new ArrayList<TridentTuple>();
+            for (int i = 0; i < 2; i++) {
+                String value = batch + "." + i;
+                TridentTuple tuple = mock(TridentTuple.class);
+                when(tuple.getValueByField("line")).thenReturn(value);
+                tuples.add(tuple);
+                expected.add(value);
+            }
+            // every batch ends an Avro block, so the records of all batches so far read back
+            state.updateState(tuples, null);
+            assertEquals(expected, avroLines());
+        }
+    }
+
+    private List<String> avroLines() throws IOException {
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+        DataFileReader<GenericRecord> reader = new DataFileReader<GenericRecord>(files[0], new GenericDatumReader<GenericRecord>());
+        try {
+            List<String> lines = new ArrayList<String>();
+            for (GenericRecord record : reader) {
+                lines.add(record.get("line").toString());
+            }
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return a conf for the raw local file system, where a sync flushes what was written to the file
+     */
+    private static Map conf() {
+        Map<String, Object> hdfsConfig = new HashMap<String, Object>();
+        hdfsConfig.put("fs.file.impl", RawLocalFileSystem.class.getName());
+        hdfsConfig.put("fs.file.impl.disable.cache", "true");
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put("hdfs.config", hdfsConfig);
+        return conf;
+    }
+
+    private String decompressed(CompressionCodec codec) throws IOException {
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+        InputStream in = codec.createInputStream(new FileInputStream(files[0]));
+        try {
+            return IOUtils.toString(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static TridentTuple tuple(String value) {
+        TridentTuple ret = mock(TridentTuple.class);
+        when(ret.getString(0)).thenReturn(value);
+        return ret;
+    }
+
+    private static class LineFormat implements RecordFormat {
+        @Override
+        public byte[] format(TridentTuple tuple) {
+            return (tuple.getString(0) + "\n").getBytes();
+        }
+    }
+}
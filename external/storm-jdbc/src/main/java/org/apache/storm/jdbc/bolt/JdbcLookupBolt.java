@@ -17,18 +17,33 @@
  */
 package org.apache.storm.jdbc.bolt;
 
+import backtype.storm.Config;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.OutputFieldsDeclarer;
 import backtype.storm.tuple.Tuple;
 import backtype.storm.tuple.Values;
+import backtype.storm.utils.TupleUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.storm.jdbc.common.Column;
 import org.apache.storm.jdbc.mapper.JdbcLookupMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Basic bolt for querying from any database.
+ *
+ * With {@link #withBatching(int, int)} tuples are collected and looked up together: tuples with the same query params
+ * share one lookup, and the lookups of a batch run on one connection and prepared statement.  With
+ * {@link #withCache(long, int)} the rows selected for query params are kept for a while and reused.
  */
 public class JdbcLookupBolt extends AbstractJdbcBolt {
     private static final Logger LOG = LoggerFactory.getLogger(JdbcLookupBolt.class);
@@ -37,6 +52,16 @@ public class JdbcLookupBolt extends AbstractJdbcBolt {
 
     private JdbcLookupMapper jdbcLookupMapper;
 
+    // batching, on if batchSize > 0
+    private int batchSize = 0;
+    private int flushIntervalSecs = 1;
+    private transient List<Tuple> pending;
+
+    // cache, on if cacheMaxSize > 0
+    private long cacheMaxSize = 0;
+    private int cacheTtlSecs = 0;
+    private transient Cache<List<Object>, List<List<Column>>> cache;
+
     public JdbcLookupBolt(String configKey, String selectQuery, JdbcLookupMapper jdbcLookupMapper) {
         super(configKey);
         this.selectQuery = selectQuery;
@@ -48,20 +73,82 @@ public class JdbcLookupBolt extends AbstractJdbcBolt {
         return this;
     }
 
+    /**
+     * Look tuples up in batches.
+     *
+     * @param batchSize # of tuples after which the pending tuples are looked up
+     * @param flushIntervalSecs how often pending tuples are looked up at the latest
+     */
+    public JdbcLookupBolt withBatching(int batchSize, int flushIntervalSecs) {
+        if (batchSize < 1 || flushIntervalSecs < 1) {
+            throw new IllegalArgumentException("Batch size and flush interval must be positive");
+        }
+        this.batchSize = batchSize;
+        this.flushIntervalSecs = flushIntervalSecs;
+        return this;
+    }
+
+    /**
+     * Reuse the rows selected for the same query params.
+     *
+     * @param maxSize # of query params for which rows are kept
+     * @param ttlSecs how long rows are kept after they have been selected
+     */
+    public JdbcLookupBolt withCache(long maxSize, int ttlSecs) {
+        if (maxSize < 1 || ttlSecs < 1) {
+            throw new IllegalArgumentException("Cache size and ttl must be positive");
+        }
+        this.cacheMaxSize = maxSize;
+        this.cacheTtlSecs = ttlSecs;
+        return this;
+    }
+
+    @Override
+    public void prepare(Map map, TopologyContext topologyContext, OutputCollector collector) {
+        super.prepare(map, topologyContext, collector);
+        if (this.batchSize > 0) {
+            this.pending = new ArrayList<Tuple>(this.batchSize);
+        }
+        if (this.cacheMaxSize > 0) {
+            this.cache = CacheBuilder.newBuilder()
+                    .maximumSize(this.cacheMaxSize)
+                    .expireAfterWrite(this.cacheTtlSecs, TimeUnit.SECONDS)
+                    .build();
+        }
+    }
+
     @Override
     public void execute(Tuple tuple) {
+        if (this.pending == null) {
+            lookup(tuple);
+            return;
+        }
+        if (TupleUtils.isTick(tuple)) {
+            flush();
+            this.collector.ack(tuple);
+            return;
+        }
+        this.pending.add(tuple);
+        if (this.pending.size() >= this.batchSize) {
+            flush();
+        }
+    }
+
+    private void lookup(Tuple tuple) {
         try {
             List<Column> columns = jdbcLookupMapper.getColumns(tuple);
-            List<List<Column>> result = jdbcClient.select(this.selectQuery, columns);
-
-            if (result != null && result.size() != 0) {
-                for (List<Column> row : result) {
-                    List<Values> values = jdbcLookupMapper.toTuple(tuple, row);
-                    for (Values value : values) {
-                        collector.emit(tuple, value);
-                    }
+            List<List<Column>> result;
+            if (this.cache == null) {
+                result = jdbcClient.select(this.selectQuery, columns);
+            } else {
+                List<Object> key = cacheKey(columns);
+                result = this.cache.getIfPresent(key);
+                if (result == null) {
+                    result = jdbcClient.select(this.selectQuery, columns);
+                    this.cache.put(key, result);
                 }
             }
+            emit(tuple, result);
             this.collector.ack(tuple);
         } catch (Exception e) {
             this.collector.reportError(e);
@@ -69,6 +156,95 @@ public class JdbcLookupBolt extends AbstractJdbcBolt {
         }
     }
 
+    /**
+     * Look up the pending tuples, selecting rows once for each distinct list of query params that is not cached.
+     */
+    private void flush() {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+        Map<List<Object>, List<List<Column>>> results = new HashMap<List<Object>, List<List<Column>>>();
+        List<List<Object>> keys = new ArrayList<List<Object>>(this.pending.size());
+        try {
+            Map<List<Object>, List<Column>> misses = new LinkedHashMap<List<Object>, List<Column>>();
+            for (Tuple tuple : this.pending) {
+                List<Column> columns = jdbcLookupMapper.getColumns(tuple);
+                List<Object> key = cacheKey(columns);
+                keys.add(key);
+                if (results.containsKey(key) || misses.containsKey(key)) {
+                    continue;
+                }
+                List<List<Column>> cached = this.cache == null ? null : this.cache.getIfPresent(key);
+                if (cached != null) {
+                    results.put(key, cached);
+                } else {
+                    misses.put(key, columns);
+                }
+            }
+
+            if (!misses.isEmpty()) {
+                List<List<List<Column>>> selected = jdbcClient.batchSelect(this.selectQuery, new ArrayList<List<Column>>(misses.values()));
+                int i = 0;
+                for (List<Object> key : misses.keySet()) {
+                    List<List<Column>> rows = selected.get(i++);
+                    results.put(key, rows);
+                    if (this.cache != null) {
+                        this.cache.put(key, rows);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            this.collector.reportError(e);
+            for (Tuple tuple : this.pending) {
+                this.collector.fail(tuple);
+            }
+            this.pending.clear();
+            return;
+        }
+
+        for (int i = 0; i < this.pending.size(); i++) {
+            Tuple tuple = this.pending.get(i);
+            try {
+                emit(tuple, results.get(keys.get(i)));
+                this.collector.ack(tuple);
+            } catch (Exception e) {
+                this.collector.reportError(e);
+                this.collector.fail(tuple);
+            }
+        }
+        this.pending.clear();
+    }
+
+    private void emit(Tuple tuple, List<List<Column>> result) {
+        if (result != null && result.size() != 0) {
+            for (List<Column> row : result) {
+                List<Values> values = jdbcLookupMapper.toTuple(tuple, row);
+                for (Values value : values) {
+                    collector.emit(tuple, value);
+                }
+            }
+        }
+    }
+
+    // Column does not allow null values in equals and hashCode, so compare the values only
+    private static List<Object> cacheKey(List<Column> columns) {
+        List<Object> key = new ArrayList<Object>(columns.size());
+        for (Column column : columns) {
+            key.add(column.getVal());
+        }
+        return key;
+    }
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        if (this.batchSize == 0) {
+            return null;
+        }
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, this.flushIntervalSecs);
+        return conf;
+    }
+
     @Override
     public void declareOutputFields(OutputFieldsDeclarer outputFieldsDeclarer) {
         jdbcLookupMapper.declareOutputFields(outputFieldsDeclarer);
@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.jdbc.bolt;
+
+import backtype.storm.Constants;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.storm.jdbc.common.Column;
+import org.apache.storm.jdbc.common.JdbcClient;
+import org.apache.storm.jdbc.mapper.SimpleJdbcLookupMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class JdbcLookupBoltTest {
+    private static final String selectQuery = "select user_name from user_details where id = ?";
+
+    private Map hikariConfigMap;
+    private JdbcClient client;
+    private OutputCollector collector;
+
+    @Before
+    public void setup() {
+        hikariConfigMap = Maps.newHashMap();
+        hikariConfigMap.put("dataSourceClassName", "org.hsqldb.jdbc.JDBCDataSource");
+        hikariConfigMap.put("dataSource.url", "jdbc:hsqldb:mem:lookup");
+        hikariConfigMap.put("dataSource.user", "SA");
+        hikariConfigMap.put("dataSource.password", "");
+
+        client = new JdbcClient(hikariConfigMap, 60);
+        client.executeSql("create table user_details (id integer, user_name varchar(100))");
+        client.executeSql("insert into user_details values (1, 'bob')");
+        client.executeSql("insert into user_details values (2, 'alice')");
+
+        collector = mock(OutputCollector.class);
+    }
+
+    @Test
+    public void testBatchLooksUpEqualParamsOnce() {
+        JdbcLookupBolt bolt = prepare(new JdbcLookupBolt("jdbc.conf", selectQuery, mapper()).withBatching(3, 1));
+        Tuple first = tuple(1);
+        Tuple second = tuple(2);
+        Tuple third = tuple(1);
+
+        bolt.execute(first);
+        bolt.execute(second);
+        verifyZeroInteractions(collector);
+        verify(bolt.jdbcClient, never()).batchSelect(anyString(), anyList());
+
+        bolt.execute(third);
+        ArgumentCaptor<List> params = ArgumentCaptor.forClass(List.class);
+        verify(bolt.jdbcClient).batchSelect(anyString(), params.capture());
+        Assert.assertEquals(2, params.getValue().size());
+        verify(collector).emit(first, new Values("bob"));
+        verify(collector).emit(second, new Values("alice"));
+        verify(collector).emit(third, new Values("bob"));
+        verify(collector).ack(first);
+        verify(collector).ack(second);
+        verify(collector).ack(third);
+    }
+
+    @Test
+    public void testTickFlushesPendingTuples() {
+        JdbcLookupBolt bolt = prepare(new JdbcLookupBolt("jdbc.conf", selectQuery, mapper()).withBatching(10, 1));
+        Tuple input = tuple(2);
+        Tuple tick = mock(Tuple.class);
+        when(tick.getSourceComponent()).thenReturn(Constants.SYSTEM_COMPONENT_ID);
+        when(tick.getSourceStreamId()).thenReturn(Constants.SYSTEM_TICK_STREAM_ID);
+
+        bolt.execute(input);
+        verifyZeroInteractions(collector);
+
+        bolt.execute(tick);
+        verify(collector).emit(input, new Values("alice"));
+        verify(collector).ack(input);
+        verify(collector).ack(tick);
+    }
+
+    @Test
+    public void testCachedRowsAreReused() {
+        JdbcLookupBolt bolt = prepare(new JdbcLookupBolt("jdbc.conf", selectQuery, mapper())
+                .withBatching(1, 1)
+                .withCache(100, 60));
+        Tuple first = tuple(1);
+        bolt.execute(first);
+        verify(collector).emit(first, new Values("bob"));
+
+        // a hit does not go to the database, so it still finds the deleted row
+        client.executeSql("delete from user_details where id = 1");
+        Tuple hit = tuple(1);
+        bolt.execute(hit);
+        verify(collector).emit(hit, new Values("bob"));
+        verify(bolt.jdbcClient, times(1)).batchSelect(anyString(), anyList());
+
+        Tuple miss = tuple(2);
+        bolt.execute(miss);
+        verify(collector).emit(miss, new Values("alice"));
+        verify(bolt.jdbcClient, times(2)).batchSelect(anyString(), anyList());
+
+        verify(collector).ack(first);
+        verify(collector).ack(hit);
+        verify(collector).ack(miss);
+    }
+
+    @Test
+    public void testFailsWholeBatchWhenSelectFails() {
+        JdbcLookupBolt bolt = prepare(new JdbcLookupBolt("jdbc.conf", selectQuery, mapper()).withBatching(2, 1));
+        RuntimeException error = new RuntimeException("Failed to execute select query " + selectQuery);
+        doThrow(error).when(bolt.jdbcClient).batchSelect(anyString(), anyList());
+        Tuple first = tuple(1);
+        Tuple second = tuple(2);
+
+        bolt.execute(first);
+        bolt.execute(second);
+        verify(collector).reportError(error);
+        verify(collector).fail(first);
+        verify(collector).fail(second);
+        verify(collector, never()).ack(any(Tuple.class));
+        verify(collector, never()).emit(any(Tuple.class), anyList());
+    }
+
+    private JdbcLookupBolt prepare(JdbcLookupBolt bolt) {
+        Map conf = Maps.newHashMap();
+        conf.put("jdbc.conf", hikariConfigMap);
+        bolt.withQueryTimeoutSecs(60).prepare(conf, null, collector);
+        bolt.jdbcClient = spy(bolt.jdbcClient);
+        return bolt;
+    }
+
+    private SimpleJdbcLookupMapper mapper() {
+        return new SimpleJdbcLookupMapper(new Fields("user_name"), Lists.newArrayList(new Column("id", Types.INTEGER)));
+    }
+
+    private Tuple tuple(int id) {
+        Tuple tuple = mock(Tuple.class);
+        when(tuple.getIntegerByField("id")).thenReturn(id);
+        return tuple;
+    }
+
+    @After
+    public void cleanup() {
+        client.executeSql("drop table user_details");
+    }
+}
@@ -79,6 +79,24 @@ public class JdbcClientTest {
         Assert.assertEquals(rows, selectedRows);
     }
 
+    @Test
+    public void testBatchSelect() {
+        List<Column> row1 = createRow(1, "bob");
+        List<Column> row2 = createRow(2, "alice");
+        client.insert(tableName, Lists.newArrayList(row1, row2));
+
+        List<List<Column>> params = Lists.newArrayList();
+        params.add(Lists.<Column>newArrayList(new Column("id", 2, Types.INTEGER)));
+        params.add(Lists.<Column>newArrayList(new Column("id", 3, Types.INTEGER)));
+        params.add(Lists.<Column>newArrayList(new Column("id", 1, Types.INTEGER)));
+        List<List<List<Column>>> selected = client.batchSelect("select * from user_details where id = ?", params);
+
+        Assert.assertEquals(3, selected.size());
+        Assert.assertEquals(Lists.newArrayList(row2), selected.get(0));
+        Assert.assertEquals(Lists.newArrayList(), selected.get(1));
+        Assert.assertEquals(Lists.newArrayList(row1), selected.get(2));
+    }
+
     private List<Column> createRow(int id, String name) {
         return Lists.newArrayList(
                 new Column("ID", id, Types.INTEGER),
@@ -44,10 +44,16 @@ public class DynamicPartitionConnections {
     Map<Broker, ConnectionInfo> _connections = new HashMap();
     KafkaConfig _config;
     IBrokerReader _reader;
+    KafkaPrefetcher _prefetcher;
 
     public DynamicPartitionConnections(KafkaConfig config, IBrokerReader brokerReader) {
+        this(config, brokerReader, null);
+    }
+
+    public DynamicPartitionConnections(KafkaConfig config, IBrokerReader brokerReader, KafkaPrefetcher prefetcher) {
         _config = config;
         _reader = brokerReader;
+        _prefetcher = prefetcher;
     }
 
     public SimpleConsumer register(Partition partition) {
@@ -72,6 +78,13 @@ public class DynamicPartitionConnections {
         return null;
     }
 
+    /**
+     * @return the prefetcher of the partitions that use these connections, or null if they are fetched on demand
+     */
+    public KafkaPrefetcher getPrefetcher() {
+        return _prefetcher;
+    }
+
     public void unregister(Broker port, int partition) {
         ConnectionInfo info = _connections.get(port);
         info.partitions.remove(partition);
@@ -0,0 +1,264 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package storm.kafka;
+
+import kafka.api.FetchRequestBuilder;
+import kafka.javaapi.FetchResponse;
+import kafka.javaapi.consumer.SimpleConsumer;
+import kafka.javaapi.message.ByteBufferMessageSet;
+import kafka.message.MessageAndOffset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fetches new messages of the partitions of a spout task ahead of the spout, on a background thread, see
+ * {@link SpoutConfig#prefetch}.
+ *
+ * Partitions on the same broker are fetched with one request.  A partition is fetched while fewer than
+ * {@link SpoutConfig#prefetchMaxFetches} of its message sets are waiting to be polled, so at most that many times
+ * {@link KafkaConfig#fetchSizeBytes} is buffered per partition.  A failed fetch is handed to the spout by
+ * {@link #poll}, and the partition is not fetched again until then.
+ */
+public class KafkaPrefetcher {
+    public static final Logger LOG = LoggerFactory.getLogger(KafkaPrefetcher.class);
+
+    // how long to wait when there is nothing to fetch, or nothing new was fetched
+    static final long IDLE_WAIT_MS = 10;
+
+    private final SpoutConfig _config;
+    private final Map<Partition, Buffer> _buffers = new ConcurrentHashMap<Partition, Buffer>();
+    private final Object _wakeup = new Object();
+    private boolean _wokenUp = false;
+    private volatile boolean _running = true;
+    private final Thread _thread;
+
+    public KafkaPrefetcher(SpoutConfig config) {
+        _config = config;
+        _thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                fetchLoop();
+            }
+        }, "kafka-prefetcher-" + config.topic);
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    /**
+     * Start fetching partition from offset, dropping what has been fetched for it so far.
+     */
+    public void register(Partition partition, SimpleConsumer consumer, long offset) {
+        _buffers.put(partition, new Buffer(consumer, offset, _config.prefetchMaxFetches));
+        wakeup();
+    }
+
+    public void unregister(Partition partition) {
+        _buffers.remove(partition);
+    }
+
+    /**
+     * @param offset where the spout continues reading the partition
+     * @return the next messages fetched for partition, or null if none have been fetched from offset yet
+     * @throws TopicOffsetOutOfRangeException if offset is out of range
+     * @throws FailedFetchException if the fetch failed
+     */
+    public ByteBufferMessageSet poll(Partition partition, long offset) throws TopicOffsetOutOfRangeException, FailedFetchException {
+        Buffer buffer = _buffers.get(partition);
+        Fetch fetch = buffer.fetched.poll();
+        if (fetch == null) {
+            return null;
+        }
+        if (fetch.offset != offset || fetch.error != null) {
+            // the spout moved to another offset, or has to handle the error; either way fetching starts over
+            register(partition, buffer.consumer, offset);
+            if (fetch.offset == offset) {
+                throw fetch.error;
+            }
+            return null;
+        }
+        wakeup();
+        return fetch.messages;
+    }
+
+    /**
+     * @return # of message sets fetched for partition that wait to be polled
+     */
+    public int bufferedFetches(Partition partition) {
+        Buffer buffer = _buffers.get(partition);
+        return buffer == null ? 0 : buffer.fetched.size();
+    }
+
+    public long bufferedBytes(Partition partition) {
+        Buffer buffer = _buffers.get(partition);
+        long ret = 0;
+        if (buffer != null) {
+            for (Fetch fetch : buffer.fetched) {
+                ret += fetch.bytes;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the offset the next fetch of partition starts from
+     */
+    public long fetchOffset(Partition partition) {
+        return _buffers.get(partition).nextOffset;
+    }
+
+    public void close() {
+        _running = false;
+        _thread.interrupt();
+    }
+
+    private void fetchLoop() {
+        try {
+            while (_running) {
+                Map<SimpleConsumer, Map<Partition, Buffer>> due = new HashMap<SimpleConsumer, Map<Partition, Buffer>>();
+                for (Map.Entry<Partition, Buffer> e : _buffers.entrySet()) {
+                    Buffer buffer = e.getValue();
+                    if (buffer.isDue()) {
+                        Map<Partition, Buffer> ofBroker = due.get(buffer.consumer);
+                        if (ofBroker == null) {
+                            ofBroker = new HashMap<Partition, Buffer>();
+                            due.put(buffer.consumer, ofBroker);
+                        }
+                        ofBroker.put(e.getKey(), buffer);
+                    }
+                }
+                int fetched = 0;
+                for (Map.Entry<SimpleConsumer, Map<Partition, Buffer>> e : due.entrySet()) {
+                    fetched += fetch(e.getKey(), e.getValue());
+                }
+                if (fetched == 0) {
+                    idle();
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (Throwable t) {
+            LOG.error("Kafka prefetcher for topic " + _config.topic + " died", t);
+        }
+    }
+
+    /**
+     * @return # of messages fetched
+     */
+    private int fetch(SimpleConsumer consumer, Map<Partition, Buffer> partitions) {
+        FetchRequestBuilder builder = new FetchRequestBuilder();
+        for (Map.Entry<Partition, Buffer> e : partitions.entrySet()) {
+            builder.addFetch(_config.topic, e.getKey().partition, e.getValue().nextOffset, _config.fetchSizeBytes);
+        }
+        FetchResponse fetchResponse;
+        try {
+            fetchResponse = KafkaUtils.fetch(consumer, builder.clientId(_config.clientId).maxWait(_config.fetchMaxWait).build());
+        } catch (RuntimeException e) {
+            for (Buffer buffer : partitions.values()) {
+                buffer.failed(e);
+            }
+            return 0;
+        }
+        int ret = 0;
+        for (Map.Entry<Partition, Buffer> e : partitions.entrySet()) {
+            Buffer buffer = e.getValue();
+            try {
+                ret += buffer.fetched(KafkaUtils.messagesFor(_config, fetchResponse, e.getKey(), buffer.nextOffset));
+            } catch (RuntimeException ex) {
+                buffer.failed(ex);
+            }
+        }
+        return ret;
+    }
+
+    private void wakeup() {
+        synchronized (_wakeup) {
+            _wokenUp = true;
+            _wakeup.notify();
+        }
+    }
+
+    private void idle() throws InterruptedException {
+        synchronized (_wakeup) {
+            if (!_wokenUp) {
+                _wakeup.wait(IDLE_WAIT_MS);
+            }
+            _wokenUp = false;
+        }
+    }
+
+    private static class Fetch {
+        final long offset;
+        final ByteBufferMessageSet messages;
+        final int bytes;
+        final RuntimeException error;
+
+        Fetch(long offset, ByteBufferMessageSet messages, RuntimeException error) {
+            this.offset = offset;
+            this.messages = messages;
+            this.bytes = messages == null ? 0 : messages.validBytes();
+            this.error = error;
+        }
+    }
+
+    // only the fetcher thread adds fetches and moves nextOffset; a buffer is replaced rather than reset
+    private static class Buffer {
+        final SimpleConsumer consumer;
+        final ArrayBlockingQueue<Fetch> fetched;
+        volatile long nextOffset;
+        volatile boolean failed = false;
+
+        Buffer(SimpleConsumer consumer, long offset, int maxFetches) {
+            this.consumer = consumer;
+            this.fetched = new ArrayBlockingQueue<Fetch>(maxFetches);
+            this.nextOffset = offset;
+        }
+
+        boolean isDue() {
+            return !failed && fetched.remainingCapacity() > 0;
+        }
+
+        /**
+         * @return # of messages from nextOffset on
+         */
+        int fetched(ByteBufferMessageSet msgs) {
+            long offset = nextOffset;
+            long next = offset;
+            int count = 0;
+            for (MessageAndOffset msg : msgs) {
+                if (msg.offset() >= offset) {
+                    next = Math.max(next, msg.nextOffset());
+                    count++;
+                }
+            }
+            if (count > 0) {
+                fetched.offer(new Fetch(offset, msgs, null));
+                nextOffset = next;
+            }
+            return count;
+        }
+
+        void failed(RuntimeException e) {
+            failed = true;
+            fetched.offer(new Fetch(nextOffset, null, e));
+        }
+    }
+}
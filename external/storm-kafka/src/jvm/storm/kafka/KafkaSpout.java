@@ -56,6 +56,7 @@ public class KafkaSpout extends BaseRichSpout {
     SpoutOutputCollector _collector;
     PartitionCoordinator _coordinator;
     DynamicPartitionConnections _connections;
+    KafkaPrefetcher _prefetcher;
     ZkState _state;
 
     long _lastUpdateMs = 0;
@@ -84,7 +85,10 @@ public class KafkaSpout extends BaseRichSpout {
         stateConf.put(Config.TRANSACTIONAL_ZOOKEEPER_ROOT, _spoutConfig.zkRoot);
         _state = new ZkState(stateConf);
 
-        _connections = new DynamicPartitionConnections(_spoutConfig, KafkaUtils.makeBrokerReader(conf, _spoutConfig));
+        if (_spoutConfig.prefetch) {
+            _prefetcher = new KafkaPrefetcher(_spoutConfig);
+        }
+        _connections = new DynamicPartitionConnections(_spoutConfig, KafkaUtils.makeBrokerReader(conf, _spoutConfig), _prefetcher);
 
         // using TransactionalState like this is a hack
         int totalTasks = context.getComponentTasks(context.getThisComponentId()).size();
@@ -127,6 +131,9 @@ public class KafkaSpout extends BaseRichSpout {
 
     @Override
     public void close() {
+        if (_prefetcher != null) {
+            _prefetcher.close();
+        }
         _state.close();
     }
 
@@ -18,11 +18,13 @@
 package storm.kafka;
 
 import backtype.storm.metric.api.IMetric;
+import backtype.storm.spout.ByteBufferMultiScheme;
 import backtype.storm.utils.Utils;
 import com.google.common.base.Preconditions;
 import kafka.api.FetchRequest;
 import kafka.api.FetchRequestBuilder;
 import kafka.api.PartitionOffsetRequestInfo;
+import kafka.common.ErrorMapping;
 import kafka.common.TopicAndPartition;
 import kafka.javaapi.FetchResponse;
 import kafka.javaapi.OffsetRequest;
@@ -154,15 +156,20 @@ public class KafkaUtils {
 
     public static ByteBufferMessageSet fetchMessages(KafkaConfig config, SimpleConsumer consumer, Partition partition, long offset)
             throws TopicOffsetOutOfRangeException, FailedFetchException,RuntimeException {
-        ByteBufferMessageSet msgs = null;
         String topic = config.topic;
         int partitionId = partition.partition;
         FetchRequestBuilder builder = new FetchRequestBuilder();
         FetchRequest fetchRequest = builder.addFetch(topic, partitionId, offset, config.fetchSizeBytes).
                 clientId(config.clientId).maxWait(config.fetchMaxWait).build();
-        FetchResponse fetchResponse;
+        return messagesFor(config, fetch(consumer, fetchRequest), partition, offset);
+    }
+
+    /**
+     * Send a fetch request, which may cover several partitions of the broker.
+     */
+    public static FetchResponse fetch(SimpleConsumer consumer, FetchRequest fetchRequest) throws FailedFetchException, RuntimeException {
         try {
-            fetchResponse = consumer.fetch(fetchRequest);
+            return consumer.fetch(fetchRequest);
         } catch (Exception e) {
             if (e instanceof ConnectException ||
                     e instanceof SocketTimeoutException ||
@@ -175,8 +182,18 @@ public class KafkaUtils {
                 throw new RuntimeException(e);
             }
         }
-        if (fetchResponse.hasError()) {
-            KafkaError error = KafkaError.getError(fetchResponse.errorCode(topic, partitionId));
+    }
+
+    /**
+     * @return the messages fetched for partition, which were requested from offset
+     */
+    public static ByteBufferMessageSet messagesFor(KafkaConfig config, FetchResponse fetchResponse, Partition partition, long offset)
+            throws TopicOffsetOutOfRangeException, FailedFetchException {
+        String topic = config.topic;
+        int partitionId = partition.partition;
+        short errorCode = fetchResponse.errorCode(topic, partitionId);
+        if (errorCode != ErrorMapping.NoError()) {
+            KafkaError error = KafkaError.getError(errorCode);
             if (error.equals(KafkaError.OFFSET_OUT_OF_RANGE) && config.useStartOffsetTimeIfOffsetOutOfRange) {
                 String msg = "Got fetch request with offset out of range: [" + offset + "]";
                 LOG.warn(msg);
@@ -186,10 +203,8 @@ public class KafkaUtils {
                 LOG.error(message);
                 throw new FailedFetchException(message);
             }
-        } else {
-            msgs = fetchResponse.messageSet(topic, partitionId);
         }
-        return msgs;
+        return fetchResponse.messageSet(topic, partitionId);
     }
 
 
@@ -201,7 +216,10 @@ public class KafkaUtils {
         }
         ByteBuffer key = msg.key();
         if (key != null && kafkaConfig.scheme instanceof KeyValueSchemeAsMultiScheme) {
-            tups = ((KeyValueSchemeAsMultiScheme) kafkaConfig.scheme).deserializeKeyAndValue(Utils.toByteArray(key), Utils.toByteArray(payload));
+            tups = ((KeyValueSchemeAsMultiScheme) kafkaConfig.scheme).deserializeKeyAndValue(key, payload);
+        } else if (kafkaConfig.scheme instanceof ByteBufferMultiScheme) {
+            // payload is a view of the fetched message set, so schemes that can read it as is do not copy it
+            tups = ((ByteBufferMultiScheme) kafkaConfig.scheme).deserialize(payload);
         } else {
             tups = kafkaConfig.scheme.deserialize(Utils.toByteArray(payload));
         }
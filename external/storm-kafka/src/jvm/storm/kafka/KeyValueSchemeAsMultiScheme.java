@@ -18,7 +18,9 @@
 package storm.kafka;
 
 import backtype.storm.spout.SchemeAsMultiScheme;
+import backtype.storm.utils.Utils;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 
@@ -34,4 +36,15 @@ public class KeyValueSchemeAsMultiScheme extends SchemeAsMultiScheme{
         else return Arrays.asList(o);
     }
 
+    /**
+     * Copies key and value into byte[]s unless the scheme is a {@link ByteBufferKeyValueScheme}.
+     */
+    public Iterable<List<Object>> deserializeKeyAndValue(final ByteBuffer key, final ByteBuffer value) {
+        List<Object> o = scheme instanceof ByteBufferKeyValueScheme
+                ? ((ByteBufferKeyValueScheme) scheme).deserializeKeyAndValue(key, value)
+                : ((KeyValueScheme) scheme).deserializeKeyAndValue(Utils.toByteArray(key), Utils.toByteArray(value));
+        if(o == null) return null;
+        else return Arrays.asList(o);
+    }
+
 }
@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package storm.kafka;
+
+import java.util.NoSuchElementException;
+
+/**
+ * The offsets of a partition that have been emitted but not acked yet, kept as bits relative to the lowest of them.
+ *
+ * Takes one bit per offset between the lowest pending and the highest pending offset, in a ring of words that only
+ * grows when that range does, so tracking offsets does not allocate.  {@link #first()} is O(1), and removing the
+ * lowest offset skips the words it leaves empty, which is O(1) amortized.  This class is not thread-safe.
+ */
+public class OffsetTracker {
+    static final int MIN_WORDS = 16;
+    static final int MAX_WORDS = 1 << 30;
+
+    // a ring of words, its length is a power of two; words outside the span are always zero
+    private long[] _words = new long[MIN_WORDS];
+    private int _head = 0;
+    private int _span = 0;
+    // the offset of the lowest bit of the head word, a multiple of 64
+    private long _base = 0;
+    private int _size = 0;
+
+    public void add(long offset) {
+        if (_size == 0) {
+            _base = offset & ~63L;
+            _span = 0;
+        }
+        cover(offset);
+        int i = index(offset);
+        long bit = 1L << (offset & 63);
+        if ((_words[i] & bit) == 0) {
+            _words[i] |= bit;
+            _size++;
+        }
+    }
+
+    public void remove(long offset) {
+        if (!covers(offset)) {
+            return;
+        }
+        int i = index(offset);
+        long bit = 1L << (offset & 63);
+        if ((_words[i] & bit) != 0) {
+            _words[i] &= ~bit;
+            _size--;
+            if (i == _head) {
+                trim();
+            }
+        }
+    }
+
+    /**
+     * Remove every offset lower than offset.
+     */
+    public void clearBelow(long offset) {
+        while (_size > 0 && _base + 64 <= offset) {
+            _size -= Long.bitCount(_words[_head]);
+            dropHead();
+        }
+        if (_size > 0 && offset > _base) {
+            long below = (1L << (offset - _base)) - 1;
+            _size -= Long.bitCount(_words[_head] & below);
+            _words[_head] &= ~below;
+        }
+        trim();
+    }
+
+    /**
+     * @return the lowest offset
+     * @throws NoSuchElementException if there are no offsets
+     */
+    public long first() {
+        if (_size == 0) {
+            throw new NoSuchElementException();
+        }
+        return _base + Long.numberOfTrailingZeros(_words[_head]);
+    }
+
+    public boolean contains(long offset) {
+        return covers(offset) && (_words[index(offset)] & (1L << (offset & 63))) != 0;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public boolean isEmpty() {
+        return _size == 0;
+    }
+
+    private boolean covers(long offset) {
+        return offset >= _base && offset - _base < ((long) _span << 6);
+    }
+
+    private int index(long offset) {
+        return (_head + (int) ((offset - _base) >>> 6)) & (_words.length - 1);
+    }
+
+    // make the span reach offset, growing the ring if it is too small
+    private void cover(long offset) {
+        long low = Math.min(_base, offset & ~63L);
+        long high = Math.max(_base + ((long) _span << 6), (offset & ~63L) + 64);
+        long words = (high - low) >>> 6;
+        if (words > MAX_WORDS) {
+            throw new IllegalArgumentException("Cannot track offset " + offset + " together with offset " + first());
+        }
+        int shift = (int) ((_base - low) >>> 6);
+        if (words > _words.length) {
+            long[] grown = new long[Integer.highestOneBit((int) words - 1) << 1];
+            for (int w = 0; w < _span; w++) {
+                grown[shift + w] = _words[(_head + w) & (_words.length - 1)];
+            }
+            _words = grown;
+            _head = 0;
+        } else {
+            _head = (_head - shift) & (_words.length - 1);
+        }
+        _base = low;
+        _span = (int) words;
+    }
+
+    // drop the empty words at the start of the span
+    private void trim() {
+        if (_size == 0) {
+            // every bit has been cleared already
+            _span = 0;
+            return;
+        }
+        while (_words[_head] == 0) {
+            dropHead();
+        }
+    }
+
+    private void dropHead() {
+        _words[_head] = 0;
+        _head = (_head + 1) & (_words.length - 1);
+        _base += 64;
+        _span--;
+    }
+}
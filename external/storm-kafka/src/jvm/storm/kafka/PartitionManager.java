@@ -43,18 +43,19 @@ public class PartitionManager {
     private final CountMetric _fetchAPICallCount;
     private final CountMetric _fetchAPIMessageCount;
     Long _emittedToOffset;
-    // _pending key = Kafka offset, value = time at which the message was first submitted to the topology
-    private SortedMap<Long,Long> _pending = new TreeMap<Long,Long>();
+    // the Kafka offsets that have been submitted to the topology and not acked yet
+    private final OffsetTracker _pending = new OffsetTracker();
     private final FailedMsgRetryManager _failedMsgRetryManager;
 
     // retryRecords key = Kafka offset, value = retry info for the given message
     Long _committedTo;
-    LinkedList<MessageAndRealOffset> _waitingToEmit = new LinkedList<MessageAndRealOffset>();
+    ArrayDeque<MessageAndRealOffset> _waitingToEmit = new ArrayDeque<MessageAndRealOffset>();
     Partition _partition;
     SpoutConfig _spoutConfig;
     String _topologyInstanceId;
     SimpleConsumer _consumer;
     DynamicPartitionConnections _connections;
+    KafkaPrefetcher _prefetcher;
     ZkState _state;
     Map _stormConf;
     long numberFailed, numberAcked;
@@ -109,6 +110,10 @@ public class PartitionManager {
 
         LOG.info("Starting Kafka " + _consumer.host() + ":" + id.partition + " from offset " + _committedTo);
         _emittedToOffset = _committedTo;
+        _prefetcher = connections.getPrefetcher();
+        if (_prefetcher != null) {
+            _prefetcher.register(_partition, _consumer, _emittedToOffset);
+        }
 
         _fetchAPILatencyMax = new CombinedMetric(new MaxMetric());
         _fetchAPILatencyMean = new ReducedMetric(new MeanReducer());
@@ -122,6 +127,11 @@ public class PartitionManager {
         ret.put(_partition + "/fetchAPILatencyMean", _fetchAPILatencyMean.getValueAndReset());
         ret.put(_partition + "/fetchAPICallCount", _fetchAPICallCount.getValueAndReset());
         ret.put(_partition + "/fetchAPIMessageCount", _fetchAPIMessageCount.getValueAndReset());
+        if (_prefetcher != null) {
+            ret.put(_partition + "/prefetchBufferedFetches", _prefetcher.bufferedFetches(_partition));
+            ret.put(_partition + "/prefetchBufferedBytes", _prefetcher.bufferedBytes(_partition));
+            ret.put(_partition + "/prefetchAheadOffsets", _prefetcher.fetchOffset(_partition) - _emittedToOffset);
+        }
         return ret;
     }
 
@@ -164,20 +174,28 @@ public class PartitionManager {
             offset = _emittedToOffset;
         }
 
+        // new messages may have been prefetched, failed ones are always fetched here
+        final boolean prefetched = processingNewTuples && _prefetcher != null;
         ByteBufferMessageSet msgs = null;
         try {
-            msgs = KafkaUtils.fetchMessages(_spoutConfig, _consumer, _partition, offset);
+            if (prefetched) {
+                msgs = _prefetcher.poll(_partition, offset);
+            } else {
+                msgs = KafkaUtils.fetchMessages(_spoutConfig, _consumer, _partition, offset);
+            }
         } catch (TopicOffsetOutOfRangeException e) {
             _emittedToOffset = KafkaUtils.getOffset(_consumer, _spoutConfig.topic, _partition.partition, kafka.api.OffsetRequest.EarliestTime());
             LOG.warn("Using new offset: {}", _emittedToOffset);
             // fetch failed, so don't update the metrics
             return;
         }
-        long end = System.nanoTime();
-        long millis = (end - start) / 1000000;
-        _fetchAPILatencyMax.update(millis);
-        _fetchAPILatencyMean.update(millis);
-        _fetchAPICallCount.incr();
+        if (!prefetched) {
+            long end = System.nanoTime();
+            long millis = (end - start) / 1000000;
+            _fetchAPILatencyMax.update(millis);
+            _fetchAPILatencyMean.update(millis);
+            _fetchAPICallCount.incr();
+        }
         if (msgs != null) {
             int numMessages = 0;
 
@@ -189,9 +207,7 @@ public class PartitionManager {
                 }
                 if (processingNewTuples || this._failedMsgRetryManager.shouldRetryMsg(cur_offset)) {
                     numMessages += 1;
-                    if (!_pending.containsKey(cur_offset)) {
-                        _pending.put(cur_offset, System.currentTimeMillis());
-                    }
+                    _pending.add(cur_offset);
                     _waitingToEmit.add(new MessageAndRealOffset(msg.message(), cur_offset));
                     _emittedToOffset = Math.max(msg.nextOffset(), _emittedToOffset);
                     if (_failedMsgRetryManager.shouldRetryMsg(cur_offset)) {
@@ -204,9 +220,9 @@ public class PartitionManager {
     }
 
     public void ack(Long offset) {
-        if (!_pending.isEmpty() && _pending.firstKey() < offset - _spoutConfig.maxOffsetBehind) {
+        if (!_pending.isEmpty() && _pending.first() < offset - _spoutConfig.maxOffsetBehind) {
             // Too many things pending!
-            _pending.headMap(offset - _spoutConfig.maxOffsetBehind).clear();
+            _pending.clearBelow(offset - _spoutConfig.maxOffsetBehind);
         }
         _pending.remove(offset);
         this._failedMsgRetryManager.acked(offset);
@@ -260,7 +276,7 @@ public class PartitionManager {
         if (_pending.isEmpty()) {
             return _emittedToOffset;
         } else {
-            return _pending.firstKey();
+            return _pending.first();
         }
     }
 
@@ -269,6 +285,9 @@ public class PartitionManager {
     }
 
     public void close() {
+        if (_prefetcher != null) {
+            _prefetcher.unregister(_partition);
+        }
         _connections.unregister(_partition.host, _partition.partition);
     }
 
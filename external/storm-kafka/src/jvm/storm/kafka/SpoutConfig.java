@@ -36,6 +36,11 @@ public class SpoutConfig extends KafkaConfig implements Serializable {
     public double retryDelayMultiplier = 1.0;
     public long retryDelayMaxMs = 60 * 1000;
 
+    // Prefetch settings.  With prefetch on, a background thread fetches new messages ahead of the spout, with one
+    // fetch request per broker, and keeps up to prefetchMaxFetches fetched message sets per partition in memory.
+    public boolean prefetch = false;
+    public int prefetchMaxFetches = 2;
+
     public SpoutConfig(BrokerHosts hosts, String topic, String zkRoot, String id) {
         super(hosts, topic);
         this.zkRoot = zkRoot;
@@ -20,9 +20,10 @@ package storm.kafka;
 import backtype.storm.tuple.Values;
 import com.google.common.collect.ImmutableMap;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
-public class StringKeyValueScheme extends StringScheme implements KeyValueScheme {
+public class StringKeyValueScheme extends StringScheme implements ByteBufferKeyValueScheme {
 
     @Override
     public List<Object> deserializeKeyAndValue(byte[] key, byte[] value) {
@@ -34,4 +35,14 @@ public class StringKeyValueScheme extends StringScheme implements KeyValueScheme
         return new Values(ImmutableMap.of(keyString, valueString));
     }
 
+    @Override
+    public List<Object> deserializeKeyAndValue(ByteBuffer key, ByteBuffer value) {
+        if ( key == null ) {
+            return deserialize(value);
+        }
+        String keyString = StringScheme.deserializeString(key);
+        String valueString = StringScheme.deserializeString(value);
+        return new Values(ImmutableMap.of(keyString, valueString));
+    }
+
 }
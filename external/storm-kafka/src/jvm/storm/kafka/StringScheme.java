@@ -17,14 +17,17 @@
  */
 package storm.kafka;
 
-import backtype.storm.spout.Scheme;
+import backtype.storm.spout.ByteBufferScheme;
 import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Values;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.List;
 
-public class StringScheme implements Scheme {
+public class StringScheme implements ByteBufferScheme {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
 
     public static final String STRING_SCHEME_KEY = "str";
 
@@ -32,6 +35,18 @@ public class StringScheme implements Scheme {
         return new Values(deserializeString(bytes));
     }
 
+    public List<Object> deserialize(ByteBuffer bytes) {
+        return new Values(deserializeString(bytes));
+    }
+
+    public static String deserializeString(ByteBuffer string) {
+        if (string.hasArray()) {
+            int start = string.arrayOffset() + string.position();
+            return new String(string.array(), start, string.remaining(), UTF8);
+        }
+        return UTF8.decode(string).toString();
+    }
+
     public static String deserializeString(byte[] string) {
         try {
             return new String(string, "UTF-8");
@@ -17,6 +17,7 @@
  */
 package storm.kafka.bolt;
 
+import backtype.storm.Config;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.OutputFieldsDeclarer;
@@ -33,8 +34,17 @@ import storm.kafka.bolt.mapper.TupleToKafkaMapper;
 import storm.kafka.bolt.selector.DefaultTopicSelector;
 import storm.kafka.bolt.selector.KafkaTopicSelector;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -45,6 +55,12 @@ import java.util.Properties;
  * 'kafka.broker.properties' and 'topic'
  * <p/>
  * respectively.
+ * <p/>
+ * By default every tuple is sent on its own and acked once the producer returns.  In async mode, see
+ * {@link #withAsync(boolean)}, tuples are collected into batches that a background thread sends with a synchronous
+ * producer, and each tuple is acked or failed once its batch has been sent.  A batch is sent as soon as the previous
+ * one is done, or when it holds the batch size.  Once the keys and messages of the unacked tuples reach the max
+ * in-flight bytes the bolt waits for sends to complete before it takes the next tuple.
  */
 public class KafkaBolt<K, V> extends BaseRichBolt {
 
@@ -58,6 +74,16 @@ public class KafkaBolt<K, V> extends BaseRichBolt {
     private TupleToKafkaMapper<K,V> mapper;
     private KafkaTopicSelector topicSelector;
 
+    private boolean async = false;
+    private int batchSize = 500;
+    private long maxInFlightBytes = 16 * 1024 * 1024;
+    private int flushIntervalSecs = 1;
+    private ExecutorService sender;
+    private AtomicInteger sendingBatches;
+    private LinkedBlockingQueue<Batch<K, V>> sentBatches;
+    private Batch<K, V> batch;
+    private long inFlightBytes;
+
     public KafkaBolt<K,V> withTupleToKafkaMapper(TupleToKafkaMapper<K,V> mapper) {
         this.mapper = mapper;
         return this;
@@ -68,6 +94,37 @@ public class KafkaBolt<K, V> extends BaseRichBolt {
         return this;
     }
 
+    public KafkaBolt<K,V> withAsync(boolean async) {
+        this.async = async;
+        return this;
+    }
+
+    /**
+     * @param batchSize # of tuples after which a batch is sent, in async mode
+     */
+    public KafkaBolt<K,V> withBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param maxInFlightBytes size of the keys and messages of unacked tuples at which the bolt stops taking tuples, in
+     *                         async mode.  byte[], ByteBuffer and String keys and messages count by their length, keys
+     *                         and messages of other types as one byte.
+     */
+    public KafkaBolt<K,V> withMaxInFlightBytes(long maxInFlightBytes) {
+        this.maxInFlightBytes = maxInFlightBytes;
+        return this;
+    }
+
+    /**
+     * @param flushIntervalSecs how often a batch that waits for the previous one is sent anyway, in async mode
+     */
+    public KafkaBolt<K,V> withFlushIntervalSecs(int flushIntervalSecs) {
+        this.flushIntervalSecs = flushIntervalSecs;
+        return this;
+    }
+
     @Override
     public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
         //for backward compatibility.
@@ -83,6 +140,18 @@ public class KafkaBolt<K, V> extends BaseRichBolt {
         Map configMap = (Map) stormConf.get(KAFKA_BROKER_PROPERTIES);
         Properties properties = new Properties();
         properties.putAll(configMap);
+        if (async) {
+            // the bolt sends in the background itself, and must only ack what the broker has received
+            if ("async".equals(properties.getProperty("producer.type"))) {
+                LOG.warn("Using a sync producer, as KafkaBolt sends asynchronously itself");
+            }
+            properties.setProperty("producer.type", "sync");
+            sender = Executors.newSingleThreadExecutor();
+            sendingBatches = new AtomicInteger(0);
+            sentBatches = new LinkedBlockingQueue<Batch<K, V>>();
+            batch = new Batch<K, V>();
+            inFlightBytes = 0;
+        }
         ProducerConfig config = new ProducerConfig(properties);
         producer = new Producer<K, V>(config);
         this.collector = collector;
@@ -90,7 +159,13 @@ public class KafkaBolt<K, V> extends BaseRichBolt {
 
     @Override
     public void execute(Tuple input) {
+        if (async) {
+            ackSent();
+        }
         if (TupleUtils.isTick(input)) {
+          if (async) {
+              send();
+          }
           collector.ack(input);
           return; // Do not try to send ticks to Kafka
         }
@@ -103,6 +178,10 @@ public class KafkaBolt<K, V> extends BaseRichBolt {
             message = mapper.getMessageFromTuple(input);
             topic = topicSelector.getTopic(input);
             if(topic != null ) {
+                if (async) {
+                    add(input, new KeyedMessage<K, V>(topic, key, message));
+                    return;
+                }
                 producer.send(new KeyedMessage<K, V>(topic, key, message));
             } else {
                 LOG.warn("skipping key = " + key + ", topic selector returned null.");
@@ -114,8 +193,118 @@ public class KafkaBolt<K, V> extends BaseRichBolt {
         }
     }
 
+    private void add(Tuple input, KeyedMessage<K, V> message) {
+        long bytes = sizeOf(message.key()) + sizeOf(message.message());
+        while (inFlightBytes > 0 && inFlightBytes + bytes > maxInFlightBytes) {
+            send();
+            try {
+                acked(sentBatches.take());
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        batch.add(input, message, bytes);
+        inFlightBytes += bytes;
+        if (batch.tuples.size() >= batchSize || sendingBatches.get() == 0) {
+            send();
+        }
+    }
+
+    private void send() {
+        if (batch.tuples.isEmpty()) {
+            return;
+        }
+        final Batch<K, V> toSend = batch;
+        batch = new Batch<K, V>();
+        sendingBatches.incrementAndGet();
+        sender.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    producer.send(toSend.messages);
+                } catch (Exception ex) {
+                    toSend.error = ex;
+                }
+                sendingBatches.decrementAndGet();
+                sentBatches.add(toSend);
+            }
+        });
+    }
+
+    // the output collector may only be used from the executor thread, so sent batches are acked here
+    private void ackSent() {
+        Batch<K, V> sent;
+        while ((sent = sentBatches.poll()) != null) {
+            acked(sent);
+        }
+    }
+
+    private void acked(Batch<K, V> sent) {
+        inFlightBytes -= sent.bytes;
+        if (sent.error != null) {
+            collector.reportError(sent.error);
+            for (Tuple input : sent.tuples) {
+                collector.fail(input);
+            }
+        } else {
+            for (Tuple input : sent.tuples) {
+                collector.ack(input);
+            }
+        }
+    }
+
+    private static long sizeOf(Object o) {
+        if (o instanceof byte[]) {
+            return ((byte[]) o).length;
+        } else if (o instanceof ByteBuffer) {
+            return ((ByteBuffer) o).remaining();
+        } else if (o instanceof String) {
+            return ((String) o).length();
+        }
+        return o == null ? 0 : 1;
+    }
+
+    @Override
+    public void cleanup() {
+        if (async) {
+            send();
+            sender.shutdown();
+            try {
+                sender.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ackSent();
+        }
+        producer.close();
+    }
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        if (!async) {
+            return null;
+        }
+        // ticks send batches that wait and ack sent ones while no tuples come in
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, flushIntervalSecs);
+        return conf;
+    }
+
     @Override
     public void declareOutputFields(OutputFieldsDeclarer declarer) {
 
     }
+
+    private static class Batch<K, V> {
+        final List<Tuple> tuples = new ArrayList<Tuple>();
+        final List<KeyedMessage<K, V>> messages = new ArrayList<KeyedMessage<K, V>>();
+        long bytes = 0;
+        volatile Exception error;
+
+        void add(Tuple input, KeyedMessage<K, V> message, long bytes) {
+            tuples.add(input);
+            messages.add(message);
+            this.bytes += bytes;
+        }
+    }
 }
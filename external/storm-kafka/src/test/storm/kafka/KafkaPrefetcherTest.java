@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package storm.kafka;
+
+import backtype.storm.utils.Utils;
+import kafka.javaapi.consumer.SimpleConsumer;
+import kafka.javaapi.message.ByteBufferMessageSet;
+import kafka.javaapi.producer.Producer;
+import kafka.message.MessageAndOffset;
+import kafka.producer.KeyedMessage;
+import kafka.producer.ProducerConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import storm.kafka.trident.GlobalPartitionInformation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class KafkaPrefetcherTest {
+
+    private KafkaTestBroker broker;
+    private SimpleConsumer simpleConsumer;
+    private SpoutConfig config;
+    private Partition partition;
+    private KafkaPrefetcher prefetcher;
+
+    @Before
+    public void setup() {
+        broker = new KafkaTestBroker();
+        GlobalPartitionInformation globalPartitionInformation = new GlobalPartitionInformation();
+        globalPartitionInformation.addPartition(0, Broker.fromString(broker.getBrokerConnectionString()));
+        config = new SpoutConfig(new StaticHosts(globalPartitionInformation), "testTopic", "/test", "test");
+        config.prefetch = true;
+        partition = new Partition(Broker.fromString(broker.getBrokerConnectionString()), 0);
+        simpleConsumer = new SimpleConsumer("localhost", broker.getPort(), 60000, 1024, "testClient");
+        prefetcher = new KafkaPrefetcher(config);
+    }
+
+    @After
+    public void shutdown() {
+        prefetcher.close();
+        simpleConsumer.close();
+        broker.shutdown();
+    }
+
+    @Test
+    public void pollReturnsMessagesInOrder() throws Exception {
+        sendMessages("a", "b", "c");
+        prefetcher.register(partition, simpleConsumer, 0);
+
+        List<String> values = new ArrayList<String>();
+        long offset = 0;
+        while (values.size() < 3) {
+            ByteBufferMessageSet msgs = pollUntilFetched(offset);
+            for (MessageAndOffset msg : msgs) {
+                values.add(new String(Utils.toByteArray(msg.message().payload())));
+                offset = msg.nextOffset();
+            }
+        }
+        assertEquals(Arrays.asList("a", "b", "c"), values);
+        assertEquals(3, prefetcher.fetchOffset(partition));
+    }
+
+    @Test
+    public void pollFromAnotherOffsetRestartsFetching() throws Exception {
+        sendMessages("a", "b", "c");
+        prefetcher.register(partition, simpleConsumer, 0);
+        while (prefetcher.bufferedFetches(partition) == 0) {
+            Thread.sleep(10);
+        }
+
+        assertNull(prefetcher.poll(partition, 2));
+        ByteBufferMessageSet msgs = pollUntilFetched(2);
+        assertEquals(2, msgs.iterator().next().offset());
+    }
+
+    @Test(expected = TopicOffsetOutOfRangeException.class)
+    public void pollThrowsFetchErrors() throws Exception {
+        sendMessages("a");
+        prefetcher.register(partition, simpleConsumer, 99);
+        pollUntilFetched(99);
+    }
+
+    private ByteBufferMessageSet pollUntilFetched(long offset) throws InterruptedException {
+        ByteBufferMessageSet msgs;
+        while ((msgs = prefetcher.poll(partition, offset)) == null) {
+            Thread.sleep(10);
+        }
+        return msgs;
+    }
+
+    private void sendMessages(String... values) {
+        Properties p = new Properties();
+        p.setProperty("metadata.broker.list", broker.getBrokerConnectionString());
+        p.setProperty("serializer.class", "kafka.serializer.StringEncoder");
+        Producer<String, String> producer = new Producer<String, String>(new ProducerConfig(p));
+        for (String value : values) {
+            producer.send(new KeyedMessage<String, String>(config.topic, value));
+        }
+        producer.close();
+    }
+}
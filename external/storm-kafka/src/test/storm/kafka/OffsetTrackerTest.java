@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package storm.kafka;
+
+import org.junit.Test;
+
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OffsetTrackerTest {
+
+    @Test
+    public void firstIsTheLowestPendingOffset() {
+        OffsetTracker tracker = new OffsetTracker();
+        for (long offset = 1000; offset < 1200; offset++) {
+            tracker.add(offset);
+        }
+        assertEquals(1000, tracker.first());
+        tracker.remove(1001);
+        assertEquals(1000, tracker.first());
+        for (long offset = 1000; offset < 1150; offset++) {
+            tracker.remove(offset);
+        }
+        assertEquals(1150, tracker.first());
+        assertEquals(50, tracker.size());
+        assertFalse(tracker.contains(1149));
+        assertTrue(tracker.contains(1150));
+    }
+
+    @Test
+    public void offsetsCanBeAddedBelowTheFirst() {
+        OffsetTracker tracker = new OffsetTracker();
+        tracker.add(5000);
+        tracker.add(10);
+        tracker.add(100000);
+        assertEquals(10, tracker.first());
+        tracker.remove(10);
+        assertEquals(5000, tracker.first());
+        tracker.remove(5000);
+        assertEquals(100000, tracker.first());
+        tracker.remove(100000);
+        assertTrue(tracker.isEmpty());
+    }
+
+    @Test
+    public void clearBelowRemovesLowerOffsets() {
+        OffsetTracker tracker = new OffsetTracker();
+        for (long offset = 0; offset < 300; offset += 3) {
+            tracker.add(offset);
+        }
+        tracker.clearBelow(200);
+        assertEquals(201, tracker.first());
+        assertEquals(33, tracker.size());
+        tracker.clearBelow(1000);
+        assertTrue(tracker.isEmpty());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void firstOfEmptyTrackerThrows() {
+        new OffsetTracker().first();
+    }
+
+    @Test
+    public void matchesSortedSet() {
+        Random random = new Random(42);
+        OffsetTracker tracker = new OffsetTracker();
+        TreeSet<Long> expected = new TreeSet<Long>();
+        long next = 0;
+        for (int i = 0; i < 100000; i++) {
+            int op = random.nextInt(10);
+            if (op < 5) {
+                next += 1 + random.nextInt(3);
+                tracker.add(next);
+                expected.add(next);
+            } else if (op < 9 && !expected.isEmpty()) {
+                // acks mostly arrive for the oldest offsets
+                long offset = expected.first() + random.nextInt(200);
+                tracker.remove(offset);
+                expected.remove(offset);
+            } else if (!expected.isEmpty()) {
+                long offset = expected.first() + random.nextInt(100);
+                tracker.clearBelow(offset);
+                expected.headSet(offset).clear();
+            }
+            assertEquals(expected.size(), tracker.size());
+            if (!expected.isEmpty()) {
+                assertEquals((long) expected.first(), tracker.first());
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ import backtype.storm.tuple.Fields;
 import com.google.common.collect.ImmutableMap;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
@@ -52,4 +53,25 @@ public class StringKeyValueSchemeTest {
         assertEquals(Arrays.asList(ImmutableMap.of("key", "test")),
                 scheme.deserializeKeyAndValue("key".getBytes(), "test".getBytes()));
     }
+
+    @Test
+    public void testDeserializeFromBufferSlice() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap("xkeytestx".getBytes());
+        buffer.position(1);
+        ByteBuffer key = buffer.slice();
+        key.limit(3);
+        buffer.position(4);
+        ByteBuffer value = buffer.slice();
+        value.limit(4);
+        assertEquals(Arrays.asList(ImmutableMap.of("key", "test")), scheme.deserializeKeyAndValue(key, value));
+        assertEquals(Arrays.asList("test"), scheme.deserialize(value));
+    }
+
+    @Test
+    public void testDeserializeFromDirectBuffer() throws Exception {
+        ByteBuffer value = ByteBuffer.allocateDirect(4);
+        value.put("test".getBytes());
+        value.flip();
+        assertEquals(Arrays.asList("test"), scheme.deserialize(value));
+    }
 }
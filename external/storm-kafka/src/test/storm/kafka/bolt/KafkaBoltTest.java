@@ -134,6 +134,40 @@ public class KafkaBoltTest {
         return bolt;
     }
 
+    @Test
+    public void executeAsyncAcksOnceSent() throws Exception {
+        bolt = generateAsyncBolt();
+        Tuple first = generateTestTuple("key-1", "value-1");
+        Tuple second = generateTestTuple("key-2", "value-2");
+        bolt.execute(first);
+        bolt.execute(second);
+        bolt.cleanup();
+        verify(collector).ack(first);
+        verify(collector).ack(second);
+        verifyMessage("key-2", "value-2");
+    }
+
+    @Test
+    public void executeAsyncWithBrokerDown() throws Exception {
+        bolt = generateAsyncBolt();
+        broker.shutdown();
+        Tuple tuple = generateTestTuple("value-234");
+        bolt.execute(tuple);
+        bolt.cleanup();
+        verify(collector).fail(tuple);
+    }
+
+    private KafkaBolt generateAsyncBolt() {
+        KafkaBolt bolt = new KafkaBolt().withAsync(true).withBatchSize(10);
+        Properties props = new Properties();
+        props.put("metadata.broker.list", broker.getBrokerConnectionString());
+        props.put("request.required.acks", "1");
+        props.put("serializer.class", "kafka.serializer.StringEncoder");
+        config.put(KafkaBolt.KAFKA_BROKER_PROPERTIES, props);
+        bolt.prepare(config, null, new OutputCollector(collector));
+        return bolt;
+    }
+
     private KafkaBolt generateDefaultSerializerBolt() {
         KafkaBolt bolt = new KafkaBolt();
         Properties props = new Properties();
@@ -0,0 +1,226 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.redis.bolt;
+
+import backtype.storm.Config;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.TupleUtils;
+import org.apache.storm.redis.common.config.JedisClusterConfig;
+import org.apache.storm.redis.common.config.JedisPoolConfig;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisCommands;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.util.JedisClusterCRC16;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class for bolts that send the commands of many tuples to Redis at once.
+ *
+ * Tuples are collected until the batch size is reached or a tick tuple arrives, then they are processed together and
+ * acked, or all failed if processing fails.  With a single Redis server the commands of a batch are sent through one
+ * pipeline.  With a cluster the tuples are grouped by the node that serves the slot of their key, and the commands of
+ * each group are sent through a pipeline to that node.  The nodes of the slots are read with CLUSTER SLOTS, and read
+ * again after a batch failed, as the slots may have moved.
+ */
+public abstract class AbstractRedisBatchBolt extends AbstractRedisBolt {
+    private static final int CLUSTER_SLOTS = 16384;
+
+    protected int batchSize = 100;
+    protected int flushIntervalSecs = 1;
+
+    private transient List<Tuple> pending;
+    // "host:port" of the node serving each cluster slot, as the nodes of JedisCluster are named
+    private transient String[] slotNodes;
+
+    public AbstractRedisBatchBolt(JedisPoolConfig config) {
+        super(config);
+    }
+
+    public AbstractRedisBatchBolt(JedisClusterConfig config) {
+        super(config);
+    }
+
+    protected void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive, not " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    protected void setFlushIntervalSecs(int flushIntervalSecs) {
+        if (flushIntervalSecs <= 0) {
+            throw new IllegalArgumentException("Flush interval must be positive, not " + flushIntervalSecs);
+        }
+        this.flushIntervalSecs = flushIntervalSecs;
+    }
+
+    @Override
+    public void prepare(Map map, TopologyContext topologyContext, OutputCollector collector) {
+        super.prepare(map, topologyContext, collector);
+        this.pending = new ArrayList<Tuple>(this.batchSize);
+    }
+
+    @Override
+    public void execute(Tuple input) {
+        if (TupleUtils.isTick(input)) {
+            flush();
+            collector.ack(input);
+            return;
+        }
+        this.pending.add(input);
+        if (this.pending.size() >= this.batchSize) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+        JedisCommands jedisCommand = null;
+        try {
+            jedisCommand = getInstance();
+            if (jedisCommand instanceof Jedis) {
+                processPipelined(((Jedis) jedisCommand).pipelined(), this.pending);
+            } else if (jedisCommand instanceof JedisCluster) {
+                processPipelinedPerNode((JedisCluster) jedisCommand, this.pending);
+            } else {
+                process(jedisCommand, this.pending);
+            }
+            for (Tuple input : this.pending) {
+                collector.ack(input);
+            }
+        } catch (Exception e) {
+            if (jedisCommand instanceof Jedis) {
+                // drop replies of the pipeline that were not read; the connection is reopened on its next use
+                ((Jedis) jedisCommand).disconnect();
+            }
+            this.slotNodes = null;
+            this.collector.reportError(e);
+            for (Tuple input : this.pending) {
+                collector.fail(input);
+            }
+        } finally {
+            returnInstance(jedisCommand);
+            this.pending.clear();
+        }
+    }
+
+    private void processPipelinedPerNode(JedisCluster cluster, List<Tuple> inputs) {
+        Map<String, JedisPool> nodes = cluster.getClusterNodes();
+        if (this.slotNodes == null) {
+            this.slotNodes = readSlotNodes(nodes.values());
+        }
+        Map<String, List<Tuple>> inputsPerNode = new HashMap<String, List<Tuple>>();
+        for (Tuple input : inputs) {
+            String node = this.slotNodes[JedisClusterCRC16.getSlot(getRedisKey(input))];
+            List<Tuple> nodeInputs = inputsPerNode.get(node);
+            if (nodeInputs == null) {
+                nodeInputs = new ArrayList<Tuple>();
+                inputsPerNode.put(node, nodeInputs);
+            }
+            nodeInputs.add(input);
+        }
+
+        for (Map.Entry<String, List<Tuple>> entry : inputsPerNode.entrySet()) {
+            JedisPool pool = entry.getKey() == null ? null : nodes.get(entry.getKey());
+            if (pool == null) {
+                // a slot without a known node, the cluster client finds it
+                process(cluster, entry.getValue());
+                continue;
+            }
+            Jedis jedis = pool.getResource();
+            try {
+                processPipelined(jedis.pipelined(), entry.getValue());
+            } catch (RuntimeException e) {
+                jedis.disconnect();
+                throw e;
+            } finally {
+                jedis.close();
+            }
+        }
+    }
+
+    private static String[] readSlotNodes(Collection<JedisPool> pools) {
+        JedisConnectionException lastError = null;
+        for (JedisPool pool : pools) {
+            Jedis jedis = null;
+            try {
+                jedis = pool.getResource();
+                return slotNodes(jedis.clusterSlots());
+            } catch (JedisConnectionException e) {
+                // try another node
+                lastError = e;
+            } finally {
+                if (jedis != null) {
+                    jedis.close();
+                }
+            }
+        }
+        throw new JedisConnectionException("Could not read the slots of the cluster from any node", lastError);
+    }
+
+    /**
+     * @param slots the reply of CLUSTER SLOTS: the first and last slot of each range, then the host and port of its
+     *              master, then those of its replicas
+     */
+    static String[] slotNodes(List<Object> slots) {
+        String[] ret = new String[CLUSTER_SLOTS];
+        for (Object slot : slots) {
+            List<Object> range = (List<Object>) slot;
+            List<Object> master = (List<Object>) range.get(2);
+            String node = SafeEncoder.encode((byte[]) master.get(0)) + ":" + master.get(1);
+            Arrays.fill(ret, ((Long) range.get(0)).intValue(), ((Long) range.get(1)).intValue() + 1, node);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the key of the Redis command of the tuple, which decides the cluster node the command is sent to
+     */
+    protected abstract String getRedisKey(Tuple input);
+
+    /**
+     * Send the commands of the tuples through the pipeline, and sync it.
+     */
+    protected abstract void processPipelined(Pipeline pipeline, List<Tuple> inputs);
+
+    /**
+     * Send the commands of the tuples one by one.
+     */
+    protected abstract void process(JedisCommands jedisCommand, List<Tuple> inputs);
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, this.flushIntervalSecs);
+        return conf;
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.redis.bolt;
+
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+import org.apache.storm.redis.common.config.JedisClusterConfig;
+import org.apache.storm.redis.common.config.JedisPoolConfig;
+import org.apache.storm.redis.common.mapper.RedisDataTypeDescription;
+import org.apache.storm.redis.common.mapper.RedisLookupMapper;
+import redis.clients.jedis.JedisCommands;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Like the RedisLookupBolt, but looks up batches of tuples, see {@link AbstractRedisBatchBolt}.
+ */
+public class RedisBatchLookupBolt extends AbstractRedisBatchBolt {
+    private final RedisLookupMapper lookupMapper;
+    private final RedisDataTypeDescription.RedisDataType dataType;
+    private final String additionalKey;
+
+    public RedisBatchLookupBolt(JedisPoolConfig config, RedisLookupMapper lookupMapper) {
+        super(config);
+
+        this.lookupMapper = lookupMapper;
+
+        RedisDataTypeDescription dataTypeDescription = lookupMapper.getDataTypeDescription();
+        this.dataType = dataTypeDescription.getDataType();
+        this.additionalKey = dataTypeDescription.getAdditionalKey();
+    }
+
+    public RedisBatchLookupBolt(JedisClusterConfig config, RedisLookupMapper lookupMapper) {
+        super(config);
+
+        this.lookupMapper = lookupMapper;
+
+        RedisDataTypeDescription dataTypeDescription = lookupMapper.getDataTypeDescription();
+        this.dataType = dataTypeDescription.getDataType();
+        this.additionalKey = dataTypeDescription.getAdditionalKey();
+    }
+
+    /**
+     * Overrides the default batch size of 100 tuples.
+     */
+    public RedisBatchLookupBolt withBatchSize(int batchSize) {
+        setBatchSize(batchSize);
+        return this;
+    }
+
+    /**
+     * Overrides the default of looking up pending tuples at least once a second.
+     */
+    public RedisBatchLookupBolt withFlushIntervalSecs(int flushIntervalSecs) {
+        setFlushIntervalSecs(flushIntervalSecs);
+        return this;
+    }
+
+    @Override
+    protected String getRedisKey(Tuple input) {
+        switch (dataType) {
+            case HASH:
+            case SORTED_SET:
+                return additionalKey;
+
+            default:
+                return lookupMapper.getKeyFromTuple(input);
+        }
+    }
+
+    @Override
+    protected void processPipelined(Pipeline pipeline, List<Tuple> inputs) {
+        List<String> keys = keys(inputs);
+        List<Response<?>> responses = new ArrayList<Response<?>>(keys.size());
+        for (String key : keys) {
+            switch (dataType) {
+                case STRING:
+                    responses.add(pipeline.get(key));
+                    break;
+
+                case LIST:
+                    responses.add(pipeline.lpop(key));
+                    break;
+
+                case HASH:
+                    responses.add(pipeline.hget(additionalKey, key));
+                    break;
+
+                case SET:
+                    responses.add(pipeline.scard(key));
+                    break;
+
+                case SORTED_SET:
+                    responses.add(pipeline.zscore(additionalKey, key));
+                    break;
+
+                case HYPER_LOG_LOG:
+                    responses.add(pipeline.pfcount(key));
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Cannot process such data type: " + dataType);
+            }
+        }
+        pipeline.sync();
+
+        for (int i = 0; i < inputs.size(); i++) {
+            emit(inputs.get(i), responses.get(i).get());
+        }
+    }
+
+    @Override
+    protected void process(JedisCommands jedisCommand, List<Tuple> inputs) {
+        List<String> keys = keys(inputs);
+        for (int i = 0; i < inputs.size(); i++) {
+            String key = keys.get(i);
+            Object lookupValue;
+            switch (dataType) {
+                case STRING:
+                    lookupValue = jedisCommand.get(key);
+                    break;
+
+                case LIST:
+                    lookupValue = jedisCommand.lpop(key);
+                    break;
+
+                case HASH:
+                    lookupValue = jedisCommand.hget(additionalKey, key);
+                    break;
+
+                case SET:
+                    lookupValue = jedisCommand.scard(key);
+                    break;
+
+                case SORTED_SET:
+                    lookupValue = jedisCommand.zscore(additionalKey, key);
+                    break;
+
+                case HYPER_LOG_LOG:
+                    lookupValue = jedisCommand.pfcount(key);
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Cannot process such data type: " + dataType);
+            }
+            emit(inputs.get(i), lookupValue);
+        }
+    }
+
+    private List<String> keys(List<Tuple> inputs) {
+        List<String> keys = new ArrayList<String>(inputs.size());
+        for (Tuple input : inputs) {
+            keys.add(lookupMapper.getKeyFromTuple(input));
+        }
+        return keys;
+    }
+
+    private void emit(Tuple input, Object lookupValue) {
+        List<Values> values = lookupMapper.toTuple(input, lookupValue);
+        for (Values value : values) {
+            collector.emit(input, value);
+        }
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        lookupMapper.declareOutputFields(declarer);
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.redis.bolt;
+
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.tuple.Tuple;
+import org.apache.storm.redis.common.config.JedisClusterConfig;
+import org.apache.storm.redis.common.config.JedisPoolConfig;
+import org.apache.storm.redis.common.mapper.RedisDataTypeDescription;
+import org.apache.storm.redis.common.mapper.RedisStoreMapper;
+import redis.clients.jedis.JedisCommands;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Like the RedisStoreBolt, but stores batches of tuples, see {@link AbstractRedisBatchBolt}.  Tuples are acked once
+ * the commands of their batch have been answered.
+ */
+public class RedisBatchStoreBolt extends AbstractRedisBatchBolt {
+    private final RedisStoreMapper storeMapper;
+    private final RedisDataTypeDescription.RedisDataType dataType;
+    private final String additionalKey;
+
+    public RedisBatchStoreBolt(JedisPoolConfig config, RedisStoreMapper storeMapper) {
+        super(config);
+        this.storeMapper = storeMapper;
+
+        RedisDataTypeDescription dataTypeDescription = storeMapper.getDataTypeDescription();
+        this.dataType = dataTypeDescription.getDataType();
+        this.additionalKey = dataTypeDescription.getAdditionalKey();
+    }
+
+    public RedisBatchStoreBolt(JedisClusterConfig config, RedisStoreMapper storeMapper) {
+        super(config);
+        this.storeMapper = storeMapper;
+
+        RedisDataTypeDescription dataTypeDescription = storeMapper.getDataTypeDescription();
+        this.dataType = dataTypeDescription.getDataType();
+        this.additionalKey = dataTypeDescription.getAdditionalKey();
+    }
+
+    /**
+     * Overrides the default batch size of 100 tuples.
+     */
+    public RedisBatchStoreBolt withBatchSize(int batchSize) {
+        setBatchSize(batchSize);
+        return this;
+    }
+
+    /**
+     * Overrides the default of storing pending tuples at least once a second.
+     */
+    public RedisBatchStoreBolt withFlushIntervalSecs(int flushIntervalSecs) {
+        setFlushIntervalSecs(flushIntervalSecs);
+        return this;
+    }
+
+    @Override
+    protected String getRedisKey(Tuple input) {
+        switch (dataType) {
+            case HASH:
+            case SORTED_SET:
+                return additionalKey;
+
+            default:
+                return storeMapper.getKeyFromTuple(input);
+        }
+    }
+
+    @Override
+    protected void processPipelined(Pipeline pipeline, List<Tuple> inputs) {
+        List<String> keys = new ArrayList<String>(inputs.size());
+        List<String> values = new ArrayList<String>(inputs.size());
+        for (Tuple input : inputs) {
+            keys.add(storeMapper.getKeyFromTuple(input));
+            values.add(storeMapper.getValueFromTuple(input));
+        }
+
+        List<Response<?>> responses = new ArrayList<Response<?>>(inputs.size());
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            String value = values.get(i);
+            switch (dataType) {
+                case STRING:
+                    responses.add(pipeline.set(key, value));
+                    break;
+
+                case LIST:
+                    responses.add(pipeline.rpush(key, value));
+                    break;
+
+                case HASH:
+                    responses.add(pipeline.hset(additionalKey, key, value));
+                    break;
+
+                case SET:
+                    responses.add(pipeline.sadd(key, value));
+                    break;
+
+                case SORTED_SET:
+                    responses.add(pipeline.zadd(additionalKey, Double.valueOf(value), key));
+                    break;
+
+                case HYPER_LOG_LOG:
+                    responses.add(pipeline.pfadd(key, value));
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Cannot process such data type: " + dataType);
+            }
+        }
+        pipeline.sync();
+
+        // fail the batch if any command failed
+        for (Response<?> response : responses) {
+            response.get();
+        }
+    }
+
+    @Override
+    protected void process(JedisCommands jedisCommand, List<Tuple> inputs) {
+        for (Tuple input : inputs) {
+            String key = storeMapper.getKeyFromTuple(input);
+            String value = storeMapper.getValueFromTuple(input);
+            switch (dataType) {
+                case STRING:
+                    jedisCommand.set(key, value);
+                    break;
+
+                case LIST:
+                    jedisCommand.rpush(key, value);
+                    break;
+
+                case HASH:
+                    jedisCommand.hset(additionalKey, key, value);
+                    break;
+
+                case SET:
+                    jedisCommand.sadd(key, value);
+                    break;
+
+                case SORTED_SET:
+                    jedisCommand.zadd(additionalKey, Double.valueOf(value), key);
+                    break;
+
+                case HYPER_LOG_LOG:
+                    jedisCommand.pfadd(key, value);
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Cannot process such data type: " + dataType);
+            }
+        }
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+    }
+}
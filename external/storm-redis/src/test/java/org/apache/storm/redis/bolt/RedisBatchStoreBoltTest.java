@@ -0,0 +1,247 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.redis.bolt;
+
+import backtype.storm.Constants;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.ITuple;
+import backtype.storm.tuple.Tuple;
+import org.apache.storm.redis.common.config.JedisPoolConfig;
+import org.apache.storm.redis.common.mapper.RedisDataTypeDescription;
+import org.apache.storm.redis.common.mapper.RedisStoreMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisCommands;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.JedisClusterCRC16;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class RedisBatchStoreBoltTest {
+    private OutputCollector collector;
+    private Pipeline pipeline;
+    private Response<String> response;
+
+    @Before
+    public void setUp() {
+        collector = mock(OutputCollector.class);
+        pipeline = mock(Pipeline.class);
+        response = mock(Response.class);
+        when(pipeline.set(anyString(), anyString())).thenReturn(response);
+    }
+
+    @Test
+    public void testAcksAfterSync() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        RedisBatchStoreBolt bolt = prepare(jedis, 2);
+        Tuple first = tuple("a", "1");
+        Tuple second = tuple("b", "2");
+
+        bolt.execute(first);
+        verifyZeroInteractions(pipeline, collector);
+
+        bolt.execute(second);
+        InOrder inOrder = inOrder(pipeline, collector);
+        inOrder.verify(pipeline).set("a", "1");
+        inOrder.verify(pipeline).set("b", "2");
+        inOrder.verify(pipeline).sync();
+        inOrder.verify(collector).ack(first);
+        inOrder.verify(collector).ack(second);
+    }
+
+    @Test
+    public void testFailsWholeBatchWhenSyncFails() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        doThrow(new JedisConnectionException("down")).when(pipeline).sync();
+        RedisBatchStoreBolt bolt = prepare(jedis, 2);
+        Tuple first = tuple("a", "1");
+        Tuple second = tuple("b", "2");
+
+        bolt.execute(first);
+        bolt.execute(second);
+
+        verify(jedis).disconnect();
+        verify(collector).fail(first);
+        verify(collector).fail(second);
+        verify(collector, never()).ack(any(Tuple.class));
+    }
+
+    @Test
+    public void testFailsWholeBatchWhenACommandFails() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(response.get()).thenReturn("OK").thenThrow(new JedisDataException("WRONGTYPE"));
+        RedisBatchStoreBolt bolt = prepare(jedis, 2);
+        Tuple first = tuple("a", "1");
+        Tuple second = tuple("b", "2");
+
+        bolt.execute(first);
+        bolt.execute(second);
+
+        verify(collector).fail(first);
+        verify(collector).fail(second);
+        verify(collector, never()).ack(any(Tuple.class));
+    }
+
+    @Test
+    public void testTickFlushes() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        RedisBatchStoreBolt bolt = prepare(jedis, 10);
+        Tuple input = tuple("a", "1");
+        Tuple tick = mock(Tuple.class);
+        when(tick.getSourceComponent()).thenReturn(Constants.SYSTEM_COMPONENT_ID);
+        when(tick.getSourceStreamId()).thenReturn(Constants.SYSTEM_TICK_STREAM_ID);
+
+        bolt.execute(input);
+        verify(collector, never()).ack(input);
+
+        bolt.execute(tick);
+        verify(pipeline).sync();
+        verify(collector).ack(input);
+        verify(collector).ack(tick);
+    }
+
+    @Test
+    public void testClusterPipelinesPerNode() {
+        // slots 0-8191 on node a, 8192-16383 on node b
+        List<Object> slots = Arrays.<Object>asList(
+                Arrays.<Object>asList(0L, 8191L, Arrays.<Object>asList("a".getBytes(), 1L)),
+                Arrays.<Object>asList(8192L, 16383L, Arrays.<Object>asList("b".getBytes(), 2L)));
+        Pipeline pipelineA = pipeline();
+        Pipeline pipelineB = pipeline();
+        Jedis jedisA = node(pipelineA, slots);
+        Jedis jedisB = node(pipelineB, slots);
+        Map<String, JedisPool> nodes = new HashMap<String, JedisPool>();
+        nodes.put("a:1", pool(jedisA));
+        nodes.put("b:2", pool(jedisB));
+        JedisCluster cluster = mock(JedisCluster.class);
+        when(cluster.getClusterNodes()).thenReturn(nodes);
+
+        List<String> keys = Arrays.asList("k1", "k2", "k3", "k4", "k5", "k6");
+        RedisBatchStoreBolt bolt = prepare(cluster, keys.size());
+        for (String key : keys) {
+            bolt.execute(tuple(key, "v"));
+        }
+
+        for (String key : keys) {
+            Pipeline expected = JedisClusterCRC16.getSlot(key) < 8192 ? pipelineA : pipelineB;
+            verify(expected).set(key, "v");
+        }
+        verify(pipelineA).sync();
+        verify(pipelineB).sync();
+        verify(jedisA).close();
+        verify(jedisB).close();
+        verify(cluster, never()).set(anyString(), anyString());
+        verify(collector, never()).fail(any(Tuple.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchSizeMustBePositive() {
+        new RedisBatchStoreBolt(new JedisPoolConfig.Builder().build(), new KeyValueMapper()).withBatchSize(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFlushIntervalMustBePositive() {
+        new RedisBatchStoreBolt(new JedisPoolConfig.Builder().build(), new KeyValueMapper()).withFlushIntervalSecs(0);
+    }
+
+    private Pipeline pipeline() {
+        Pipeline ret = mock(Pipeline.class);
+        when(ret.set(anyString(), anyString())).thenReturn(response);
+        return ret;
+    }
+
+    private static Jedis node(Pipeline pipeline, List<Object> slots) {
+        Jedis ret = mock(Jedis.class);
+        when(ret.pipelined()).thenReturn(pipeline);
+        when(ret.clusterSlots()).thenReturn(slots);
+        return ret;
+    }
+
+    private static JedisPool pool(Jedis jedis) {
+        JedisPool ret = mock(JedisPool.class);
+        when(ret.getResource()).thenReturn(jedis);
+        return ret;
+    }
+
+    /**
+     * A bolt that uses the given instance instead of connecting to Redis.
+     */
+    private RedisBatchStoreBolt prepare(final JedisCommands instance, int batchSize) {
+        RedisBatchStoreBolt bolt = new RedisBatchStoreBolt(new JedisPoolConfig.Builder().build(), new KeyValueMapper()) {
+            @Override
+            protected JedisCommands getInstance() {
+                return instance;
+            }
+
+            @Override
+            protected void returnInstance(JedisCommands jedisCommands) {
+            }
+        }.withBatchSize(batchSize);
+        bolt.prepare(new HashMap(), mock(TopologyContext.class), collector);
+        return bolt;
+    }
+
+    private static Tuple tuple(String key, String value) {
+        Tuple ret = mock(Tuple.class);
+        when(ret.getString(0)).thenReturn(key);
+        when(ret.getString(1)).thenReturn(value);
+        return ret;
+    }
+
+    private static class KeyValueMapper implements RedisStoreMapper {
+        @Override
+        public RedisDataTypeDescription getDataTypeDescription() {
+            return new RedisDataTypeDescription(RedisDataTypeDescription.RedisDataType.STRING);
+        }
+
+        @Override
+        public String getKeyFromTuple(ITuple tuple) {
+            return tuple.getString(0);
+        }
+
+        @Override
+        public String getValueFromTuple(ITuple tuple) {
+            return tuple.getString(1);
+        }
+    }
+}
@@ -20,6 +20,7 @@
            [java.io Serializable])
   (:import [org.apache.zookeeper KeeperException KeeperException$NoNodeException ZooDefs ZooDefs$Ids ZooDefs$Perms])
   (:import [backtype.storm.utils Utils])
+  (:import [backtype.storm.heartbeat HeartbeatClient])
   (:import [java.security MessageDigest])
   (:import [org.apache.zookeeper.server.auth DigestAuthenticationProvider])
   (:use [backtype.storm util log config converter])
@@ -146,6 +147,8 @@
   (active-storms [this])
   (storm-base [this storm-id callback])
   (get-worker-heartbeat [this storm-id node port])
+  ;; nil if the heartbeat does not exist, or its versions are not tracked
+  (worker-heartbeat-version [this storm-id node port])
   (executor-beats [this storm-id executor->node+port])
   (supervisors [this callback])
   (supervisor-info [this supervisor-id]) ;; returns nil if doesn't exist
@@ -154,8 +157,14 @@
   (teardown-topology-errors! [this storm-id])
   (heartbeat-storms [this])
   (error-topologies [this])
+  (backpressure-topologies [this])
   (worker-heartbeat! [this storm-id node port info])
   (remove-worker-heartbeat! [this storm-id node port])
+  ;; marks the worker as throttled (or not) for the other workers of the topology
+  (worker-backpressure! [this storm-id node port on?])
+  ;; whether any worker of the topology is throttled
+  (topology-backpressure [this storm-id callback])
+  (remove-backpressure! [this storm-id])
   (supervisor-heartbeat! [this supervisor-id info])
   (activate-storm! [this storm-id storm-base])
   (update-storm! [this storm-id new-elems])
@@ -176,6 +185,7 @@
 (def WORKERBEATS-ROOT "workerbeats")
 (def ERRORS-ROOT "errors")
 (def CREDENTIALS-ROOT "credentials")
+(def BACKPRESSURE-ROOT "backpressure")
 
 (def ASSIGNMENTS-SUBTREE (str "/" ASSIGNMENTS-ROOT))
 (def STORMS-SUBTREE (str "/" STORMS-ROOT))
@@ -183,6 +193,7 @@
 (def WORKERBEATS-SUBTREE (str "/" WORKERBEATS-ROOT))
 (def ERRORS-SUBTREE (str "/" ERRORS-ROOT))
 (def CREDENTIALS-SUBTREE (str "/" CREDENTIALS-ROOT))
+(def BACKPRESSURE-SUBTREE (str "/" BACKPRESSURE-ROOT))
 
 (defn supervisor-path
   [id]
@@ -226,6 +237,14 @@
   [storm-id]
   (str CREDENTIALS-SUBTREE "/" storm-id))
 
+(defn backpressure-storm-root
+  [storm-id]
+  (str BACKPRESSURE-SUBTREE "/" storm-id))
+
+(defn backpressure-path
+  [storm-id node port]
+  (str (backpressure-storm-root storm-id) "/" node "-" port))
+
 (defn- issue-callback!
   [cb-atom]
   (let [cb @cb-atom]
@@ -264,12 +283,88 @@
                       :stats (get executor-stats t)}})))
          (into {}))))
 
+;; Where worker heartbeats are kept: ZooKeeper, or the heartbeat server.
+(defprotocol HeartbeatState
+  ;; if node does not exist, create it with this data
+  (set-heartbeat [this path data acls])
+  (get-heartbeat [this path])
+  ;; nil if the node does not exist or versions are not tracked
+  (get-heartbeat-version [this path])
+  (heartbeat-children [this path])
+  (delete-heartbeat [this path])
+  (mkdirs-heartbeat [this path acls])
+  (close-heartbeat [this]))
+
+(defn- mk-zk-heartbeat-state
+  "Keeps heartbeats in cluster-state, which is closed by its owner."
+  [cluster-state]
+  (reify
+    HeartbeatState
+
+    (set-heartbeat [this path data acls] (set-data cluster-state path data acls))
+
+    (get-heartbeat [this path] (get-data cluster-state path false))
+
+    (get-heartbeat-version [this path] (get-version cluster-state path false))
+
+    (heartbeat-children [this path] (get-children cluster-state path false))
+
+    (delete-heartbeat [this path] (delete-node cluster-state path))
+
+    (mkdirs-heartbeat [this path acls] (mkdirs cluster-state path acls))
+
+    (close-heartbeat [this] nil)))
+
+(defn mk-heartbeat-server-state
+  "Keeps heartbeats in the heartbeat server, gzipped."
+  [conf]
+  (let [client (HeartbeatClient. conf)]
+    (reify
+      HeartbeatState
+
+      (set-heartbeat [this path data acls] (.put client path (Utils/gzip data)))
+
+      (get-heartbeat
+        [this path]
+        (let [^bytes data (.get client path)]
+          ;; nodes made by mkdirs have no data
+          (when (and data (pos? (alength data)))
+            (Utils/gunzip data))))
+
+      ;; the heartbeat server keeps no versions
+      (get-heartbeat-version [this path] nil)
+
+      (heartbeat-children [this path] (.children client path))
+
+      (delete-heartbeat [this path] (.delete client path))
+
+      (mkdirs-heartbeat [this path acls] (.mkdirs client path))
+
+      (close-heartbeat [this] (.close client)))))
+
+(defn heartbeat-server-enabled?
+  "Whether worker heartbeats go to the heartbeat server. The heartbeat server does no authentication, so it cannot be
+  enabled together with ZooKeeper authentication or a secure thrift transport."
+  [conf]
+  (when (conf HEARTBEAT-SERVER-ENABLED)
+    (when (or (Utils/isZkAuthenticationConfiguredStormServer conf)
+              (Utils/isZkAuthenticationConfiguredTopology conf)
+              (not= "backtype.storm.security.auth.SimpleTransportPlugin" (conf STORM-THRIFT-TRANSPORT-PLUGIN)))
+      (throw (IllegalArgumentException.
+               (str HEARTBEAT-SERVER-ENABLED " cannot be set on a secure cluster, the heartbeat server does no authentication"))))
+    true))
+
 ;; Watches should be used for optimization. When ZK is reconnecting, they're not guaranteed to be called.
+;; heartbeat-conf decides where worker heartbeats go, it defaults to cluster-state-spec if that is a conf.
 (defnk mk-storm-cluster-state
-  [cluster-state-spec :acls nil]
+  [cluster-state-spec :acls nil :heartbeat-conf nil]
   (let [[solo? cluster-state] (if (satisfies? ClusterState cluster-state-spec)
                                 [false cluster-state-spec]
                                 [true (mk-distributed-cluster-state cluster-state-spec :auth-conf cluster-state-spec :acls acls)])
+        heartbeat-conf (or heartbeat-conf (when solo? cluster-state-spec))
+        heartbeat-state (if (and heartbeat-conf (heartbeat-server-enabled? heartbeat-conf))
+                          (mk-heartbeat-server-state heartbeat-conf)
+                          (mk-zk-heartbeat-state cluster-state))
         assignment-info-callback (atom {})
         assignment-info-with-version-callback (atom {})
         assignment-version-callback (atom {})
@@ -277,6 +372,7 @@
         assignments-callback (atom nil)
         storm-base-callback (atom {})
         credentials-callback (atom {})
+        backpressure-callback (atom {})
         state-id (register
                   cluster-state
                   (fn [type path]
@@ -291,9 +387,10 @@
                          SUPERVISORS-ROOT (issue-callback! supervisors-callback)
                          STORMS-ROOT (issue-map-callback! storm-base-callback (first args))
                          CREDENTIALS-ROOT (issue-map-callback! credentials-callback (first args))
+                         BACKPRESSURE-ROOT (issue-map-callback! backpressure-callback (first args))
                          ;; this should never happen
                          (exit-process! 30 "Unknown callback for subtree " subtree args)))))]
-    (doseq [p [ASSIGNMENTS-SUBTREE STORMS-SUBTREE SUPERVISORS-SUBTREE WORKERBEATS-SUBTREE ERRORS-SUBTREE]]
+    (doseq [p [ASSIGNMENTS-SUBTREE STORMS-SUBTREE SUPERVISORS-SUBTREE WORKERBEATS-SUBTREE ERRORS-SUBTREE BACKPRESSURE-SUBTREE]]
       (mkdirs cluster-state p acls))
     (reify
       StormClusterState
@@ -331,20 +428,27 @@
 
       (heartbeat-storms
         [this]
-        (get-children cluster-state WORKERBEATS-SUBTREE false))
+        (heartbeat-children heartbeat-state WORKERBEATS-SUBTREE))
 
       (error-topologies
         [this]
         (get-children cluster-state ERRORS-SUBTREE false))
 
+      (backpressure-topologies
+        [this]
+        (get-children cluster-state BACKPRESSURE-SUBTREE false))
+
       (get-worker-heartbeat
         [this storm-id node port]
-        (let [worker-hb (get-data cluster-state (workerbeat-path storm-id node port) false)]
+        (let [worker-hb (get-heartbeat heartbeat-state (workerbeat-path storm-id node port))]
           (if worker-hb
             (-> worker-hb
               (maybe-deserialize ClusterWorkerHeartbeat)
               clojurify-zk-worker-hb))))
 
+      (worker-heartbeat-version
+        [this storm-id node port]
+        (get-heartbeat-version heartbeat-state (workerbeat-path storm-id node port)))
 
       (executor-beats
         [this storm-id executor->node+port]
@@ -373,21 +477,49 @@
         [this storm-id node port info]
         (let [thrift-worker-hb (thriftify-zk-worker-hb info)]
           (if thrift-worker-hb
-            (set-data cluster-state (workerbeat-path storm-id node port) (Utils/serialize thrift-worker-hb) acls))))
+            (set-heartbeat heartbeat-state (workerbeat-path storm-id node port) (Utils/serialize thrift-worker-hb) acls))))
 
       (remove-worker-heartbeat!
         [this storm-id node port]
-        (delete-node cluster-state (workerbeat-path storm-id node port)))
+        (delete-heartbeat heartbeat-state (workerbeat-path storm-id node port)))
+
+      (worker-backpressure!
+        [this storm-id node port on?]
+        ;; ephemeral, so a worker that dies throttled does not keep the topology throttled
+        (let [path (backpressure-path storm-id node port)
+              exists? (exists-node? cluster-state path false)]
+          (cond
+            (and on? (not exists?)) (set-ephemeral-node cluster-state path (byte-array 0) acls)
+            (and (not on?) exists?) (delete-node cluster-state path))))
+
+      (topology-backpressure
+        [this storm-id callback]
+        (when callback
+          (swap! backpressure-callback assoc storm-id callback))
+        (let [path (backpressure-storm-root storm-id)]
+          (if (exists-node? cluster-state path false)
+            (not (empty? (get-children cluster-state path (not-nil? callback))))
+            false)))
+
+      (remove-backpressure!
+        [this storm-id]
+        (try-cause
+          (delete-node cluster-state (backpressure-storm-root storm-id))
+          (catch KeeperException e
+            (log-warn-error e "Could not teardown backpressure for " storm-id))))
 
       (setup-heartbeats!
         [this storm-id]
-        (mkdirs cluster-state (workerbeat-storm-root storm-id) acls))
+        (mkdirs-heartbeat heartbeat-state (workerbeat-storm-root storm-id) acls))
 
       (teardown-heartbeats!
         [this storm-id]
         (try-cause
-          (delete-node cluster-state (workerbeat-storm-root storm-id))
+          (delete-heartbeat heartbeat-state (workerbeat-storm-root storm-id))
           (catch KeeperException e
+            (log-warn-error e "Could not teardown heartbeats for " storm-id))
+          ;; the heartbeat server client fails with RuntimeExceptions
+          (catch RuntimeException e
             (log-warn-error e "Could not teardown heartbeats for " storm-id))))
 
       (teardown-topology-errors!
@@ -497,6 +629,7 @@
       (disconnect
          [this]
         (unregister cluster-state state-id)
+        (close-heartbeat heartbeat-state)
         (when solo?
           (close cluster-state))))))
 
@@ -19,6 +19,7 @@
   (:import [backtype.storm.utils RotatingMap MutableObject])
   (:import [java.util List Map])
   (:import [backtype.storm Constants])
+  (:import [backtype.storm.daemon AckerBolt])
   (:use [backtype.storm config util log])
   (:gen-class
    :init init
@@ -30,6 +31,7 @@
 (def ACKER-INIT-STREAM-ID "__ack_init")
 (def ACKER-ACK-STREAM-ID "__ack_ack")
 (def ACKER-FAIL-STREAM-ID "__ack_fail")
+(def ACKER-BATCH-STREAM-ID "__ack_batch")
 
 (defn- update-ack [curr-entry val]
   (let [old (get curr-entry :val 0)]
@@ -40,7 +42,35 @@
   (.emitDirect collector task stream values)
   )
 
-(defn mk-acker-bolt []
+(defn- update-pending! [^OutputCollector output-collector ^RotatingMap pending stream-id id val spout-task]
+  (let [curr (.get pending id)
+        curr (condp = stream-id
+                 ACKER-INIT-STREAM-ID (-> curr
+                                          (update-ack val)
+                                          (assoc :spout-task spout-task))
+                 ACKER-ACK-STREAM-ID (update-ack curr val)
+                 ACKER-FAIL-STREAM-ID (assoc curr :failed true))]
+    (.put pending id curr)
+    (when (and curr (:spout-task curr))
+      (cond (= 0 (:val curr))
+            (do
+              (.remove pending id)
+              (acker-emit-direct output-collector
+                                 (:spout-task curr)
+                                 ACKER-ACK-STREAM-ID
+                                 [id]
+                                 ))
+            (:failed curr)
+            (do
+              (.remove pending id)
+              (acker-emit-direct output-collector
+                                 (:spout-task curr)
+                                 ACKER-FAIL-STREAM-ID
+                                 [id]
+                                 ))
+            ))))
+
+(defn- mk-map-acker-bolt []
   (let [output-collector (MutableObject.)
         pending (MutableObject.)]
     (reify IBolt
@@ -53,45 +83,43 @@
                    stream-id (.getSourceStreamId tuple)]
                (if (= stream-id Constants/SYSTEM_TICK_STREAM_ID)
                  (.rotate pending)
-                 (let [id (.getValue tuple 0)
-                       ^OutputCollector output-collector (.getObject output-collector)
-                       curr (.get pending id)
-                       curr (condp = stream-id
-                                ACKER-INIT-STREAM-ID (-> curr
-                                                         (update-ack (.getValue tuple 1))
-                                                         (assoc :spout-task (.getValue tuple 2)))
-                                ACKER-ACK-STREAM-ID (update-ack curr (.getValue tuple 1))
-                                ACKER-FAIL-STREAM-ID (assoc curr :failed true))]
-                   (.put pending id curr)
-                   (when (and curr (:spout-task curr))
-                     (cond (= 0 (:val curr))
-                           (do
-                             (.remove pending id)
-                             (acker-emit-direct output-collector
-                                                (:spout-task curr)
-                                                ACKER-ACK-STREAM-ID
-                                                [id]
-                                                ))
-                           (:failed curr)
-                           (do
-                             (.remove pending id)
-                             (acker-emit-direct output-collector
-                                                (:spout-task curr)
-                                                ACKER-FAIL-STREAM-ID
-                                                [id]
-                                                ))
-                           ))
+                 (let [^OutputCollector output-collector (.getObject output-collector)]
+                   (if (= stream-id ACKER-BATCH-STREAM-ID)
+                     ;; coalesced updates of a bolt task: (root, ack val) pairs followed by failed roots
+                     (let [^longs acks (.getValue tuple 0)
+                           ^longs fails (.getValue tuple 1)]
+                       (loop [i 0]
+                         (when (< i (alength acks))
+                           (update-pending! output-collector pending ACKER-ACK-STREAM-ID (aget acks i) (aget acks (inc i)) nil)
+                           (recur (+ i 2))))
+                       (doseq [root fails]
+                         (update-pending! output-collector pending ACKER-FAIL-STREAM-ID root nil nil)))
+                     (update-pending! output-collector
+                                      pending
+                                      stream-id
+                                      (.getValue tuple 0)
+                                      (if (> (.size tuple) 1) (.getValue tuple 1))
+                                      (if (> (.size tuple) 2) (.getValue tuple 2))))
                    (.ack output-collector tuple)
                    ))))
       (^void cleanup [this]
         )
       )))
 
+(defn mk-acker-bolt
+  ([]
+    (mk-map-acker-bolt))
+  ([storm-conf]
+    ;; the primitive acker keeps pending trees in a RotatingAckTable instead of persistent maps
+    (if (= true (get storm-conf TOPOLOGY-ACKER-PRIMITIVE-ENABLE))
+      (AckerBolt.)
+      (mk-map-acker-bolt))))
+
 (defn -init []
   [[] (container)])
 
 (defn -prepare [this conf context collector]
-  (let [^IBolt ret (mk-acker-bolt)]
+  (let [^IBolt ret (mk-acker-bolt conf)]
     (container-set! (.state ^backtype.storm.daemon.acker this) ret)
     (.prepare ret conf context collector)
     ))
@@ -16,20 +16,24 @@
 (ns backtype.storm.daemon.builtin-metrics
   (:import [backtype.storm.metric.api MultiCountMetric MultiReducedMetric MeanReducer StateMetric IMetric IStatefulObject])
   (:import [backtype.storm Config])
-  (:use [backtype.storm.stats :only [stats-rate]]))
+  (:use [backtype.storm.stats :only [stats-rate value-latency-percentiles]]))
 
 (defrecord BuiltinSpoutMetrics [^MultiCountMetric ack-count                                
                                 ^MultiReducedMetric complete-latency
                                 ^MultiCountMetric fail-count
                                 ^MultiCountMetric emit-count
-                                ^MultiCountMetric transfer-count])
+                                ^MultiCountMetric transfer-count
+                                ^MultiCountMetric local-transfer-count
+                                ^MultiCountMetric remote-transfer-count])
 (defrecord BuiltinBoltMetrics [^MultiCountMetric ack-count
                                ^MultiReducedMetric process-latency
                                ^MultiCountMetric fail-count
                                ^MultiCountMetric execute-count
                                ^MultiReducedMetric execute-latency
                                ^MultiCountMetric emit-count
-                               ^MultiCountMetric transfer-count])
+                               ^MultiCountMetric transfer-count
+                               ^MultiCountMetric local-transfer-count
+                               ^MultiCountMetric remote-transfer-count])
 
 (defn make-data [executor-type]
   (condp = executor-type
@@ -37,6 +41,8 @@
                                  (MultiReducedMetric. (MeanReducer.))
                                  (MultiCountMetric.)
                                  (MultiCountMetric.)
+                                 (MultiCountMetric.)
+                                 (MultiCountMetric.)
                                  (MultiCountMetric.))
     :bolt (BuiltinBoltMetrics. (MultiCountMetric.)
                                (MultiReducedMetric. (MeanReducer.))
@@ -44,6 +50,8 @@
                                (MultiCountMetric.)
                                (MultiReducedMetric. (MeanReducer.))
                                (MultiCountMetric.)
+                               (MultiCountMetric.)
+                               (MultiCountMetric.)
                                (MultiCountMetric.))))
 
 (defn register-all [builtin-metrics  storm-conf topology-context]
@@ -68,6 +76,23 @@
               @node+port->socket-ref)))))
     (int (get storm-conf Config/TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS))))
  
+(defn register-grouping-metrics
+  "Register the custom groupings of an executor that are metrics themselves, with the context of one of its tasks."
+  [custom-groupings storm-conf topology-context]
+  (doseq [[stream-id component-id grouping] custom-groupings
+          :when (instance? IMetric grouping)]
+    (.registerMetric topology-context (str "__grouping-" stream-id "-" component-id) ^IMetric grouping
+                     (int (get storm-conf Config/TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS)))))
+
+(defn register-latency-percentile-metrics
+  "Register the all time latency percentiles of the executor stats, with the context of one of its tasks."
+  [executor-stats storm-conf topology-context]
+  (.registerMetric topology-context "__latency-percentiles"
+    (reify IMetric
+      (^Object getValueAndReset [this]
+        (value-latency-percentiles executor-stats)))
+    (int (get storm-conf Config/TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS))))
+
 (defn register-queue-metrics [queues storm-conf topology-context]
   (doseq [[qname q] queues]
     (.registerMetric topology-context (str "__" (name qname)) (StateMetric. q)
@@ -99,3 +124,8 @@
 
 (defn transferred-tuple! [m stats stream num-out-tasks]
   (-> m :transfer-count (.scope stream) (.incrBy (* num-out-tasks (stats-rate stats)))))
+
+(defn transferred-tuple-locality! [m stats stream num-local-tasks num-remote-tasks]
+  (let [rate (stats-rate stats)]
+    (-> m :local-transfer-count (.scope stream) (.incrBy (* num-local-tasks rate)))
+    (-> m :remote-transfer-count (.scope stream) (.incrBy (* num-remote-tasks rate)))))
@@ -35,6 +35,7 @@
 (def ACKER-INIT-STREAM-ID acker/ACKER-INIT-STREAM-ID)
 (def ACKER-ACK-STREAM-ID acker/ACKER-ACK-STREAM-ID)
 (def ACKER-FAIL-STREAM-ID acker/ACKER-FAIL-STREAM-ID)
+(def ACKER-BATCH-STREAM-ID acker/ACKER-BATCH-STREAM-ID)
 
 (def SYSTEM-STREAM-ID "__system")
 
@@ -168,7 +169,10 @@
                   (when-not (empty? diff-fields)
                     (throw (InvalidTopologyException. (str "Component: [" id "] subscribes from stream: [" source-stream-id "] of component [" source-component-id "] with non-existent fields: " diff-fields)))))))))))))
 
-(defn acker-inputs [^StormTopology topology]
+(defn acker-batch-enabled? [storm-conf]
+  (= true (storm-conf TOPOLOGY-ACKER-BATCH-ENABLE)))
+
+(defn acker-inputs [^StormTopology topology batch?]
   (let [bolt-ids (.. topology get_bolts keySet)
         spout-ids (.. topology get_spouts keySet)
         spout-inputs (apply merge
@@ -177,14 +181,17 @@
                               ))
         bolt-inputs (apply merge
                            (for [id bolt-ids]
-                             {[id ACKER-ACK-STREAM-ID] ["id"]
-                              [id ACKER-FAIL-STREAM-ID] ["id"]}
+                             (merge
+                               {[id ACKER-ACK-STREAM-ID] ["id"]
+                                [id ACKER-FAIL-STREAM-ID] ["id"]}
+                               (if batch? {[id ACKER-BATCH-STREAM-ID] :direct}))
                              ))]
     (merge spout-inputs bolt-inputs)))
 
 (defn add-acker! [storm-conf ^StormTopology ret]
   (let [num-executors (if (nil? (storm-conf TOPOLOGY-ACKER-EXECUTORS)) (storm-conf TOPOLOGY-WORKERS) (storm-conf TOPOLOGY-ACKER-EXECUTORS))
-        acker-bolt (thrift/mk-bolt-spec* (acker-inputs ret)
+        batch? (acker-batch-enabled? storm-conf)
+        acker-bolt (thrift/mk-bolt-spec* (acker-inputs ret batch?)
                                          (new backtype.storm.daemon.acker)
                                          {ACKER-ACK-STREAM-ID (thrift/direct-output-fields ["id"])
                                           ACKER-FAIL-STREAM-ID (thrift/direct-output-fields ["id"])
@@ -197,6 +204,8 @@
            (do
              (.put_to_streams common ACKER-ACK-STREAM-ID (thrift/output-fields ["id" "ack-val"]))
              (.put_to_streams common ACKER-FAIL-STREAM-ID (thrift/output-fields ["id"]))
+             (when batch?
+               (.put_to_streams common ACKER-BATCH-STREAM-ID (thrift/direct-output-fields ["acks" "fails"])))
              ))
     (dofor [[_ spout] (.get_spouts ret)
             :let [common (.get_common spout)
@@ -25,16 +25,19 @@
   (:import [backtype.storm.spout ISpoutWaitStrategy ISpout SpoutOutputCollector ISpoutOutputCollector])
   (:import [backtype.storm.hooks.info SpoutAckInfo SpoutFailInfo
             EmitInfo BoltFailInfo BoltAckInfo BoltExecuteInfo])
-  (:import [backtype.storm.grouping CustomStreamGrouping])
+  (:import [backtype.storm.grouping CustomStreamGrouping FieldsGrouper LoadAwareCustomStreamGrouping LoadMapping
+                                    LoadAwareShuffleGrouping])
   (:import [backtype.storm.task WorkerTopologyContext IBolt OutputCollector IOutputCollector])
   (:import [backtype.storm.generated GlobalStreamId])
   (:import [backtype.storm.utils Utils MutableObject RotatingMap RotatingMap$ExpiredCallback MutableLong Time])
   (:import [com.lmax.disruptor InsufficientCapacityException])
   (:import [backtype.storm.serialization KryoTupleSerializer KryoTupleDeserializer])
-  (:import [backtype.storm.daemon Shutdownable])
+  (:import [backtype.storm.daemon Shutdownable AckCoalescer])
+  (:import [backtype.storm.messaging TaskMessage])
   (:import [backtype.storm.metric.api IMetric IMetricsConsumer$TaskInfo IMetricsConsumer$DataPoint StateMetric])
   (:import [backtype.storm Config Constants])
   (:import [java.util.concurrent ConcurrentLinkedQueue])
+  (:import [java.util.concurrent.atomic AtomicInteger AtomicBoolean])
   (:require [backtype.storm [tuple :as tuple] [thrift :as thrift]
              [cluster :as cluster] [disruptor :as disruptor] [stats :as stats]])
   (:require [backtype.storm.daemon [task :as task]])
@@ -42,28 +45,32 @@
   (:require [clojure.set :as set]))
 
 (defn- mk-fields-grouper [^Fields out-fields ^Fields group-fields ^List target-tasks]
-  (let [num-tasks (count target-tasks)
-        task-getter (fn [i] (.get target-tasks i))]
+  (let [grouper (FieldsGrouper. out-fields group-fields target-tasks)]
     (fn [task-id ^List values]
-      (-> (.select out-fields group-fields values)
-          tuple/list-hash-code
-          (mod num-tasks)
-          task-getter))))
+      ;; hand out the task ids of target-tasks rather than boxing the chosen int again
+      (.get target-tasks (.chooseIndex grouper values)))))
 
 (defn- mk-shuffle-grouper [^List target-tasks]
   (let [choices (rotating-random-range target-tasks)]
     (fn [task-id tuple]
       (acquire-random-range-id choices))))
 
-(defn- mk-custom-grouper [^CustomStreamGrouping grouping ^WorkerTopologyContext context ^String component-id ^String stream-id target-tasks]
+(defn- mk-custom-grouper [^CustomStreamGrouping grouping ^WorkerTopologyContext context ^String component-id ^String stream-id target-tasks
+                          ^LoadMapping load-mapping on-custom-grouping]
   (.prepare grouping context (GlobalStreamId. component-id stream-id) target-tasks)
+  (when (instance? LoadAwareCustomStreamGrouping grouping)
+    (.setLoadMapping ^LoadAwareCustomStreamGrouping grouping load-mapping))
+  (on-custom-grouping grouping)
   (fn [task-id ^List values]
     (.chooseTasks grouping task-id values)
     ))
 
 (defn- mk-grouper
-  "Returns a function that returns a vector of which task indices to send tuple to, or just a single task index."
-  [^WorkerTopologyContext context component-id stream-id ^Fields out-fields thrift-grouping ^List target-tasks]
+  "Returns a function that returns a vector of which task indices to send tuple to, or just a single task index.
+   Custom groupings are handed to on-custom-grouping once they are prepared. With load-aware-shuffle? the shuffle
+   groupings send fewer tuples to the tasks that load-mapping reports as loaded."
+  [^WorkerTopologyContext context component-id stream-id ^Fields out-fields thrift-grouping ^List target-tasks
+   load-mapping load-aware-shuffle? on-custom-grouping]
   (let [num-tasks (count target-tasks)
         random (Random.)
         target-tasks (vec (sort target-tasks))]
@@ -79,14 +86,20 @@
       :all
         (fn [task-id tuple] target-tasks)
       :shuffle
-        (mk-shuffle-grouper target-tasks)
+        (if load-aware-shuffle?
+          (mk-custom-grouper (LoadAwareShuffleGrouping. false) context component-id stream-id target-tasks
+                             load-mapping on-custom-grouping)
+          (mk-shuffle-grouper target-tasks))
       :local-or-shuffle
-        (let [same-tasks (set/intersection
-                           (set target-tasks)
-                           (set (.getThisWorkerTasks context)))]
-          (if-not (empty? same-tasks)
-            (mk-shuffle-grouper (vec same-tasks))
-            (mk-shuffle-grouper target-tasks)))
+        (if load-aware-shuffle?
+          (mk-custom-grouper (LoadAwareShuffleGrouping. true) context component-id stream-id target-tasks
+                             load-mapping on-custom-grouping)
+          (let [same-tasks (set/intersection
+                             (set target-tasks)
+                             (set (.getThisWorkerTasks context)))]
+            (if-not (empty? same-tasks)
+              (mk-shuffle-grouper (vec same-tasks))
+              (mk-shuffle-grouper target-tasks))))
       :none
         (fn [task-id tuple]
           (let [i (mod (.nextInt random) num-tasks)]
@@ -94,15 +107,16 @@
             ))
       :custom-object
         (let [grouping (thrift/instantiate-java-object (.get_custom_object thrift-grouping))]
-          (mk-custom-grouper grouping context component-id stream-id target-tasks))
+          (mk-custom-grouper grouping context component-id stream-id target-tasks load-mapping on-custom-grouping))
       :custom-serialized
         (let [grouping (Utils/javaDeserialize (.get_custom_serialized thrift-grouping) Serializable)]
-          (mk-custom-grouper grouping context component-id stream-id target-tasks))
+          (mk-custom-grouper grouping context component-id stream-id target-tasks load-mapping on-custom-grouping))
       :direct
         :direct
       )))
 
-(defn- outbound-groupings [^WorkerTopologyContext worker-context this-component-id stream-id out-fields component->grouping]
+(defn- outbound-groupings [^WorkerTopologyContext worker-context this-component-id stream-id out-fields component->grouping
+                           load-mapping load-aware-shuffle? ^List custom-groupings]
   (->> component->grouping
        (filter-key #(-> worker-context
                         (.getComponentTasks %)
@@ -116,13 +130,17 @@
                             out-fields
                             tgrouping
                             (.getComponentTasks worker-context component)
+                            load-mapping
+                            load-aware-shuffle?
+                            (fn [grouping] (.add custom-groupings [stream-id component grouping]))
                             )]))
        (into {})
        (HashMap.)))
 
 (defn outbound-components
-  "Returns map of stream id to component id to grouper"
-  [^WorkerTopologyContext worker-context component-id]
+  "Returns map of stream id to component id to grouper. The custom groupings are added to custom-groupings as
+   [stream-id target-component-id grouping]."
+  [^WorkerTopologyContext worker-context component-id load-mapping load-aware-shuffle? custom-groupings]
   (->> (.getTargets worker-context component-id)
         clojurify-structure
         (map (fn [[stream-id component->grouping]]
@@ -132,7 +150,10 @@
                   component-id
                   stream-id
                   (.getComponentOutputFields worker-context component-id stream-id)
-                  component->grouping)]))
+                  component->grouping
+                  load-mapping
+                  load-aware-shuffle?
+                  custom-groupings)]))
          (into {})
          (HashMap.)))
 
@@ -195,24 +216,28 @@
 
 ;; in its own function so that it can be mocked out by tracked topologies
 (defn mk-executor-transfer-fn [batch-transfer->worker storm-conf]
+  ;; tuples are read by the send thread after emit has returned, so components that modify
+  ;; values after emitting them get a copy taken here, on the emitting thread
+  (let [copy-values? (= false (storm-conf TOPOLOGY-TUPLE-VALUES-IMMUTABLE))]
   (fn this
     ([task tuple block? ^ConcurrentLinkedQueue overflow-buffer]
       (when (= true (storm-conf TOPOLOGY-DEBUG))
         (log-message "TRANSFERING tuple TASK: " task " TUPLE: " tuple))
-      (if (and overflow-buffer (not (.isEmpty overflow-buffer)))
-        (.add overflow-buffer [task tuple])
-        (try-cause
-          (disruptor/publish batch-transfer->worker [task tuple] block?)
-        (catch InsufficientCapacityException e
-          (if overflow-buffer
-            (.add overflow-buffer [task tuple])
-            (throw e))
-          ))))
+      (let [tuple (if copy-values? (.copyWithOwnValues ^TupleImpl tuple) tuple)]
+        (if (and overflow-buffer (not (.isEmpty overflow-buffer)))
+          (.add overflow-buffer [task tuple])
+          (try-cause
+            (disruptor/publish-batched batch-transfer->worker [task tuple] block?)
+          (catch InsufficientCapacityException e
+            (if overflow-buffer
+              (.add overflow-buffer [task tuple])
+              (throw e))
+            )))))
     ([task tuple overflow-buffer]
       (this task tuple (nil? overflow-buffer) overflow-buffer))
     ([task tuple]
       (this task tuple nil)
-      )))
+      ))))
 
 (defn mk-executor-data [worker executor-id]
   (let [worker-context (worker-context worker)
@@ -224,7 +249,10 @@
                                   (str "executor"  executor-id "-send-queue")
                                   (storm-conf TOPOLOGY-EXECUTOR-SEND-BUFFER-SIZE)
                                   :claim-strategy :single-threaded
-                                  :wait-strategy (storm-conf TOPOLOGY-DISRUPTOR-WAIT-STRATEGY))
+                                  :wait-strategy (or (storm-conf TOPOLOGY-EXECUTOR-SEND-WAIT-STRATEGY)
+                                                     (storm-conf TOPOLOGY-DISRUPTOR-WAIT-STRATEGY))
+                                  :wait-timeout-millis (storm-conf TOPOLOGY-DISRUPTOR-WAIT-TIMEOUT-MILLIS)
+                                  :producer-batch-size (storm-conf TOPOLOGY-EXECUTOR-SEND-BATCH-SIZE))
         ]
     (recursive-map
      :worker worker
@@ -249,7 +277,12 @@
      :stats (mk-executor-stats <> (sampling-rate storm-conf))
      :interval->task->metric-registry (HashMap.)
      :task->component (:task->component worker)
-     :stream->component->grouper (outbound-components worker-context component-id)
+     :custom-groupings (ArrayList.)
+     :stream->component->grouper (outbound-components worker-context
+                                                      component-id
+                                                      (:load-mapping worker)
+                                                      (storm-conf TOPOLOGY-SHUFFLE-LOAD-AWARE)
+                                                      (:custom-groupings <>))
      :report-error (throttled-report-error-fn <>)
      :report-error-and-die (fn [error]
                              ((:report-error <>) error)
@@ -344,6 +377,12 @@
                         (into {})
                         (HashMap.))
         _ (log-message "Loaded executor tasks " (:component-id executor-data) ":" (pr-str executor-id))
+        _ (builtin-metrics/register-grouping-metrics (:custom-groupings executor-data)
+                                                     (:storm-conf executor-data)
+                                                     (:user-context (get task-datas (first (:task-ids executor-data)))))
+        _ (builtin-metrics/register-latency-percentile-metrics (:stats executor-data)
+                                                               (:storm-conf executor-data)
+                                                               (:user-context (get task-datas (first (:task-ids executor-data)))))
         report-error-and-die (:report-error-and-die executor-data)
         component-id (:component-id executor-data)
 
@@ -424,7 +463,10 @@
     (disruptor/clojure-handler
       (fn [tuple-batch sequence-id end-of-batch?]
         (fast-list-iter [[task-id msg] tuple-batch]
-          (let [^TupleImpl tuple (if (instance? Tuple msg) msg (.deserialize deserializer msg))]
+          (let [^TupleImpl tuple (cond (instance? Tuple msg) msg
+                                       (instance? TaskMessage msg) (let [^TaskMessage msg msg]
+                                                                     (.deserialize deserializer (.buffer msg) (.offset msg) (.length msg)))
+                                       :else (.deserialize deserializer ^bytes msg))]
             (when debug? (log-message "Processing received message FOR " task-id " TUPLE: " tuple))
             (if task-id
               (tuple-action-fn task-id tuple)
@@ -451,6 +493,9 @@
         ^Integer max-spout-pending (if max-spout-pending (int max-spout-pending))        
         last-active (atom false)        
         spouts (ArrayList. (map :object (vals task-datas)))
+        backpressure? (= true (storm-conf TOPOLOGY-BACKPRESSURE-ENABLE))
+        ^AtomicInteger throttled-queues (-> executor-data :worker :throttled-queues)
+        ^AtomicBoolean topology-throttled (-> executor-data :worker :topology-throttled)
         rand (Random. (Utils/secureRandomLong))
         
         pending (RotatingMap.
@@ -504,6 +549,8 @@
         ;; If topology was started in inactive state, don't call (.open spout) until it's activated first.
         (while (not @(:storm-active-atom executor-data))
           (Thread/sleep 100))
+        ;; only the executor thread flushes its batch, tuples emitted from other threads are not batched
+        (disruptor/batch-on-current-thread! (:batch-transfer-queue executor-data))
         
         (log-message "Opening spout " component-id ":" (keys task-datas))
         (doseq [[task-id task-data] task-datas
@@ -589,6 +636,7 @@
           (let [active? @(:storm-active-atom executor-data)
                 curr-count (.get emitted-count)]
             (if (and (.isEmpty overflow-buffer)
+                     (not (and backpressure? (or (pos? (.get throttled-queues)) (.get topology-throttled))))
                      (or (not max-spout-pending)
                          (< (.size pending) max-spout-pending)))
               (if active?
@@ -610,7 +658,9 @@
               (do (.increment empty-emit-streak)
                   (.emptyEmit spout-wait-strategy (.get empty-emit-streak)))
               (.set empty-emit-streak 0)
-              ))           
+              ))
+          ;; publish what is left of the batch emitted during this iteration
+          (disruptor/flush-batch! (:batch-transfer-queue executor-data) false)
           0))
       :kill-fn (:report-error-and-die executor-data)
       :factory? true
@@ -630,6 +680,16 @@
   (let [curr (or (.get pending key) (long 0))]
     (.put pending key (bit-xor curr id))))
 
+(defn- send-ack-batch! [task-data ^AckCoalescer coalescer acker-task overflow-buffer]
+  (when-let [values (.drain coalescer (int acker-task))]
+    (task/send-direct-unanchored task-data acker-task ACKER-BATCH-STREAM-ID values overflow-buffer)))
+
+(defn- flush-ack-coalescers! [task-datas ack-coalescers overflow-buffer]
+  (fast-map-iter [[task-id ^AckCoalescer coalescer] ack-coalescers]
+    (when-not (.isEmpty coalescer)
+      (fast-map-iter [[acker-task values] (.drainAll coalescer)]
+        (task/send-direct-unanchored (get task-datas task-id) acker-task ACKER-BATCH-STREAM-ID values overflow-buffer)))))
+
 (defmethod mk-threads :bolt [executor-data task-datas initial-credentials]
   (let [storm-conf (:storm-conf executor-data)
         execute-sampler (mk-stats-sampler storm-conf)
@@ -696,7 +756,12 @@
         ;; buffers filled up)
         ;; the overflow buffer is might gradually fill degrading the performance gradually
         ;; eventually running out of memory, but at least prevent live-locks/deadlocks.
-        overflow-buffer (if (storm-conf TOPOLOGY-BOLTS-OUTGOING-OVERFLOW-BUFFER-ENABLE) (ConcurrentLinkedQueue.) nil)]
+        overflow-buffer (if (storm-conf TOPOLOGY-BOLTS-OUTGOING-OVERFLOW-BUFFER-ENABLE) (ConcurrentLinkedQueue.) nil)
+        ;; the grouper of the ack stream tells which acker task tracks a root id
+        acker-grouper (get-in (:stream->component->grouper executor-data) [ACKER-ACK-STREAM-ID ACKER-COMPONENT-ID])
+        ack-coalescers (if (and acker-grouper (acker-batch-enabled? storm-conf))
+                         (into {} (for [t (keys task-datas)]
+                                    [t (AckCoalescer. (int (storm-conf TOPOLOGY-ACKER-BATCH-SIZE)))])))]
     
     ;; TODO: can get any SubscribedState objects out of the context now
 
@@ -705,12 +770,15 @@
         ;; If topology was started in inactive state, don't call prepare bolt until it's activated first.
         (while (not @(:storm-active-atom executor-data))          
           (Thread/sleep 100))
+        ;; only the executor thread flushes its batch, tuples emitted from other threads are not batched
+        (disruptor/batch-on-current-thread! (:batch-transfer-queue executor-data))
         
         (log-message "Preparing bolt " component-id ":" (keys task-datas))
         (doseq [[task-id task-data] task-datas
                 :let [^IBolt bolt-obj (:object task-data)
                       tasks-fn (:tasks-fn task-data)
                       user-context (:user-context task-data)
+                      ^AckCoalescer ack-coalescer (get ack-coalescers task-id)
                       bolt-emit (fn [stream anchors values task]
                                   (let [out-tasks (if task
                                                     (tasks-fn task stream values)
@@ -760,11 +828,16 @@
                        (^void ack [this ^Tuple tuple]
                          (let [^TupleImpl tuple tuple
                                ack-val (.getAckVal tuple)]
-                           (fast-map-iter [[root id] (.. tuple getMessageId getAnchorsToIds)]
-                                          (task/send-unanchored task-data
-                                                                ACKER-ACK-STREAM-ID
-                                                                [root (bit-xor id ack-val)] overflow-buffer)
-                                          ))
+                           (if ack-coalescer
+                             (fast-map-iter [[root id] (.. tuple getMessageId getAnchorsToIds)]
+                                            (let [acker-task (acker-grouper task-id [root id])]
+                                              (when (.ack ack-coalescer (int acker-task) (long root) (long (bit-xor id ack-val)))
+                                                (send-ack-batch! task-data ack-coalescer acker-task overflow-buffer))))
+                             (fast-map-iter [[root id] (.. tuple getMessageId getAnchorsToIds)]
+                                            (task/send-unanchored task-data
+                                                                  ACKER-ACK-STREAM-ID
+                                                                  [root (bit-xor id ack-val)] overflow-buffer)
+                                            )))
                          (let [delta (tuple-time-delta! tuple)
                                debug? (= true (storm-conf TOPOLOGY-DEBUG))]
                            (when debug? 
@@ -781,10 +854,15 @@
                                                       (.getSourceStreamId tuple)
                                                       delta))))
                        (^void fail [this ^Tuple tuple]
-                         (fast-list-iter [root (.. tuple getMessageId getAnchors)]
-                                         (task/send-unanchored task-data
-                                                               ACKER-FAIL-STREAM-ID
-                                                               [root] overflow-buffer))
+                         (if ack-coalescer
+                           (fast-list-iter [root (.. tuple getMessageId getAnchors)]
+                                           (let [acker-task (acker-grouper task-id [root 0])]
+                                             (when (.fail ack-coalescer (int acker-task) (long root))
+                                               (send-ack-batch! task-data ack-coalescer acker-task overflow-buffer))))
+                           (fast-list-iter [root (.. tuple getMessageId getAnchors)]
+                                           (task/send-unanchored task-data
+                                                                 ACKER-FAIL-STREAM-ID
+                                                                 [root] overflow-buffer)))
                          (let [delta (tuple-time-delta! tuple)
                                debug? (= true (storm-conf TOPOLOGY-DEBUG))]
                            (when debug? 
@@ -811,6 +889,9 @@
           (disruptor/consumer-started! receive-queue)
           (fn []            
             (disruptor/consume-batch-when-available receive-queue event-handler)
+            ;; ship the acks and fails coalesced while processing the batch
+            (when ack-coalescers
+              (flush-ack-coalescers! task-datas ack-coalescers overflow-buffer))
             ;; try to clear the overflow-buffer
             (try-cause
               (while (and overflow-buffer (not (.isEmpty overflow-buffer)))
@@ -821,6 +902,8 @@
                 (when (= true (storm-conf TOPOLOGY-DEBUG))
                   (log-message "Insufficient Capacity on queue to emit by bolt " component-id ":" (keys task-datas) ))
                 ))
+            ;; publish what is left of the batch emitted during this iteration
+            (disruptor/flush-batch! (:batch-transfer-queue executor-data) (nil? overflow-buffer))
             0)))
       :kill-fn (:report-error-and-die executor-data)
       :factory? true
@@ -24,6 +24,7 @@
   (:import [java.io FileNotFoundException File FileOutputStream])
   (:import [java.nio.channels Channels WritableByteChannel])
   (:import [backtype.storm.security.auth ThriftServer ThriftConnectionType ReqContext AuthUtils])
+  (:import [backtype.storm.serialization TupleSchema])
   (:use [backtype.storm.scheduler.DefaultScheduler])
   (:import [backtype.storm.scheduler INimbus SupervisorDetails WorkerSlot TopologyDetails
             Cluster Topologies SchedulerAssignment SchedulerAssignmentImpl DefaultScheduler ExecutorDetails])
@@ -34,6 +35,8 @@
             KillOptions RebalanceOptions ClusterSummary SupervisorSummary TopologySummary TopologyInfo
             ExecutorSummary AuthorizationException GetInfoOptions NumErrorsChoice])
   (:import [backtype.storm.daemon Shutdownable])
+  (:import [backtype.storm.heartbeat HeartbeatServer])
+  (:import [backtype.storm.nimbus AssignmentRoundStats AssignmentRoundStats$Phase])
   (:use [backtype.storm util config log timer])
   (:require [backtype.storm [cluster :as cluster] [stats :as stats]])
   (:require [clojure.set :as set])
@@ -88,6 +91,16 @@
      :submit-lock (Object.)
      :cred-update-lock (Object.)
      :heartbeats-cache (atom {})
+     :heartbeat-server (when (and (cluster/heartbeat-server-enabled? conf) (nil? (conf HEARTBEAT-SERVER-HOST)))
+                         (HeartbeatServer. conf))
+     ;; storm id -> what mk-assignments derives from the submitted code and conf of a topology
+     :topology-code-cache (atom {})
+     :assignment-versions (atom {})
+     ;; storm id -> node+port -> the version and data of the last read of the worker heartbeat
+     :worker-heartbeat-versions (atom {})
+     ;; the inputs and the result of the last call to the scheduler
+     :last-schedule (atom nil)
+     :round-stats (doto (AssignmentRoundStats.) (.register))
      :downloaders (file-cache-map conf)
      :uploaders (file-cache-map conf)
      :uptime (uptime-computer)
@@ -335,11 +348,25 @@
 
 (declare compute-executor->component)
 
+(defn- topology-code
+  "Returns the storm conf, topology and task->component of a topology. These do not change after the topology has
+   been submitted, so they are only read from disk once."
+  [nimbus storm-id]
+  (let [cached (@(:topology-code-cache nimbus) storm-id)]
+    (if (:topology cached)
+      cached
+      (let [conf (:conf nimbus)
+            storm-conf (read-storm-conf conf storm-id)
+            topology (read-storm-topology conf storm-id)
+            code {:storm-conf storm-conf
+                  :topology topology
+                  :task->component (storm-task-info topology storm-conf)}]
+        (swap! (:topology-code-cache nimbus) update-in [storm-id] merge code)
+        code))))
+
 (defn read-topology-details [nimbus storm-id]
-  (let [conf (:conf nimbus)
-        storm-base (.storm-base (:storm-cluster-state nimbus) storm-id nil)
-        topology-conf (read-storm-conf conf storm-id)
-        topology (read-storm-topology conf storm-id)
+  (let [storm-base (.storm-base (:storm-cluster-state nimbus) storm-id nil)
+        {topology-conf :storm-conf topology :topology} (topology-code nimbus storm-id)
         executor->component (->> (compute-executor->component nimbus storm-id)
                                  (map-key (fn [[start-task end-task]]
                                             (ExecutorDetails. (int start-task) (int end-task)))))]
@@ -380,10 +407,32 @@
          (update-executor-cache curr (get executor-beats executor) timeout)]
          ))))
 
+(defn- read-executor-beats
+  "Like executor-beats of the cluster state, but only reads the heartbeat of a worker if its version changed since the
+   last read. Heartbeats of workers that stopped heartbeating are not read again."
+  [nimbus storm-id executor->node+port]
+  (let [storm-cluster-state (:storm-cluster-state nimbus)
+        ^AssignmentRoundStats stats (:round-stats nimbus)
+        cached (@(:worker-heartbeat-versions nimbus) storm-id)
+        node+port->executors (reverse-map executor->node+port)
+        worker-beats (into {}
+                       (for [[[node port :as node+port] executors] node+port->executors
+                             :let [version (.worker-heartbeat-version storm-cluster-state storm-id node port)
+                                   last-read (get cached node+port)
+                                   unchanged? (and version (= version (:version last-read)))]]
+                         (do
+                           (.heartbeatRead stats (boolean unchanged?))
+                           [node+port (if unchanged?
+                                        last-read
+                                        {:version version
+                                         :data (.get-worker-heartbeat storm-cluster-state storm-id node port)})])))]
+    (swap! (:worker-heartbeat-versions nimbus) assoc storm-id worker-beats)
+    (apply merge (for [[node+port executors] node+port->executors]
+                   (cluster/convert-executor-beats executors (:data (worker-beats node+port)))))))
+
 (defn update-heartbeats! [nimbus storm-id all-executors existing-assignment]
   (log-debug "Updating heartbeats for " storm-id " " (pr-str all-executors))
-  (let [storm-cluster-state (:storm-cluster-state nimbus)
-        executor-beats (.executor-beats storm-cluster-state storm-id (:executor->node+port existing-assignment))
+  (let [executor-beats (read-executor-beats nimbus storm-id (:executor->node+port existing-assignment))
         cache (update-heartbeat-cache (@(:heartbeats-cache nimbus) storm-id)
                                       executor-beats
                                       all-executors
@@ -431,27 +480,27 @@
   [(first task-ids) (last task-ids)])
 
 (defn- compute-executors [nimbus storm-id]
-  (let [conf (:conf nimbus)
-        storm-base (.storm-base (:storm-cluster-state nimbus) storm-id nil)
+  (let [storm-base (.storm-base (:storm-cluster-state nimbus) storm-id nil)
         component->executors (:component->executors storm-base)
-        storm-conf (read-storm-conf conf storm-id)
-        topology (read-storm-topology conf storm-id)
-        task->component (storm-task-info topology storm-conf)]
-    (->> (storm-task-info topology storm-conf)
-         reverse-map
-         (map-val sort)
-         (join-maps component->executors)
-         (map-val (partial apply partition-fixed))
-         (mapcat second)
-         (map to-executor-id)
-         )))
+        code (topology-code nimbus storm-id)
+        [cached-component->executors cached-executors] (:executors code)]
+    (if (and (:executors code) (= component->executors cached-component->executors))
+      cached-executors
+      ;; only a rebalance changes the executors of a topology
+      (let [executors (->> (:task->component code)
+                           reverse-map
+                           (map-val sort)
+                           (join-maps component->executors)
+                           (map-val (partial apply partition-fixed))
+                           (mapcat second)
+                           (map to-executor-id)
+                           doall)]
+        (swap! (:topology-code-cache nimbus) assoc-in [storm-id :executors] [component->executors executors])
+        executors))))
 
 (defn- compute-executor->component [nimbus storm-id]
-  (let [conf (:conf nimbus)
-        executors (compute-executors nimbus storm-id)
-        topology (read-storm-topology conf storm-id)
-        storm-conf (read-storm-conf conf storm-id)
-        task->component (storm-task-info topology storm-conf)
+  (let [executors (compute-executors nimbus storm-id)
+        task->component (:task->component (topology-code nimbus storm-id))
         executor->component (into {} (for [executor executors
                                            :let [start-task (first executor)
                                                  component (task->component start-task)]]
@@ -561,13 +610,22 @@
     (count (.getSlots scheduler-assignment))
     0 ))
 
+(defn- timed!
+  "Calls f and records how long it took as phase of the current assignment round."
+  [^AssignmentRoundStats stats phase f]
+  (let [start (current-time-millis)
+        ret (f)]
+    (.record stats phase (time-delta-ms start))
+    ret))
+
 ;; public so it can be mocked out
 (defn compute-new-topology->executor->node+port [nimbus existing-assignments topologies scratch-topology-id]
   (let [conf (:conf nimbus)
         storm-cluster-state (:storm-cluster-state nimbus)
+        ^AssignmentRoundStats stats (:round-stats nimbus)
         topology->executors (compute-topology->executors nimbus (keys existing-assignments))
         ;; update the executors heartbeats first.
-        _ (update-all-heartbeats! nimbus existing-assignments topology->executors)
+        _ (timed! stats AssignmentRoundStats$Phase/HEARTBEATS #(update-all-heartbeats! nimbus existing-assignments topology->executors))
         topology->alive-executors (compute-topology->alive-executors nimbus
                                                                      existing-assignments
                                                                      topologies
@@ -600,15 +658,43 @@
                                   (apply merge-with set/union))
 
         supervisors (read-all-supervisor-details nimbus all-scheduling-slots supervisor->dead-ports)
-        cluster (Cluster. (:inimbus nimbus) supervisors topology->scheduler-assignment)
-
-        ;; call scheduler.schedule to schedule all the topologies
-        ;; the new assignments for all the topologies are in the cluster object.
-        _ (.schedule (:scheduler nimbus) topologies cluster)
-        new-scheduler-assignments (.getAssignments cluster)
-        ;; add more information to convert SchedulerAssignment to Assignment
-        new-topology->executor->node+port (compute-topology->executor->node+port new-scheduler-assignments)]
-    (reset! (:id->sched-status nimbus) (.getStatusMap cluster))
+
+        ;; everything the scheduler bases its decisions on. When all topologies are fully assigned and alive,
+        ;; and the last call to the scheduler did not change anything with the same inputs, it would not now either.
+        schedule-inputs {:topologies (into {} (for [^TopologyDetails t (.getTopologies topologies)]
+                                                [(.getId t) (.getNumWorkers t)]))
+                         :executors topology->executors
+                         :alive-executors topology->alive-executors
+                         :assignments (map-val :executor->node+port existing-assignments)
+                         :supervisors (map-val (fn [^SupervisorDetails s]
+                                                 [(.getHost s) (.getSchedulerMeta s) (.getAllPorts s)])
+                                               supervisors)}
+        last-schedule @(:last-schedule nimbus)
+        unchanged? (and (conf NIMBUS-INCREMENTAL-SCHEDULING)
+                        (nil? scratch-topology-id)
+                        (empty? missing-assignment-topologies)
+                        (= schedule-inputs (:inputs last-schedule))
+                        (= (:assignments schedule-inputs) (:result last-schedule)))
+        _ (.schedulerCalled stats (boolean unchanged?))
+
+        new-topology->executor->node+port
+        (if unchanged?
+          (do
+            (log-debug "Nothing changed since the last scheduling round, keeping the assignments")
+            (.record stats AssignmentRoundStats$Phase/SCHEDULING 0)
+            (:result last-schedule))
+          (timed! stats AssignmentRoundStats$Phase/SCHEDULING
+            (fn []
+              (let [cluster (Cluster. (:inimbus nimbus) supervisors topology->scheduler-assignment)
+                    ;; call scheduler.schedule to schedule all the topologies
+                    ;; the new assignments for all the topologies are in the cluster object.
+                    _ (.schedule (:scheduler nimbus) topologies cluster)
+                    new-scheduler-assignments (.getAssignments cluster)
+                    ;; add more information to convert SchedulerAssignment to Assignment
+                    ret (compute-topology->executor->node+port new-scheduler-assignments)]
+                (reset! (:id->sched-status nimbus) (.getStatusMap cluster))
+                (reset! (:last-schedule nimbus) {:inputs schedule-inputs :result ret})
+                ret))))]
     ;; print some useful information.
     (doseq [[topology-id executor->node+port] new-topology->executor->node+port
             :let [old-executor->node+port (-> topology-id
@@ -655,6 +741,18 @@
 (defn- to-worker-slot [[node port]]
   (WorkerSlot. node port))
 
+(defn- read-assignment
+  "Returns the assignment of a topology, only reading it from ZooKeeper if its version changed since the last read."
+  [nimbus storm-id]
+  (let [storm-cluster-state (:storm-cluster-state nimbus)
+        cached (@(:assignment-versions nimbus) storm-id)
+        version (.assignment-version storm-cluster-state storm-id nil)]
+    (if (and cached (= version (:version cached)))
+      (:data cached)
+      (let [info (.assignment-info-with-version storm-cluster-state storm-id nil)]
+        (swap! (:assignment-versions nimbus) assoc storm-id info)
+        (:data info)))))
+
 ;; get existing assignment (just the executor->node+port map) -> default to {}
 ;; filter out ones which have a executor timeout
 ;; figure out available slots on cluster. add to that the used valid slots to get total slots. figure out how many executors should be in each slot (e.g., 4, 4, 4, 5)
@@ -664,19 +762,23 @@
   (let [conf (:conf nimbus)
         storm-cluster-state (:storm-cluster-state nimbus)
         ^INimbus inimbus (:inimbus nimbus)
+        ^AssignmentRoundStats stats (:round-stats nimbus)
+        start-time (current-time-millis)
         ;; read all the topologies
         topology-ids (.active-storms storm-cluster-state)
-        topologies (into {} (for [tid topology-ids]
-                              {tid (read-topology-details nimbus tid)}))
+        topologies (timed! stats AssignmentRoundStats$Phase/TOPOLOGIES
+                     #(into {} (for [tid topology-ids]
+                                 {tid (read-topology-details nimbus tid)})))
         topologies (Topologies. topologies)
         ;; read all the assignments
         assigned-topology-ids (.assignments storm-cluster-state nil)
-        existing-assignments (into {} (for [tid assigned-topology-ids]
-                                        ;; for the topology which wants rebalance (specified by the scratch-topology-id)
-                                        ;; we exclude its assignment, meaning that all the slots occupied by its assignment
-                                        ;; will be treated as free slot in the scheduler code.
-                                        (when (or (nil? scratch-topology-id) (not= tid scratch-topology-id))
-                                          {tid (.assignment-info storm-cluster-state tid nil)})))
+        existing-assignments (timed! stats AssignmentRoundStats$Phase/ASSIGNMENTS
+                               #(into {} (for [tid assigned-topology-ids]
+                                           ;; for the topology which wants rebalance (specified by the scratch-topology-id)
+                                           ;; we exclude its assignment, meaning that all the slots occupied by its assignment
+                                           ;; will be treated as free slot in the scheduler code.
+                                           (when (or (nil? scratch-topology-id) (not= tid scratch-topology-id))
+                                             {tid (read-assignment nimbus tid)}))))
         ;; make the new assignments for topologies
         topology->executor->node+port (compute-new-topology->executor->node+port
                                        nimbus
@@ -731,6 +833,12 @@
               )))
           (into {})
           (.assignSlots inimbus topologies))
+    (let [took (time-delta-ms start-time)]
+      (.record stats AssignmentRoundStats$Phase/TOTAL took)
+      (if (> took (to-millis (conf NIMBUS-MONITOR-FREQ-SECS)))
+        (log-warn "Computing assignments for " (count topology-ids) " topologies took longer than "
+                  NIMBUS-MONITOR-FREQ-SECS ", ms spent: " stats)
+        (log-debug "Computed assignments for " (count topology-ids) " topologies, ms spent: " stats)))
     ))
 
 (defn- start-storm [nimbus storm-name storm-id topology-initial-status]
@@ -806,9 +914,10 @@
 (defn cleanup-storm-ids [conf storm-cluster-state]
   (let [heartbeat-ids (set (.heartbeat-storms storm-cluster-state))
         error-ids (set (.error-topologies storm-cluster-state))
+        backpressure-ids (set (.backpressure-topologies storm-cluster-state))
         code-ids (code-ids conf)
         assigned-ids (set (.active-storms storm-cluster-state))]
-    (set/difference (set/union heartbeat-ids error-ids code-ids) assigned-ids)
+    (set/difference (set/union heartbeat-ids error-ids backpressure-ids code-ids) assigned-ids)
     ))
 
 (defn extract-status-str [base]
@@ -877,8 +986,12 @@
           (log-message "Cleaning up " id)
           (.teardown-heartbeats! storm-cluster-state id)
           (.teardown-topology-errors! storm-cluster-state id)
+          (.remove-backpressure! storm-cluster-state id)
           (rmr (master-stormdist-root conf id))
-          (swap! (:heartbeats-cache nimbus) dissoc id))
+          (swap! (:heartbeats-cache nimbus) dissoc id)
+          (swap! (:topology-code-cache nimbus) dissoc id)
+          (swap! (:assignment-versions nimbus) dissoc id)
+          (swap! (:worker-heartbeat-versions nimbus) dissoc id))
         ))))
 
 (defn- file-older-than? [now seconds file]
@@ -1046,6 +1159,7 @@
           (let [topo-conf (from-json serializedConf)]
             (try
               (validate-configs-with-schemas topo-conf)
+              (TupleSchema/validate topo-conf topology)
               (catch IllegalArgumentException ex
                 (throw (InvalidTopologyException. (.getMessage ex)))))
             (.validate ^backtype.storm.nimbus.ITopologyValidator (:validator nimbus)
@@ -1347,6 +1461,9 @@
         (log-message "Shutting down master")
         (cancel-timer (:timer nimbus))
         (.disconnect (:storm-cluster-state nimbus))
+        (when-let [^HeartbeatServer server (:heartbeat-server nimbus)]
+          (.close server))
+        (.unregister ^AssignmentRoundStats (:round-stats nimbus))
         (.cleanup (:downloaders nimbus))
         (.cleanup (:uploaders nimbus))
         (log-message "Shut down master")
@@ -123,6 +123,21 @@
       (send-unanchored task-data stream values nil)
       ))
 
+(defn send-direct-unanchored
+  [task-data out-task stream values overflow-buffer]
+  (let [^TopologyContext topology-context (:system-context task-data)
+        tasks-fn (:tasks-fn task-data)
+        transfer-fn (-> task-data :executor-data :transfer-fn)
+        out-tuple (TupleImpl. topology-context
+                               values
+                               (.getThisTaskId topology-context)
+                               stream)]
+    (fast-list-iter [t (tasks-fn out-task stream values)]
+      (transfer-fn t
+                   out-tuple
+                   overflow-buffer)
+      )))
+
 (defn mk-tasks-fn [task-data]
   (let [task-id (:task-id task-data)
         executor-data (:executor-data task-data)
@@ -133,6 +148,11 @@
         stream->component->grouper (:stream->component->grouper executor-data)
         user-context (:user-context task-data)
         executor-stats (:stats executor-data)
+        worker-tasks (-> executor-data :worker :task-ids set)
+        count-transfers! (fn [stream out-tasks]
+                           (let [num-local (count (filter worker-tasks out-tasks))]
+                             (builtin-metrics/transferred-tuple-locality! (:builtin-metrics task-data) executor-stats stream
+                                                                          num-local (- (count out-tasks) num-local))))
         debug? (= true (storm-conf TOPOLOGY-DEBUG))]
         
     (fn ([^Integer out-task-id ^String stream ^List values]
@@ -150,7 +170,9 @@
               (stats/emitted-tuple! executor-stats stream)
               (if out-task-id
                 (stats/transferred-tuples! executor-stats stream 1)
-                (builtin-metrics/transferred-tuple! (:builtin-metrics task-data) executor-stats stream 1)))
+                (builtin-metrics/transferred-tuple! (:builtin-metrics task-data) executor-stats stream 1))
+              (when out-task-id
+                (count-transfers! stream [out-task-id])))
             (if out-task-id [out-task-id])
             ))
         ([^String stream ^List values]
@@ -171,7 +193,8 @@
                (stats/emitted-tuple! executor-stats stream)
                (builtin-metrics/emitted-tuple! (:builtin-metrics task-data) executor-stats stream)              
                (stats/transferred-tuples! executor-stats stream (count out-tasks))
-               (builtin-metrics/transferred-tuple! (:builtin-metrics task-data) executor-stats stream (count out-tasks)))
+               (builtin-metrics/transferred-tuple! (:builtin-metrics task-data) executor-stats stream (count out-tasks))
+               (count-transfers! stream out-tasks))
              out-tasks)))
     ))
 
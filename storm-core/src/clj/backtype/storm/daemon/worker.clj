@@ -21,10 +21,12 @@
   (:require [clojure.set :as set])
   (:require [backtype.storm.messaging.loader :as msg-loader])
   (:import [java.util.concurrent Executors])
+  (:import [java.util.concurrent.atomic AtomicInteger AtomicBoolean])
   (:import [java.util ArrayList HashMap])
-  (:import [backtype.storm.utils Utils TransferDrainer ThriftTopologyUtils])
+  (:import [backtype.storm.utils Utils TransferDrainer ThriftTopologyUtils DisruptorQueue])
   (:import [backtype.storm.messaging TransportFactory])
-  (:import [backtype.storm.messaging TaskMessage IContext IConnection ConnectionWithStatus ConnectionWithStatus$Status])
+  (:import [backtype.storm.messaging TaskMessage IContext IConnection IConnectionBacklog ConnectionWithStatus ConnectionWithStatus$Status])
+  (:import [backtype.storm.grouping LoadMapping])
   (:import [backtype.storm.daemon Shutdownable])
   (:import [backtype.storm.serialization KryoTupleSerializer])
   (:import [backtype.storm.generated StormTopology])
@@ -114,12 +116,20 @@
   (fast-list-iter [[task tuple :as pair] tuple-batch]
     (.serialize serializer tuple)))
 
+(defn- serialize-in-transport?
+  "Whether tuples for other workers are left for the transfer thread to serialize straight into the transport.
+   Requires immutable values, because the transfer thread reads them after the executor has moved on."
+  [storm-conf]
+  (and (storm-conf TOPOLOGY-TRANSFER-SERIALIZE-IN-TRANSPORT)
+       (not= false (storm-conf TOPOLOGY-TUPLE-VALUES-IMMUTABLE))))
+
 (defn mk-transfer-fn [worker]
   (let [local-tasks (-> worker :task-ids set)
         local-transfer (:transfer-local-fn worker)
         ^DisruptorQueue transfer-queue (:transfer-queue worker)
         task->node+port (:cached-task->node+port worker)
         try-serialize-local ((:storm-conf worker) TOPOLOGY-TESTING-ALWAYS-TRY-SERIALIZE)
+        serialize-in-transport? (serialize-in-transport? (:storm-conf worker))
         transfer-fn
           (fn [^KryoTupleSerializer serializer tuple-batch]
             (let [local (ArrayList.)
@@ -133,10 +143,16 @@
                     (when (not (.get remoteMap node+port))
                       (.put remoteMap node+port (ArrayList.)))
                     (let [remote (.get remoteMap node+port)]
-                      (.add remote (TaskMessage. task (.serialize serializer tuple)))
+                      (.add remote (if serialize-in-transport?
+                                     pair
+                                     (TaskMessage. task (.serialize serializer tuple))))
                      )))) 
-                (local-transfer local)
-                (disruptor/publish transfer-queue remoteMap)
+                ;; batches that stay within this worker never touch the transfer queue;
+                ;; tuples are handed over by reference, see mk-executor-transfer-fn
+                (when-not (.isEmpty local)
+                  (local-transfer local))
+                (when-not (.isEmpty remoteMap)
+                  (disruptor/publish transfer-queue remoteMap))
               ))]
     (if try-serialize-local
       (do 
@@ -151,10 +167,22 @@
        ;; TODO: this depends on the type of executor
        (map (fn [e] [e (disruptor/disruptor-queue (str "receive-queue" e)
                                                   (storm-conf TOPOLOGY-EXECUTOR-RECEIVE-BUFFER-SIZE)
-                                                  :wait-strategy (storm-conf TOPOLOGY-DISRUPTOR-WAIT-STRATEGY))]))
+                                                  :wait-strategy (or (storm-conf TOPOLOGY-EXECUTOR-RECEIVE-WAIT-STRATEGY)
+                                                                     (storm-conf TOPOLOGY-DISRUPTOR-WAIT-STRATEGY))
+                                                  :wait-timeout-millis (storm-conf TOPOLOGY-DISRUPTOR-WAIT-TIMEOUT-MILLIS))]))
        (into {})
        ))
 
+(defn- enable-backpressure!
+  "Makes the given queues count themselves in throttled-queues while they are above their high water mark"
+  [storm-conf queues ^AtomicInteger throttled-queues]
+  (when (= true (storm-conf TOPOLOGY-BACKPRESSURE-ENABLE))
+    (doseq [queue queues]
+      (disruptor/enable-backpressure! queue
+                                      throttled-queues
+                                      (storm-conf TOPOLOGY-BACKPRESSURE-WATER-MARK-HIGH)
+                                      (storm-conf TOPOLOGY-BACKPRESSURE-WATER-MARK-LOW)))))
+
 (defn- stream->fields [^StormTopology topology component]
   (->> (ThriftTopologyUtils/getComponentCommon topology component)
        .get_streams
@@ -192,8 +220,13 @@
   (let [assignment-versions (atom {})
         executors (set (read-worker-executors storm-conf storm-cluster-state storm-id assignment-id port assignment-versions))
         transfer-queue (disruptor/disruptor-queue "worker-transfer-queue" (storm-conf TOPOLOGY-TRANSFER-BUFFER-SIZE)
-                                                  :wait-strategy (storm-conf TOPOLOGY-DISRUPTOR-WAIT-STRATEGY))
+                                                  :wait-strategy (or (storm-conf TOPOLOGY-TRANSFER-WAIT-STRATEGY)
+                                                                     (storm-conf TOPOLOGY-DISRUPTOR-WAIT-STRATEGY))
+                                                  :wait-timeout-millis (storm-conf TOPOLOGY-DISRUPTOR-WAIT-TIMEOUT-MILLIS))
         executor-receive-queue-map (mk-receive-queue-map storm-conf executors)
+        ;; # of this worker's queues above their high water mark, the spouts of the topology do not emit while it is positive
+        throttled-queues (AtomicInteger. 0)
+        _ (enable-backpressure! storm-conf (cons transfer-queue (vals executor-receive-queue-map)) throttled-queues)
         
         receive-queue-map (->> executor-receive-queue-map
                                (mapcat (fn [[e queue]] (for [t (executor-id->tasks e)] [t queue])))
@@ -230,6 +263,8 @@
       :refresh-active-timer (mk-halting-timer "refresh-active-timer")
       :executor-heartbeat-timer (mk-halting-timer "executor-heartbeat-timer")
       :user-timer (mk-halting-timer "user-timer")
+      :refresh-load-timer (mk-halting-timer "refresh-load-timer")
+      :backpressure-timer (mk-halting-timer "backpressure-timer")
       :task->component (HashMap. (storm-task-info topology storm-conf)) ; for optimized access when used in tasks later on
       :component->stream->fields (component->stream->fields (:system-topology <>))
       :component->sorted-tasks (->> (:task->component <>) reverse-map (map-val sort))
@@ -237,6 +272,10 @@
       :cached-node+port->socket (atom {})
       :cached-task->node+port (atom {})
       :transfer-queue transfer-queue
+      :throttled-queues throttled-queues
+      ;; whether any worker of the topology, this one included, has published that it is throttled
+      :topology-throttled (AtomicBoolean. false)
+      :load-mapping (LoadMapping.)
       :executor-receive-queue-map executor-receive-queue-map
       :short-executor-receive-queue-map (map-key first executor-receive-queue-map)
       :task->short-executor (->> executors
@@ -315,6 +354,28 @@
               
            )))))
 
+;; how often a worker checks whether to publish that its throttle flipped
+(def BACKPRESSURE-CHECK-SECS 0.1)
+
+(defn mk-publish-backpressure
+  "Returns a fn that publishes in the cluster state whether this worker is throttled, so that the spouts of the other
+   workers of the topology stop as well"
+  [worker]
+  (let [^AtomicInteger throttled-queues (:throttled-queues worker)
+        published (atom false)]
+    (fn []
+      (let [throttled? (pos? (.get throttled-queues))]
+        (when-not (= throttled? @published)
+          (.worker-backpressure! (:storm-cluster-state worker) (:storm-id worker) (:assignment-id worker) (:port worker) throttled?)
+          (reset! published throttled?))))))
+
+(defn refresh-topology-backpressure
+  ([worker]
+    (refresh-topology-backpressure worker (fn [& ignored] (schedule (:backpressure-timer worker) 0 (partial refresh-topology-backpressure worker)))))
+  ([worker callback]
+    (.set ^AtomicBoolean (:topology-throttled worker)
+          (.topology-backpressure (:storm-cluster-state worker) (:storm-id worker) callback))))
+
 (defn refresh-storm-active
   ([worker]
     (refresh-storm-active worker (fn [& ignored] (schedule (:refresh-active-timer worker) 0 (partial refresh-storm-active worker)))))
@@ -330,6 +391,9 @@
 (defn mk-transfer-tuples-handler [worker]
   (let [^DisruptorQueue transfer-queue (:transfer-queue worker)
         drainer (TransferDrainer.)
+        ;; owned by the transfer thread, which serializes the tuples published as [task tuple] pairs
+        serializer (when (serialize-in-transport? (:storm-conf worker))
+                     (KryoTupleSerializer. (:storm-conf worker) (worker-context worker)))
         node+port->socket (:cached-node+port->socket worker)
         task->node+port (:cached-task->node+port worker)
         endpoint-socket-lock (:endpoint-socket-lock worker)
@@ -341,9 +405,31 @@
         (when batch-end?
           (read-locked endpoint-socket-lock
             (let [node+port->socket @node+port->socket]
-              (.send drainer node+port->socket)))
+              (.send drainer node+port->socket serializer)))
           (.clear drainer))))))
 
+;; how often the load of the tasks this worker sends to is refreshed
+(def LOAD-REFRESH-SECS 1)
+
+(defn refresh-load
+  "Publish the load of the tasks this worker sends to. For local tasks it is how full their receive queue is, for
+   remote tasks the backlog of the connection to their worker relative to the size of a receive queue."
+  [worker]
+  (let [^LoadMapping load-mapping (:load-mapping worker)
+        receive-buffer-size (double ((:storm-conf worker) TOPOLOGY-EXECUTOR-RECEIVE-BUFFER-SIZE))
+        node+port->socket @(:cached-node+port->socket worker)
+        load (HashMap.)]
+    (doseq [[[start end] ^DisruptorQueue q] (:executor-receive-queue-map worker)]
+      (let [queue-load (double (.pctFull q))]
+        (doseq [task (range start (inc end))]
+          (.put load (int task) queue-load))))
+    (doseq [[task node+port] @(:cached-task->node+port worker)
+            :let [connection (node+port->socket node+port)]
+            :when (and (instance? IConnectionBacklog connection)
+                       (not (.containsKey load (int task))))]
+      (.put load (int task) (min 1.0 (/ (.getPendingMessages ^IConnectionBacklog connection) receive-buffer-size))))
+    (.setLoad load-mapping load)))
+
 ;; Check whether this messaging connection is ready to send data
 (defn is-connection-ready [^IConnection connection]
   (if (instance?  ConnectionWithStatus connection)
@@ -415,7 +501,7 @@
         storm-conf (override-login-config-with-system-property storm-conf)
         acls (Utils/getWorkerACL storm-conf)
         cluster-state (cluster/mk-distributed-cluster-state conf :auth-conf storm-conf :acls acls)
-        storm-cluster-state (cluster/mk-storm-cluster-state cluster-state :acls acls)
+        storm-cluster-state (cluster/mk-storm-cluster-state cluster-state :acls acls :heartbeat-conf conf)
         initial-credentials (.credentials storm-cluster-state storm-id nil)
         auto-creds (AuthUtils/GetAutoCredentials storm-conf)
         subject (AuthUtils/populateSubject nil auto-creds initial-credentials)]
@@ -444,6 +530,14 @@
 
         _ (refresh-storm-active worker nil)
 
+        _ (schedule-recurring (:refresh-load-timer worker) 0 LOAD-REFRESH-SECS #(refresh-load worker))
+
+        backpressure? (= true (storm-conf TOPOLOGY-BACKPRESSURE-ENABLE))
+        _ (when backpressure?
+            (schedule-recurring (:backpressure-timer worker) 0 BACKPRESSURE-CHECK-SECS (mk-publish-backpressure worker))
+            ;; the watch set by each refresh picks up changes in between
+            (schedule-recurring (:backpressure-timer worker) 0 (conf TASK-REFRESH-POLL-SECS) (partial refresh-topology-backpressure worker)))
+
 
         _ (reset! executors (dofor [e (:executors worker)] (executor/mk-executor worker e initial-credentials)))
 
@@ -479,12 +573,16 @@
                     (cancel-timer (:refresh-active-timer worker))
                     (cancel-timer (:executor-heartbeat-timer worker))
                     (cancel-timer (:user-timer worker))
+                    (cancel-timer (:refresh-load-timer worker))
+                    (cancel-timer (:backpressure-timer worker))
                     
                     (close-resources worker)
                     
                     ;; TODO: here need to invoke the "shutdown" method of WorkerHook
                     
                     (.remove-worker-heartbeat! (:storm-cluster-state worker) storm-id assignment-id port)
+                    (when backpressure?
+                      (.worker-backpressure! (:storm-cluster-state worker) storm-id assignment-id port false))
                     (log-message "Disconnecting from storm cluster state context")
                     (.disconnect (:storm-cluster-state worker))
                     (.close (:cluster-state worker))
@@ -503,6 +601,8 @@
                  (timer-waiting? (:refresh-active-timer worker))
                  (timer-waiting? (:executor-heartbeat-timer worker))
                  (timer-waiting? (:user-timer worker))
+                 (timer-waiting? (:refresh-load-timer worker))
+                 (timer-waiting? (:backpressure-timer worker))
                  ))
              )
         credentials (atom initial-credentials)
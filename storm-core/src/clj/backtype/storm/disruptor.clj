@@ -15,7 +15,7 @@
 ;; limitations under the License.
 
 (ns backtype.storm.disruptor
-  (:import [backtype.storm.utils DisruptorQueue])
+  (:import [backtype.storm.utils DisruptorQueue ParkingWaitStrategy])
   (:import [com.lmax.disruptor MultiThreadedClaimStrategy SingleThreadedClaimStrategy
             BlockingWaitStrategy SleepingWaitStrategy YieldingWaitStrategy
             BusySpinWaitStrategy])
@@ -32,7 +32,8 @@
   {:block (fn [] (BlockingWaitStrategy.))
    :yield (fn [] (YieldingWaitStrategy.))
    :sleep (fn [] (SleepingWaitStrategy.))
-   :spin (fn [] (BusySpinWaitStrategy.))})
+   :spin (fn [] (BusySpinWaitStrategy.))
+   :park (fn [] (ParkingWaitStrategy.))})
 
 (defn- mk-wait-strategy
   [spec]
@@ -45,10 +46,19 @@
 ;; wouldn't make it to the acker until the batch timed out and another tuple was played into the queue,
 ;; unblocking the consumer
 (defnk disruptor-queue
-  [^String queue-name buffer-size :claim-strategy :multi-threaded :wait-strategy :block]
-  (DisruptorQueue. queue-name
-                   ((CLAIM-STRATEGY claim-strategy) buffer-size)
-                   (mk-wait-strategy wait-strategy)))
+  [^String queue-name buffer-size :claim-strategy :multi-threaded :wait-strategy :block :wait-timeout-millis 10
+   :producer-batch-size 1]
+  (let [ret (DisruptorQueue. queue-name
+                             ((CLAIM-STRATEGY claim-strategy) buffer-size)
+                             (mk-wait-strategy wait-strategy)
+                             (long wait-timeout-millis))]
+    (when (> producer-batch-size 1)
+      (.enableProducerBatching ret (int producer-batch-size)))
+    ret))
+
+(defn enable-backpressure!
+  [^DisruptorQueue queue throttled-queues high-water-mark low-water-mark]
+  (.enableBackpressure queue throttled-queues (double high-water-mark) (double low-water-mark)))
 
 (defn clojure-handler
   [afn]
@@ -67,6 +77,18 @@
   ([q o]
    (publish q o true)))
 
+(defn publish-batched
+  [^DisruptorQueue q o block?]
+  (.publishBatched q o block?))
+
+(defn batch-on-current-thread!
+  [^DisruptorQueue q]
+  (.batchOnCurrentThread q))
+
+(defn flush-batch!
+  [^DisruptorQueue q block?]
+  (.flushBatch q block?))
+
 (defn try-publish
   [^DisruptorQueue q o]
   (.tryPublish q o))
@@ -36,7 +36,8 @@
                (while (and (not @closed) (.hasNext iter)) 
                   (let [packet (.next iter)
                         task (if packet (.task ^TaskMessage packet))
-                        message (if packet (.message ^TaskMessage packet))]
+                        ;; slices of a shared receive buffer are passed on as is and read in place by the executor
+                        message (if packet (if (.isSlice ^TaskMessage packet) packet (.message ^TaskMessage packet)))]
                       (if (= task -1)
                          (do (log-message "Receiving-thread:[" storm-id ", " port "] received shutdown notice")
                            (.close socket)
@@ -19,147 +19,11 @@
             NotAliveException AlreadyAliveException InvalidTopologyException GlobalStreamId
             ClusterSummary TopologyInfo TopologySummary ExecutorSummary ExecutorStats ExecutorSpecificStats
             SpoutStats BoltStats ErrorInfo SupervisorSummary])
-  (:use [backtype.storm util log])
-  (:use [clojure.math.numeric-tower :only [ceil]]))
-
-;;TODO: consider replacing this with some sort of RRD
-
-(defn curr-time-bucket
-  [^Integer time-secs ^Integer bucket-size-secs]
-  (* bucket-size-secs (unchecked-divide-int time-secs bucket-size-secs)))
-
-(defrecord RollingWindow
-  [updater merger extractor bucket-size-secs num-buckets buckets])
-
-(defn rolling-window
-  [updater merger extractor bucket-size-secs num-buckets]
-  (RollingWindow. updater merger extractor bucket-size-secs num-buckets {}))
-
-(defn update-rolling-window
-  ([^RollingWindow rw time-secs & args]
-   ;; this is 2.5x faster than using update-in...
-   (let [time-bucket (curr-time-bucket time-secs (:bucket-size-secs rw))
-         buckets (:buckets rw)
-         curr (get buckets time-bucket)
-         curr (apply (:updater rw) curr args)]
-     (assoc rw :buckets (assoc buckets time-bucket curr)))))
-
-(defn value-rolling-window
-  [^RollingWindow rw]
-  ((:extractor rw)
-   (let [values (vals (:buckets rw))]
-     (apply (:merger rw) values))))
-
-(defn cleanup-rolling-window
-  [^RollingWindow rw]
-  (let [buckets (:buckets rw)
-        cutoff (- (current-time-secs)
-                  (* (:num-buckets rw)
-                     (:bucket-size-secs rw)))
-        to-remove (filter #(< % cutoff) (keys buckets))
-        buckets (apply dissoc buckets to-remove)]
-    (assoc rw :buckets buckets)))
-
-(defn rolling-window-size
-  [^RollingWindow rw]
-  (* (:bucket-size-secs rw) (:num-buckets rw)))
-
-(defrecord RollingWindowSet [updater extractor windows all-time])
-
-(defn rolling-window-set [updater merger extractor num-buckets & bucket-sizes]
-  (RollingWindowSet. updater extractor (dofor [s bucket-sizes] (rolling-window updater merger extractor s num-buckets)) nil)
-  )
-
-(defn update-rolling-window-set
-  ([^RollingWindowSet rws & args]
-   (let [now (current-time-secs)
-         new-windows (dofor [w (:windows rws)]
-                            (apply update-rolling-window w now args))]
-     (assoc rws
-       :windows new-windows
-       :all-time (apply (:updater rws) (:all-time rws) args)))))
-
-(defn cleanup-rolling-window-set
-  ([^RollingWindowSet rws]
-   (let [windows (:windows rws)]
-     (assoc rws :windows (map cleanup-rolling-window windows)))))
-
-(defn value-rolling-window-set
-  [^RollingWindowSet rws]
-  (merge
-    (into {}
-          (for [w (:windows rws)]
-            {(rolling-window-size w) (value-rolling-window w)}
-            ))
-    {:all-time ((:extractor rws) (:all-time rws))}))
-
-(defn- incr-val
-  ([amap key]
-   (incr-val amap key 1))
-  ([amap key amt]
-   (let [val (get amap key (long 0))]
-     (assoc amap key (+ val amt)))))
-
-(defn- update-avg
-  [curr val]
-  (if curr
-    [(+ (first curr) val) (inc (second curr))]
-    [val (long 1)]))
-
-(defn- merge-avg
-  [& avg]
-  [(apply + (map first avg))
-   (apply + (map second avg))
-   ])
-
-(defn- extract-avg
-  [pair]
-  (double (/ (first pair) (second pair))))
-
-(defn- update-keyed-avg
-  [amap key val]
-  (assoc amap key (update-avg (get amap key) val)))
-
-(defn- merge-keyed-avg [& vals]
-  (apply merge-with merge-avg vals))
-
-(defn- extract-keyed-avg [vals]
-  (map-val extract-avg vals))
-
-(defn- counter-extract [v]
-  (if v v {}))
-
-(defn keyed-counter-rolling-window-set
-  [num-buckets & bucket-sizes]
-  (apply rolling-window-set incr-val (partial merge-with +) counter-extract num-buckets bucket-sizes))
-
-(defn avg-rolling-window-set
-  [num-buckets & bucket-sizes]
-  (apply rolling-window-set update-avg merge-avg extract-avg num-buckets bucket-sizes))
-
-(defn keyed-avg-rolling-window-set
-  [num-buckets & bucket-sizes]
-  (apply rolling-window-set update-keyed-avg merge-keyed-avg extract-keyed-avg num-buckets bucket-sizes))
-
-;; (defn choose-bucket [val buckets]
-;;   (let [ret (find-first #(<= val %) buckets)]
-;;     (if ret
-;;       ret
-;;       (* 10 (first buckets)))
-;;     ))
-
-;; ;; buckets must be between 1 and 9
-;; (defn to-proportional-bucket
-;;   "Maps to a bucket in the values order of magnitude. So if buckets are [1 2 5],
-;;    3 -> 5
-;;    7 -> 10
-;;    1234 -> 2000
-;;    etc."
-;;   [val buckets]
-;;   (cond (= 0 val) 0
-;;         (between? val 1 9) (choose-bucket val buckets)
-;;         :else (* 10 (to-proportional-bucket (ceil (/ val 10))
-;;                                             buckets))))
+  (:import [backtype.storm.stats RollingStats RollingCounts RollingLatencies])
+  (:use [backtype.storm util log]))
+
+;; Every stat is a RollingCounts or RollingLatencies, which keep their windows in primitive arrays and can be
+;; updated from any thread.
 
 (def COMMON-FIELDS [:emitted :transferred])
 (defrecord CommonStats [emitted transferred rate])
@@ -176,99 +40,119 @@
 ;; 10 minutes, 3 hours, 1 day
 (def STAT-BUCKETS [30 540 4320])
 
+;; the all time latency percentiles reported by the __latency-percentiles builtin metric
+(def LATENCY-PERCENTILES {"p50" 0.5 "p99" 0.99 "p999" 0.999})
+
+(defn- mk-counts []
+  (RollingCounts. NUM-STAT-BUCKETS (int-array STAT-BUCKETS)))
+
+(defn- mk-latencies []
+  (RollingLatencies. NUM-STAT-BUCKETS (int-array STAT-BUCKETS)))
+
 (defn- mk-common-stats
   [rate]
   (CommonStats.
-    (atom (apply keyed-counter-rolling-window-set NUM-STAT-BUCKETS STAT-BUCKETS))
-    (atom (apply keyed-counter-rolling-window-set NUM-STAT-BUCKETS STAT-BUCKETS))
+    (mk-counts)
+    (mk-counts)
     rate))
 
 (defn mk-bolt-stats
   [rate]
   (BoltExecutorStats.
     (mk-common-stats rate)
-    (atom (apply keyed-counter-rolling-window-set NUM-STAT-BUCKETS STAT-BUCKETS))
-    (atom (apply keyed-counter-rolling-window-set NUM-STAT-BUCKETS STAT-BUCKETS))
-    (atom (apply keyed-avg-rolling-window-set NUM-STAT-BUCKETS STAT-BUCKETS))
-    (atom (apply keyed-counter-rolling-window-set NUM-STAT-BUCKETS STAT-BUCKETS))
-    (atom (apply keyed-avg-rolling-window-set NUM-STAT-BUCKETS STAT-BUCKETS))))
+    (mk-counts)
+    (mk-counts)
+    (mk-latencies)
+    (mk-counts)
+    (mk-latencies)))
 
 (defn mk-spout-stats
   [rate]
   (SpoutExecutorStats.
     (mk-common-stats rate)
-    (atom (apply keyed-counter-rolling-window-set NUM-STAT-BUCKETS STAT-BUCKETS))
-    (atom (apply keyed-counter-rolling-window-set NUM-STAT-BUCKETS STAT-BUCKETS))
-    (atom (apply keyed-avg-rolling-window-set NUM-STAT-BUCKETS STAT-BUCKETS))))
-
-(defmacro update-executor-stat!
-  [stats path & args]
-  (let [path (collectify path)]
-    `(swap! (-> ~stats ~@path) update-rolling-window-set ~@args)))
+    (mk-counts)
+    (mk-counts)
+    (mk-latencies)))
 
 (defmacro stats-rate
   [stats]
   `(-> ~stats :common :rate))
 
+(defn- count!
+  [^RollingCounts counts key amt]
+  (.add counts key (long amt)))
+
+(defn- record-latency!
+  [^RollingLatencies latencies key latency-ms]
+  (.record latencies key (long latency-ms)))
+
 (defn emitted-tuple!
   [stats stream]
-  (update-executor-stat! stats [:common :emitted] stream (stats-rate stats)))
+  (count! (-> stats :common :emitted) stream (stats-rate stats)))
 
 (defn transferred-tuples!
   [stats stream amt]
-  (update-executor-stat! stats [:common :transferred] stream (* (stats-rate stats) amt)))
+  (count! (-> stats :common :transferred) stream (* (stats-rate stats) amt)))
 
 (defn bolt-execute-tuple!
   [^BoltExecutorStats stats component stream latency-ms]
   (let [key [component stream]]
-    (update-executor-stat! stats :executed key (stats-rate stats))
-    (update-executor-stat! stats :execute-latencies key latency-ms)))
+    (count! (:executed stats) key (stats-rate stats))
+    (record-latency! (:execute-latencies stats) key latency-ms)))
 
 (defn bolt-acked-tuple!
   [^BoltExecutorStats stats component stream latency-ms]
   (let [key [component stream]]
-    (update-executor-stat! stats :acked key (stats-rate stats))
-    (update-executor-stat! stats :process-latencies key latency-ms)))
+    (count! (:acked stats) key (stats-rate stats))
+    (record-latency! (:process-latencies stats) key latency-ms)))
 
 (defn bolt-failed-tuple!
   [^BoltExecutorStats stats component stream latency-ms]
   (let [key [component stream]]
-    (update-executor-stat! stats :failed key (stats-rate stats))))
+    (count! (:failed stats) key (stats-rate stats))))
 
 (defn spout-acked-tuple!
   [^SpoutExecutorStats stats stream latency-ms]
-  (update-executor-stat! stats :acked stream (stats-rate stats))
-  (update-executor-stat! stats :complete-latencies stream latency-ms))
+  (count! (:acked stats) stream (stats-rate stats))
+  (record-latency! (:complete-latencies stats) stream latency-ms))
 
 (defn spout-failed-tuple!
   [^SpoutExecutorStats stats stream latency-ms]
-  (update-executor-stat! stats :failed stream (stats-rate stats))
-  )
+  (count! (:failed stats) stream (stats-rate stats)))
 
-(defn- cleanup-stat! [stat]
-  (swap! stat cleanup-rolling-window-set))
+(defn- value-windows
+  "Renders window length in secs, or :all-time, to what value-fn returns for the window index."
+  [^RollingStats stat value-fn]
+  (into {:all-time (value-fn RollingStats/ALL_TIME)}
+        (for [w (range (.numWindows stat))]
+          [(.windowSecs stat w) (value-fn w)])))
 
-(defn- cleanup-common-stats!
-  [^CommonStats stats]
-  (doseq [f COMMON-FIELDS]
-    (cleanup-stat! (f stats))))
+(defmulti value-stat class-selector)
 
-(defn cleanup-bolt-stats!
-  [^BoltExecutorStats stats]
-  (cleanup-common-stats! (:common stats))
-  (doseq [f BOLT-FIELDS]
-    (cleanup-stat! (f stats))))
+(defmethod value-stat RollingCounts
+  [^RollingCounts counts]
+  (value-windows counts #(into {} (.values counts %))))
 
-(defn cleanup-spout-stats!
-  [^SpoutExecutorStats stats]
-  (cleanup-common-stats! (:common stats))
-  (doseq [f SPOUT-FIELDS]
-    (cleanup-stat! (f stats))))
+(defmethod value-stat RollingLatencies
+  [^RollingLatencies latencies]
+  (value-windows latencies #(into {} (.means latencies %))))
+
+(defn value-latency-percentiles
+  "Renders the latency stats of executor stats to their keys to percentile name to all time latency. Bolt stats keys
+  are rendered as component:stream."
+  [stats]
+  (into {}
+        (for [[f stat] stats
+              :when (instance? RollingLatencies stat)]
+          [f (apply merge-with merge {}
+                    (for [[pname quantile] LATENCY-PERCENTILES
+                          [k latency] (.percentiles ^RollingLatencies stat quantile)]
+                      {(if (sequential? k) (apply str (interpose ":" k)) k) {pname latency}}))])))
 
 (defn- value-stats
   [stats fields]
   (into {} (dofor [f fields]
-                  [f (value-rolling-window-set @(f stats))])))
+                  [f (value-stat (f stats))])))
 
 (defn- value-common-stats
   [^CommonStats stats]
@@ -278,14 +162,12 @@
 
 (defn value-bolt-stats!
   [^BoltExecutorStats stats]
-  (cleanup-bolt-stats! stats)
   (merge (value-common-stats (:common stats))
          (value-stats stats BOLT-FIELDS)
          {:type :bolt}))
 
 (defn value-spout-stats!
   [^SpoutExecutorStats stats]
-  (cleanup-spout-stats! stats)
   (merge (value-common-stats (:common stats))
          (value-stats stats SPOUT-FIELDS)
          {:type :spout}))
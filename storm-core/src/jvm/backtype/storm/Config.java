@@ -19,8 +19,10 @@ package backtype.storm;
 
 import backtype.storm.serialization.IKryoDecorator;
 import backtype.storm.serialization.IKryoFactory;
+import backtype.storm.serialization.TupleSchema;
 import com.esotericsoftware.kryo.Serializer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -112,6 +114,20 @@ public class Config extends HashMap<String, Object> {
     public static final String STORM_NETTY_FLUSH_CHECK_INTERVAL_MS = "storm.messaging.netty.flush.check.interval.ms";
     public static final Object STORM_NETTY_FLUSH_CHECK_INTERVAL_MS_SCHEMA = ConfigValidation.IntegerValidator;
 
+    /**
+     * Netty based messaging: When enabled, each Netty client encodes its outbound message batches into direct buffers
+     * taken from a small per-connection pool instead of allocating a fresh direct buffer per batch, and the Netty
+     * server decodes all task messages of a received frame with a single copy, handing out slices of it.
+     */
+    public static final String STORM_MESSAGING_NETTY_BUFFER_POOL_ENABLE = "storm.messaging.netty.buffer.pool.enable";
+    public static final Object STORM_MESSAGING_NETTY_BUFFER_POOL_ENABLE_SCHEMA = Boolean.class;
+
+    /**
+     * Netty based messaging: The max # of pooled outbound buffers a Netty client keeps around for reuse.
+     */
+    public static final String STORM_MESSAGING_NETTY_BUFFER_POOL_SIZE = "storm.messaging.netty.buffer.pool.size";
+    public static final Object STORM_MESSAGING_NETTY_BUFFER_POOL_SIZE_SCHEMA = ConfigValidation.IntegerValidator;
+
     /**
      * Netty based messaging: Is authentication required for Netty messaging from client worker process to server worker process.
      */
@@ -201,6 +217,15 @@ public class Config extends HashMap<String, Object> {
     public static final String TOPOLOGY_TUPLE_SERIALIZER = "topology.tuple.serializer";
     public static final Object TOPOLOGY_TUPLE_SERIALIZER_SCHEMA = String.class;
 
+    /**
+     * Whether the values of a tuple may be treated as immutable once the tuple has been emitted.  When true, tuples
+     * sent to tasks in the same worker are handed over by reference, without being serialized or copied.  Set this
+     * to false if any component modifies a values list after emitting it; every emitted tuple then carries its own
+     * shallow copy of the values list, taken by the emitting thread.  Objects in the list are not copied.
+     */
+    public static final String TOPOLOGY_TUPLE_VALUES_IMMUTABLE = "topology.tuple.values.immutable";
+    public static final Object TOPOLOGY_TUPLE_VALUES_IMMUTABLE_SCHEMA = Boolean.class;
+
     /**
      * Try to serialize all tuples, even for local transfers.  This should only be used
      * for testing, as a sanity check that all of your tuples are setup properly.
@@ -437,6 +462,14 @@ public class Config extends HashMap<String, Object> {
     public static final String NIMBUS_REASSIGN = "nimbus.reassign";
     public static final Object NIMBUS_REASSIGN_SCHEMA = Boolean.class;
 
+    /**
+     * Whether nimbus skips calling the scheduler when all topologies are fully assigned and alive and neither
+     * they nor the supervisors changed since the last call. Turn this off for schedulers that move executors
+     * on their own.
+     */
+    public static final String NIMBUS_INCREMENTAL_SCHEDULING = "nimbus.incremental.scheduling";
+    public static final Object NIMBUS_INCREMENTAL_SCHEDULING_SCHEMA = Boolean.class;
+
     /**
      * During upload/download with the master, how long an upload or download connection is idle
      * before nimbus considers it dead and drops the connection.
@@ -629,6 +662,33 @@ public class Config extends HashMap<String, Object> {
     public static final Object UI_HTTPS_NEED_CLIENT_AUTH_SCHEMA = Boolean.class;
 
 
+    /**
+     * Whether workers push their heartbeats to a heartbeat server that keeps them in memory, instead of writing
+     * them to ZooKeeper.  Every daemon must agree on this setting.  The heartbeat server does no authentication, so
+     * daemons refuse to start with it on a cluster with ZooKeeper authentication or a secure thrift transport.
+     */
+    public static final String HEARTBEAT_SERVER_ENABLED = "heartbeat.server.enabled";
+    public static final Object HEARTBEAT_SERVER_ENABLED_SCHEMA = Boolean.class;
+
+    /**
+     * The host of the heartbeat server.  If not set, nimbus runs the heartbeat server itself; otherwise it has to be
+     * started on that host with "storm heartbeat-server".
+     */
+    public static final String HEARTBEAT_SERVER_HOST = "heartbeat.server.host";
+    public static final Object HEARTBEAT_SERVER_HOST_SCHEMA = String.class;
+
+    /**
+     * The port the heartbeat server listens on.
+     */
+    public static final String HEARTBEAT_SERVER_PORT = "heartbeat.server.port";
+    public static final Object HEARTBEAT_SERVER_PORT_SCHEMA = ConfigValidation.IntegerValidator;
+
+    /**
+     * The JVM options of a standalone heartbeat server.
+     */
+    public static final String HEARTBEAT_SERVER_CHILDOPTS = "heartbeat.server.childopts";
+    public static final Object HEARTBEAT_SERVER_CHILDOPTS_SCHEMA = String.class;
+
     /**
      * List of DRPC servers so that the DRPCSpout knows who to talk to.
      */
@@ -1018,6 +1078,28 @@ public class Config extends HashMap<String, Object> {
     public static final String TOPOLOGY_TASKS = "topology.tasks";
     public static final Object TOPOLOGY_TASKS_SCHEMA = ConfigValidation.IntegerValidator;
 
+    /**
+     * Whether ackers should keep their pending tuple trees in primitive open addressing tables
+     * (see backtype.storm.daemon.AckerBolt) instead of maps of Clojure persistent maps.
+     */
+    public static final String TOPOLOGY_ACKER_PRIMITIVE_ENABLE = "topology.acker.primitive.enable";
+    public static final Object TOPOLOGY_ACKER_PRIMITIVE_ENABLE_SCHEMA = Boolean.class;
+
+    /**
+     * Whether bolts should coalesce the ack and fail updates they send to each acker task and ship them as one
+     * packed tuple per acker task at the end of every batch of received tuples, instead of one tuple per anchor root.
+     * Bolts must ack and fail tuples from their executor thread when this is enabled.
+     */
+    public static final String TOPOLOGY_ACKER_BATCH_ENABLE = "topology.acker.batch.enable";
+    public static final Object TOPOLOGY_ACKER_BATCH_ENABLE_SCHEMA = Boolean.class;
+
+    /**
+     * The maximum number of distinct tuple trees a bolt task coalesces for one acker task before it sends them
+     * without waiting for the end of the batch. Only used when topology.acker.batch.enable is true.
+     */
+    public static final String TOPOLOGY_ACKER_BATCH_SIZE = "topology.acker.batch.size";
+    public static final Object TOPOLOGY_ACKER_BATCH_SIZE_SCHEMA = ConfigValidation.IntegerValidator;
+
     /**
      * How many executors to spawn for ackers.
      *
@@ -1048,6 +1130,24 @@ public class Config extends HashMap<String, Object> {
     public static final String TOPOLOGY_KRYO_REGISTER = "topology.kryo.register";
     public static final Object TOPOLOGY_KRYO_REGISTER_SCHEMA = ConfigValidation.KryoRegValidator;
 
+    /**
+     * Optional field types of streams, as a map from component id to stream id to a list of type names
+     * (long, int, double, float, boolean, string or bytes), one per declared output field. Tuples of these streams
+     * whose values match the types are serialized without Kryo class ids and with varint packed numbers, and are
+     * deserialized into primitive backed values. Other tuples of these streams are serialized as usual.
+     */
+    public static final String TOPOLOGY_TUPLE_SCHEMAS = "topology.tuple.schemas";
+    public static final Object TOPOLOGY_TUPLE_SCHEMAS_SCHEMA = Map.class;
+
+    /**
+     * Whether the values of tuples received from other workers are only deserialized when they are first accessed,
+     * one field at a time. Bolts that read few fields, or re-emit the values unchanged, then skip most of the work;
+     * unchanged values are serialized again by copying their received bytes. Needs the default
+     * topology.tuple.serializer and keeps the received buffers alive as long as the tuples.
+     */
+    public static final String TOPOLOGY_TUPLE_LAZY_DESERIALIZATION = "topology.tuple.lazy.deserialization";
+    public static final Object TOPOLOGY_TUPLE_LAZY_DESERIALIZATION_SCHEMA = Boolean.class;
+
     /**
      * A list of classes that customize storm's kryo instance during start-up.
      * Each listed class name must implement IKryoDecorator. During start-up the
@@ -1219,12 +1319,39 @@ public class Config extends HashMap<String, Object> {
     public static final String TOPOLOGY_EXECUTOR_SEND_BUFFER_SIZE="topology.executor.send.buffer.size";
     public static final Object TOPOLOGY_EXECUTOR_SEND_BUFFER_SIZE_SCHEMA = ConfigValidation.PowerOf2Validator;
 
+    /**
+     * How many tuples an executor accumulates before it publishes them to its send queue with a single claim.
+     * Whatever is left is published at the end of every iteration of the executor loop. 1 disables batching.
+     * Only tuples emitted from the executor thread are batched; those emitted from other threads, such as the
+     * reader thread of a ShellBolt, are published right away.
+     */
+    public static final String TOPOLOGY_EXECUTOR_SEND_BATCH_SIZE="topology.executor.send.batch.size";
+    public static final Object TOPOLOGY_EXECUTOR_SEND_BATCH_SIZE_SCHEMA = ConfigValidation.IntegerValidator;
+
     /**
      * The size of the Disruptor transfer queue for each worker.
      */
     public static final String TOPOLOGY_TRANSFER_BUFFER_SIZE="topology.transfer.buffer.size";
     public static final Object TOPOLOGY_TRANSFER_BUFFER_SIZE_SCHEMA = ConfigValidation.IntegerValidator;
 
+    /**
+     * Whether tuples bound for other workers are serialized by the worker transfer thread, straight into the
+     * outbound buffers of the messaging transport, instead of by the emitting executor into a byte[] per tuple.
+     * This moves the cost of serialization from the executors to the transfer thread, so it pays off when the
+     * transfer thread is not already the bottleneck.  Only takes effect while topology.tuple.values.immutable
+     * is true, since the values are read after the executor has moved on.
+     */
+    public static final String TOPOLOGY_TRANSFER_SERIALIZE_IN_TRANSPORT="topology.transfer.serialize.in.transport";
+    public static final Object TOPOLOGY_TRANSFER_SERIALIZE_IN_TRANSPORT_SCHEMA = Boolean.class;
+
+    /**
+     * Whether shuffle and local or shuffle groupings should send fewer tuples to downstream tasks whose receive
+     * queue or connection backlog is filling up.  Local or shuffle groupings stay on the tasks of this worker
+     * only while those are no busier than the remote ones.
+     */
+    public static final String TOPOLOGY_SHUFFLE_LOAD_AWARE="topology.shuffle.load.aware";
+    public static final Object TOPOLOGY_SHUFFLE_LOAD_AWARE_SCHEMA = Boolean.class;
+
    /**
     * How often a tick tuple from the "__system" component and "__tick" stream should be sent
     * to tasks. Meant to be used as a component-specific configuration.
@@ -1240,6 +1367,52 @@ public class Config extends HashMap<String, Object> {
     public static final String TOPOLOGY_DISRUPTOR_WAIT_STRATEGY="topology.disruptor.wait.strategy";
     public static final Object TOPOLOGY_DISRUPTOR_WAIT_STRATEGY_SCHEMA = String.class;
 
+   /**
+    * The wait strategy of the executor receive queues. Defaults to topology.disruptor.wait.strategy when null.
+    * backtype.storm.utils.ParkingWaitStrategy spins, yields and then parks with a growing backoff.
+    */
+    public static final String TOPOLOGY_EXECUTOR_RECEIVE_WAIT_STRATEGY="topology.executor.receive.wait.strategy";
+    public static final Object TOPOLOGY_EXECUTOR_RECEIVE_WAIT_STRATEGY_SCHEMA = String.class;
+
+   /**
+    * The wait strategy of the executor send queues. Defaults to topology.disruptor.wait.strategy when null.
+    */
+    public static final String TOPOLOGY_EXECUTOR_SEND_WAIT_STRATEGY="topology.executor.send.wait.strategy";
+    public static final Object TOPOLOGY_EXECUTOR_SEND_WAIT_STRATEGY_SCHEMA = String.class;
+
+   /**
+    * The wait strategy of the worker transfer queue. Defaults to topology.disruptor.wait.strategy when null.
+    */
+    public static final String TOPOLOGY_TRANSFER_WAIT_STRATEGY="topology.transfer.wait.strategy";
+    public static final Object TOPOLOGY_TRANSFER_WAIT_STRATEGY_SCHEMA = String.class;
+
+   /**
+    * How long, in milliseconds, a consumer waits on an empty internal queue before it gets to do its other work,
+    * like emptying the overflow buffer.
+    */
+    public static final String TOPOLOGY_DISRUPTOR_WAIT_TIMEOUT_MILLIS="topology.disruptor.wait.timeout.millis";
+    public static final Object TOPOLOGY_DISRUPTOR_WAIT_TIMEOUT_MILLIS_SCHEMA = ConfigValidation.IntegerValidator;
+
+   /**
+    * Whether spouts should stop calling nextTuple while any receive queue of a worker of their topology, or its
+    * transfer queue, is filled above topology.backpressure.water.mark.high. Spouts of the throttled worker stop right
+    * away, the other workers learn of it through Zookeeper.
+    */
+    public static final String TOPOLOGY_BACKPRESSURE_ENABLE="topology.backpressure.enable";
+    public static final Object TOPOLOGY_BACKPRESSURE_ENABLE_SCHEMA = Boolean.class;
+
+   /**
+    * The fraction of its capacity above which a queue throttles the spouts of its topology.
+    */
+    public static final String TOPOLOGY_BACKPRESSURE_WATER_MARK_HIGH="topology.backpressure.water.mark.high";
+    public static final Object TOPOLOGY_BACKPRESSURE_WATER_MARK_HIGH_SCHEMA = ConfigValidation.DoubleValidator;
+
+   /**
+    * The fraction of its capacity a throttled queue has to be drained to before it releases the spouts again.
+    */
+    public static final String TOPOLOGY_BACKPRESSURE_WATER_MARK_LOW="topology.backpressure.water.mark.low";
+    public static final Object TOPOLOGY_BACKPRESSURE_WATER_MARK_LOW_SCHEMA = ConfigValidation.DoubleValidator;
+
    /**
     * The size of the shared thread pool for worker tasks to make use of. The thread pool can be accessed
     * via the TopologyContext.
@@ -1455,6 +1628,25 @@ public class Config extends HashMap<String, Object> {
         registerSerialization(this, klass, serializerClass);
     }
 
+    /**
+     * @throws IllegalArgumentException for an unknown type name.  Whether there is one type per output field of the
+     * stream is checked when the topology is submitted.
+     */
+    public static void declareTupleSchema(Map conf, String componentId, String streamId, String... types) {
+        new TupleSchema(Arrays.asList(types));
+        Map<String, Map<String, List<String>>> schemas = (Map<String, Map<String, List<String>>>) conf.get(TOPOLOGY_TUPLE_SCHEMAS);
+        schemas = schemas == null ? new HashMap<String, Map<String, List<String>>>() : new HashMap<String, Map<String, List<String>>>(schemas);
+        Map<String, List<String>> streams = schemas.get(componentId);
+        streams = streams == null ? new HashMap<String, List<String>>() : new HashMap<String, List<String>>(streams);
+        streams.put(streamId, Arrays.asList(types));
+        schemas.put(componentId, streams);
+        conf.put(TOPOLOGY_TUPLE_SCHEMAS, schemas);
+    }
+
+    public void declareTupleSchema(String componentId, String streamId, String... types) {
+        declareTupleSchema(this, componentId, streamId, types);
+    }
+
     public static void registerMetricsConsumer(Map conf, Class klass, Object argument, long parallelismHint) {
         HashMap m = new HashMap();
         m.put("class", klass.getCanonicalName());
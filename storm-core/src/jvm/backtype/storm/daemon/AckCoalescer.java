@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.daemon;
+
+import backtype.storm.tuple.Values;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collects the ack and fail updates a bolt task sends to the ackers, so that they can be shipped as one tuple per
+ * acker task instead of one tuple per anchor root.
+ *
+ * Acks of the same root are XOR-ed together, fails are deduplicated.  {@link #drain(int)} and {@link #drainAll()}
+ * hand out the pending updates of an acker task as the values of an {@link AckerBolt#ACKER_BATCH_STREAM_ID} tuple:
+ * a long[] of (root, ack val) pairs followed by a long[] of failed roots.  Roots are looked up in open addressing
+ * tables of primitives, like in {@link backtype.storm.utils.RotatingAckTable}, so that updates do not box.
+ *
+ * A bolt may ack from threads of its own, as the ShellBolt does, while the executor thread drains the batches, so all
+ * methods are synchronized.
+ */
+public class AckCoalescer {
+    private final int _maxBatchSize;
+    private final HashMap<Integer, Batch> _batches = new HashMap<Integer, Batch>();
+    private int _size = 0;
+
+    /**
+     * @param maxBatchSize # of distinct roots pending for one acker task after which {@link #ack} and {@link #fail}
+     *                     ask to be drained
+     */
+    public AckCoalescer(int maxBatchSize) {
+        if(maxBatchSize<1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive (you provided " + maxBatchSize + ")");
+        }
+        _maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @return true if the batch of ackerTask is full and should be drained
+     */
+    public synchronized boolean ack(int ackerTask, long root, long val) {
+        Batch b = batch(ackerTask);
+        int i = b.ackIndex.get(root);
+        if(i < 0) {
+            b.addAck(root, val);
+            _size++;
+        } else {
+            b.acks[i + 1] ^= val;
+        }
+        return b.size() >= _maxBatchSize;
+    }
+
+    /**
+     * @return true if the batch of ackerTask is full and should be drained
+     */
+    public synchronized boolean fail(int ackerTask, long root) {
+        Batch b = batch(ackerTask);
+        if(b.failIndex.get(root) < 0) {
+            b.addFail(root);
+            _size++;
+        }
+        return b.size() >= _maxBatchSize;
+    }
+
+    public synchronized boolean isEmpty() {
+        return _size == 0;
+    }
+
+    /**
+     * @return the values of the batch tuple for ackerTask, or null if nothing is pending for it
+     */
+    public synchronized Values drain(int ackerTask) {
+        Batch b = _batches.get(ackerTask);
+        if(b == null || b.size() == 0) {
+            return null;
+        }
+        _size -= b.size();
+        return b.drain();
+    }
+
+    /**
+     * @return acker task to the values of its batch tuple, for every acker task with pending updates
+     */
+    public synchronized Map<Integer, Values> drainAll() {
+        Map<Integer, Values> ret = new HashMap<Integer, Values>();
+        if(_size == 0) {
+            return ret;
+        }
+        for(Map.Entry<Integer, Batch> e: _batches.entrySet()) {
+            Batch b = e.getValue();
+            if(b.size() > 0) {
+                ret.put(e.getKey(), b.drain());
+            }
+        }
+        _size = 0;
+        return ret;
+    }
+
+    private Batch batch(int ackerTask) {
+        Batch b = _batches.get(ackerTask);
+        if(b == null) {
+            b = new Batch();
+            _batches.put(ackerTask, b);
+        }
+        return b;
+    }
+
+    private static final class Batch {
+        final RootIndex ackIndex = new RootIndex();
+        final RootIndex failIndex = new RootIndex();
+        long[] acks = new long[32];
+        int ackLen = 0;
+        long[] failed = new long[16];
+        int failLen = 0;
+
+        void addAck(long root, long val) {
+            if(ackLen + 2 > acks.length) {
+                acks = Arrays.copyOf(acks, acks.length * 2);
+            }
+            ackIndex.put(root, ackLen);
+            acks[ackLen++] = root;
+            acks[ackLen++] = val;
+        }
+
+        void addFail(long root) {
+            if(failLen == failed.length) {
+                failed = Arrays.copyOf(failed, failed.length * 2);
+            }
+            failIndex.put(root, failLen);
+            failed[failLen++] = root;
+        }
+
+        int size() {
+            return ackLen / 2 + failLen;
+        }
+
+        Values drain() {
+            Values ret = new Values(Arrays.copyOf(acks, ackLen), Arrays.copyOf(failed, failLen));
+            ackIndex.clear();
+            failIndex.clear();
+            ackLen = 0;
+            failLen = 0;
+            return ret;
+        }
+    }
+
+    /**
+     * Root to a non-negative index, in a linear probing table.  Entries are only ever removed all at once.
+     */
+    private static final class RootIndex {
+        long[] keys = new long[32];
+        // index + 1, 0 for an empty slot
+        int[] values = new int[32];
+        int size = 0;
+
+        private static int hash(long root) {
+            long h = root * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        /**
+         * @return the index of root, or -1 if it is not in the table
+         */
+        int get(long root) {
+            int mask = keys.length - 1;
+            int i = hash(root) & mask;
+            while(values[i] != 0) {
+                if(keys[i] == root) {
+                    return values[i] - 1;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Add root, which is not in the table.
+         */
+        void put(long root, int index) {
+            if((size + 1) * 2 > keys.length) {
+                long[] oldKeys = keys;
+                int[] oldValues = values;
+                keys = new long[oldKeys.length * 2];
+                values = new int[oldKeys.length * 2];
+                for(int j=0; j<oldKeys.length; j++) {
+                    if(oldValues[j] != 0) {
+                        insert(oldKeys[j], oldValues[j]);
+                    }
+                }
+            }
+            insert(root, index + 1);
+            size++;
+        }
+
+        private void insert(long root, int value) {
+            int mask = keys.length - 1;
+            int i = hash(root) & mask;
+            while(values[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = root;
+            values[i] = value;
+        }
+
+        void clear() {
+            if(size > 0) {
+                Arrays.fill(values, 0);
+                size = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.daemon;
+
+import backtype.storm.Constants;
+import backtype.storm.task.IBolt;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+import backtype.storm.utils.RotatingAckTable;
+import java.util.Map;
+
+/**
+ * An acker that keeps its pending tuple trees in a {@link RotatingAckTable}, so that updating a tree neither
+ * allocates nor boxes.  It speaks the same streams as the acker in backtype.storm.daemon.acker, and is used in its
+ * place when {@link backtype.storm.Config#TOPOLOGY_ACKER_PRIMITIVE_ENABLE} is set.
+ */
+public class AckerBolt implements IBolt {
+    public static final String ACKER_INIT_STREAM_ID = "__ack_init";
+    public static final String ACKER_ACK_STREAM_ID = "__ack_ack";
+    public static final String ACKER_FAIL_STREAM_ID = "__ack_fail";
+    public static final String ACKER_BATCH_STREAM_ID = "__ack_batch";
+
+    private OutputCollector _collector;
+    private RotatingAckTable _pending;
+
+    @Override
+    public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
+        _collector = collector;
+        _pending = new RotatingAckTable(2);
+    }
+
+    @Override
+    public void execute(Tuple tuple) {
+        String streamId = tuple.getSourceStreamId();
+        if (Constants.SYSTEM_TICK_STREAM_ID.equals(streamId)) {
+            _pending.rotate();
+            return;
+        }
+
+        if (ACKER_BATCH_STREAM_ID.equals(streamId)) {
+            long[] acks = (long[]) tuple.getValue(0);
+            long[] fails = (long[]) tuple.getValue(1);
+            for (int i = 0; i < acks.length; i += 2) {
+                emitResult(acks[i], _pending.ack(acks[i], acks[i + 1]));
+            }
+            for (long root : fails) {
+                emitResult(root, _pending.fail(root));
+            }
+            _collector.ack(tuple);
+            return;
+        }
+
+        Object id = tuple.getValue(0);
+        long rootId = ((Number) id).longValue();
+        int result;
+        if (ACKER_ACK_STREAM_ID.equals(streamId)) {
+            result = _pending.ack(rootId, ((Number) tuple.getValue(1)).longValue());
+        } else if (ACKER_INIT_STREAM_ID.equals(streamId)) {
+            result = _pending.init(rootId, ((Number) tuple.getValue(1)).longValue(),
+                    ((Number) tuple.getValue(2)).intValue());
+        } else if (ACKER_FAIL_STREAM_ID.equals(streamId)) {
+            result = _pending.fail(rootId);
+        } else {
+            throw new IllegalArgumentException("Acker received a tuple on unexpected stream " + streamId);
+        }
+        emitResult(id, result);
+        _collector.ack(tuple);
+    }
+
+    private void emitResult(Object id, int result) {
+        if (result == RotatingAckTable.COMPLETE) {
+            _collector.emitDirect(_pending.lastSpoutTask(), ACKER_ACK_STREAM_ID, new Values(id));
+        } else if (result == RotatingAckTable.FAILED) {
+            _collector.emitDirect(_pending.lastSpoutTask(), ACKER_FAIL_STREAM_ID, new Values(id));
+        }
+    }
+
+    @Override
+    public void cleanup() {
+    }
+}
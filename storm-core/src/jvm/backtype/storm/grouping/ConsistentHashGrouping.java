@@ -0,0 +1,268 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.grouping;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.WorkerTopologyContext;
+import backtype.storm.tuple.Fields;
+
+/**
+ * A key grouping that places the target tasks on a consistent hash ring, so that a change of the target tasks only
+ * moves the keys of the tasks that were added or removed.
+ *
+ * Keys whose rate exceeds hotKeyRate tuples per second are split across the first splitTasks tasks on the ring
+ * starting at the key, and each of their tuples goes to the least loaded of those according to the worker's
+ * {@link LoadMapping}, or to the one that got the fewest tuples from this grouping if the loads are equal.  Key rates
+ * are estimated with a count-min sketch over the current and the previous second.
+ *
+ * As a metric, the grouping reports the number of tuples sent to each task, the skew (most tuples sent to a task
+ * divided by the mean) and how many tuples of hot keys were split.
+ */
+public class ConsistentHashGrouping implements LoadAwareCustomStreamGrouping, IMetric, Serializable {
+    private static final long serialVersionUID = 3946734418725036011L;
+    static final int DEFAULT_VIRTUAL_NODES = 64;
+    static final long WINDOW_MILLIS = 1000;
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_BITS = 10;
+
+    private final Fields fields;
+    private final double hotKeyRate;
+    private final int splitTasks;
+    private final int virtualNodes;
+
+    private transient FieldsGrouper keyHasher;
+    private transient int[] targetTasks;
+    private transient List<List<Integer>> choices;
+    private transient long[] ring;
+    private transient int[] ringOwners;
+    private transient long[] sent;
+    private transient long hotSent;
+    private transient int[][] currentWindow;
+    private transient int[][] previousWindow;
+    private transient long windowStart;
+    private transient LoadMapping load;
+    private transient int loadVersion;
+    private transient double[] targetLoad;
+    private transient int[] candidates;
+
+    /**
+     * Group on fields without splitting hot keys.  If fields is null, the first field of the stream is the key.
+     */
+    public ConsistentHashGrouping(Fields fields) {
+        this(fields, 0, 1);
+    }
+
+    /**
+     * @param hotKeyRate # of tuples per second above which a key is split, 0 to never split keys
+     * @param splitTasks # of tasks a hot key is split across
+     */
+    public ConsistentHashGrouping(Fields fields, double hotKeyRate, int splitTasks) {
+        this(fields, hotKeyRate, splitTasks, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param virtualNodes # of points of each task on the ring, more points spread keys more evenly
+     */
+    public ConsistentHashGrouping(Fields fields, double hotKeyRate, int splitTasks, int virtualNodes) {
+        if (splitTasks < 1) {
+            throw new IllegalArgumentException("splitTasks must be positive (you provided " + splitTasks + ")");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be positive (you provided " + virtualNodes + ")");
+        }
+        this.fields = fields;
+        this.hotKeyRate = hotKeyRate;
+        this.splitTasks = splitTasks;
+        this.virtualNodes = virtualNodes;
+    }
+
+    @Override
+    public void prepare(WorkerTopologyContext context, GlobalStreamId stream, List<Integer> targetTasks) {
+        Fields outFields = context.getComponentOutputFields(stream);
+        Fields groupFields = fields != null ? fields : new Fields(outFields.get(0));
+        keyHasher = new FieldsGrouper(outFields, groupFields, targetTasks);
+
+        this.targetTasks = new int[targetTasks.size()];
+        choices = new ArrayList<List<Integer>>(targetTasks.size());
+        for (int i = 0; i < this.targetTasks.length; i++) {
+            this.targetTasks[i] = targetTasks.get(i);
+            choices.add(Collections.singletonList(targetTasks.get(i)));
+        }
+
+        // points depend on the task ids only, so a task keeps its keys when other tasks come and go
+        TreeMap<Long, Integer> points = new TreeMap<Long, Integer>();
+        for (int i = 0; i < this.targetTasks.length; i++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                points.put(mix(((long) this.targetTasks[i] << 32) | v), i);
+            }
+        }
+        ring = new long[points.size()];
+        ringOwners = new int[points.size()];
+        int p = 0;
+        for (Map.Entry<Long, Integer> point : points.entrySet()) {
+            ring[p] = point.getKey();
+            ringOwners[p] = point.getValue();
+            p++;
+        }
+
+        sent = new long[this.targetTasks.length];
+        currentWindow = new int[SKETCH_DEPTH][1 << SKETCH_BITS];
+        previousWindow = new int[SKETCH_DEPTH][1 << SKETCH_BITS];
+        windowStart = System.currentTimeMillis();
+        targetLoad = new double[this.targetTasks.length];
+        candidates = new int[Math.min(splitTasks, this.targetTasks.length)];
+    }
+
+    @Override
+    public void setLoadMapping(LoadMapping load) {
+        this.load = load;
+        loadVersion = load.version() - 1;
+    }
+
+    @Override
+    public List<Integer> chooseTasks(int taskId, List<Object> values) {
+        long position = mix(keyHasher.hash(values));
+        int point = ringIndex(position);
+        int chosen = ringOwners[point];
+        if (candidates.length > 1 && hotKeyRate > 0 && isHot(position)) {
+            chosen = leastLoaded(point);
+            hotSent++;
+        }
+        sent[chosen]++;
+        return choices.get(chosen);
+    }
+
+    @Override
+    public Object getValueAndReset() {
+        Map<Integer, Long> tasks = new HashMap<Integer, Long>();
+        long total = 0;
+        long max = 0;
+        for (int i = 0; i < targetTasks.length; i++) {
+            tasks.put(targetTasks[i], sent[i]);
+            total += sent[i];
+            max = Math.max(max, sent[i]);
+            sent[i] = 0;
+        }
+        Map<String, Object> ret = new HashMap<String, Object>();
+        ret.put("tasks", tasks);
+        ret.put("skew", total == 0 ? 1.0 : (double) max * targetTasks.length / total);
+        ret.put("hot", hotSent);
+        hotSent = 0;
+        return ret;
+    }
+
+    /**
+     * @return the index of the first point on the ring at or after position
+     */
+    private int ringIndex(long position) {
+        int i = Arrays.binarySearch(ring, position);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i == ring.length ? 0 : i;
+    }
+
+    private boolean isHot(long position) {
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= WINDOW_MILLIS) {
+            rotateWindows(now);
+        }
+        int current = Integer.MAX_VALUE;
+        int previous = Integer.MAX_VALUE;
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            int column = (int) (position >>> (row * SKETCH_BITS)) & ((1 << SKETCH_BITS) - 1);
+            current = Math.min(current, ++currentWindow[row][column]);
+            previous = Math.min(previous, previousWindow[row][column]);
+        }
+        return Math.max(current, previous) > hotKeyRate * WINDOW_MILLIS / 1000;
+    }
+
+    private void rotateWindows(long now) {
+        int[][] cleared = previousWindow;
+        for (int[] row : cleared) {
+            Arrays.fill(row, 0);
+        }
+        if (now - windowStart >= 2 * WINDOW_MILLIS) {
+            // nothing was counted in the previous window
+            for (int[] row : currentWindow) {
+                Arrays.fill(row, 0);
+            }
+        }
+        previousWindow = currentWindow;
+        currentWindow = cleared;
+        windowStart = now;
+    }
+
+    /**
+     * @return the least loaded of the first distinct tasks on the ring starting at point
+     */
+    private int leastLoaded(int point) {
+        refreshLoad();
+        int found = 0;
+        for (int i = point; found < candidates.length; i = (i + 1) % ring.length) {
+            int owner = ringOwners[i];
+            boolean seen = false;
+            for (int c = 0; c < found; c++) {
+                seen |= candidates[c] == owner;
+            }
+            if (!seen) {
+                candidates[found++] = owner;
+            }
+        }
+        int best = candidates[0];
+        for (int c = 1; c < found; c++) {
+            int candidate = candidates[c];
+            if (targetLoad[candidate] < targetLoad[best]
+                    || (targetLoad[candidate] == targetLoad[best] && sent[candidate] < sent[best])) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private void refreshLoad() {
+        if (load != null && load.version() != loadVersion) {
+            loadVersion = load.version();
+            for (int i = 0; i < targetTasks.length; i++) {
+                targetLoad[i] = load.get(targetTasks[i]);
+            }
+        }
+    }
+
+    /**
+     * The finalizer of murmur3, spreads the bits of a hash over all 64 bits.
+     */
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.grouping;
+
+import java.util.List;
+
+import backtype.storm.tuple.Fields;
+
+/**
+ * Chooses the target task of a fields grouped tuple.
+ *
+ * The indices of the grouping fields are resolved once, and the values are hashed in place, so choosing a task
+ * allocates nothing.  A tuple goes to the same task as it would by taking the hash code of
+ * {@link Fields#select(Fields, List)} modulo the number of target tasks.
+ */
+public class FieldsGrouper {
+    private final int[] fieldIndices;
+    private final int[] targetTasks;
+
+    /**
+     * @param targetTasks the tasks to choose from, in the order used to map hash codes to tasks
+     */
+    public FieldsGrouper(Fields outFields, Fields groupFields, List<Integer> targetTasks) {
+        if (targetTasks.isEmpty()) {
+            throw new IllegalArgumentException("fields grouping needs at least one target task");
+        }
+        fieldIndices = new int[groupFields.size()];
+        for (int i = 0; i < fieldIndices.length; i++) {
+            fieldIndices[i] = outFields.fieldIndex(groupFields.get(i));
+        }
+        this.targetTasks = new int[targetTasks.size()];
+        for (int i = 0; i < this.targetTasks.length; i++) {
+            this.targetTasks[i] = targetTasks.get(i);
+        }
+    }
+
+    public int chooseTask(List<Object> values) {
+        return targetTasks[chooseIndex(values)];
+    }
+
+    /**
+     * @return the index of the chosen task in the target tasks
+     */
+    public int chooseIndex(List<Object> values) {
+        int index = hash(values) % targetTasks.length;
+        return index < 0 ? index + targetTasks.length : index;
+    }
+
+    /**
+     * @return the {@link List#hashCode()} of the grouping values
+     */
+    public int hash(List<Object> values) {
+        int hash = 1;
+        for (int i : fieldIndices) {
+            Object value = values.get(i);
+            hash = 31 * hash + (value == null ? 0 : value.hashCode());
+        }
+        return hash;
+    }
+}
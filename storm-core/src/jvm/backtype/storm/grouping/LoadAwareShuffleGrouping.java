@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.grouping;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.task.WorkerTopologyContext;
+
+/**
+ * A shuffle grouping that sends fewer tuples to tasks with a higher load, according to the worker's
+ * {@link LoadMapping}.
+ *
+ * Each task gets a share of the tuples between 1 (saturated) and 101 (idle), so a loaded task is backed off from but
+ * never starved.  If local tasks are preferred and the tasks in this worker are on average no more loaded than the
+ * others, tuples only go to the local tasks, like the local or shuffle grouping.  Without a load mapping, tuples are
+ * spread evenly.  The shares are recomputed whenever the worker refreshes the loads.
+ */
+public class LoadAwareShuffleGrouping implements LoadAwareCustomStreamGrouping, Serializable {
+    private static final long serialVersionUID = -2845398621532861946L;
+    static final int MAX_WEIGHT = 101;
+
+    private final boolean preferLocal;
+
+    private transient int[] targetTasks;
+    private transient boolean[] local;
+    private transient List<List<Integer>> choices;
+    private transient Random random;
+    private transient LoadMapping load;
+    private transient int loadVersion;
+    private transient int[] slots;
+    private transient int next;
+
+    /**
+     * Prefer the tasks in this worker while they are not more loaded than the others.
+     */
+    public LoadAwareShuffleGrouping() {
+        this(true);
+    }
+
+    public LoadAwareShuffleGrouping(boolean preferLocal) {
+        this.preferLocal = preferLocal;
+    }
+
+    @Override
+    public void prepare(WorkerTopologyContext context, GlobalStreamId stream, List<Integer> targetTasks) {
+        Set<Integer> workerTasks = new HashSet<Integer>(context.getThisWorkerTasks());
+        this.targetTasks = new int[targetTasks.size()];
+        local = new boolean[targetTasks.size()];
+        choices = new ArrayList<List<Integer>>(targetTasks.size());
+        for (int i = 0; i < this.targetTasks.length; i++) {
+            this.targetTasks[i] = targetTasks.get(i);
+            local[i] = workerTasks.contains(targetTasks.get(i));
+            choices.add(Collections.singletonList(targetTasks.get(i)));
+        }
+        random = new Random();
+        updateSlots(new double[this.targetTasks.length]);
+    }
+
+    @Override
+    public void setLoadMapping(LoadMapping load) {
+        this.load = load;
+        loadVersion = load.version() - 1;
+    }
+
+    @Override
+    public List<Integer> chooseTasks(int taskId, List<Object> values) {
+        if (load != null && load.version() != loadVersion) {
+            refreshLoad();
+        }
+        int[] current = slots;
+        int i = next + 1;
+        if (i >= current.length) {
+            i = 0;
+            shuffle(current);
+        }
+        next = i;
+        return choices.get(current[i]);
+    }
+
+    private void refreshLoad() {
+        loadVersion = load.version();
+        double[] loads = new double[targetTasks.length];
+        for (int i = 0; i < targetTasks.length; i++) {
+            loads[i] = Math.max(0, Math.min(1, load.get(targetTasks[i])));
+        }
+        updateSlots(loads);
+    }
+
+    /**
+     * Fill the slots tuples are sent to in turn with the indices of the chosen tasks, each as often as its share.
+     */
+    private void updateSlots(double[] loads) {
+        boolean localOnly = preferLocal && localIsLighter(loads);
+        List<Integer> filled = new ArrayList<Integer>();
+        for (int i = 0; i < targetTasks.length; i++) {
+            if (localOnly && !local[i]) {
+                continue;
+            }
+            long weight = 1 + Math.round((MAX_WEIGHT - 1) * (1 - loads[i]));
+            for (int w = 0; w < weight; w++) {
+                filled.add(i);
+            }
+        }
+        int[] ret = new int[filled.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = filled.get(i);
+        }
+        shuffle(ret);
+        next = -1;
+        slots = ret;
+    }
+
+    /**
+     * @return true if there are local tasks and their mean load is not above the mean load of the remote tasks
+     */
+    private boolean localIsLighter(double[] loads) {
+        double localLoad = 0;
+        double remoteLoad = 0;
+        int localCount = 0;
+        for (int i = 0; i < targetTasks.length; i++) {
+            if (local[i]) {
+                localLoad += loads[i];
+                localCount++;
+            } else {
+                remoteLoad += loads[i];
+            }
+        }
+        int remoteCount = targetTasks.length - localCount;
+        if (localCount == 0) {
+            return false;
+        }
+        return remoteCount == 0 || localLoad / localCount <= remoteLoad / remoteCount;
+    }
+
+    private void shuffle(int[] array) {
+        for (int i = array.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = array[i];
+            array[i] = array[j];
+            array[j] = swap;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.grouping;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The load of the tasks a worker sends tuples to, as a fraction between 0 (idle) and 1 (saturated).
+ *
+ * The worker replaces the whole mapping periodically.  For its own tasks the load is how full their receive queue is,
+ * for tasks in other workers it is the backlog of the connection to that worker.  Tasks without a known load count as
+ * idle.  Readers that cache loads can compare {@link #version()} to find out whether they changed.
+ */
+public class LoadMapping {
+    private volatile Map<Integer, Double> load = Collections.emptyMap();
+    private volatile int version = 0;
+
+    /**
+     * @param load task id to load, must not be modified afterwards
+     */
+    public void setLoad(Map<Integer, Double> load) {
+        this.load = load;
+        version++;
+    }
+
+    public double get(int taskId) {
+        Double ret = load.get(taskId);
+        return ret == null ? 0 : ret;
+    }
+
+    /**
+     * @return a number that changes whenever the mapping is replaced
+     */
+    public int version() {
+        return version;
+    }
+}
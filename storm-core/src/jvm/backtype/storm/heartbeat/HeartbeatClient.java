@@ -0,0 +1,194 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.heartbeat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import backtype.storm.Config;
+import backtype.storm.utils.Utils;
+
+/**
+ * A blocking connection to a {@link HeartbeatServer}.  The connection is opened on first use and reopened once per
+ * request if it fails.  Methods are synchronized, so a client can be shared by the threads of a daemon.
+ */
+public class HeartbeatClient {
+    private static final Logger LOG = LoggerFactory.getLogger(HeartbeatClient.class);
+    static final int TIMEOUT_MS = 30000;
+
+    private final String _host;
+    private final int _port;
+    private Socket _socket;
+    private DataInputStream _in;
+    private DataOutputStream _out;
+
+    public HeartbeatClient(Map conf) {
+        this(serverHost(conf), Utils.getInt(conf.get(Config.HEARTBEAT_SERVER_PORT)));
+    }
+
+    public HeartbeatClient(String host, int port) {
+        _host = host;
+        _port = port;
+    }
+
+    /**
+     * @return the host of the heartbeat server, which is nimbus unless configured otherwise
+     */
+    public static String serverHost(Map conf) {
+        Object host = conf.get(Config.HEARTBEAT_SERVER_HOST);
+        return (String) (host == null ? conf.get(Config.NIMBUS_HOST) : host);
+    }
+
+    public synchronized void put(String path, byte[] data) {
+        request(HeartbeatServer.PUT, path, data);
+    }
+
+    /**
+     * @return the data of path, or null if it does not exist
+     */
+    public synchronized byte[] get(String path) {
+        DataInputStream in = request(HeartbeatServer.GET, path, null);
+        if(in == null) {
+            return null;
+        }
+        try {
+            byte[] ret = new byte[in.readInt()];
+            in.readFully(ret);
+            return ret;
+        } catch(IOException e) {
+            throw failed(e);
+        }
+    }
+
+    public synchronized List<String> children(String path) {
+        DataInputStream in = request(HeartbeatServer.CHILDREN, path, null);
+        try {
+            int count = in.readInt();
+            List<String> ret = new ArrayList<String>(count);
+            for(int i=0; i<count; i++) {
+                ret.add(in.readUTF());
+            }
+            return ret;
+        } catch(IOException e) {
+            throw failed(e);
+        }
+    }
+
+    public synchronized void mkdirs(String path) {
+        request(HeartbeatServer.MKDIRS, path, null);
+    }
+
+    /**
+     * Delete path and everything below it.
+     */
+    public synchronized void delete(String path) {
+        request(HeartbeatServer.DELETE, path, null);
+    }
+
+    public synchronized void close() {
+        disconnect();
+    }
+
+    /**
+     * @return the rest of the response, or null if the path was not found
+     */
+    private DataInputStream request(byte op, String path, byte[] data) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream frame = new DataOutputStream(bytes);
+            frame.writeByte(op);
+            frame.writeUTF(path);
+            if(data != null) {
+                frame.writeInt(data.length);
+                frame.write(data);
+            }
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            return send(bytes.toByteArray());
+        } catch(IOException e) {
+            LOG.info("Reconnecting to heartbeat server {}:{} after {}", new Object[]{_host, _port, e.toString()});
+            disconnect();
+            try {
+                return send(bytes.toByteArray());
+            } catch(IOException e2) {
+                disconnect();
+                throw failed(e2);
+            }
+        }
+    }
+
+    private DataInputStream send(byte[] frame) throws IOException {
+        if(_socket == null) {
+            connect();
+        }
+        _out.writeInt(frame.length);
+        _out.write(frame);
+        _out.flush();
+        byte[] response = new byte[_in.readInt()];
+        _in.readFully(response);
+        DataInputStream ret = new DataInputStream(new ByteArrayInputStream(response));
+        byte status = ret.readByte();
+        if(status == HeartbeatServer.NOT_FOUND) {
+            return null;
+        }
+        if(status != HeartbeatServer.OK) {
+            throw new RuntimeException(ret.readUTF());
+        }
+        return ret;
+    }
+
+    private void connect() throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(TIMEOUT_MS);
+        socket.connect(new InetSocketAddress(_host, _port), TIMEOUT_MS);
+        _socket = socket;
+        _in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        _out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    private void disconnect() {
+        if(_socket != null) {
+            try {
+                _socket.close();
+            } catch(IOException e) {
+                LOG.debug("Failed to close heartbeat server connection", e);
+            }
+            _socket = null;
+        }
+    }
+
+    private RuntimeException failed(IOException e) {
+        return new RuntimeException("Heartbeat server " + _host + ":" + _port + " failed", e);
+    }
+}
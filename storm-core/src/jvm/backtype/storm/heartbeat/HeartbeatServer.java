@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.heartbeat;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import backtype.storm.Config;
+import backtype.storm.messaging.netty.NettyRenameThreadFactory;
+import backtype.storm.utils.Utils;
+
+/**
+ * Keeps worker heartbeats in memory instead of ZooKeeper, see {@link Config#HEARTBEAT_SERVER_ENABLED}.
+ *
+ * Clients talk to it through a {@link HeartbeatClient}.  Every request and response is a frame with a 4 byte length.
+ * A request is an operation byte and a path, followed by the data for {@link #PUT}; a response is a status byte,
+ * followed by the data for {@link #GET} or the child names for {@link #CHILDREN}.  Nimbus hosts the server unless
+ * {@link Config#HEARTBEAT_SERVER_HOST} is set; then it runs as its own daemon through {@link #main(String[])}.
+ */
+public class HeartbeatServer {
+    private static final Logger LOG = LoggerFactory.getLogger(HeartbeatServer.class);
+
+    static final byte PUT = 1;
+    static final byte GET = 2;
+    static final byte CHILDREN = 3;
+    static final byte DELETE = 4;
+    static final byte MKDIRS = 5;
+
+    static final byte OK = 0;
+    static final byte NOT_FOUND = 1;
+    static final byte ERROR = 2;
+
+    static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+    private final HeartbeatStore _store = new HeartbeatStore();
+    private final ChannelGroup _channels = new DefaultChannelGroup("heartbeat-server");
+    private final NioServerSocketChannelFactory _factory;
+
+    public HeartbeatServer(Map conf) {
+        int port = Utils.getInt(conf.get(Config.HEARTBEAT_SERVER_PORT));
+        _factory = new NioServerSocketChannelFactory(
+                Executors.newCachedThreadPool(new NettyRenameThreadFactory("heartbeat-server-boss")),
+                Executors.newCachedThreadPool(new NettyRenameThreadFactory("heartbeat-server-worker")));
+        ServerBootstrap bootstrap = new ServerBootstrap(_factory);
+        bootstrap.setOption("child.tcpNoDelay", true);
+        bootstrap.setOption("child.keepAlive", true);
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() {
+                ChannelPipeline pipeline = Channels.pipeline();
+                pipeline.addLast("decoder", new LengthFieldBasedFrameDecoder(MAX_FRAME_BYTES, 0, 4, 0, 4));
+                pipeline.addLast("encoder", new LengthFieldPrepender(4));
+                pipeline.addLast("handler", new Handler());
+                return pipeline;
+            }
+        });
+        _channels.add(bootstrap.bind(new InetSocketAddress(port)));
+        LOG.info("Started heartbeat server on port {}", port);
+    }
+
+    public HeartbeatStore store() {
+        return _store;
+    }
+
+    public void close() {
+        _channels.close().awaitUninterruptibly();
+        _factory.releaseExternalResources();
+    }
+
+    ChannelBuffer handle(ChannelBuffer request) throws IOException {
+        DataInputStream in = new DataInputStream(new ChannelBufferInputStream(request));
+        byte op = in.readByte();
+        String path = in.readUTF();
+        ChannelBufferOutputStream response = new ChannelBufferOutputStream(ChannelBuffers.dynamicBuffer(64));
+        DataOutputStream out = new DataOutputStream(response);
+        switch(op) {
+            case PUT:
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                _store.put(path, data);
+                out.writeByte(OK);
+                break;
+            case GET:
+                byte[] found = _store.get(path);
+                if(found == null) {
+                    out.writeByte(NOT_FOUND);
+                } else {
+                    out.writeByte(OK);
+                    out.writeInt(found.length);
+                    out.write(found);
+                }
+                break;
+            case CHILDREN:
+                List<String> children = _store.children(path);
+                out.writeByte(OK);
+                out.writeInt(children.size());
+                for(String child: children) {
+                    out.writeUTF(child);
+                }
+                break;
+            case DELETE:
+                _store.delete(path);
+                out.writeByte(OK);
+                break;
+            case MKDIRS:
+                _store.mkdirs(path);
+                out.writeByte(OK);
+                break;
+            default:
+                out.writeByte(ERROR);
+                out.writeUTF("Unknown heartbeat server operation " + op);
+        }
+        out.flush();
+        return response.buffer();
+    }
+
+    private class Handler extends SimpleChannelUpstreamHandler {
+        @Override
+        public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) {
+            _channels.add(e.getChannel());
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+            e.getChannel().write(handle((ChannelBuffer) e.getMessage()));
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+            LOG.warn("Closing heartbeat connection from " + e.getChannel().getRemoteAddress(), e.getCause());
+            e.getChannel().close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map conf = Utils.readStormConfig();
+        final HeartbeatServer server = new HeartbeatServer(conf);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.close();
+            }
+        });
+        Thread.currentThread().join();
+    }
+}
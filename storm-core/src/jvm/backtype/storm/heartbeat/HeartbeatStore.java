@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.heartbeat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The in-memory heartbeats of a {@link HeartbeatServer}, as data under ZooKeeper style paths.
+ *
+ * Only paths that have been written exist; their parents are implied, so the children of a path are the next path
+ * segments of the paths below it.
+ */
+public class HeartbeatStore {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ConcurrentSkipListMap<String, byte[]> _data = new ConcurrentSkipListMap<String, byte[]>();
+
+    public void put(String path, byte[] data) {
+        _data.put(path, data);
+    }
+
+    /**
+     * Make path exist, without replacing its data.
+     */
+    public void mkdirs(String path) {
+        _data.putIfAbsent(path, EMPTY);
+    }
+
+    /**
+     * @return the data of path, or null if it does not exist
+     */
+    public byte[] get(String path) {
+        return _data.get(path);
+    }
+
+    public List<String> children(String path) {
+        String prefix = path + "/";
+        TreeSet<String> ret = new TreeSet<String>();
+        for(String child: below(prefix).keySet()) {
+            int end = child.indexOf('/', prefix.length());
+            ret.add(end < 0 ? child.substring(prefix.length()) : child.substring(prefix.length(), end));
+        }
+        return new ArrayList<String>(ret);
+    }
+
+    /**
+     * Delete path and everything below it.
+     */
+    public void delete(String path) {
+        _data.remove(path);
+        below(path + "/").clear();
+    }
+
+    public int size() {
+        return _data.size();
+    }
+
+    private Map<String, byte[]> below(String prefix) {
+        return _data.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.messaging;
+
+import backtype.storm.serialization.IOutputTupleSerializer;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A connection that can serialize tuples itself, straight into its outbound buffers, so that a remote send needs
+ * neither a byte[] nor a {@link TaskMessage} per tuple.
+ */
+public interface ITupleConnection {
+    /**
+     * send tuples, serializing them on the calling thread
+     * @param taskTuples (task ID, Tuple) pairs
+     * @param serializer must only be used by the calling thread
+     */
+    public void send(Iterator<List<Object>> taskTuples, IOutputTupleSerializer serializer);
+}
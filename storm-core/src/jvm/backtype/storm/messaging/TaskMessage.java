@@ -18,28 +18,73 @@
 package backtype.storm.messaging;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class TaskMessage {
     private int _task;
     private byte[] _message;
+    private int _offset;
+    private int _length;
+    private boolean _slice;
     
     public TaskMessage(int task, byte[] message) {
         _task = task;
         _message = message;
+        _offset = 0;
+        _length = message == null ? 0 : message.length;
+        _slice = false;
+    }
+
+    /**
+     * Create a message whose payload is the given range of a (possibly shared) buffer.  The buffer is not copied and
+     * must not be modified afterwards.
+     */
+    public TaskMessage(int task, byte[] buffer, int offset, int length) {
+        _task = task;
+        _message = buffer;
+        _offset = offset;
+        _length = length;
+        _slice = buffer != null && (offset != 0 || length != buffer.length);
     }
     
     public int task() {
         return _task;
     }
 
+    /**
+     * @return the payload of this message.  For a slice of a shared buffer this is a copy, use {@link #buffer()},
+     * {@link #offset()} and {@link #length()} to read it in place.
+     */
     public byte[] message() {
+        if (_slice) {
+            return Arrays.copyOfRange(_message, _offset, _offset + _length);
+        }
+        return _message;
+    }
+
+    /**
+     * @return true if the payload is a range of a larger shared buffer
+     */
+    public boolean isSlice() {
+        return _slice;
+    }
+
+    public byte[] buffer() {
         return _message;
     }
+
+    public int offset() {
+        return _offset;
+    }
+
+    public int length() {
+        return _length;
+    }
     
     public ByteBuffer serialize() {
-        ByteBuffer bb = ByteBuffer.allocate(_message.length+2);
+        ByteBuffer bb = ByteBuffer.allocate(_length+2);
         bb.putShort((short)_task);
-        bb.put(_message);
+        bb.put(_message, _offset, _length);
         return bb;
     }
     
@@ -48,6 +93,9 @@ public class TaskMessage {
         _task = packet.getShort();
         _message = new byte[packet.limit()-2];
         packet.get(_message);
+        _offset = 0;
+        _length = _message.length;
+        _slice = false;
     }
 
 }
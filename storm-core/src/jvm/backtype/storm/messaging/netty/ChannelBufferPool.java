@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.messaging.netty;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * A bounded pool of fixed size direct buffers ("slabs") used to encode outbound message batches.
+ *
+ * Allocating a direct buffer is expensive, and the Netty client used to do it once per batch.  A slab is handed out by
+ * {@link #acquire(int)} and must be handed back by {@link #release(ChannelBuffer)} once the write that used it has
+ * completed.  Requests larger than a slab, or slabs released while the pool is already full, are left to the GC.
+ */
+class ChannelBufferPool {
+    private final int slabSize;
+    private final ArrayBlockingQueue<ChannelBuffer> free;
+    private final AtomicInteger allocated = new AtomicInteger(0);
+    private final AtomicInteger reused = new AtomicInteger(0);
+
+    ChannelBufferPool(int slabSize, int maxPooled) {
+        if (slabSize <= 0) {
+            throw new IllegalArgumentException("slab size must be positive (you provided " + slabSize + ")");
+        }
+        this.slabSize = slabSize;
+        this.free = new ArrayBlockingQueue<ChannelBuffer>(Math.max(1, maxPooled));
+    }
+
+    /**
+     * @param minCapacity # of bytes the caller is going to write
+     * @return an empty buffer with at least minCapacity writable bytes
+     */
+    ChannelBuffer acquire(int minCapacity) {
+        if (minCapacity > slabSize) {
+            allocated.incrementAndGet();
+            return ChannelBuffers.directBuffer(minCapacity);
+        }
+        ChannelBuffer slab = free.poll();
+        if (slab == null) {
+            allocated.incrementAndGet();
+            return ChannelBuffers.directBuffer(slabSize);
+        }
+        reused.incrementAndGet();
+        slab.clear();
+        return slab;
+    }
+
+    /**
+     * Return a buffer obtained from {@link #acquire(int)}.  The caller must not touch it afterwards.
+     */
+    void release(ChannelBuffer buffer) {
+        if (buffer == null || buffer.capacity() != slabSize) {
+            return;
+        }
+        buffer.clear();
+        free.offer(buffer);
+    }
+
+    int slabSize() {
+        return slabSize;
+    }
+
+    int pooled() {
+        return free.size();
+    }
+
+    /**
+     * @return # of buffers allocated since the last call
+     */
+    int getAndResetAllocated() {
+        return allocated.getAndSet(0);
+    }
+
+    /**
+     * @return # of buffers served from the pool since the last call
+     */
+    int getAndResetReused() {
+        return reused.getAndSet(0);
+    }
+}
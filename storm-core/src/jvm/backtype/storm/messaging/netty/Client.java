@@ -32,6 +32,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import com.esotericsoftware.kryo.io.Output;
 import com.google.common.util.concurrent.*;
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.channel.Channel;
@@ -43,8 +44,12 @@ import org.slf4j.LoggerFactory;
 
 import backtype.storm.Config;
 import backtype.storm.messaging.ConnectionWithStatus;
+import backtype.storm.messaging.IConnectionBacklog;
+import backtype.storm.messaging.ITupleConnection;
 import backtype.storm.metric.api.IStatefulObject;
 import backtype.storm.messaging.TaskMessage;
+import backtype.storm.serialization.IOutputTupleSerializer;
+import backtype.storm.tuple.Tuple;
 import backtype.storm.utils.StormBoundedExponentialBackoffRetry;
 import backtype.storm.utils.Utils;
 
@@ -63,7 +68,7 @@ import backtype.storm.utils.Utils;
  *   (i.e. messages buffered in memory) and flush them to the remote destination iff background flushing is currently
  *   enabled.
  */
-public class Client extends ConnectionWithStatus implements IStatefulObject {
+public class Client extends ConnectionWithStatus implements ITupleConnection, IConnectionBacklog, IStatefulObject {
 
     private static final Logger LOG = LoggerFactory.getLogger(Client.class);
     private static final String PREFIX = "Netty-Client-";
@@ -144,7 +149,18 @@ public class Client extends ConnectionWithStatus implements IStatefulObject {
      */
     private final int messageBatchSize;
 
+    /**
+     * Pool of direct buffers that message batches are encoded into, or null if pooling is disabled.
+     */
+    private final ChannelBufferPool bufferPool;
+
     private MessageBatch messageBatch = null;
+
+    /**
+     * Scratch buffer that tuples handed to {@link #send(Iterator, IOutputTupleSerializer)} are serialized into before
+     * they are copied into the current message batch.
+     */
+    private final Output tupleOut = new Output(2000, 2000000000);
     private final ListeningScheduledExecutorService scheduler;
     protected final Map stormConf;
     private Context context;
@@ -159,6 +175,7 @@ public class Client extends ConnectionWithStatus implements IStatefulObject {
         LOG.info("creating Netty Client, connecting to {}:{}, bufferSize: {}", host, port, bufferSize);
         messageBatchSize = Utils.getInt(stormConf.get(Config.STORM_NETTY_MESSAGE_BATCH_SIZE), 262144);
         flushCheckIntervalMs = Utils.getInt(stormConf.get(Config.STORM_NETTY_FLUSH_CHECK_INTERVAL_MS), 10);
+        bufferPool = createBufferPool(stormConf, messageBatchSize);
 
         maxReconnectionAttempts = Utils.getInt(stormConf.get(Config.STORM_MESSAGING_NETTY_MAX_RETRIES));
         int minWaitMs = Utils.getInt(stormConf.get(Config.STORM_MESSAGING_NETTY_MIN_SLEEP_MS));
@@ -187,6 +204,18 @@ public class Client extends ConnectionWithStatus implements IStatefulObject {
         return bootstrap;
     }
 
+    private ChannelBufferPool createBufferPool(Map stormConf, int messageBatchSize) {
+        if (!Utils.getBoolean(stormConf.get(Config.STORM_MESSAGING_NETTY_BUFFER_POOL_ENABLE), false)) {
+            return null;
+        }
+        int poolSize = Utils.getInt(stormConf.get(Config.STORM_MESSAGING_NETTY_BUFFER_POOL_SIZE), 4);
+        // A batch is only flushed once it has reached messageBatchSize bytes, so it usually overshoots that size by
+        // the length of its last message.  Leave enough headroom for that to still fit into a pooled buffer.
+        int slabSize = 2 * messageBatchSize;
+        LOG.info("using pooled message batch buffers, poolSize: {}, slabSize: {}", poolSize, slabSize);
+        return new ChannelBufferPool(slabSize, poolSize);
+    }
+
     private String prefixedName(InetSocketAddress dstAddress) {
         if (null != dstAddress) {
             return PREFIX + dstAddress.toString();
@@ -360,6 +389,21 @@ public class Client extends ConnectionWithStatus implements IStatefulObject {
      */
     @Override
     public synchronized void send(Iterator<TaskMessage> msgs) {
+        sendMessages(msgs, null);
+    }
+
+    /**
+     * Serialize tuples straight into the message batches sent to the remote destination.
+     */
+    @Override
+    public synchronized void send(Iterator<List<Object>> taskTuples, IOutputTupleSerializer serializer) {
+        sendMessages(taskTuples, serializer);
+    }
+
+    /**
+     * @param msgs task messages if serializer is null, (task ID, Tuple) pairs otherwise
+     */
+    private void sendMessages(Iterator<?> msgs, IOutputTupleSerializer serializer) {
         if (closing) {
             int numMessages = iteratorSize(msgs);
             LOG.error("discarding {} messages because the Netty client to {} is being closed", numMessages,
@@ -381,12 +425,19 @@ public class Client extends ConnectionWithStatus implements IStatefulObject {
 
         // Collect messages into batches (to optimize network throughput), then flush them.
         while (msgs.hasNext()) {
-            TaskMessage message = msgs.next();
+            Object message = msgs.next();
             if (messageBatch == null) {
-                messageBatch = new MessageBatch(messageBatchSize);
+                messageBatch = new MessageBatch(messageBatchSize, bufferPool);
             }
 
-            messageBatch.add(message);
+            if (serializer == null) {
+                messageBatch.add((TaskMessage) message);
+            } else {
+                List<Object> taskTuple = (List<Object>) message;
+                tupleOut.clear();
+                serializer.serialize((Tuple) taskTuple.get(1), tupleOut);
+                messageBatch.add(((Number) taskTuple.get(0)).intValue(), tupleOut.getBuffer(), tupleOut.position());
+            }
             if (messageBatch.isFull()) {
                 MessageBatch toBeFlushed = messageBatch;
                 flushMessages(channel, toBeFlushed);
@@ -422,7 +473,7 @@ public class Client extends ConnectionWithStatus implements IStatefulObject {
 
     }
 
-    private boolean hasMessages(Iterator<TaskMessage> msgs) {
+    private boolean hasMessages(Iterator<?> msgs) {
         return msgs != null && msgs.hasNext();
     }
 
@@ -433,19 +484,19 @@ public class Client extends ConnectionWithStatus implements IStatefulObject {
      * especially for topologies that disable message acking because we don't know whether the connection recovery will
      * succeed  or not, and how long the recovery will take.
      */
-    private void handleMessagesWhenConnectionIsUnavailable(Iterator<TaskMessage> msgs) {
+    private void handleMessagesWhenConnectionIsUnavailable(Iterator<?> msgs) {
         LOG.error("connection to {} is unavailable", dstAddressPrefixedName);
         dropMessages(msgs);
     }
 
-    private void dropMessages(Iterator<TaskMessage> msgs) {
+    private void dropMessages(Iterator<?> msgs) {
         // We consume the iterator by traversing and thus "emptying" it.
         int msgCount = iteratorSize(msgs);
         messagesLost.getAndAdd(msgCount);
         LOG.error("dropping {} message(s) destined for {}", msgCount, dstAddressPrefixedName);
     }
 
-    private int iteratorSize(Iterator<TaskMessage> msgs) {
+    private int iteratorSize(Iterator<?> msgs) {
         int size = 0;
         if (msgs != null) {
             while (msgs.hasNext()) {
@@ -473,6 +524,8 @@ public class Client extends ConnectionWithStatus implements IStatefulObject {
         future.addListener(new ChannelFutureListener() {
 
             public void operationComplete(ChannelFuture future) throws Exception {
+                // The write has either completed or failed, so Netty is done with the encoded batch.
+                batch.release();
                 pendingMessages.getAndAdd(0 - numMessages);
                 if (future.isSuccess()) {
                     LOG.debug("sent {} messages to {}", numMessages, dstAddressPrefixedName);
@@ -553,6 +606,11 @@ public class Client extends ConnectionWithStatus implements IStatefulObject {
         }
     }
 
+    @Override
+    public int getPendingMessages() {
+        return (int) Math.min(pendingMessages.get(), Integer.MAX_VALUE);
+    }
+
     @Override
     public Object getState() {
         LOG.info("Getting metrics for client connection to {}", dstAddressPrefixedName);
@@ -562,6 +620,11 @@ public class Client extends ConnectionWithStatus implements IStatefulObject {
         ret.put("pending", pendingMessages.get());
         ret.put("lostOnSend", messagesLost.getAndSet(0));
         ret.put("dest", dstAddress.toString());
+        if (bufferPool != null) {
+            ret.put("bufferPoolAllocated", bufferPool.getAndResetAllocated());
+            ret.put("bufferPoolReused", bufferPool.getAndResetReused());
+            ret.put("bufferPoolIdle", bufferPool.pooled());
+        }
         String src = srcAddressName();
         if (src != null) {
             ret.put("src", src);
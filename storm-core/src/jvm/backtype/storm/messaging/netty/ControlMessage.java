@@ -50,6 +50,10 @@ enum ControlMessage {
         return null;
     }
 
+    short code() {
+        return code;
+    }
+
     int encodeLength() {
         return 2; //short
     }
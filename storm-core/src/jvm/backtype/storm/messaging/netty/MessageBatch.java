@@ -27,10 +27,23 @@ import java.util.ArrayList;
 class MessageBatch {
     private int buffer_size;
     private ArrayList<TaskMessage> msgs;
+    private int count;
     private int encoded_length;
+    private final ChannelBufferPool pool;
+    private ChannelBuffer written;
+    private boolean encoded;
 
     MessageBatch(int buffer_size) {
+        this(buffer_size, null);
+    }
+
+    /**
+     * @param pool if not null, the batch is encoded into a buffer taken from this pool, which must be handed back
+     *             through {@link #release()} once the write of this batch has completed
+     */
+    MessageBatch(int buffer_size, ChannelBufferPool pool) {
         this.buffer_size = buffer_size;
+        this.pool = pool;
         msgs = new ArrayList<TaskMessage>();
         encoded_length = ControlMessage.EOB_MESSAGE.encodeLength();
     }
@@ -40,13 +53,29 @@ class MessageBatch {
             throw new RuntimeException("null object forbidded in message batch");
 
         TaskMessage msg = (TaskMessage)obj;
-        msgs.add(msg);
-        encoded_length += msgEncodeLength(msg);
+        int msg_length = msgEncodeLength(msg);
+        if (written != null) {
+            ensureWritable(msg_length);
+            writeTaskMessage(written, msg);
+        } else {
+            msgs.add(msg);
+        }
+        count++;
+        encoded_length += msg_length;
     }
 
-
-    TaskMessage get(int index) {
-        return msgs.get(index);
+    /**
+     * add a message whose payload is the first length bytes of payload.  The payload is copied into the encoding of
+     * this batch right away, so the caller may reuse it as soon as this returns.
+     */
+    void add(int task, byte[] payload, int length) {
+        int msg_length = 6 + length; //INT + SHORT
+        startWriting(encoded_length + msg_length);
+        ensureWritable(msg_length);
+        writeHeader(written, task, length);
+        written.writeBytes(payload, 0, length);
+        count++;
+        encoded_length += msg_length;
     }
 
     /**
@@ -65,8 +94,8 @@ class MessageBatch {
         if (taskMsg == null) return 0;
 
         int size = 6; //INT + SHORT
-        if (taskMsg.message() != null) 
-            size += taskMsg.message().length;
+        if (taskMsg.buffer() != null) 
+            size += taskMsg.length();
         return size;
     }
 
@@ -83,7 +112,7 @@ class MessageBatch {
      * @return
      */
     boolean isEmpty() {
-        return msgs.isEmpty();
+        return count == 0;
     }
 
     /**
@@ -91,13 +120,16 @@ class MessageBatch {
      * @return
      */
     int size() {
-        return msgs.size();
+        return count;
     }
 
     /**
      * create a buffer containing the encoding of this batch
      */
     ChannelBuffer buffer() throws Exception {
+        if (pool != null || written != null) {
+            return writtenBuffer();
+        }
         ChannelBufferOutputStream bout = new ChannelBufferOutputStream(ChannelBuffers.directBuffer(encoded_length));
         
         for (TaskMessage msg : msgs)
@@ -111,6 +143,85 @@ class MessageBatch {
         return bout.buffer();
     }
 
+    /**
+     * finish the encoding of this batch, writing headers and payloads of the messages not written yet straight into
+     * its buffer
+     */
+    private synchronized ChannelBuffer writtenBuffer() {
+        if (encoded) {
+            throw new IllegalStateException("message batch has already been encoded");
+        }
+        startWriting(encoded_length);
+        written.writeShort(ControlMessage.EOB_MESSAGE.code());
+        encoded = true;
+        return written;
+    }
+
+    /**
+     * hand the pooled buffer of this batch (if any) back to its pool
+     */
+    synchronized void release() {
+        if (pool != null && written != null) {
+            pool.release(written);
+            written = null;
+        }
+    }
+
+    /**
+     * switch to writing messages into a buffer as they are added, starting with the ones added so far
+     */
+    private void startWriting(int capacity) {
+        if (written != null) {
+            return;
+        }
+        written = allocate(capacity);
+        for (TaskMessage msg : msgs) {
+            writeTaskMessage(written, msg);
+        }
+        msgs.clear();
+    }
+
+    /**
+     * make sure that a message of msg_length bytes and the END_OF_BATCH indicator still fit into the buffer.  The
+     * first buffer of a batch only holds what has been added so far, so it is grown by doubling, but never past what
+     * a full batch needs unless a single message does not fit otherwise.
+     */
+    private void ensureWritable(int msg_length) {
+        int needed = msg_length + ControlMessage.EOB_MESSAGE.encodeLength();
+        if (written.writableBytes() >= needed) {
+            return;
+        }
+        int doubled = Math.min(2 * written.capacity(), buffer_size + ControlMessage.EOB_MESSAGE.encodeLength());
+        ChannelBuffer grown = allocate(Math.max(written.readableBytes() + needed, doubled));
+        grown.writeBytes(written);
+        if (pool != null) {
+            pool.release(written);
+        }
+        written = grown;
+    }
+
+    private ChannelBuffer allocate(int capacity) {
+        if (pool != null) {
+            return pool.acquire(capacity);
+        }
+        return ChannelBuffers.directBuffer(capacity);
+    }
+
+    private void writeTaskMessage(ChannelBuffer buf, TaskMessage message) {
+        int payload_len = message.buffer() == null ? 0 : message.length();
+        writeHeader(buf, message.task(), payload_len);
+        if (payload_len >0)
+            buf.writeBytes(message.buffer(), message.offset(), payload_len);
+    }
+
+    private void writeHeader(ChannelBuffer buf, int task_id, int payload_len) {
+        if (task_id > Short.MAX_VALUE)
+            throw new RuntimeException("Task ID should not exceed "+Short.MAX_VALUE);
+
+        buf.writeShort((short)task_id);
+        buf.writeInt(payload_len);
+    }
+
     /**
      * write a TaskMessage into a stream
      *
@@ -27,6 +27,20 @@ import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.frame.FrameDecoder;
 
 public class MessageDecoder extends FrameDecoder {    
+    private final boolean decodeAsSlices;
+
+    public MessageDecoder() {
+        this(false);
+    }
+
+    /**
+     * @param decodeAsSlices if true, all complete task messages at the head of the buffer are copied out with a
+     *                       single read, and handed out as {@link TaskMessage} slices of that copy.
+     */
+    public MessageDecoder(boolean decodeAsSlices) {
+        this.decodeAsSlices = decodeAsSlices;
+    }
+
     /*
      * Each ControlMessage is encoded as:
      *  code (<0) ... short(2)
@@ -43,6 +57,13 @@ public class MessageDecoder extends FrameDecoder {
             return null;
         }
 
+        if (decodeAsSlices) {
+            List<Object> slices = decodeTaskMessageSlices(buf);
+            if (slices != null) {
+                return slices;
+            }
+        }
+
         List<Object> ret = new ArrayList<Object>();
 
         // Use while loop, try to decode as more messages as possible in single call
@@ -142,4 +163,61 @@ public class MessageDecoder extends FrameDecoder {
             return ret;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Decode the run of complete task messages (and EOB markers) at the head of the buffer as slices of a single
+     * byte array.
+     *
+     * @return the decoded messages, or null if the buffer does not start with a complete task message, in which case
+     * nothing has been consumed
+     */
+    private List<Object> decodeTaskMessageSlices(ChannelBuffer buf) {
+        int start = buf.readerIndex();
+        int end = buf.writerIndex();
+        int pos = start;
+        int count = 0;
+        while (end - pos >= 2) {
+            short code = buf.getShort(pos);
+            if (code == ControlMessage.EOB_MESSAGE.code()) {
+                pos += 2;
+                continue;
+            }
+            if (code < 0 || end - pos < 6) {
+                break;
+            }
+            int length = buf.getInt(pos + 2);
+            int frameLength = 6 + Math.max(0, length);
+            if (end - pos < frameLength) {
+                break;
+            }
+            pos += frameLength;
+            count++;
+        }
+        if (count == 0) {
+            return null;
+        }
+
+        byte[] frames = new byte[pos - start];
+        buf.readBytes(frames);
+
+        List<Object> ret = new ArrayList<Object>(count);
+        int i = 0;
+        while (i < frames.length) {
+            short code = (short) (((frames[i] & 0xff) << 8) | (frames[i + 1] & 0xff));
+            i += 2;
+            if (code == ControlMessage.EOB_MESSAGE.code()) {
+                continue;
+            }
+            int length = ((frames[i] & 0xff) << 24) | ((frames[i + 1] & 0xff) << 16)
+                    | ((frames[i + 2] & 0xff) << 8) | (frames[i + 3] & 0xff);
+            i += 4;
+            if (length <= 0) {
+                ret.add(new TaskMessage(code, null));
+            } else {
+                ret.add(new TaskMessage(code, frames, i, length));
+                i += length;
+            }
+        }
+        return ret;
+    }
+}
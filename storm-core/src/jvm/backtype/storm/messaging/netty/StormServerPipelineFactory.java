@@ -22,6 +22,7 @@ import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
 
 import backtype.storm.Config;
+import backtype.storm.utils.Utils;
 
 class StormServerPipelineFactory implements ChannelPipelineFactory {
     private Server server;
@@ -35,7 +36,9 @@ class StormServerPipelineFactory implements ChannelPipelineFactory {
         ChannelPipeline pipeline = Channels.pipeline();
 
         // Decoder
-        pipeline.addLast("decoder", new MessageDecoder());
+        boolean decodeAsSlices = Utils.getBoolean(this.server.storm_conf
+                .get(Config.STORM_MESSAGING_NETTY_BUFFER_POOL_ENABLE), false);
+        pipeline.addLast("decoder", new MessageDecoder(decodeAsSlices));
         // Encoder
         pipeline.addLast("encoder", new MessageEncoder());
 
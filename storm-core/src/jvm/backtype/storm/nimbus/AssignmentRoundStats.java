@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.nimbus;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts what the assignment rounds of nimbus did and how long their phases took, and publishes that over JMX under
+ * {@link #OBJECT_NAME}.  Only one nimbus per JVM is published, later ones (of local clusters) are only counted.
+ */
+public class AssignmentRoundStats implements AssignmentRoundStatsMBean {
+    private static final Logger LOG = LoggerFactory.getLogger(AssignmentRoundStats.class);
+    public static final String OBJECT_NAME = "backtype.storm.nimbus:type=AssignmentRounds";
+
+    public enum Phase { TOPOLOGIES, ASSIGNMENTS, HEARTBEATS, SCHEDULING, TOTAL }
+
+    private final AtomicLong _rounds = new AtomicLong();
+    private final AtomicLong _schedulerCalls = new AtomicLong();
+    private final AtomicLong _schedulerSkips = new AtomicLong();
+    private final AtomicLong _heartbeatReads = new AtomicLong();
+    private final AtomicLong _heartbeatReadsSkipped = new AtomicLong();
+    private final AtomicLongArray _lastMs = new AtomicLongArray(Phase.values().length);
+    private final AtomicLong _maxTotalMs = new AtomicLong();
+    private ObjectName _registered;
+
+    /**
+     * Publish these stats over JMX, unless another instance already is.
+     */
+    public synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if(!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                _registered = name;
+            }
+        } catch(JMException e) {
+            LOG.warn("Could not register " + OBJECT_NAME, e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if(_registered != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(_registered);
+            } catch(JMException e) {
+                LOG.warn("Could not unregister " + OBJECT_NAME, e);
+            }
+            _registered = null;
+        }
+    }
+
+    /**
+     * Record that a phase of the current round took ms, for {@link Phase#TOTAL} that a round is done.
+     */
+    public void record(Phase phase, long ms) {
+        _lastMs.set(phase.ordinal(), ms);
+        if(phase == Phase.TOTAL) {
+            _rounds.incrementAndGet();
+            long max = _maxTotalMs.get();
+            while(ms > max && !_maxTotalMs.compareAndSet(max, ms)) {
+                max = _maxTotalMs.get();
+            }
+        }
+    }
+
+    public void schedulerCalled(boolean skipped) {
+        (skipped ? _schedulerSkips : _schedulerCalls).incrementAndGet();
+    }
+
+    public void heartbeatRead(boolean skipped) {
+        (skipped ? _heartbeatReadsSkipped : _heartbeatReads).incrementAndGet();
+    }
+
+    @Override
+    public long getRounds() {
+        return _rounds.get();
+    }
+
+    @Override
+    public long getSchedulerCalls() {
+        return _schedulerCalls.get();
+    }
+
+    @Override
+    public long getSchedulerSkips() {
+        return _schedulerSkips.get();
+    }
+
+    @Override
+    public long getHeartbeatReads() {
+        return _heartbeatReads.get();
+    }
+
+    @Override
+    public long getHeartbeatReadsSkipped() {
+        return _heartbeatReadsSkipped.get();
+    }
+
+    @Override
+    public long getLastTopologiesMs() {
+        return _lastMs.get(Phase.TOPOLOGIES.ordinal());
+    }
+
+    @Override
+    public long getLastAssignmentsMs() {
+        return _lastMs.get(Phase.ASSIGNMENTS.ordinal());
+    }
+
+    @Override
+    public long getLastHeartbeatsMs() {
+        return _lastMs.get(Phase.HEARTBEATS.ordinal());
+    }
+
+    @Override
+    public long getLastSchedulingMs() {
+        return _lastMs.get(Phase.SCHEDULING.ordinal());
+    }
+
+    @Override
+    public long getLastTotalMs() {
+        return _lastMs.get(Phase.TOTAL.ordinal());
+    }
+
+    @Override
+    public long getMaxTotalMs() {
+        return _maxTotalMs.get();
+    }
+
+    /**
+     * @return the ms spent in each phase of the last round
+     */
+    @Override
+    public String toString() {
+        StringBuilder ret = new StringBuilder("{");
+        for(Phase phase: Phase.values()) {
+            if(ret.length() > 1) {
+                ret.append(", ");
+            }
+            ret.append(phase.name().toLowerCase()).append('=').append(_lastMs.get(phase.ordinal()));
+        }
+        return ret.append('}').toString();
+    }
+}
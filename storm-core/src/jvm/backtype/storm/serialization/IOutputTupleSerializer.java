@@ -0,0 +1,32 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.serialization;
+
+import backtype.storm.tuple.Tuple;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * A tuple serializer that can append a tuple to a buffer owned by the caller, such as the outbound buffer of a
+ * transport, instead of returning it as a byte[] of its own.
+ */
+public interface IOutputTupleSerializer extends ITupleSerializer {
+    /**
+     * Append the serialized tuple to target.  Produces the same bytes as {@link #serialize(Tuple)}.
+     */
+    void serialize(Tuple tuple, Output target);
+}
@@ -17,10 +17,12 @@
  */
 package backtype.storm.serialization;
 
+import backtype.storm.Config;
 import backtype.storm.task.GeneralTopologyContext;
 import backtype.storm.tuple.MessageId;
 import backtype.storm.tuple.Tuple;
 import backtype.storm.tuple.TupleImpl;
+import backtype.storm.utils.Utils;
 import backtype.storm.utils.WritableUtils;
 import com.esotericsoftware.kryo.io.Input;
 import java.io.ByteArrayInputStream;
@@ -28,29 +30,58 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class KryoTupleDeserializer implements ITupleDeserializer {
+    public static final Logger LOG = LoggerFactory.getLogger(KryoTupleDeserializer.class);
+
     GeneralTopologyContext _context;
     KryoValuesDeserializer _kryo;
     SerializationFactory.IdDictionary _ids;
     Input _kryoInput;
+    Map<String, Map<String, TupleSchema>> _schemas;
+    boolean _lazy;
     
     public KryoTupleDeserializer(final Map conf, final GeneralTopologyContext context) {
         _kryo = new KryoValuesDeserializer(conf);
         _context = context;
         _ids = new SerializationFactory.IdDictionary(context.getRawTopology());
         _kryoInput = new Input(1);
+        _schemas = TupleSchema.fromConf(conf, context);
+        _lazy = Utils.getBoolean(conf.get(Config.TOPOLOGY_TUPLE_LAZY_DESERIALIZATION), false);
+        if(_lazy && !_kryo.canDeserializeLazily()) {
+            LOG.warn("Tuples are deserialized eagerly, lazy deserialization needs the default "
+                    + Config.TOPOLOGY_TUPLE_SERIALIZER + " and Kryo without reference tracking");
+            _lazy = false;
+        }
     }        
 
     public Tuple deserialize(byte[] ser) {
+        return deserialize(ser, 0, ser.length);
+    }
+
+    /**
+     * Deserialize a tuple from a range of a buffer that may hold other data too, e.g. a slice of a received frame.
+     */
+    public Tuple deserialize(byte[] buffer, int offset, int length) {
         try {
-            _kryoInput.setBuffer(ser);
+            _kryoInput.setBuffer(buffer, offset, length);
             int taskId = _kryoInput.readInt(true);
             int streamId = _kryoInput.readInt(true);
             String componentName = _context.getComponentId(taskId);
             String streamName = _ids.getStreamName(componentName, streamId);
             MessageId id = MessageId.deserialize(_kryoInput);
-            List<Object> values = _kryo.deserializeFrom(_kryoInput);
+            TupleSchema schema = TupleSchema.find(_schemas, componentName, streamName);
+            List<Object> values;
+            if(schema != null && _kryoInput.readByte() == TupleSchema.SCHEMA_RECORD) {
+                values = schema.read(_kryoInput);
+            } else if(_lazy) {
+                int start = _kryoInput.position();
+                values = _kryo.deserializeLazily(buffer, start, offset + length - start);
+            } else {
+                values = _kryo.deserializeFrom(_kryoInput);
+            }
             return new TupleImpl(_context, values, taskId, streamName, id);
         } catch(IOException e) {
             throw new RuntimeException(e);
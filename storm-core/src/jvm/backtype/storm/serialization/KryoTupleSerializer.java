@@ -21,33 +21,53 @@ import backtype.storm.task.GeneralTopologyContext;
 import backtype.storm.tuple.Tuple;
 import com.esotericsoftware.kryo.io.Output;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
-public class KryoTupleSerializer implements ITupleSerializer {
+public class KryoTupleSerializer implements IOutputTupleSerializer {
     KryoValuesSerializer _kryo;
     SerializationFactory.IdDictionary _ids;   
     Output _kryoOut;
+    Map<String, Map<String, TupleSchema>> _schemas;
     
     public KryoTupleSerializer(final Map conf, final GeneralTopologyContext context) {
         _kryo = new KryoValuesSerializer(conf);
         _kryoOut = new Output(2000, 2000000000);
         _ids = new SerializationFactory.IdDictionary(context.getRawTopology());
+        _schemas = TupleSchema.fromConf(conf, context);
     }
 
     public byte[] serialize(Tuple tuple) {
+        _kryoOut.clear();
+        serialize(tuple, _kryoOut);
+        return _kryoOut.toBytes();
+    }
+
+    public void serialize(Tuple tuple, Output target) {
         try {
-            
-            _kryoOut.clear();
-            _kryoOut.writeInt(tuple.getSourceTask(), true);
-            _kryoOut.writeInt(_ids.getStreamId(tuple.getSourceComponent(), tuple.getSourceStreamId()), true);
-            tuple.getMessageId().serialize(_kryoOut);
-            _kryo.serializeInto(tuple.getValues(), _kryoOut);
-            return _kryoOut.toBytes();
+            target.writeInt(tuple.getSourceTask(), true);
+            target.writeInt(_ids.getStreamId(tuple.getSourceComponent(), tuple.getSourceStreamId()), true);
+            tuple.getMessageId().serialize(target);
+            serializeValues(tuple, target);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private void serializeValues(Tuple tuple, Output out) throws IOException {
+        List<Object> values = tuple.getValues();
+        TupleSchema schema = TupleSchema.find(_schemas, tuple.getSourceComponent(), tuple.getSourceStreamId());
+        if(schema == null) {
+            _kryo.serializeInto(values, out);
+        } else if(schema.fits(values)) {
+            out.writeByte(TupleSchema.SCHEMA_RECORD);
+            schema.write(values, out);
+        } else {
+            out.writeByte(TupleSchema.GENERIC_RECORD);
+            _kryo.serializeInto(values, out);
+        }
+    }
+
 //    public long crc32(Tuple tuple) {
 //        try {
 //            CRC32OutputStream hasher = new CRC32OutputStream();
@@ -17,6 +17,7 @@
  */
 package backtype.storm.serialization;
 
+import backtype.storm.serialization.types.ListDelegateSerializer;
 import backtype.storm.utils.ListDelegate;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
@@ -28,10 +29,47 @@ import java.util.Map;
 public class KryoValuesDeserializer {
     Kryo _kryo;
     Input _kryoInput;
+    Input _lazyInput;
     
     public KryoValuesDeserializer(Map conf) {
         _kryo = SerializationFactory.getKryo(conf);
         _kryoInput = new Input(1);
+        _lazyInput = new Input(1);
+    }
+
+    /**
+     * @return whether values can be read one field at a time, which needs the default tuple serializer and a Kryo
+     * instance that does not track references
+     */
+    public boolean canDeserializeLazily() {
+        return !_kryo.getReferences() && _kryo.getSerializer(ListDelegate.class).getClass() == ListDelegateSerializer.class;
+    }
+
+    /**
+     * Read the number of values from a range of a buffer, leaving the values themselves to be read on first access.
+     * Only valid if {@link #canDeserializeLazily()}.
+     */
+    public LazyValues deserializeLazily(byte[] buffer, int offset, int length) {
+        synchronized(this) {
+            Input in = lazyInput(buffer, offset, offset + length);
+            int size = in.readInt(true);
+            return new LazyValues(this, buffer, offset, offset + length, size, in.position());
+        }
+    }
+
+    /**
+     * The caller must hold the lock on this deserializer until it is done with the input.
+     */
+    Input lazyInput(byte[] buffer, int position, int end) {
+        _lazyInput.setBuffer(buffer, position, end - position);
+        return _lazyInput;
+    }
+
+    /**
+     * Read the next field of lazily deserialized values.  The caller must hold the lock on this deserializer.
+     */
+    Object readValue(Input input) {
+        return _kryo.readClassAndObject(input);
     }
     
     public List<Object> deserializeFrom(Input input) {
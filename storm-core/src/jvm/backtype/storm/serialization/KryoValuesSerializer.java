@@ -40,6 +40,9 @@ public class KryoValuesSerializer {
         // of whether it's a java collection or one of clojure's persistent collections 
         // (which have different serializers)
         // Doing this lets us deserialize as ArrayList and avoid writing the class here
+        if(values instanceof LazyValues && ((LazyValues) values).writeUnmodified(out)) {
+            return;
+        }
         _delegate.setDelegate(values);
         _kryo.writeObject(out, _delegate); 
     }
@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.serialization;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * The values of a received tuple, read from their serialized form one field at a time as they are first accessed.
+ *
+ * A bolt that only looks at the leading fields of a tuple, or passes its values on unchanged, does not pay for
+ * reading the rest.  As long as no field has been replaced, and no field read so far could have been changed in place
+ * (every one is null, a String or a boxed primitive), the values are serialized again by copying the bytes they were
+ * read from.  Fields are read with the Kryo instance of the deserializer that created the values, under its
+ * lock, so the values may be read from any thread.  The bytes are referenced rather than copied and must not be
+ * modified afterwards.
+ */
+public class LazyValues extends AbstractList<Object> implements RandomAccess {
+    private final KryoValuesDeserializer _kryo;
+    private final byte[] _buffer;
+    private final int _start;
+    private final int _end;
+    private final Object[] _values;
+    // position of the first field not read yet, guarded by _kryo
+    private int _position;
+    private volatile int _read = 0;
+    private volatile boolean _modified = false;
+    // whether get has handed out a field that can be changed in place
+    private volatile boolean _mutableRead = false;
+
+    /**
+     * @param start where the serialized values start
+     * @param end where they end
+     * @param position where their first field starts
+     */
+    LazyValues(KryoValuesDeserializer kryo, byte[] buffer, int start, int end, int size, int position) {
+        _kryo = kryo;
+        _buffer = buffer;
+        _start = start;
+        _end = end;
+        _values = new Object[size];
+        _position = position;
+    }
+
+    @Override
+    public Object get(int i) {
+        if(i >= _read) {
+            if(i >= _values.length) {
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + _values.length);
+            }
+            readUpTo(i);
+        }
+        Object value = _values[i];
+        if(!_mutableRead && !isImmutable(value)) {
+            _mutableRead = true;
+        }
+        return value;
+    }
+
+    private static boolean isImmutable(Object value) {
+        return value == null || value instanceof String || value instanceof Long || value instanceof Integer
+                || value instanceof Double || value instanceof Float || value instanceof Boolean
+                || value instanceof Short || value instanceof Byte || value instanceof Character;
+    }
+
+    @Override
+    public Object set(int i, Object value) {
+        readUpTo(_values.length - 1);
+        Object old = _values[i];
+        _values[i] = value;
+        _modified = true;
+        return old;
+    }
+
+    @Override
+    public int size() {
+        return _values.length;
+    }
+
+    /**
+     * @return # of fields read so far
+     */
+    public int read() {
+        return _read;
+    }
+
+    /**
+     * Write the bytes these values were read from to out, unless a field has been replaced since, or a field that
+     * could have been changed in place has been read.
+     *
+     * @return false if nothing has been written
+     */
+    boolean writeUnmodified(Output out) {
+        if(_modified || _mutableRead) {
+            return false;
+        }
+        out.writeBytes(_buffer, _start, _end - _start);
+        return true;
+    }
+
+    private void readUpTo(int i) {
+        synchronized(_kryo) {
+            int read = _read;
+            if(i < read) {
+                return;
+            }
+            Input in = _kryo.lazyInput(_buffer, _position, _end);
+            while(read <= i) {
+                _values[read++] = _kryo.readValue(in);
+            }
+            _position = in.position();
+            _read = read;
+        }
+    }
+}
@@ -21,6 +21,7 @@ import backtype.storm.Config;
 import backtype.storm.generated.ComponentCommon;
 import backtype.storm.generated.StormTopology;
 import backtype.storm.serialization.types.ArrayListSerializer;
+import backtype.storm.serialization.types.ByteBufferSerializer;
 import backtype.storm.serialization.types.ListDelegateSerializer;
 import backtype.storm.serialization.types.HashMapSerializer;
 import backtype.storm.serialization.types.HashSetSerializer;
@@ -33,6 +34,7 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.serializers.DefaultSerializers.BigIntegerSerializer;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -46,6 +48,14 @@ import org.slf4j.LoggerFactory;
 public class SerializationFactory {
     public static final Logger LOG = LoggerFactory.getLogger(SerializationFactory.class);
 
+    // the JDK's ByteBuffer implementations: heap, read-only heap, direct (and mapped) and read-only direct
+    static final Class[] BYTE_BUFFER_CLASSES = {
+        ByteBuffer.allocate(0).getClass(),
+        ByteBuffer.allocate(0).asReadOnlyBuffer().getClass(),
+        ByteBuffer.allocateDirect(0).getClass(),
+        ByteBuffer.allocateDirect(0).asReadOnlyBuffer().getClass()
+    };
+
     public static Kryo getKryo(Map conf) {
         IKryoFactory kryoFactory = (IKryoFactory) Utils.newInstance((String) conf.get(Config.TOPOLOGY_KRYO_FACTORY));
         Kryo k = kryoFactory.getKryo(conf);
@@ -102,6 +112,18 @@ public class SerializationFactory {
             }
         }
 
+        // registered after the user registrations so that they do not change their ids
+        if(Utils.getBoolean(conf.get(Config.TOPOLOGY_ACKER_BATCH_ENABLE), false)) {
+            // the packed roots of __ack_batch tuples, see AckCoalescer
+            k.register(long[].class);
+        }
+        // the buffers that schemes emit without copying them, see RawByteBufferMultiScheme
+        for(Class bufferClass: BYTE_BUFFER_CLASSES) {
+            if(k.getClassResolver().getRegistration(bufferClass) == null) {
+                k.register(bufferClass, new ByteBufferSerializer());
+            }
+        }
+
         kryoFactory.postRegister(k, conf);
 
         if (conf.get(Config.TOPOLOGY_KRYO_DECORATORS) != null) {
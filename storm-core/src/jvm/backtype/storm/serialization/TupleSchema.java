@@ -0,0 +1,215 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.serialization;
+
+import backtype.storm.Config;
+import backtype.storm.generated.ComponentCommon;
+import backtype.storm.generated.StormTopology;
+import backtype.storm.generated.StreamInfo;
+import backtype.storm.task.GeneralTopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.PrimitiveValues;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The field types of a stream, declared through {@link Config#TOPOLOGY_TUPLE_SCHEMAS}.
+ *
+ * Values that match their schema are written without Kryo class ids, with ints and longs as zigzag varints, and are
+ * read back into {@link PrimitiveValues}.  Supported types are long, int, double, float, boolean, string and bytes;
+ * only string and bytes fields may be null.
+ */
+public class TupleSchema {
+    enum Type { LONG, INT, DOUBLE, FLOAT, BOOLEAN, STRING, BYTES }
+
+    // every record of a stream with a schema starts with one of these
+    static final byte GENERIC_RECORD = 0;
+    static final byte SCHEMA_RECORD = 1;
+
+    private final Type[] _types;
+
+    public TupleSchema(List<String> typeNames) {
+        _types = new Type[typeNames.size()];
+        for(int i=0; i<_types.length; i++) {
+            try {
+                _types[i] = Type.valueOf(typeNames.get(i).toUpperCase());
+            } catch(IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown tuple schema type " + typeNames.get(i));
+            }
+        }
+    }
+
+    public int size() {
+        return _types.length;
+    }
+
+    /**
+     * @return whether values can be written with this schema
+     */
+    public boolean fits(List<Object> values) {
+        if(values.size() != _types.length) {
+            return false;
+        }
+        for(int i=0; i<_types.length; i++) {
+            Object v = values.get(i);
+            boolean ok;
+            switch(_types[i]) {
+                case LONG: ok = v instanceof Long; break;
+                case INT: ok = v instanceof Integer; break;
+                case DOUBLE: ok = v instanceof Double; break;
+                case FLOAT: ok = v instanceof Float; break;
+                case BOOLEAN: ok = v instanceof Boolean; break;
+                case STRING: ok = v == null || v instanceof String; break;
+                default: ok = v == null || v instanceof byte[];
+            }
+            if(!ok) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write values, which must {@link #fits fit} this schema.
+     */
+    public void write(List<Object> values, Output out) {
+        for(int i=0; i<_types.length; i++) {
+            Object v = values.get(i);
+            switch(_types[i]) {
+                case LONG: out.writeLong((Long) v, false); break;
+                case INT: out.writeInt((Integer) v, false); break;
+                case DOUBLE: out.writeDouble((Double) v); break;
+                case FLOAT: out.writeFloat((Float) v); break;
+                case BOOLEAN: out.writeBoolean((Boolean) v); break;
+                case STRING: out.writeString((String) v); break;
+                default:
+                    byte[] bytes = (byte[]) v;
+                    if(bytes == null) {
+                        out.writeInt(0, true);
+                    } else {
+                        out.writeInt(bytes.length + 1, true);
+                        out.writeBytes(bytes);
+                    }
+            }
+        }
+    }
+
+    public PrimitiveValues read(Input in) {
+        PrimitiveValues ret = new PrimitiveValues(_types.length);
+        for(int i=0; i<_types.length; i++) {
+            switch(_types[i]) {
+                case LONG: ret.setLong(i, in.readLong(false)); break;
+                case INT: ret.setInt(i, in.readInt(false)); break;
+                case DOUBLE: ret.setDouble(i, in.readDouble()); break;
+                case FLOAT: ret.setFloat(i, in.readFloat()); break;
+                case BOOLEAN: ret.setBoolean(i, in.readBoolean()); break;
+                case STRING: ret.setObject(i, in.readString()); break;
+                default:
+                    int length = in.readInt(true);
+                    ret.setObject(i, length == 0 ? null : in.readBytes(length - 1));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the schema of the stream, or null if it has none
+     */
+    static TupleSchema find(Map<String, Map<String, TupleSchema>> schemas, String componentId, String streamId) {
+        if(schemas.isEmpty()) {
+            return null;
+        }
+        Map<String, TupleSchema> streams = schemas.get(componentId);
+        return streams == null ? null : streams.get(streamId);
+    }
+
+    /**
+     * Check the schemas declared in conf against the components and streams of a topology, as it is submitted.
+     *
+     * @throws IllegalArgumentException for a schema of an unknown stream, with an unknown type, or with another
+     * number of types than the stream has output fields
+     */
+    public static void validate(Map conf, StormTopology topology) {
+        Map<String, Map<String, List<String>>> declared =
+                (Map<String, Map<String, List<String>>>) conf.get(Config.TOPOLOGY_TUPLE_SCHEMAS);
+        if(declared == null) {
+            return;
+        }
+        for(Map.Entry<String, Map<String, List<String>>> component: declared.entrySet()) {
+            ComponentCommon common = findCommon(topology, component.getKey());
+            if(common == null) {
+                throw new IllegalArgumentException("Tuple schema declared for unknown component " + component.getKey());
+            }
+            for(Map.Entry<String, List<String>> stream: component.getValue().entrySet()) {
+                StreamInfo info = common.get_streams().get(stream.getKey());
+                if(info == null) {
+                    throw new IllegalArgumentException("Tuple schema declared for unknown stream " + stream.getKey()
+                            + " of component " + component.getKey());
+                }
+                checkSize(new TupleSchema(stream.getValue()), info.get_output_fields().size(), component.getKey(), stream.getKey());
+            }
+        }
+    }
+
+    private static ComponentCommon findCommon(StormTopology topology, String componentId) {
+        if(topology.get_spouts().containsKey(componentId)) {
+            return topology.get_spouts().get(componentId).get_common();
+        }
+        if(topology.get_bolts().containsKey(componentId)) {
+            return topology.get_bolts().get(componentId).get_common();
+        }
+        if(topology.get_state_spouts().containsKey(componentId)) {
+            return topology.get_state_spouts().get(componentId).get_common();
+        }
+        return null;
+    }
+
+    private static void checkSize(TupleSchema schema, int numFields, String componentId, String streamId) {
+        if(numFields != schema.size()) {
+            throw new IllegalArgumentException("Tuple schema of stream " + streamId + " of component "
+                    + componentId + " has " + schema.size() + " types for " + numFields + " fields");
+        }
+    }
+
+    /**
+     * @return component id to stream id to schema, for the schemas declared in conf
+     * @throws IllegalArgumentException if a schema does not match the declared output fields of its stream
+     */
+    public static Map<String, Map<String, TupleSchema>> fromConf(Map conf, GeneralTopologyContext context) {
+        Map<String, Map<String, TupleSchema>> ret = new HashMap<String, Map<String, TupleSchema>>();
+        Map<String, Map<String, List<String>>> declared =
+                (Map<String, Map<String, List<String>>>) conf.get(Config.TOPOLOGY_TUPLE_SCHEMAS);
+        if(declared == null) {
+            return ret;
+        }
+        for(Map.Entry<String, Map<String, List<String>>> component: declared.entrySet()) {
+            Map<String, TupleSchema> streams = new HashMap<String, TupleSchema>();
+            for(Map.Entry<String, List<String>> stream: component.getValue().entrySet()) {
+                TupleSchema schema = new TupleSchema(stream.getValue());
+                Fields fields = context.getComponentOutputFields(component.getKey(), stream.getKey());
+                checkSize(schema, fields.size(), component.getKey(), stream.getKey());
+                streams.put(stream.getKey(), schema);
+            }
+            ret.put(component.getKey(), streams);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.serialization.types;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the bytes between the position and the limit of a buffer of any kind, and reads them back into a heap
+ * buffer.  The written buffer is left as it was.
+ */
+public class ByteBufferSerializer extends Serializer<ByteBuffer> {
+    @Override
+    public void write(Kryo kryo, Output output, ByteBuffer buffer) {
+        ByteBuffer bytes = buffer.duplicate();
+        output.writeInt(bytes.remaining(), true);
+        if(bytes.hasArray()) {
+            output.writeBytes(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        } else {
+            // direct and read-only buffers do not expose their array
+            byte[] copy = new byte[bytes.remaining()];
+            bytes.get(copy);
+            output.writeBytes(copy);
+        }
+    }
+
+    @Override
+    public ByteBuffer read(Kryo kryo, Input input, Class<ByteBuffer> type) {
+        return ByteBuffer.wrap(input.readBytes(input.readInt(true)));
+    }
+}
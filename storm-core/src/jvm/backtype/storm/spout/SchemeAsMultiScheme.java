@@ -17,12 +17,14 @@
  */
 package backtype.storm.spout;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 
 import backtype.storm.tuple.Fields;
+import backtype.storm.utils.Utils;
 
-public class SchemeAsMultiScheme implements MultiScheme {
+public class SchemeAsMultiScheme implements ByteBufferMultiScheme {
   public final Scheme scheme;
 
   public SchemeAsMultiScheme(Scheme scheme) {
@@ -35,6 +37,17 @@ public class SchemeAsMultiScheme implements MultiScheme {
     else return Arrays.asList(o);
   }
 
+  /**
+   * Copies the input into a byte[] unless the scheme is a {@link ByteBufferScheme}.
+   */
+  @Override public Iterable<List<Object>> deserialize(final ByteBuffer ser) {
+    List<Object> o = scheme instanceof ByteBufferScheme
+        ? ((ByteBufferScheme) scheme).deserialize(ser)
+        : scheme.deserialize(Utils.toByteArray(ser));
+    if(o == null) return null;
+    else return Arrays.asList(o);
+  }
+
   @Override public Fields getOutputFields() {
     return scheme.getOutputFields();
   }
@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.stats;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per key counts over rolling time windows and all time.
+ */
+public class RollingCounts extends RollingStats {
+    public RollingCounts(int numBuckets, int[] bucketSizeSecs) {
+        super(numBuckets, bucketSizeSecs, 1);
+    }
+
+    public void add(Object key, long amount) {
+        add(key, 0, amount);
+    }
+
+    /**
+     * @param window a window index or {@link #ALL_TIME}
+     * @return key to count, for the keys counted in the window
+     */
+    public Map<Object, Long> values(int window) {
+        Map<Object, Long> ret = new HashMap<Object, Long>();
+        for(Map.Entry<Object, long[]> e: totals(window).entrySet()) {
+            ret.put(e.getKey(), e.getValue()[0]);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.stats;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per key latency averages over rolling time windows and all time, and percentiles over all time.
+ *
+ * Every time bucket holds the sum and the count of its latencies.  The all time totals also count the latencies in a
+ * histogram with 8 buckets per power of two, like an HDR histogram with a precision of three bits, so a percentile is
+ * reported within 6.25% of the actual latency.  Latencies above {@link #MAX_LATENCY} are counted as that.  Keeping
+ * the histogram out of the windows keeps a key at a few hundred longs.
+ */
+public class RollingLatencies extends RollingStats {
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    public static final long MAX_LATENCY = (1L << 24) - 1;
+    static final int HISTOGRAM_SIZE = index(MAX_LATENCY) + 1;
+
+    public RollingLatencies(int numBuckets, int[] bucketSizeSecs) {
+        super(numBuckets, bucketSizeSecs, 2, HISTOGRAM_SIZE);
+    }
+
+    public void record(Object key, long latency) {
+        latency = Math.max(0, Math.min(MAX_LATENCY, latency));
+        add(key, 0, latency, 1, 1);
+        addAllTime(key, 2 + index(latency), 1);
+    }
+
+    /**
+     * @param window a window index or {@link #ALL_TIME}
+     * @return key to average latency, for the keys with latencies in the window
+     */
+    public Map<Object, Double> means(int window) {
+        Map<Object, Double> ret = new HashMap<Object, Double>();
+        for(Map.Entry<Object, long[]> e: totals(window).entrySet()) {
+            long[] totals = e.getValue();
+            if(totals[1] > 0) {
+                ret.put(e.getKey(), (double) totals[0] / totals[1]);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @param quantile between 0 and 1, 0.99 for the 99th percentile
+     * @return key to the latency that quantile of all latencies of the key are at or below
+     */
+    public Map<Object, Double> percentiles(double quantile) {
+        Map<Object, Double> ret = new HashMap<Object, Double>();
+        for(Map.Entry<Object, long[]> e: totals(ALL_TIME).entrySet()) {
+            long[] totals = e.getValue();
+            if(totals[1] > 0) {
+                ret.put(e.getKey(), valueAt(totals, Math.max(1, (long) Math.ceil(quantile * totals[1]))));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the middle of the histogram bucket of the rank-th smallest latency
+     */
+    private static double valueAt(long[] totals, long rank) {
+        long seen = 0;
+        for(int i=0; i<HISTOGRAM_SIZE; i++) {
+            seen += totals[2 + i];
+            if(seen >= rank) {
+                return lowest(i) + (width(i) - 1) / 2.0;
+            }
+        }
+        return MAX_LATENCY;
+    }
+
+    /**
+     * @return the histogram bucket of latency: below {@link #SUB_BUCKETS} every latency has its own bucket, above
+     *         that the buckets of each power of two split it into {@link #HALF_SUB_BUCKETS} equal parts
+     */
+    static int index(long latency) {
+        if(latency < SUB_BUCKETS) {
+            return (int) latency;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(latency) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) ((latency >> shift) - HALF_SUB_BUCKETS);
+    }
+
+    /**
+     * @return the lowest latency counted in histogram bucket index
+     */
+    static long lowest(int index) {
+        if(index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        return (long) ((index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS) << shift;
+    }
+
+    static long width(int index) {
+        return index < SUB_BUCKETS ? 1 : 1L << ((index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1);
+    }
+}
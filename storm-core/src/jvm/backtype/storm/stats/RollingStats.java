@@ -0,0 +1,194 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.stats;
+
+import backtype.storm.utils.Time;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per key statistics over rolling time windows and all time.
+ *
+ * Every window is a ring of a fixed number of buckets, each covering bucketSizeSecs.  A bucket holds a fixed number
+ * of longs in a primitive array per key, so updates are atomic adds that neither lock nor allocate; only the first
+ * update of a key, and the first update of a bucket after it has come around the ring, take a lock.  Reads add up the
+ * buckets that are still within their window, they are not atomic with respect to concurrent updates.
+ */
+public abstract class RollingStats {
+    /**
+     * The window index of the all time totals.
+     */
+    public static final int ALL_TIME = -1;
+
+    private final int _numBuckets;
+    private final int[] _bucketSizeSecs;
+    private final int _width;
+    private final int _allTimeWidth;
+    private final ConcurrentHashMap<Object, Buckets> _keys = new ConcurrentHashMap<Object, Buckets>();
+
+    /**
+     * @param width # of longs per bucket
+     */
+    protected RollingStats(int numBuckets, int[] bucketSizeSecs, int width) {
+        this(numBuckets, bucketSizeSecs, width, 0);
+    }
+
+    /**
+     * @param width # of longs per bucket
+     * @param allTimeExtraWidth # of longs the all time totals keep after those of a bucket, see {@link #addAllTime}
+     */
+    protected RollingStats(int numBuckets, int[] bucketSizeSecs, int width, int allTimeExtraWidth) {
+        if(numBuckets<1) {
+            throw new IllegalArgumentException("numBuckets must be positive (you provided " + numBuckets + ")");
+        }
+        _numBuckets = numBuckets;
+        _bucketSizeSecs = bucketSizeSecs.clone();
+        _width = width;
+        _allTimeWidth = width + allTimeExtraWidth;
+    }
+
+    public int numWindows() {
+        return _bucketSizeSecs.length;
+    }
+
+    public long windowSecs(int window) {
+        return (long) _bucketSizeSecs[window] * _numBuckets;
+    }
+
+    /**
+     * Add amount at position of the current bucket of every window and of the all time totals of key.
+     */
+    protected void add(Object key, int position, long amount) {
+        add(key, position, amount, position, 0);
+    }
+
+    /**
+     * Add amount at position and amount2 at position2 of the current bucket of every window and of the all time
+     * totals of key.
+     */
+    protected void add(Object key, int position, long amount, int position2, long amount2) {
+        Buckets buckets = buckets(key);
+        long now = Time.currentTimeSecs();
+        for(int w=0; w<_bucketSizeSecs.length; w++) {
+            buckets.add(buckets.current(w, now), position, amount, position2, amount2);
+        }
+        buckets.add(_bucketSizeSecs.length * _numBuckets * _width, position, amount, position2, amount2);
+    }
+
+    /**
+     * Add amount at position of the all time totals of key only, position may be past the width of a bucket.
+     */
+    protected void addAllTime(Object key, int position, long amount) {
+        buckets(key).add(_bucketSizeSecs.length * _numBuckets * _width, position, amount, position, 0);
+    }
+
+    /**
+     * @param window a window index or {@link #ALL_TIME}
+     * @return key to the bucket totals of the window, for the keys updated in the window
+     */
+    protected Map<Object, long[]> totals(int window) {
+        Map<Object, long[]> ret = new HashMap<Object, long[]>();
+        long now = Time.currentTimeSecs();
+        for(Map.Entry<Object, Buckets> e: _keys.entrySet()) {
+            long[] totals = e.getValue().totals(window, now);
+            if(totals != null) {
+                ret.put(e.getKey(), totals);
+            }
+        }
+        return ret;
+    }
+
+    private Buckets buckets(Object key) {
+        Buckets ret = _keys.get(key);
+        if(ret == null) {
+            Buckets created = new Buckets();
+            ret = _keys.putIfAbsent(key, created);
+            if(ret == null) {
+                ret = created;
+            }
+        }
+        return ret;
+    }
+
+    private final class Buckets {
+        // bucket number of the time each bucket of the rings currently covers
+        final AtomicLongArray epochs = new AtomicLongArray(_bucketSizeSecs.length * _numBuckets);
+        // the all time bucket comes last, and may be wider than the others
+        final AtomicLongArray values = new AtomicLongArray(_bucketSizeSecs.length * _numBuckets * _width + _allTimeWidth);
+
+        /**
+         * @return the offset of the bucket of window w that covers now, cleared if it covered an earlier time
+         */
+        int current(int w, long now) {
+            long epoch = now / _bucketSizeSecs[w];
+            int bucket = w * _numBuckets + (int) (epoch % _numBuckets);
+            if(epochs.get(bucket) != epoch) {
+                rotate(bucket, epoch);
+            }
+            return bucket * _width;
+        }
+
+        private synchronized void rotate(int bucket, long epoch) {
+            if(epochs.get(bucket) < epoch) {
+                for(int i=0; i<_width; i++) {
+                    values.set(bucket * _width + i, 0);
+                }
+                epochs.set(bucket, epoch);
+            }
+        }
+
+        void add(int offset, int position, long amount, int position2, long amount2) {
+            values.getAndAdd(offset + position, amount);
+            if(amount2 != 0) {
+                values.getAndAdd(offset + position2, amount2);
+            }
+        }
+
+        /**
+         * @return the totals of the window, or null if nothing was added in it
+         */
+        long[] totals(int window, long now) {
+            long[] ret = new long[window == ALL_TIME ? _allTimeWidth : _width];
+            boolean updated = false;
+            if(window == ALL_TIME) {
+                updated = sumBucket(_bucketSizeSecs.length * _numBuckets, ret);
+            } else {
+                long size = _bucketSizeSecs[window];
+                long cutoff = now - size * _numBuckets;
+                for(int b=window * _numBuckets; b<(window + 1) * _numBuckets; b++) {
+                    if(epochs.get(b) * size >= cutoff) {
+                        updated |= sumBucket(b, ret);
+                    }
+                }
+            }
+            return updated ? ret : null;
+        }
+
+        private boolean sumBucket(int bucket, long[] sums) {
+            boolean updated = false;
+            for(int i=0; i<sums.length; i++) {
+                long v = values.get(bucket * _width + i);
+                sums[i] += v;
+                updated |= v != 0;
+            }
+            return updated;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.tuple;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * The values of a tuple kept in primitive arrays, as produced by schema based deserialization.  Numeric and boolean
+ * fields are boxed when they are read through {@link #get(int)} or the typed getters of {@link Tuple}, which return
+ * boxed types; the getters here and the get*Primitive getters of {@link TupleImpl} read them without boxing.  The list
+ * cannot change size, but its fields can be replaced.
+ */
+public class PrimitiveValues extends AbstractList<Object> implements RandomAccess {
+    public static final byte OBJECT = 0;
+    public static final byte LONG = 1;
+    public static final byte INT = 2;
+    public static final byte DOUBLE = 3;
+    public static final byte FLOAT = 4;
+    public static final byte BOOLEAN = 5;
+
+    private final byte[] _kinds;
+    private final long[] _primitives;
+    private final Object[] _objects;
+
+    public PrimitiveValues(int size) {
+        _kinds = new byte[size];
+        _primitives = new long[size];
+        _objects = new Object[size];
+    }
+
+    public void setLong(int i, long value) {
+        _kinds[i] = LONG;
+        _primitives[i] = value;
+        _objects[i] = null;
+    }
+
+    public void setInt(int i, int value) {
+        _kinds[i] = INT;
+        _primitives[i] = value;
+        _objects[i] = null;
+    }
+
+    public void setDouble(int i, double value) {
+        _kinds[i] = DOUBLE;
+        _primitives[i] = Double.doubleToRawLongBits(value);
+        _objects[i] = null;
+    }
+
+    public void setFloat(int i, float value) {
+        _kinds[i] = FLOAT;
+        _primitives[i] = Float.floatToRawIntBits(value);
+        _objects[i] = null;
+    }
+
+    public void setBoolean(int i, boolean value) {
+        _kinds[i] = BOOLEAN;
+        _primitives[i] = value ? 1 : 0;
+        _objects[i] = null;
+    }
+
+    public void setObject(int i, Object value) {
+        _kinds[i] = OBJECT;
+        _objects[i] = value;
+    }
+
+    /**
+     * @return whether field i was set to a primitive, and can be read without boxing through the getters here
+     */
+    public boolean isPrimitive(int i) {
+        return _kinds[i] != OBJECT;
+    }
+
+    public long getLong(int i) {
+        check(i, LONG);
+        return _primitives[i];
+    }
+
+    public int getInt(int i) {
+        check(i, INT);
+        return (int) _primitives[i];
+    }
+
+    public double getDouble(int i) {
+        check(i, DOUBLE);
+        return Double.longBitsToDouble(_primitives[i]);
+    }
+
+    public float getFloat(int i) {
+        check(i, FLOAT);
+        return Float.intBitsToFloat((int) _primitives[i]);
+    }
+
+    public boolean getBoolean(int i) {
+        check(i, BOOLEAN);
+        return _primitives[i] != 0;
+    }
+
+    // the same failure as casting the boxed value
+    private void check(int i, byte kind) {
+        if(_kinds[i] != kind) {
+            Object value = get(i);
+            throw new ClassCastException("Field " + i + " is " + (value == null ? "null" : "a " + value.getClass().getName()));
+        }
+    }
+
+    @Override
+    public Object get(int i) {
+        switch(_kinds[i]) {
+            case LONG: return _primitives[i];
+            case INT: return (int) _primitives[i];
+            case DOUBLE: return Double.longBitsToDouble(_primitives[i]);
+            case FLOAT: return Float.intBitsToFloat((int) _primitives[i]);
+            case BOOLEAN: return _primitives[i] != 0;
+            default: return _objects[i];
+        }
+    }
+
+    @Override
+    public Object set(int i, Object value) {
+        Object old = get(i);
+        setObject(i, value);
+        return old;
+    }
+
+    @Override
+    public int size() {
+        return _kinds.length;
+    }
+}
@@ -32,6 +32,7 @@ import clojure.lang.Obj;
 import clojure.lang.PersistentArrayMap;
 import clojure.lang.Seqable;
 import clojure.lang.Symbol;
+import java.util.ArrayList;
 import java.util.List;
 
 public class TupleImpl extends IndifferentAccessMap implements Seqable, Indexed, IMeta, Tuple {
@@ -62,6 +63,13 @@ public class TupleImpl extends IndifferentAccessMap implements Seqable, Indexed,
     public TupleImpl(GeneralTopologyContext context, List<Object> values, int taskId, String streamId) {
         this(context, values, taskId, streamId, MessageId.makeUnanchored());
     }    
+
+    /**
+     * @return a tuple with the same source and message id as this one, but its own shallow copy of the values
+     */
+    public TupleImpl copyWithOwnValues() {
+        return new TupleImpl(context, new ArrayList<Object>(values), taskId, streamId, id);
+    }
     
     Long _processSampleStartTime = null;
     Long _executeSampleStartTime = null;
@@ -113,14 +121,26 @@ public class TupleImpl extends IndifferentAccessMap implements Seqable, Indexed,
     }
 
     public Integer getInteger(int i) {
+        PrimitiveValues primitives = primitives(i);
+        if(primitives != null) {
+            return primitives.getInt(i);
+        }
         return (Integer) values.get(i);
     }
 
     public Long getLong(int i) {
+        PrimitiveValues primitives = primitives(i);
+        if(primitives != null) {
+            return primitives.getLong(i);
+        }
         return (Long) values.get(i);
     }
 
     public Boolean getBoolean(int i) {
+        PrimitiveValues primitives = primitives(i);
+        if(primitives != null) {
+            return primitives.getBoolean(i);
+        }
         return (Boolean) values.get(i);
     }
 
@@ -133,16 +153,98 @@ public class TupleImpl extends IndifferentAccessMap implements Seqable, Indexed,
     }
 
     public Double getDouble(int i) {
+        PrimitiveValues primitives = primitives(i);
+        if(primitives != null) {
+            return primitives.getDouble(i);
+        }
         return (Double) values.get(i);
     }
 
     public Float getFloat(int i) {
+        PrimitiveValues primitives = primitives(i);
+        if(primitives != null) {
+            return primitives.getFloat(i);
+        }
         return (Float) values.get(i);
     }
 
     public byte[] getBinary(int i) {
         return (byte[]) values.get(i);
     }
+
+    /**
+     * The getters below return primitives, so unlike {@link #getLong(int)} and friends they do not box fields that were
+     * deserialized into primitives through a declared tuple schema.  Other fields are unboxed, which fails for null.
+     */
+    public long getLongPrimitive(int i) {
+        PrimitiveValues primitives = primitives(i);
+        if(primitives != null) {
+            return primitives.getLong(i);
+        }
+        return (Long) values.get(i);
+    }
+
+    public int getIntegerPrimitive(int i) {
+        PrimitiveValues primitives = primitives(i);
+        if(primitives != null) {
+            return primitives.getInt(i);
+        }
+        return (Integer) values.get(i);
+    }
+
+    public double getDoublePrimitive(int i) {
+        PrimitiveValues primitives = primitives(i);
+        if(primitives != null) {
+            return primitives.getDouble(i);
+        }
+        return (Double) values.get(i);
+    }
+
+    public float getFloatPrimitive(int i) {
+        PrimitiveValues primitives = primitives(i);
+        if(primitives != null) {
+            return primitives.getFloat(i);
+        }
+        return (Float) values.get(i);
+    }
+
+    public boolean getBooleanPrimitive(int i) {
+        PrimitiveValues primitives = primitives(i);
+        if(primitives != null) {
+            return primitives.getBoolean(i);
+        }
+        return (Boolean) values.get(i);
+    }
+
+    public long getLongPrimitiveByField(String field) {
+        return getLongPrimitive(fieldIndex(field));
+    }
+
+    public int getIntegerPrimitiveByField(String field) {
+        return getIntegerPrimitive(fieldIndex(field));
+    }
+
+    public double getDoublePrimitiveByField(String field) {
+        return getDoublePrimitive(fieldIndex(field));
+    }
+
+    public float getFloatPrimitiveByField(String field) {
+        return getFloatPrimitive(fieldIndex(field));
+    }
+
+    public boolean getBooleanPrimitiveByField(String field) {
+        return getBooleanPrimitive(fieldIndex(field));
+    }
+
+    /**
+     * @return the values, if they are primitive backed and field i holds a primitive
+     */
+    private PrimitiveValues primitives(int i) {
+        if(values instanceof PrimitiveValues && ((PrimitiveValues) values).isPrimitive(i)) {
+            return (PrimitiveValues) values;
+        }
+        return null;
+    }
     
     
     public Object getValueByField(String field) {
@@ -154,15 +256,15 @@ public class TupleImpl extends IndifferentAccessMap implements Seqable, Indexed,
     }
 
     public Integer getIntegerByField(String field) {
-        return (Integer) values.get(fieldIndex(field));
+        return getInteger(fieldIndex(field));
     }
 
     public Long getLongByField(String field) {
-        return (Long) values.get(fieldIndex(field));
+        return getLong(fieldIndex(field));
     }
 
     public Boolean getBooleanByField(String field) {
-        return (Boolean) values.get(fieldIndex(field));
+        return getBoolean(fieldIndex(field));
     }
 
     public Short getShortByField(String field) {
@@ -174,11 +276,11 @@ public class TupleImpl extends IndifferentAccessMap implements Seqable, Indexed,
     }
 
     public Double getDoubleByField(String field) {
-        return (Double) values.get(fieldIndex(field));
+        return getDouble(fieldIndex(field));
     }
 
     public Float getFloatByField(String field) {
-        return (Float) values.get(fieldIndex(field));
+        return getFloat(fieldIndex(field));
     }
 
     public byte[] getBinaryByField(String field) {
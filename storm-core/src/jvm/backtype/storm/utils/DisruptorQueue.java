@@ -18,6 +18,7 @@
 package backtype.storm.utils;
 
 import com.lmax.disruptor.AlertException;
+import com.lmax.disruptor.BatchDescriptor;
 import com.lmax.disruptor.ClaimStrategy;
 import com.lmax.disruptor.EventFactory;
 import com.lmax.disruptor.EventHandler;
@@ -28,10 +29,10 @@ import com.lmax.disruptor.SequenceBarrier;
 import com.lmax.disruptor.SingleThreadedClaimStrategy;
 import com.lmax.disruptor.WaitStrategy;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.HashMap;
 import java.util.Map;
 import backtype.storm.metric.api.IStatefulObject;
@@ -45,30 +46,56 @@ import backtype.storm.metric.api.IStatefulObject;
 public class DisruptorQueue implements IStatefulObject {
     static final Object FLUSH_CACHE = new Object();
     static final Object INTERRUPT = new Object();
+    static final long DEFAULT_WAIT_TIMEOUT_MILLIS = 10;
     
     RingBuffer<MutableObject> _buffer;
     Sequence _consumer;
     SequenceBarrier _barrier;
     
-    // TODO: consider having a threadlocal cache of this variable to speed up reads?
-    volatile boolean consumerStartedFlag = false;
-    ConcurrentLinkedQueue<Object> _cache = new ConcurrentLinkedQueue();
-    
-    private final ReentrantReadWriteLock cacheLock = new ReentrantReadWriteLock();
-    private final Lock readLock  = cacheLock.readLock();
-    private final Lock writeLock = cacheLock.writeLock();
+    // holds what is published until the consumer has started, it is handed to the consumer when it reaches
+    // the FLUSH_CACHE marker at the head of the ring buffer
+    private final StagingBuffer _staging = new StagingBuffer();
+    // deliberately not volatile: a producer that sees a stale false finds out from _staging.add and sets it,
+    // so every producer thread takes the staging path at most once after the consumer has started
+    private boolean _stagingClosed = false;
     
     private static String PREFIX = "disruptor-";
     private String _queueName = "";
-    
+    private final long _waitTimeoutMillis;
+
+    // backpressure: once the population reaches _highWaterMark this queue counts itself in _throttledQueues,
+    // until the consumer has brought it back down to _lowWaterMark
+    private AtomicInteger _throttledQueues = null;
+    private long _highWaterMark = Long.MAX_VALUE;
+    private long _lowWaterMark = 0;
+    private final AtomicBoolean _throttleOn = new AtomicBoolean(false);
+
+    // producer side batching: the batching thread accumulates up to _producerBatchSize objects and claims the slots for
+    // all of them at once, other threads publish directly
+    private int _producerBatchSize = 1;
+    private ProducerBatch _producerBatch = null;
+    private volatile Thread _batchingThread = null;
+    private final AtomicLong _batchesFlushed = new AtomicLong(0);
+    private final AtomicLong _batchedObjects = new AtomicLong(0);
+    private final AtomicLong _flushLatencyNanos = new AtomicLong(0);
+
     public DisruptorQueue(String queueName, ClaimStrategy claim, WaitStrategy wait) {
+        this(queueName, claim, wait, DEFAULT_WAIT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param waitTimeoutMillis how long {@link #consumeBatchWhenAvailable(EventHandler)} waits for an event
+     */
+    public DisruptorQueue(String queueName, ClaimStrategy claim, WaitStrategy wait, long waitTimeoutMillis) {
          this._queueName = PREFIX + queueName;
+        _waitTimeoutMillis = waitTimeoutMillis;
         _buffer = new RingBuffer<MutableObject>(new ObjectEventFactory(), claim, wait);
         _consumer = new Sequence();
         _barrier = _buffer.newBarrier();
         _buffer.setGatingSequences(_consumer);
         if(claim instanceof SingleThreadedClaimStrategy) {
-            consumerStartedFlag = true;
+            _staging.close();
+            _stagingClosed = true;
         } else {
             // make sure we flush the pending messages in cache first
             try {
@@ -94,7 +121,7 @@ public class DisruptorQueue implements IStatefulObject {
     public void consumeBatchWhenAvailable(EventHandler<Object> handler) {
         try {
             final long nextSequence = _consumer.get() + 1;
-            final long availableSequence = _barrier.waitFor(nextSequence, 10, TimeUnit.MILLISECONDS);
+            final long availableSequence = _barrier.waitFor(nextSequence, _waitTimeoutMillis, TimeUnit.MILLISECONDS);
             if(availableSequence >= nextSequence) {
                 consumeBatchToCursor(availableSequence, handler);
             }
@@ -113,12 +140,7 @@ public class DisruptorQueue implements IStatefulObject {
                 Object o = mo.o;
                 mo.setObject(null);
                 if(o==FLUSH_CACHE) {
-                    Object c = null;
-                    while(true) {                        
-                        c = _cache.poll();
-                        if(c==null) break;
-                        else handler.onEvent(c, curr, true);
-                    }
+                    flushStaged(curr, handler);
                 } else if(o==INTERRUPT) {
                     throw new InterruptedException("Disruptor processing interrupted");
                 } else {
@@ -130,8 +152,21 @@ public class DisruptorQueue implements IStatefulObject {
         }
         //TODO: only set this if the consumer cursor has changed?
         _consumer.set(cursor);
+        if(_throttledQueues != null) {
+            checkLowWaterMark(population());
+        }
     }
     
+    private void flushStaged(final long sequence, final EventHandler<Object> handler) throws Exception {
+        _staging.drain(_staging.close(), new StagingBuffer.Handler() {
+            @Override
+            public void onStaged(Object obj) throws Exception {
+                handler.onEvent(obj, sequence, true);
+            }
+        });
+        _stagingClosed = true;
+    }
+
     /*
      * Caches until consumerStarted is called, upon which the cache is flushed to the consumer
      */
@@ -148,24 +183,13 @@ public class DisruptorQueue implements IStatefulObject {
     }
     
     public void publish(Object obj, boolean block) throws InsufficientCapacityException {
-
-        boolean publishNow = consumerStartedFlag;
-
-        if (!publishNow) {
-            readLock.lock(); 
-            try {
-                publishNow = consumerStartedFlag;
-                if (!publishNow) {
-                    _cache.add(obj);
-                }
-            } finally {
-                readLock.unlock();
+        if (!_stagingClosed) {
+            if (_staging.add(obj)) {
+                return;
             }
+            _stagingClosed = true;
         }
-        
-        if (publishNow) {
-            publishDirect(obj, block);
-        }
+        publishDirect(obj, block);
     }
     
     private void publishDirect(Object obj, boolean block) throws InsufficientCapacityException {
@@ -178,15 +202,162 @@ public class DisruptorQueue implements IStatefulObject {
         final MutableObject m = _buffer.get(id);
         m.setObject(obj);
         _buffer.publish(id);
+        checkHighWaterMark();
+    }
+
+    private void checkHighWaterMark() {
+        if(_throttledQueues != null) {
+            checkHighWaterMark(population());
+        }
+    }
+
+    /**
+     * Throttle the queue if a producer has seen it at the high water mark.  The consumer may have drained the queue
+     * since, without un-throttling it because it was not throttled yet, so the low water mark is checked again.
+     */
+    void checkHighWaterMark(long seenPopulation) {
+        if(seenPopulation >= _highWaterMark && _throttleOn.compareAndSet(false, true)) {
+            _throttledQueues.incrementAndGet();
+            if(population() <= _lowWaterMark && _throttleOn.compareAndSet(true, false)) {
+                _throttledQueues.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Un-throttle the queue if the consumer has seen it at the low water mark, and check again whether producers
+     * have filled it up to the high water mark since.
+     */
+    void checkLowWaterMark(long seenPopulation) {
+        if(seenPopulation <= _lowWaterMark && _throttleOn.compareAndSet(true, false)) {
+            _throttledQueues.decrementAndGet();
+            if(population() >= _highWaterMark && _throttleOn.compareAndSet(false, true)) {
+                _throttledQueues.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Make {@link #publishBatched(Object, boolean)} accumulate up to batchSize objects on the thread that calls
+     * {@link #batchOnCurrentThread()}.  Must be called before the producers start.
+     */
+    public void enableProducerBatching(int batchSize) {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive (you provided " + batchSize + ")");
+        }
+        _producerBatchSize = (int) Math.min(batchSize, capacity());
+        _producerBatch = new ProducerBatch(_producerBatchSize);
+    }
+
+    /**
+     * Make the calling thread the only one whose objects are batched.  It must flush its batch regularly with
+     * {@link #flushBatch(boolean)}; objects of any other thread are published directly, as nothing would flush them.
+     */
+    public void batchOnCurrentThread() {
+        _batchingThread = Thread.currentThread();
+    }
+
+    private boolean batching() {
+        return _producerBatch != null && Thread.currentThread() == _batchingThread;
+    }
+
+    /**
+     * On the batching thread, add obj to the batch, and publish the batch with a single claim once it is full.
+     * Objects stay in the batch until it fills up or the thread calls {@link #flushBatch(boolean)}.
+     * Behaves like {@link #publish(Object, boolean)} on other threads, or when producer batching is not enabled.
+     *
+     * @throws InsufficientCapacityException if block is false and a full batch could not be published, obj has not
+     *         been added then
+     */
+    public void publishBatched(Object obj, boolean block) throws InsufficientCapacityException {
+        if(!batching()) {
+            publish(obj, block);
+            return;
+        }
+        ProducerBatch batch = _producerBatch;
+        if(batch.size == _producerBatchSize) {
+            flush(batch, block);
+        }
+        batch.add(obj);
+        if(batch.size == _producerBatchSize) {
+            try {
+                flush(batch, block);
+            } catch (InsufficientCapacityException e) {
+                // the batch stays pending, the next publish or flush tries again
+            }
+        }
+    }
+
+    /**
+     * Publish what has been batched so far, if the calling thread is the batching thread.
+     *
+     * @return false if block is false and there was not enough capacity, the batch stays pending then
+     */
+    public boolean flushBatch(boolean block) {
+        if(!batching()) {
+            return true;
+        }
+        try {
+            flush(_producerBatch, block);
+            return true;
+        } catch (InsufficientCapacityException e) {
+            return false;
+        }
+    }
+
+    private void flush(ProducerBatch batch, boolean block) throws InsufficientCapacityException {
+        final int n = batch.size;
+        if(n == 0) {
+            return;
+        }
+        if(!_stagingClosed) {
+            for(int i=0; i<n; i++) {
+                publish(batch.objects[i], true);
+            }
+        } else {
+            if(!block && !_buffer.hasAvailableCapacity(n)) {
+                throw InsufficientCapacityException.INSTANCE;
+            }
+            final BatchDescriptor descriptor = _buffer.newBatchDescriptor(n);
+            _buffer.next(descriptor);
+            final long start = descriptor.getStart();
+            for(int i=0; i<n; i++) {
+                _buffer.get(start + i).setObject(batch.objects[i]);
+            }
+            _buffer.publish(descriptor);
+            checkHighWaterMark();
+        }
+        _batchesFlushed.incrementAndGet();
+        _batchedObjects.addAndGet(n);
+        _flushLatencyNanos.addAndGet(System.nanoTime() - batch.firstAddNanos);
+        batch.clear();
+    }
+
+    /**
+     * Make this queue count itself in throttledQueues while it is filled above highWaterMark, until its consumer
+     * drains it to lowWaterMark.  Must be called before the producers start.
+     *
+     * @param highWaterMark fraction of the capacity at which the queue becomes throttled
+     * @param lowWaterMark fraction of the capacity at which the queue stops being throttled
+     */
+    public void enableBackpressure(AtomicInteger throttledQueues, double highWaterMark, double lowWaterMark) {
+        if(lowWaterMark < 0 || lowWaterMark >= highWaterMark || highWaterMark > 1) {
+            throw new IllegalArgumentException("Water marks must satisfy 0 <= low < high <= 1 (you provided low "
+                    + lowWaterMark + ", high " + highWaterMark + ")");
+        }
+        _highWaterMark = Math.max(1, (long) (highWaterMark * capacity()));
+        _lowWaterMark = (long) (lowWaterMark * capacity());
+        _throttledQueues = throttledQueues;
+    }
+
+    public boolean isThrottled() {
+        return _throttleOn.get();
     }
     
     public void consumerStarted() {
-
-        consumerStartedFlag = true;
-        
-        // Use writeLock to make sure all pending cache add opearation completed
-        writeLock.lock();
-        writeLock.unlock();
+        // everything staged so far reaches the consumer with the FLUSH_CACHE marker, later publishes go to the ring
+        _staging.close();
+        _stagingClosed = true;
     }
     
     public long  population() { return (writePos() - readPos()); }
@@ -205,9 +376,40 @@ public class DisruptorQueue implements IStatefulObject {
         state.put("population", wp - rp);
         state.put("write_pos",  wp);
         state.put("read_pos",   rp);
+        if(_producerBatch != null) {
+            long batches = _batchesFlushed.getAndSet(0);
+            long objects = _batchedObjects.getAndSet(0);
+            long latencyNanos = _flushLatencyNanos.getAndSet(0);
+            state.put("avg_batch_size", batches == 0 ? 0.0 : 1.0 * objects / batches);
+            state.put("avg_flush_latency_ms", batches == 0 ? 0.0 : latencyNanos / 1000000.0 / batches);
+        }
         return state;
     }
 
+    private static final class ProducerBatch {
+        final Object[] objects;
+        int size = 0;
+        long firstAddNanos;
+
+        ProducerBatch(int capacity) {
+            objects = new Object[capacity];
+        }
+
+        void add(Object obj) {
+            if(size == 0) {
+                firstAddNanos = System.nanoTime();
+            }
+            objects[size++] = obj;
+        }
+
+        void clear() {
+            for(int i=0; i<size; i++) {
+                objects[i] = null;
+            }
+            size = 0;
+        }
+    }
+
     public static class ObjectEventFactory implements EventFactory<MutableObject> {
         @Override
         public MutableObject newInstance() {
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.utils;
+
+import com.lmax.disruptor.AlertException;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceBarrier;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.util.Util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A wait strategy that spins, then yields, then parks the consumer for exponentially growing periods while the
+ * queue stays empty.
+ *
+ * Unlike the blocking strategy, producers never have to take a lock to signal the consumer, and unlike the busy spin
+ * and yielding strategies, an idle consumer gives its core back after a short while.  The price is a wake up latency
+ * of up to {@link #MAX_PARK_NANOS} on a queue that has been idle for a while.
+ */
+public class ParkingWaitStrategy implements WaitStrategy {
+    static final int SPIN_TRIES = 100;
+    static final int YIELD_TRIES = 100;
+    static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+    static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Override
+    public long waitFor(long sequence, Sequence cursor, Sequence[] dependents, SequenceBarrier barrier)
+            throws AlertException, InterruptedException {
+        long availableSequence;
+        int counter = 0;
+        long parkNanos = MIN_PARK_NANOS;
+        while ((availableSequence = available(cursor, dependents)) < sequence) {
+            barrier.checkAlert();
+            if (counter < SPIN_TRIES + YIELD_TRIES) {
+                counter = idle(counter);
+            } else {
+                parkNanos = park(parkNanos);
+            }
+        }
+        return availableSequence;
+    }
+
+    @Override
+    public long waitFor(long sequence, Sequence cursor, Sequence[] dependents, SequenceBarrier barrier,
+                        long timeout, TimeUnit sourceUnit) throws AlertException, InterruptedException {
+        final long deadline = System.nanoTime() + sourceUnit.toNanos(timeout);
+        long availableSequence;
+        int counter = 0;
+        long parkNanos = MIN_PARK_NANOS;
+        while ((availableSequence = available(cursor, dependents)) < sequence) {
+            barrier.checkAlert();
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            if (counter < SPIN_TRIES + YIELD_TRIES) {
+                counter = idle(counter);
+            } else {
+                parkNanos = park(Math.min(parkNanos, remaining));
+            }
+        }
+        return availableSequence;
+    }
+
+    @Override
+    public void signalAllWhenBlocking() {
+        // parked consumers wake up on their own
+    }
+
+    private static long available(Sequence cursor, Sequence[] dependents) {
+        return dependents.length == 0 ? cursor.get() : Util.getMinimumSequence(dependents);
+    }
+
+    private static int idle(int counter) {
+        if (counter >= SPIN_TRIES) {
+            Thread.yield();
+        }
+        return counter + 1;
+    }
+
+    /**
+     * @return how long to park the next time
+     */
+    private static long park(long parkNanos) {
+        LockSupport.parkNanos(parkNanos);
+        return Math.min(parkNanos * 2, MAX_PARK_NANOS);
+    }
+}
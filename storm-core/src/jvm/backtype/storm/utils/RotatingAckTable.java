@@ -0,0 +1,292 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.utils;
+
+import java.util.Arrays;
+
+/**
+ * Pending tuple trees of an acker, keyed by root id.
+ *
+ * Each entry holds the XOR of all edge ids seen for the tree so far, the task of the spout that emitted the root and
+ * whether the tree has failed, all in primitive arrays of open addressing (linear probing) tables.  Like
+ * {@link RotatingMap}, entries live in a number of buckets: an update moves an entry into the newest bucket, and
+ * {@link #rotate()} drops everything in the oldest one.  Rotation reuses the dropped bucket's arrays, so steady state
+ * operation does not allocate.
+ *
+ * init, ack, fail and size take O(numBuckets) time to run.  This class is not thread-safe.
+ */
+public class RotatingAckTable {
+    /**
+     * The tree is still pending.
+     */
+    public static final int PENDING = 0;
+    /**
+     * The tree has been fully acked and was removed from the table.
+     */
+    public static final int COMPLETE = 1;
+    /**
+     * The tree has failed and was removed from the table.
+     */
+    public static final int FAILED = 2;
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+    private final Bucket[] _buckets;
+    private int _head = 0;
+    private int _lastSpoutTask = 0;
+
+    public RotatingAckTable(int numBuckets, int initialCapacity) {
+        if(numBuckets<2) {
+            throw new IllegalArgumentException("numBuckets must be >= 2");
+        }
+        _buckets = new Bucket[numBuckets];
+        for(int i=0; i<numBuckets; i++) {
+            _buckets[i] = new Bucket(initialCapacity);
+        }
+    }
+
+    public RotatingAckTable(int numBuckets) {
+        this(numBuckets, DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Register the spout task of a tree and XOR its initial value in.
+     * @return PENDING, COMPLETE or FAILED
+     */
+    public int init(long id, long val, int spoutTask) {
+        Bucket b = _buckets[_head];
+        int slot = locate(id);
+        b.vals[slot] ^= val;
+        b.spoutTasks[slot] = spoutTask;
+        b.flags[slot] |= Bucket.HAS_SPOUT_TASK;
+        return complete(b, slot);
+    }
+
+    /**
+     * XOR an ack value into a tree.
+     * @return PENDING, COMPLETE or FAILED
+     */
+    public int ack(long id, long val) {
+        Bucket b = _buckets[_head];
+        int slot = locate(id);
+        b.vals[slot] ^= val;
+        return complete(b, slot);
+    }
+
+    /**
+     * Mark a tree as failed.
+     * @return PENDING or FAILED
+     */
+    public int fail(long id) {
+        Bucket b = _buckets[_head];
+        int slot = locate(id);
+        b.flags[slot] |= Bucket.FAILED;
+        return complete(b, slot);
+    }
+
+    /**
+     * @return the spout task of the tree the last call to init, ack or fail completed or failed
+     */
+    public int lastSpoutTask() {
+        return _lastSpoutTask;
+    }
+
+    /**
+     * Drop all trees that have not been updated since the second to last rotation (for two buckets).
+     * @return # of dropped trees
+     */
+    public int rotate() {
+        _head = (_head + _buckets.length - 1) % _buckets.length;
+        Bucket dead = _buckets[_head];
+        int dropped = dead.size;
+        dead.clear();
+        return dropped;
+    }
+
+    public boolean containsKey(long id) {
+        for(Bucket b: _buckets) {
+            if(b.find(id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        int size = 0;
+        for(Bucket b: _buckets) {
+            size+=b.size;
+        }
+        return size;
+    }
+
+    /**
+     * @return the slot of the entry for id in the newest bucket, moving it there from an older bucket or creating it
+     */
+    private int locate(long id) {
+        Bucket head = _buckets[_head];
+        int slot = head.find(id);
+        if(slot >= 0) {
+            return slot;
+        }
+        slot = head.insert(id);
+        for(int i=1; i<_buckets.length; i++) {
+            Bucket b = _buckets[(_head + i) % _buckets.length];
+            int old = b.find(id);
+            if(old >= 0) {
+                head.vals[slot] = b.vals[old];
+                head.spoutTasks[slot] = b.spoutTasks[old];
+                head.flags[slot] = b.flags[old];
+                b.removeAt(old);
+                break;
+            }
+        }
+        return slot;
+    }
+
+    private int complete(Bucket b, int slot) {
+        byte flags = b.flags[slot];
+        if((flags & Bucket.HAS_SPOUT_TASK) == 0) {
+            return PENDING;
+        }
+        int result;
+        if(b.vals[slot] == 0) {
+            result = COMPLETE;
+        } else if((flags & Bucket.FAILED) != 0) {
+            result = FAILED;
+        } else {
+            return PENDING;
+        }
+        _lastSpoutTask = b.spoutTasks[slot];
+        b.removeAt(slot);
+        return result;
+    }
+
+    private static final class Bucket {
+        static final byte USED = 1;
+        static final byte HAS_SPOUT_TASK = 2;
+        static final byte FAILED = 4;
+
+        long[] keys;
+        long[] vals;
+        int[] spoutTasks;
+        byte[] flags;
+        int mask;
+        int size;
+
+        Bucket(int initialCapacity) {
+            int capacity = Integer.highestOneBit(Math.max(16, initialCapacity) - 1) << 1;
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            vals = new long[capacity];
+            spoutTasks = new int[capacity];
+            flags = new byte[capacity];
+            mask = capacity - 1;
+            size = 0;
+        }
+
+        private static int hash(long id) {
+            long h = id * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        int find(long id) {
+            int i = hash(id) & mask;
+            while((flags[i] & USED) != 0) {
+                if(keys[i] == id) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Add an empty entry for an id that is not in this bucket.
+         */
+        int insert(long id) {
+            if((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            int i = hash(id) & mask;
+            while((flags[i] & USED) != 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = id;
+            vals[i] = 0;
+            spoutTasks[i] = 0;
+            flags[i] = USED;
+            size++;
+            return i;
+        }
+
+        /**
+         * Remove the entry at slot, shifting back later entries of its probe sequence so that no tombstones are needed.
+         */
+        void removeAt(int slot) {
+            int hole = slot;
+            int i = (slot + 1) & mask;
+            while((flags[i] & USED) != 0) {
+                int home = hash(keys[i]) & mask;
+                // move the entry into the hole unless its home slot lies cyclically in (hole, i]
+                boolean stays = (hole <= i) ? (hole < home && home <= i) : (hole < home || home <= i);
+                if(!stays) {
+                    keys[hole] = keys[i];
+                    vals[hole] = vals[i];
+                    spoutTasks[hole] = spoutTasks[i];
+                    flags[hole] = flags[i];
+                    hole = i;
+                }
+                i = (i + 1) & mask;
+            }
+            flags[hole] = 0;
+            size--;
+        }
+
+        void clear() {
+            if(size > 0) {
+                Arrays.fill(flags, (byte) 0);
+                size = 0;
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldVals = vals;
+            int[] oldSpoutTasks = spoutTasks;
+            byte[] oldFlags = flags;
+            allocate(oldKeys.length * 2);
+            for(int j=0; j<oldKeys.length; j++) {
+                if((oldFlags[j] & USED) != 0) {
+                    int i = hash(oldKeys[j]) & mask;
+                    while((flags[i] & USED) != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    vals[i] = oldVals[j];
+                    spoutTasks[i] = oldSpoutTasks[j];
+                    flags[i] = oldFlags[j];
+                    size++;
+                }
+            }
+        }
+    }
+}
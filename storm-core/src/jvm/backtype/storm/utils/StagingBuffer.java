@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An unbounded multi producer buffer that holds what is published to a {@link DisruptorQueue} before its consumer
+ * has started.
+ *
+ * A producer reserves an index with a single atomic increment and writes into a fixed size segment, so staging
+ * neither locks nor allocates per object.  {@link #close()} stops further reservations; after that {@link #add(Object)}
+ * returns false and producers are expected to publish to the ring buffer instead.
+ */
+class StagingBuffer {
+    static final int SEGMENT_SIZE = 1024;
+    private static final Object NULL = new Object();
+    private static final int CLOSED = Integer.MIN_VALUE;
+
+    private final AtomicInteger _claims = new AtomicInteger(0);
+    private volatile int _closedAt = -1;
+    private volatile Segment _head = new Segment(0);
+    private final AtomicReference<Segment> _tail = new AtomicReference<Segment>(_head);
+
+    /**
+     * @return false if the buffer has been closed, obj has not been added then
+     */
+    boolean add(Object obj) {
+        int index = _claims.getAndIncrement();
+        if(index < 0) {
+            return false;
+        }
+        Segment segment = segmentFor(index);
+        segment.slots.set(index - segment.base, obj == null ? NULL : obj);
+        return true;
+    }
+
+    /**
+     * Stop accepting objects.  Safe to call several times and from several threads.
+     *
+     * @return # of objects added before the buffer was closed
+     */
+    int close() {
+        int n = _claims.getAndSet(CLOSED);
+        if(n >= 0) {
+            _closedAt = n;
+            return n;
+        }
+        // closed by another thread, which may not have recorded the count yet
+        while(_closedAt < 0) {
+            Thread.yield();
+        }
+        return _closedAt;
+    }
+
+    /**
+     * Hand the first count objects to the handler in order and release them.  Waits for producers that have
+     * reserved an index but not written to it, or not linked its segment, yet.
+     */
+    void drain(int count, Handler handler) throws Exception {
+        Segment segment = _head;
+        for(int i=0; i<count; i++) {
+            if(i - segment.base == SEGMENT_SIZE) {
+                // a producer that reserved an index in the next segment may not have linked it yet
+                Segment next;
+                while((next = segment.next.get()) == null) {
+                    Thread.yield();
+                }
+                segment = next;
+            }
+            int slot = i - segment.base;
+            Object obj;
+            while((obj = segment.slots.get(slot)) == null) {
+                Thread.yield();
+            }
+            segment.slots.set(slot, null);
+            handler.onStaged(obj == NULL ? null : obj);
+        }
+        _head = new Segment(0);
+        _tail.set(_head);
+    }
+
+    private Segment segmentFor(int index) {
+        Segment segment = _tail.get();
+        if(segment.base > index) {
+            segment = _head;
+        }
+        while(index - segment.base >= SEGMENT_SIZE) {
+            Segment next = segment.next.get();
+            if(next == null) {
+                Segment created = new Segment(segment.base + SEGMENT_SIZE);
+                if(segment.next.compareAndSet(null, created)) {
+                    _tail.compareAndSet(segment, created);
+                }
+                next = segment.next.get();
+            }
+            segment = next;
+        }
+        return segment;
+    }
+
+    interface Handler {
+        void onStaged(Object obj) throws Exception;
+    }
+
+    private static final class Segment {
+        final int base;
+        final AtomicReferenceArray<Object> slots = new AtomicReferenceArray<Object>(SEGMENT_SIZE);
+        final AtomicReference<Segment> next = new AtomicReference<Segment>(null);
+
+        Segment(int base) {
+            this.base = base;
+        }
+    }
+}
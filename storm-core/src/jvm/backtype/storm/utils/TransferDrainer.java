@@ -20,20 +20,31 @@ package backtype.storm.utils;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 
 import backtype.storm.messaging.IConnection;
+import backtype.storm.messaging.ITupleConnection;
 import backtype.storm.messaging.TaskMessage;
+import backtype.storm.serialization.IOutputTupleSerializer;
+import backtype.storm.tuple.Tuple;
 
+/**
+ * Collects the task messages published to the transfer queue of a worker and sends them per destination worker.
+ *
+ * The messages are either {@link TaskMessage}s, or (task ID, Tuple) pairs still to be serialized when the drainer is
+ * sent with a serializer.  Pairs are serialized by connections that implement {@link ITupleConnection} themselves,
+ * and into a byte[] per tuple for any other connection.
+ */
 public class TransferDrainer {
 
-  private HashMap<String, ArrayList<ArrayList<TaskMessage>>> bundles = new HashMap();
+  private HashMap<String, ArrayList<ArrayList>> bundles = new HashMap();
   
-  public void add(HashMap<String, ArrayList<TaskMessage>> workerTupleSetMap) {
+  public void add(HashMap<String, ArrayList> workerTupleSetMap) {
     for (String key : workerTupleSetMap.keySet()) {
       
-      ArrayList<ArrayList<TaskMessage>> bundle = bundles.get(key);
+      ArrayList<ArrayList> bundle = bundles.get(key);
       if (null == bundle) {
-        bundle = new ArrayList<ArrayList<TaskMessage>>();
+        bundle = new ArrayList<ArrayList>();
         bundles.put(key, bundle);
       }
       
@@ -45,36 +56,70 @@ public class TransferDrainer {
   }
   
   public void send(HashMap<String, IConnection> connections) {
+    send(connections, null);
+  }
+
+  /**
+   * @param serializer serializes (task ID, Tuple) pairs, null if only task messages have been added
+   */
+  public void send(HashMap<String, IConnection> connections, IOutputTupleSerializer serializer) {
     for (String hostPort : bundles.keySet()) {
       IConnection connection = connections.get(hostPort);
       if (null != connection) { 
-        ArrayList<ArrayList<TaskMessage>> bundle = bundles.get(hostPort);
-        Iterator<TaskMessage> iter = getBundleIterator(bundle);
+        ArrayList<ArrayList> bundle = bundles.get(hostPort);
+        Iterator iter = getBundleIterator(bundle);
         if (null != iter && iter.hasNext()) {
-          connection.send(iter);
+          if (null == serializer) {
+            connection.send(iter);
+          } else if (connection instanceof ITupleConnection) {
+            ((ITupleConnection) connection).send(iter, serializer);
+          } else {
+            connection.send(getSerializingIterator(iter, serializer));
+          }
         }
       }
     } 
   }
+
+  private Iterator<TaskMessage> getSerializingIterator(final Iterator<List<Object>> taskTuples,
+                                                       final IOutputTupleSerializer serializer) {
+    return new Iterator<TaskMessage> () {
+      @Override
+      public boolean hasNext() {
+        return taskTuples.hasNext();
+      }
+
+      @Override
+      public TaskMessage next() {
+        List<Object> taskTuple = taskTuples.next();
+        return new TaskMessage(((Number) taskTuple.get(0)).intValue(), serializer.serialize((Tuple) taskTuple.get(1)));
+      }
+
+      @Override
+      public void remove() {
+        throw new RuntimeException("not supported");
+      }
+    };
+  }
   
-  private Iterator<TaskMessage> getBundleIterator(final ArrayList<ArrayList<TaskMessage>> bundle) {
+  private Iterator getBundleIterator(final ArrayList<ArrayList> bundle) {
     
     if (null == bundle) {
       return null;
     }
     
-    return new Iterator<TaskMessage> () {
+    return new Iterator () {
       
       private int offset = 0;
       private int size = 0;
       {
-        for (ArrayList<TaskMessage> list : bundle) {
+        for (ArrayList list : bundle) {
             size += list.size();
         }
       }
       
       private int bundleOffset = 0;
-      private Iterator<TaskMessage> iter = bundle.get(bundleOffset).iterator();
+      private Iterator iter = bundle.get(bundleOffset).iterator();
       
       @Override
       public boolean hasNext() {
@@ -85,8 +130,8 @@ public class TransferDrainer {
       }
 
       @Override
-      public TaskMessage next() {
-        TaskMessage msg = null;
+      public Object next() {
+        Object msg = null;
         if (iter.hasNext()) {
           msg = iter.next(); 
         } else {
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.daemon;
+
+import backtype.storm.Config;
+import backtype.storm.task.GeneralTopologyContext;
+import backtype.storm.task.IBolt;
+import backtype.storm.task.IOutputCollector;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.TupleImpl;
+import backtype.storm.tuple.Values;
+import clojure.java.api.Clojure;
+import clojure.lang.IFn;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the acker of mk-acker-bolt, which keeps pending trees in a RotatingMap of persistent maps, with
+ * {@link AckerBolt}.  Each invocation initializes TREES trees and completes them with two acks each, so up to TREES
+ * trees are pending at a time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AckerBoltBenchmark {
+    private static final int TREES = 4096;
+    private static final String COMPONENT = "acker";
+
+    /**
+     * map for the persistent map acker of mk-acker-bolt, primitive for AckerBolt
+     */
+    @Param({"map", "primitive"})
+    public String acker;
+
+    private IBolt bolt;
+    private CountingCollector collector;
+    private Tuple[] tuples;
+
+    @Setup
+    public void setup() {
+        Map conf = new HashMap();
+        conf.put(Config.TOPOLOGY_ACKER_PRIMITIVE_ENABLE, "primitive".equals(acker));
+        Clojure.var("clojure.core", "require").invoke(Clojure.read("backtype.storm.daemon.acker"));
+        IFn mkAckerBolt = Clojure.var("backtype.storm.daemon.acker", "mk-acker-bolt");
+        bolt = (IBolt) mkAckerBolt.invoke(conf);
+        collector = new CountingCollector();
+        bolt.prepare(conf, null, new OutputCollector(collector));
+
+        GeneralTopologyContext context = context();
+        Random random = new Random(0);
+        tuples = new Tuple[3 * TREES];
+        for (int i = 0; i < TREES; i++) {
+            long id = random.nextLong();
+            long first = random.nextLong();
+            long second = random.nextLong();
+            tuples[i] = new TupleImpl(context, new Values(id, first ^ second, i % 8), 1,
+                    AckerBolt.ACKER_INIT_STREAM_ID);
+            tuples[TREES + i] = new TupleImpl(context, new Values(id, first), 1, AckerBolt.ACKER_ACK_STREAM_ID);
+            tuples[2 * TREES + i] = new TupleImpl(context, new Values(id, second), 1, AckerBolt.ACKER_ACK_STREAM_ID);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(3 * TREES)
+    public long execute() {
+        for (Tuple tuple : tuples) {
+            bolt.execute(tuple);
+        }
+        return collector.emitted;
+    }
+
+    private static GeneralTopologyContext context() {
+        Map<Integer, String> taskToComponent = new HashMap<Integer, String>();
+        taskToComponent.put(1, COMPONENT);
+        Map<String, Fields> streamToFields = new HashMap<String, Fields>();
+        streamToFields.put(AckerBolt.ACKER_INIT_STREAM_ID, new Fields("id", "ack-val", "spout-task"));
+        streamToFields.put(AckerBolt.ACKER_ACK_STREAM_ID, new Fields("id", "ack-val"));
+        Map<String, Map<String, Fields>> componentToStreamToFields = new HashMap<String, Map<String, Fields>>();
+        componentToStreamToFields.put(COMPONENT, streamToFields);
+        return new GeneralTopologyContext(null, new HashMap(), taskToComponent,
+                new HashMap<String, List<Integer>>(), componentToStreamToFields, "benchmark");
+    }
+
+    private static class CountingCollector implements IOutputCollector {
+        long emitted = 0;
+
+        @Override
+        public List<Integer> emit(String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+            emitted++;
+            return new ArrayList<Integer>();
+        }
+
+        @Override
+        public void emitDirect(int taskId, String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+            emitted++;
+        }
+
+        @Override
+        public void ack(Tuple input) {
+        }
+
+        @Override
+        public void fail(Tuple input) {
+        }
+
+        @Override
+        public void reportError(Throwable error) {
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.grouping;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+import clojure.java.api.Clojure;
+import clojure.lang.IFn;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the fields grouper that executors build in mk-fields-grouper, which chooses tasks with a
+ * {@link FieldsGrouper}, with the grouper it replaced, which selected the grouping values into a new list, hashed it
+ * and took the task from the target tasks modulo their count.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldsGrouperBenchmark {
+    private static final int TUPLES = 1024;
+    private static final String SELECT_GROUPER =
+            "(fn [^backtype.storm.tuple.Fields out-fields ^backtype.storm.tuple.Fields group-fields ^java.util.List target-tasks]"
+            + "  (let [num-tasks (count target-tasks)"
+            + "        task-getter (fn [i] (.get target-tasks i))]"
+            + "    (fn [task-id ^java.util.List values]"
+            + "      (-> (.select out-fields group-fields values)"
+            + "          backtype.storm.tuple/list-hash-code"
+            + "          (mod num-tasks)"
+            + "          task-getter))))";
+
+    /**
+     * select for the grouper that selects and hashes a list of the grouping values, indices for mk-fields-grouper
+     */
+    @Param({"select", "indices"})
+    public String grouper;
+
+    @Param({"1", "2"})
+    public int groupFields;
+
+    @Param({"16"})
+    public int tasks;
+
+    private IFn chooser;
+    private List<Object>[] tuples;
+
+    @Setup
+    public void setup() {
+        IFn require = Clojure.var("clojure.core", "require");
+        require.invoke(Clojure.read("backtype.storm.tuple"));
+        require.invoke(Clojure.read("backtype.storm.daemon.executor"));
+        IFn mkGrouper;
+        if ("select".equals(grouper)) {
+            mkGrouper = (IFn) Clojure.var("clojure.core", "eval").invoke(Clojure.read(SELECT_GROUPER));
+        } else {
+            mkGrouper = Clojure.var("backtype.storm.daemon.executor", "mk-fields-grouper");
+        }
+        Fields outFields = new Fields("user", "word", "count", "ts");
+        Fields group = groupFields == 1 ? new Fields("word") : new Fields("user", "word");
+        List<Integer> targetTasks = new ArrayList<Integer>();
+        for (int i = 0; i < tasks; i++) {
+            targetTasks.add(i + 1);
+        }
+        chooser = (IFn) mkGrouper.invoke(outFields, group, targetTasks);
+
+        Random random = new Random(0);
+        tuples = new List[TUPLES];
+        for (int i = 0; i < TUPLES; i++) {
+            tuples[i] = new Values("user" + random.nextInt(100), "word" + random.nextInt(10000),
+                    random.nextInt(), random.nextLong());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TUPLES)
+    public long chooseTask() {
+        long sum = 0;
+        for (List<Object> tuple : tuples) {
+            sum += (Integer) chooser.invoke(1, tuple);
+        }
+        return sum;
+    }
+}
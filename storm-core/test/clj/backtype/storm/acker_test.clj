@@ -0,0 +1,53 @@
+;; Licensed to the Apache Software Foundation (ASF) under one
+;; or more contributor license agreements.  See the NOTICE file
+;; distributed with this work for additional information
+;; regarding copyright ownership.  The ASF licenses this file
+;; to you under the Apache License, Version 2.0 (the
+;; "License"); you may not use this file except in compliance
+;; with the License.  You may obtain a copy of the License at
+;;
+;; http://www.apache.org/licenses/LICENSE-2.0
+;;
+;; Unless required by applicable law or agreed to in writing, software
+;; distributed under the License is distributed on an "AS IS" BASIS,
+;; WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+;; See the License for the specific language governing permissions and
+;; limitations under the License.
+(ns backtype.storm.acker-test
+  (:import [backtype.storm.task OutputCollector IBolt])
+  (:import [backtype.storm.tuple Tuple])
+  (:import [org.mockito Mockito])
+  (:use [clojure test])
+  (:use [backtype.storm config])
+  (:use [backtype.storm.daemon acker]))
+
+(defn- mk-tuple [stream & values]
+  (reify Tuple
+    (getSourceStreamId [this] stream)
+    (size [this] (count values))
+    (getValue [this i] (nth values i))))
+
+(defn- verify-emit [^OutputCollector collector task stream ^java.util.List values]
+  (.emitDirect ^OutputCollector (Mockito/verify collector) (int task) ^String stream values))
+
+(defn- test-batch-of-acks-and-fails [^IBolt acker]
+  (let [collector (Mockito/mock OutputCollector)
+        batch (mk-tuple ACKER-BATCH-STREAM-ID (long-array [1 5 2 3]) (long-array [3]))]
+    (.prepare acker {} nil collector)
+    (.execute acker (mk-tuple ACKER-INIT-STREAM-ID 1 5 (int 7)))
+    (.execute acker (mk-tuple ACKER-INIT-STREAM-ID 2 6 (int 8)))
+    (.execute acker (mk-tuple ACKER-INIT-STREAM-ID 3 9 (int 9)))
+
+    (.execute acker batch)
+    (verify-emit collector 7 ACKER-ACK-STREAM-ID [1])
+    (verify-emit collector 9 ACKER-FAIL-STREAM-ID [3])
+    (.ack ^OutputCollector (Mockito/verify collector) batch)
+
+    (.execute acker (mk-tuple ACKER-BATCH-STREAM-ID (long-array [2 (bit-xor 6 3)]) (long-array [])))
+    (verify-emit collector 8 ACKER-ACK-STREAM-ID [2])))
+
+(deftest test-map-acker-batch
+  (test-batch-of-acks-and-fails (mk-acker-bolt {})))
+
+(deftest test-primitive-acker-batch
+  (test-batch-of-acks-and-fails (mk-acker-bolt {TOPOLOGY-ACKER-PRIMITIVE-ENABLE true})))
@@ -21,7 +21,8 @@
   (:import [org.mockito.exceptions.base MockitoAssertionError])
   (:import [org.apache.curator.framework CuratorFramework CuratorFrameworkFactory CuratorFrameworkFactory$Builder])
   (:import [backtype.storm.utils Utils TestUtils ZookeeperAuthInfo])
-  (:require [backtype.storm [zookeeper :as zk]])
+  (:import [backtype.storm.heartbeat HeartbeatServer])
+  (:require [backtype.storm [zookeeper :as zk] [stats :as stats]])
   (:require [conjure.core])
   (:use [conjure core])
   (:use [clojure test])
@@ -258,6 +259,79 @@
       (.disconnect state1)
       )))
 
+(deftest test-backpressure-state
+  (with-inprocess-zookeeper zk-port
+    (let [state1 (mk-storm-state zk-port)
+          state2 (mk-storm-state zk-port)]
+      (is (= false (.topology-backpressure state1 "storm1" nil)))
+      (.worker-backpressure! state1 "storm1" "node1" 6700 true)
+      (.worker-backpressure! state2 "storm1" "node2" 6700 true)
+      (is (= true (.topology-backpressure state2 "storm1" nil)))
+      (is (= false (.topology-backpressure state2 "storm2" nil)))
+      (.worker-backpressure! state2 "storm1" "node2" 6700 false)
+      (is (= true (.topology-backpressure state2 "storm1" nil)))
+      ;; a worker that goes away does not keep the topology throttled
+      (.disconnect state1)
+      (is (= false (.topology-backpressure state2 "storm1" nil)))
+      (is (= ["storm1"] (.backpressure-topologies state2)))
+      (.remove-backpressure! state2 "storm1")
+      (is (= [] (.backpressure-topologies state2)))
+      (.disconnect state2)
+      )))
+
+(deftest test-storm-cluster-state-heartbeat-server
+  (with-inprocess-zookeeper zk-port
+    (let [port (available-port)
+          conf (merge (mk-config zk-port)
+                      {HEARTBEAT-SERVER-ENABLED true
+                       HEARTBEAT-SERVER-HOST "localhost"
+                       HEARTBEAT-SERVER-PORT port})
+          server (HeartbeatServer. conf)
+          zk-state (mk-state zk-port)
+          state (mk-storm-cluster-state conf)
+          ;; a worker passes the cluster state it shares with its executors
+          worker-state (mk-storm-cluster-state zk-state :heartbeat-conf conf)
+          hb {:storm-id "storm1"
+              :executor-stats {[1 1] (stats/render-stats! (stats/mk-spout-stats 1))}
+              :uptime 10
+              :time-secs 100}]
+      (try
+        (.setup-heartbeats! state "storm1")
+        (.worker-heartbeat! worker-state "storm1" "node1" 6700 hb)
+        (is (= ["storm1"] (.heartbeat-storms state)))
+        (let [read (.get-worker-heartbeat state "storm1" "node1" 6700)]
+          (is (= (select-keys hb [:storm-id :uptime :time-secs])
+                 (select-keys read [:storm-id :uptime :time-secs])))
+          (is (= [[1 1]] (keys (:executor-stats read)))))
+        (is (empty? (get-children zk-state "/workerbeats" false)))
+        (is (= 1 (.size (.store server))))
+
+        (.remove-worker-heartbeat! worker-state "storm1" "node1" 6700)
+        (is (nil? (.get-worker-heartbeat state "storm1" "node1" 6700)))
+        (.teardown-heartbeats! state "storm1")
+        (is (= [] (.heartbeat-storms state)))
+
+        (.close server)
+        ;; must not kill the nimbus timer
+        (.teardown-heartbeats! state "storm1")
+        (finally
+          (.close server)
+          (.disconnect worker-state)
+          (.disconnect state)
+          (.close zk-state))))))
+
+(deftest test-heartbeat-server-refuses-secure-clusters
+  (is (not (heartbeat-server-enabled? {HEARTBEAT-SERVER-ENABLED false})))
+  (is (heartbeat-server-enabled? (merge (read-storm-config) {HEARTBEAT-SERVER-ENABLED true})))
+  (is (thrown? IllegalArgumentException
+               (heartbeat-server-enabled? (merge (read-storm-config)
+                                                 {HEARTBEAT-SERVER-ENABLED true
+                                                  STORM-ZOOKEEPER-AUTH-SCHEME "digest"}))))
+  (is (thrown? IllegalArgumentException
+               (heartbeat-server-enabled? (merge (read-storm-config)
+                                                 {HEARTBEAT-SERVER-ENABLED true
+                                                  STORM-THRIFT-TRANSPORT-PLUGIN "backtype.storm.security.auth.kerberos.KerberosSaslTransportPlugin"})))))
+
 (deftest test-cluster-authentication
   (with-inprocess-zookeeper zk-port
     (let [builder (Mockito/mock CuratorFrameworkFactory$Builder)
@@ -16,6 +16,9 @@
 (ns backtype.storm.messaging.netty-unit-test
   (:use [clojure test])
   (:import [backtype.storm.messaging TransportFactory])
+  (:import [backtype.storm.serialization IOutputTupleSerializer])
+  (:import [backtype.storm.tuple Tuple])
+  (:import [com.esotericsoftware.kryo.io Output])
   (:use [backtype.storm testing util config log])
   (:use [backtype.storm.daemon.worker :only [is-connection-ready]])
   (:import [java.util ArrayList]))
@@ -131,3 +134,90 @@
     (.close client)
     (.close server)
     (.term context)))
+
+(deftest test-batch-with-pooled-buffers
+  (let [num-messages 100000
+        storm-conf {STORM-MESSAGING-TRANSPORT "backtype.storm.messaging.netty.Context"
+                    STORM-MESSAGING-NETTY-AUTHENTICATION false
+                    STORM-MESSAGING-NETTY-BUFFER-SIZE 1024000
+                    STORM-MESSAGING-NETTY-MAX-RETRIES 10
+                    STORM-MESSAGING-NETTY-MIN-SLEEP-MS 1000
+                    STORM-MESSAGING-NETTY-MAX-SLEEP-MS 5000
+                    STORM-MESSAGING-NETTY-SERVER-WORKER-THREADS 1
+                    STORM-MESSAGING-NETTY-CLIENT-WORKER-THREADS 1
+                    STORM-MESSAGING-NETTY-BUFFER-POOL-ENABLE true
+                    STORM-MESSAGING-NETTY-BUFFER-POOL-SIZE 2
+                    }
+        _ (log-message "Should send and receive many messages with pooled buffers (testing with " num-messages " messages)")
+        context (TransportFactory/makeContext storm-conf)
+        server (.bind context nil port)
+        client (.connect context nil "localhost" port)
+        _ (wait-until-ready [server client])]
+    (doseq [num  (range 1 num-messages)]
+      (let [req_msg (str num)]
+        (.send client task (.getBytes req_msg))))
+
+    (let [resp (ArrayList.)
+          received (atom 0)]
+      (while (< @received (- num-messages 1))
+        (let [iter (.recv server 0 0)]
+          (while (.hasNext iter)
+            (let [msg (.next iter)]
+              (.add resp msg)
+              (swap! received inc)
+              ))))
+      (doseq [num  (range 1 num-messages)]
+      (let [req_msg (str num)
+            resp_msg (String. (.message (.get resp (- num 1))))]
+        (is (= req_msg resp_msg)))))
+
+    (.close client)
+    (.close server)
+    (.term context)))
+
+(deftest test-send-tuples
+  (let [num-messages 100000
+        storm-conf {STORM-MESSAGING-TRANSPORT "backtype.storm.messaging.netty.Context"
+                    STORM-MESSAGING-NETTY-AUTHENTICATION false
+                    STORM-MESSAGING-NETTY-BUFFER-SIZE 1024000
+                    STORM-MESSAGING-NETTY-MAX-RETRIES 10
+                    STORM-MESSAGING-NETTY-MIN-SLEEP-MS 1000
+                    STORM-MESSAGING-NETTY-MAX-SLEEP-MS 5000
+                    STORM-MESSAGING-NETTY-SERVER-WORKER-THREADS 1
+                    STORM-MESSAGING-NETTY-CLIENT-WORKER-THREADS 1
+                    STORM-MESSAGING-NETTY-BUFFER-POOL-ENABLE true
+                    STORM-MESSAGING-NETTY-BUFFER-POOL-SIZE 2
+                    }
+        ;; writes the first value of a tuple as raw bytes, so that the server side can read it back without a topology
+        serializer (reify IOutputTupleSerializer
+                     (^bytes serialize [this ^Tuple tuple]
+                       (.getBytes (.getString tuple 0)))
+                     (^void serialize [this ^Tuple tuple ^Output target]
+                       (.writeBytes target (.getBytes (.getString tuple 0)))))
+        _ (log-message "Should serialize tuples into the batches sent (testing with " num-messages " messages)")
+        context (TransportFactory/makeContext storm-conf)
+        server (.bind context nil port)
+        client (.connect context nil "localhost" port)
+        _ (wait-until-ready [server client])]
+    (.send client
+           (.iterator ^java.util.List (for [num (range 1 num-messages)] [task (test-tuple [(str num)])]))
+           serializer)
+
+    (let [resp (ArrayList.)
+          received (atom 0)]
+      (while (< @received (- num-messages 1))
+        (let [iter (.recv server 0 0)]
+          (while (.hasNext iter)
+            (let [msg (.next iter)]
+              (.add resp msg)
+              (swap! received inc)
+              ))))
+      (doseq [num  (range 1 num-messages)]
+      (let [req_msg (str num)
+            msg (.get resp (- num 1))]
+        (is (= task (.task msg)))
+        (is (= req_msg (String. (.message msg)))))))
+
+    (.close client)
+    (.close server)
+    (.term context)))
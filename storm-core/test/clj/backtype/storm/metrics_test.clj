@@ -226,6 +226,7 @@
       (assert-buckets! "myspout" "__ack-count/default" [1] cluster)
       (assert-buckets! "myspout" "__emit-count/default" [1] cluster)
       (assert-buckets! "myspout" "__transfer-count/default" [1] cluster)            
+      (assert-buckets! "myspout" "__local-transfer-count/default" [1] cluster)
       (assert-buckets! "mybolt" "__ack-count/myspout:default" [1] cluster)
       (assert-buckets! "mybolt" "__execute-count/myspout:default" [1] cluster)
 
@@ -233,6 +234,7 @@
       (assert-buckets! "myspout" "__ack-count/default" [1 0 0] cluster)
       (assert-buckets! "myspout" "__emit-count/default" [1 0 0] cluster)
       (assert-buckets! "myspout" "__transfer-count/default" [1 0 0] cluster)
+      (assert-buckets! "myspout" "__local-transfer-count/default" [1 0 0] cluster)
       (assert-buckets! "mybolt" "__ack-count/myspout:default" [1 0 0] cluster)
       (assert-buckets! "mybolt" "__execute-count/myspout:default" [1 0 0] cluster)
 
@@ -242,6 +244,7 @@
       (assert-buckets! "myspout" "__ack-count/default" [1 0 0 2] cluster)
       (assert-buckets! "myspout" "__emit-count/default" [1 0 0 2] cluster)
       (assert-buckets! "myspout" "__transfer-count/default" [1 0 0 2] cluster)      
+      (assert-buckets! "myspout" "__local-transfer-count/default" [1 0 0 2] cluster)
       (assert-buckets! "mybolt" "__ack-count/myspout:default" [1 0 0 2] cluster)
       (assert-buckets! "mybolt" "__execute-count/myspout:default" [1 0 0 2] cluster))))
 
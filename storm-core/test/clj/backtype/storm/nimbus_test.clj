@@ -19,7 +19,8 @@
   (:require [backtype.storm.daemon [nimbus :as nimbus]])
   (:import [backtype.storm.testing TestWordCounter TestWordSpout TestGlobalCount
             TestAggregatesCounter TestPlannerSpout TestPlannerBolt])
-  (:import [backtype.storm.scheduler INimbus])
+  (:import [backtype.storm.scheduler INimbus IScheduler])
+  (:import [backtype.storm.scheduler DefaultScheduler])
   (:import [backtype.storm.generated Credentials NotAliveException SubmitOptions
             TopologyInitialStatus AlreadyAliveException KillOptions RebalanceOptions
             InvalidTopologyException AuthorizationException])
@@ -566,6 +567,73 @@
       (check-consistency cluster "test")
       )))
 
+(defn counting-nimbus
+  "An INimbus that forces the default scheduler, counting its calls in an atom."
+  [calls]
+  (let [standalone (nimbus/standalone-nimbus)]
+    (reify INimbus
+      (prepare [this conf local-dir]
+        (.prepare standalone conf local-dir))
+      (allSlotsAvailableForScheduling [this supervisors topologies topologies-missing-assignments]
+        (.allSlotsAvailableForScheduling standalone supervisors topologies topologies-missing-assignments))
+      (assignSlots [this topology slots]
+        (.assignSlots standalone topology slots))
+      (getForcedScheduler [this]
+        (reify IScheduler
+          (prepare [this conf])
+          (schedule [this topologies cluster]
+            (swap! calls inc)
+            (.schedule (DefaultScheduler.) topologies cluster))))
+      (getHostName [this supervisors node-id]
+        node-id))))
+
+(deftest test-scheduler-skipped-when-nothing-changed
+  (let [calls (atom 0)]
+    (with-simulated-time-local-cluster [cluster :supervisors 2 :ports-per-supervisor 5
+      :inimbus (counting-nimbus calls)
+      :daemon-conf {SUPERVISOR-ENABLE false
+                    NIMBUS-TASK-LAUNCH-SECS 60
+                    NIMBUS-TASK-TIMEOUT-SECS 20
+                    NIMBUS-MONITOR-FREQ-SECS 10
+                    NIMBUS-SUPERVISOR-TIMEOUT-SECS 100
+                    TOPOLOGY-ACKER-EXECUTORS 0}]
+      (letlocals
+        (bind topology (thrift/mk-topology
+                         {"1" (thrift/mk-spout-spec (TestPlannerSpout. true) :parallelism-hint 2)}
+                         {}))
+        (bind state (:storm-cluster-state cluster))
+        (submit-local-topology (:nimbus cluster) "test" {TOPOLOGY-WORKERS 2} topology)
+        (bind storm-id (get-storm-id state "test"))
+        (bind [executor-id1 executor-id2] (topology-executors cluster storm-id))
+        (bind heartbeat-rounds (fn [n & executors]
+                                 (doseq [_ (range n)]
+                                   (doseq [e executors]
+                                     (do-executor-heartbeat cluster storm-id e))
+                                   (advance-cluster-time cluster 10))))
+        (is (pos? @calls))
+
+        ;; past the launch timeout with everything alive
+        (heartbeat-rounds 7 executor-id1 executor-id2)
+        (bind before @calls)
+        (heartbeat-rounds 3 executor-id1 executor-id2)
+        (is (= before @calls))
+
+        ;; an executor dies
+        (bind ass2 (executor-assignment cluster storm-id executor-id2))
+        (heartbeat-rounds 4 executor-id1)
+        (is (> @calls before))
+        (is (not= ass2 (executor-assignment cluster storm-id executor-id2)))
+        (check-consistency cluster "test")
+
+        (heartbeat-rounds 3 executor-id1 executor-id2)
+        (bind before @calls)
+        (heartbeat-rounds 2 executor-id1 executor-id2)
+        (is (= before @calls))
+
+        ;; a supervisor dies
+        (kill-supervisor cluster (first (.supervisors state nil)))
+        (heartbeat-rounds 1 executor-id1 executor-id2)
+        (is (> @calls before))))))
 
 (deftest test-reassignment-to-constrained-cluster
   (with-simulated-time-local-cluster [cluster :supervisors 0
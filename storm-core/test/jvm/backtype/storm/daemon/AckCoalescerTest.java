@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.daemon;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import backtype.storm.tuple.Values;
+import org.junit.Assert;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class AckCoalescerTest extends TestCase {
+
+    @Test
+    public void testAcksOfARootAreXored() {
+        AckCoalescer coalescer = new AckCoalescer(100);
+        coalescer.ack(3, 1L, 5L);
+        coalescer.ack(3, 2L, 6L);
+        coalescer.ack(3, 1L, 9L);
+        Values values = coalescer.drain(3);
+        Assert.assertArrayEquals(new long[] {1L, 5L ^ 9L, 2L, 6L}, (long[]) values.get(0));
+        Assert.assertArrayEquals(new long[0], (long[]) values.get(1));
+        Assert.assertTrue(coalescer.isEmpty());
+        Assert.assertNull(coalescer.drain(3));
+    }
+
+    @Test
+    public void testBatchesArePerAckerTask() {
+        AckCoalescer coalescer = new AckCoalescer(100);
+        coalescer.ack(3, 1L, 5L);
+        coalescer.fail(4, 2L);
+        coalescer.fail(4, 2L);
+        Map<Integer, Values> batches = coalescer.drainAll();
+        Assert.assertEquals(2, batches.size());
+        Assert.assertArrayEquals(new long[] {1L, 5L}, (long[]) batches.get(3).get(0));
+        Assert.assertArrayEquals(new long[] {2L}, (long[]) batches.get(4).get(1));
+        Assert.assertTrue(coalescer.isEmpty());
+        Assert.assertTrue(coalescer.drainAll().isEmpty());
+    }
+
+    @Test
+    public void testManyRoots() {
+        AckCoalescer coalescer = new AckCoalescer(10000);
+        for(int round=0; round<2; round++) {
+            for(long root=0; root<1000; root++) {
+                coalescer.ack(3, root * 7919, root);
+                coalescer.fail(3, root * 31);
+            }
+            for(long root=0; root<1000; root++) {
+                coalescer.ack(3, root * 7919, 1L);
+                coalescer.fail(3, root * 31);
+            }
+            Values values = coalescer.drain(3);
+            long[] acks = (long[]) values.get(0);
+            long[] fails = (long[]) values.get(1);
+            Assert.assertEquals(2000, acks.length);
+            Assert.assertEquals(1000, fails.length);
+            for(int i=0; i<1000; i++) {
+                Assert.assertEquals(i * 7919L, acks[2 * i]);
+                Assert.assertEquals(i ^ 1L, acks[2 * i + 1]);
+                Assert.assertEquals(i * 31L, fails[i]);
+            }
+            Assert.assertTrue(coalescer.isEmpty());
+        }
+    }
+
+    @Test
+    public void testFullBatchAsksToBeDrained() {
+        AckCoalescer coalescer = new AckCoalescer(2);
+        Assert.assertFalse(coalescer.ack(3, 1L, 5L));
+        Assert.assertFalse(coalescer.ack(3, 1L, 6L));
+        Assert.assertFalse(coalescer.ack(4, 2L, 6L));
+        Assert.assertTrue(coalescer.fail(3, 7L));
+        Assert.assertEquals(2, ((long[]) coalescer.drain(3).get(0)).length);
+        Assert.assertFalse(coalescer.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentAcksAndDrains() throws Exception {
+        final AckCoalescer coalescer = new AckCoalescer(50);
+        final int threads = 4;
+        final int roots = 20000;
+        final Map<Long, Long> drained = new HashMap<Long, Long>();
+        Thread[] ackers = new Thread[threads];
+        for(int t=0; t<threads; t++) {
+            final long val = 1L << t;
+            ackers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for(long root=0; root<roots; root++) {
+                        if(coalescer.ack(3, root, val)) {
+                            collect(coalescer.drain(3), drained);
+                        }
+                    }
+                }
+            };
+            ackers[t].start();
+        }
+        // the executor thread drains while the bolt acks
+        boolean running = true;
+        while(running) {
+            collect(coalescer.drain(3), drained);
+            running = false;
+            for(Thread acker: ackers) {
+                running |= acker.isAlive();
+            }
+        }
+        for(Thread acker: ackers) {
+            acker.join();
+        }
+        collect(coalescer.drain(3), drained);
+
+        Assert.assertEquals(roots, drained.size());
+        for(long root=0; root<roots; root++) {
+            Assert.assertEquals((1L << threads) - 1, (long) drained.get(root));
+        }
+    }
+
+    private static void collect(Values values, Map<Long, Long> drained) {
+        if(values == null) {
+            return;
+        }
+        long[] acks = (long[]) values.get(0);
+        synchronized(drained) {
+            for(int i=0; i<acks.length; i+=2) {
+                Long curr = drained.get(acks[i]);
+                drained.put(acks[i], (curr == null ? 0L : curr) ^ acks[i + 1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.daemon;
+
+import static org.mockito.Mockito.*;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+
+public class AckerBoltTest {
+
+    private static Tuple tuple(String streamId, Object... values) {
+        Tuple tuple = mock(Tuple.class);
+        when(tuple.getSourceStreamId()).thenReturn(streamId);
+        when(tuple.size()).thenReturn(values.length);
+        for(int i=0; i<values.length; i++) {
+            when(tuple.getValue(i)).thenReturn(values[i]);
+        }
+        return tuple;
+    }
+
+    @Test
+    public void testBatchOfAcksAndFails() {
+        OutputCollector collector = mock(OutputCollector.class);
+        AckerBolt acker = new AckerBolt();
+        acker.prepare(new HashMap(), null, collector);
+        acker.execute(tuple(AckerBolt.ACKER_INIT_STREAM_ID, 1L, 5L, 7));
+        acker.execute(tuple(AckerBolt.ACKER_INIT_STREAM_ID, 2L, 6L, 8));
+        acker.execute(tuple(AckerBolt.ACKER_INIT_STREAM_ID, 3L, 9L, 9));
+
+        Tuple batch = tuple(AckerBolt.ACKER_BATCH_STREAM_ID, new long[] {1L, 5L, 2L, 3L}, new long[] {3L});
+        acker.execute(batch);
+        verify(collector).emitDirect(7, AckerBolt.ACKER_ACK_STREAM_ID, new Values(1L));
+        verify(collector).emitDirect(9, AckerBolt.ACKER_FAIL_STREAM_ID, new Values(3L));
+        verify(collector).ack(batch);
+
+        acker.execute(tuple(AckerBolt.ACKER_BATCH_STREAM_ID, new long[] {2L, 6L ^ 3L}, new long[0]));
+        verify(collector).emitDirect(8, AckerBolt.ACKER_ACK_STREAM_ID, new Values(2L));
+        verify(collector, times(3)).emitDirect(anyInt(), anyString(), anyList());
+    }
+}
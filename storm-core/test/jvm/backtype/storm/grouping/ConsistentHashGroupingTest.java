@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.grouping;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.task.WorkerTopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+
+import com.google.common.collect.Lists;
+
+public class ConsistentHashGroupingTest {
+    private WorkerTopologyContext context() {
+        WorkerTopologyContext context = mock(WorkerTopologyContext.class);
+        when(context.getComponentOutputFields(any(GlobalStreamId.class))).thenReturn(new Fields("key", "value"));
+        return context;
+    }
+
+    private int choose(ConsistentHashGrouping grouping, String key) {
+        List<Integer> tasks = grouping.chooseTasks(0, new Values(key, 1));
+        assertThat(tasks.size(), is(1));
+        return tasks.get(0);
+    }
+
+    @Test
+    public void testKeysStickToTasks() {
+        ConsistentHashGrouping grouping = new ConsistentHashGrouping(new Fields("key"));
+        grouping.prepare(context(), null, Lists.newArrayList(1, 2, 3, 4));
+        Set<Integer> used = new HashSet<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            int task = choose(grouping, "key" + i);
+            assertThat(choose(grouping, "key" + i), is(task));
+            used.add(task);
+        }
+        assertThat(used.size(), is(4));
+    }
+
+    @Test
+    public void testRemovingTaskOnlyMovesItsKeys() {
+        ConsistentHashGrouping before = new ConsistentHashGrouping(new Fields("key"));
+        before.prepare(context(), null, Lists.newArrayList(1, 2, 3, 4));
+        ConsistentHashGrouping after = new ConsistentHashGrouping(new Fields("key"));
+        after.prepare(context(), null, Lists.newArrayList(1, 2, 3));
+        for (int i = 0; i < 1000; i++) {
+            int task = choose(before, "key" + i);
+            if (task != 4) {
+                assertThat(choose(after, "key" + i), is(task));
+            }
+        }
+    }
+
+    @Test
+    public void testHotKeyIsSplit() {
+        ConsistentHashGrouping grouping = new ConsistentHashGrouping(new Fields("key"), 100, 3);
+        grouping.prepare(context(), null, Lists.newArrayList(1, 2, 3, 4, 5, 6));
+        int cold = choose(grouping, "cold");
+        Set<Integer> hotTasks = new HashSet<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            hotTasks.add(choose(grouping, "hot"));
+        }
+        assertThat(hotTasks.size(), is(3));
+        assertThat(choose(grouping, "cold"), is(cold));
+
+        Map<String, Object> metric = (Map<String, Object>) grouping.getValueAndReset();
+        assertTrue((Long) metric.get("hot") > 0);
+        assertTrue((Double) metric.get("skew") > 1.0);
+    }
+
+    @Test
+    public void testHotKeyAvoidsLoadedTasks() {
+        ConsistentHashGrouping grouping = new ConsistentHashGrouping(new Fields("key"), 100, 2);
+        grouping.prepare(context(), null, Lists.newArrayList(1, 2, 3, 4, 5, 6));
+        int primary = choose(grouping, "hot");
+        LoadMapping load = new LoadMapping();
+        Map<Integer, Double> loads = new HashMap<Integer, Double>();
+        loads.put(primary, 1.0);
+        load.setLoad(loads);
+        grouping.setLoadMapping(load);
+
+        Set<Integer> hotTasks = new HashSet<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            hotTasks.add(choose(grouping, "hot"));
+        }
+        // once the key is hot, every tuple goes to the other candidate
+        assertThat(hotTasks.size(), is(2));
+        assertThat(choose(grouping, "hot"), is(not(primary)));
+    }
+}
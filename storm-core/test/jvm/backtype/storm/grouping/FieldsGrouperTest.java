@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.grouping;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+
+import com.google.common.collect.Lists;
+
+public class FieldsGrouperTest {
+    private final Fields outFields = new Fields("a", "b", "c");
+    private final List<Integer> targetTasks = Lists.newArrayList(3, 5, 7, 11, 13);
+
+    @Test
+    public void testChoosesSameTaskAsHashingSelectedValues() {
+        Fields groupFields = new Fields("c", "a");
+        FieldsGrouper grouper = new FieldsGrouper(outFields, groupFields, targetTasks);
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            Values values = new Values("key" + random.nextInt(), random.nextLong(), random.nextInt());
+            int hash = outFields.select(groupFields, values).hashCode();
+            int expected = targetTasks.get(((hash % targetTasks.size()) + targetTasks.size()) % targetTasks.size());
+            assertThat(grouper.hash(values), is(hash));
+            assertThat(grouper.chooseTask(values), is(expected));
+        }
+    }
+
+    @Test
+    public void testNullValues() {
+        FieldsGrouper grouper = new FieldsGrouper(outFields, new Fields("b"), targetTasks);
+        Values values = new Values("x", null, 1);
+        assertThat(grouper.hash(values), is(outFields.select(new Fields("b"), values).hashCode()));
+        assertThat(grouper.chooseIndex(values), is(31 % targetTasks.size()));
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.grouping;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import backtype.storm.task.WorkerTopologyContext;
+import backtype.storm.tuple.Values;
+
+import com.google.common.collect.Lists;
+
+public class LoadAwareShuffleGroupingTest {
+    private WorkerTopologyContext context(Integer... workerTasks) {
+        WorkerTopologyContext context = mock(WorkerTopologyContext.class);
+        when(context.getThisWorkerTasks()).thenReturn(Lists.newArrayList(workerTasks));
+        return context;
+    }
+
+    private Map<Integer, Integer> counts(LoadAwareShuffleGrouping grouping, int n) {
+        Map<Integer, Integer> ret = new HashMap<Integer, Integer>();
+        for (int i = 0; i < n; i++) {
+            List<Integer> tasks = grouping.chooseTasks(0, new Values("value"));
+            assertThat(tasks.size(), is(1));
+            Integer count = ret.get(tasks.get(0));
+            ret.put(tasks.get(0), count == null ? 1 : count + 1);
+        }
+        return ret;
+    }
+
+    private static Map<Integer, Double> loads(int task, double load) {
+        Map<Integer, Double> ret = new HashMap<Integer, Double>();
+        ret.put(task, load);
+        return ret;
+    }
+
+    @Test
+    public void testEvenWithoutLoad() {
+        LoadAwareShuffleGrouping grouping = new LoadAwareShuffleGrouping(false);
+        grouping.prepare(context(), null, Lists.newArrayList(1, 2, 3));
+        Map<Integer, Integer> counts = counts(grouping, 3 * LoadAwareShuffleGrouping.MAX_WEIGHT);
+        for (int task = 1; task <= 3; task++) {
+            assertThat(counts.get(task), is(LoadAwareShuffleGrouping.MAX_WEIGHT));
+        }
+    }
+
+    @Test
+    public void testBacksOffFromLoadedTask() {
+        LoadMapping load = new LoadMapping();
+        LoadAwareShuffleGrouping grouping = new LoadAwareShuffleGrouping(false);
+        grouping.prepare(context(), null, Lists.newArrayList(1, 2));
+        grouping.setLoadMapping(load);
+        load.setLoad(loads(2, 1.0));
+        Map<Integer, Integer> counts = counts(grouping, 1000 * (LoadAwareShuffleGrouping.MAX_WEIGHT + 1));
+        assertThat(counts.get(1), is(1000 * LoadAwareShuffleGrouping.MAX_WEIGHT));
+        assertThat(counts.get(2), is(1000));
+
+        load.setLoad(new HashMap<Integer, Double>());
+        counts = counts(grouping, 2 * LoadAwareShuffleGrouping.MAX_WEIGHT);
+        assertThat(counts.get(1), is(counts.get(2)));
+    }
+
+    @Test
+    public void testPrefersLocalTasksWhileLighter() {
+        LoadMapping load = new LoadMapping();
+        LoadAwareShuffleGrouping grouping = new LoadAwareShuffleGrouping();
+        grouping.prepare(context(1, 2), null, Lists.newArrayList(1, 2, 3, 4));
+        grouping.setLoadMapping(load);
+        Map<Integer, Integer> counts = counts(grouping, 1000);
+        assertTrue(counts.containsKey(1));
+        assertTrue(counts.containsKey(2));
+        assertFalse(counts.containsKey(3));
+        assertFalse(counts.containsKey(4));
+
+        load.setLoad(loads(1, 0.8));
+        counts = counts(grouping, 1000);
+        assertTrue(counts.containsKey(3));
+        assertTrue(counts.containsKey(4));
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.heartbeat;
+
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import backtype.storm.Config;
+
+import org.junit.Assert;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class HeartbeatStoreTest extends TestCase {
+
+    @Test
+    public void testChildrenAreTheNextPathSegments() {
+        HeartbeatStore store = new HeartbeatStore();
+        store.put("/workerbeats/topo-1/node-a-6700", new byte[] {1});
+        store.put("/workerbeats/topo-1/node-b-6701", new byte[] {2});
+        store.put("/workerbeats/topo-2/node-a-6702", new byte[] {3});
+        store.mkdirs("/workerbeats/topo-3");
+
+        Assert.assertEquals(Arrays.asList("topo-1", "topo-2", "topo-3"), store.children("/workerbeats"));
+        Assert.assertEquals(Arrays.asList("node-a-6700", "node-b-6701"), store.children("/workerbeats/topo-1"));
+        Assert.assertEquals(Collections.emptyList(), store.children("/workerbeats/topo-3"));
+        Assert.assertEquals(Collections.emptyList(), store.children("/workerbeats/topo"));
+        Assert.assertNull(store.get("/workerbeats"));
+    }
+
+    @Test
+    public void testMkdirsKeepsData() {
+        HeartbeatStore store = new HeartbeatStore();
+        store.put("/workerbeats/topo-1", new byte[] {1});
+        store.mkdirs("/workerbeats/topo-1");
+        Assert.assertArrayEquals(new byte[] {1}, store.get("/workerbeats/topo-1"));
+    }
+
+    @Test
+    public void testDeleteRemovesEverythingBelow() {
+        HeartbeatStore store = new HeartbeatStore();
+        store.put("/workerbeats/topo-1/node-a-6700", new byte[] {1});
+        store.put("/workerbeats/topo-1/node-b-6701", new byte[] {2});
+        store.put("/workerbeats/topo-10/node-a-6700", new byte[] {3});
+        store.mkdirs("/workerbeats/topo-1");
+
+        store.delete("/workerbeats/topo-1");
+        Assert.assertNull(store.get("/workerbeats/topo-1"));
+        Assert.assertNull(store.get("/workerbeats/topo-1/node-a-6700"));
+        Assert.assertArrayEquals(new byte[] {3}, store.get("/workerbeats/topo-10/node-a-6700"));
+        Assert.assertEquals(Arrays.asList("topo-10"), store.children("/workerbeats"));
+        Assert.assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testClientRoundTrip() throws Exception {
+        ServerSocket probe = new ServerSocket(0);
+        int port = probe.getLocalPort();
+        probe.close();
+        Map conf = new HashMap();
+        conf.put(Config.HEARTBEAT_SERVER_PORT, port);
+        HeartbeatServer server = new HeartbeatServer(conf);
+        HeartbeatClient client = new HeartbeatClient("localhost", port);
+        try {
+            client.mkdirs("/workerbeats/topo-1");
+            client.put("/workerbeats/topo-1/node-a-6700", new byte[] {1, 2, 3});
+            Assert.assertArrayEquals(new byte[] {1, 2, 3}, client.get("/workerbeats/topo-1/node-a-6700"));
+            Assert.assertNull(client.get("/workerbeats/topo-2"));
+            Assert.assertEquals(Arrays.asList("node-a-6700"), client.children("/workerbeats/topo-1"));
+
+            client.delete("/workerbeats/topo-1");
+            Assert.assertEquals(Collections.emptyList(), client.children("/workerbeats"));
+            Assert.assertEquals(0, server.store().size());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.serialization;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import backtype.storm.serialization.types.ByteBufferSerializer;
+import backtype.storm.utils.Utils;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.Assert;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class ByteBufferSerializerTest extends TestCase {
+
+    private static ByteBuffer roundTrip(Kryo kryo, ByteBuffer buffer) {
+        Output out = new Output(64, -1);
+        kryo.writeClassAndObject(out, buffer);
+        return (ByteBuffer) kryo.readClassAndObject(new Input(out.toBytes()));
+    }
+
+    private static ByteBuffer direct(byte[] bytes) {
+        ByteBuffer ret = ByteBuffer.allocateDirect(bytes.length);
+        ret.put(bytes);
+        ret.flip();
+        return ret;
+    }
+
+    @Test
+    public void testEveryKindOfBufferRoundTrips() {
+        Map conf = Utils.readDefaultConfig();
+        Kryo kryo = SerializationFactory.getKryo(conf);
+        byte[] bytes = {1, 2, 3, 4, 5};
+        ByteBuffer[] buffers = {
+            ByteBuffer.wrap(bytes),
+            ByteBuffer.wrap(bytes).asReadOnlyBuffer(),
+            direct(bytes),
+            direct(bytes).asReadOnlyBuffer()
+        };
+        for(ByteBuffer buffer: buffers) {
+            Assert.assertTrue(kryo.getSerializer(buffer.getClass()) instanceof ByteBufferSerializer);
+            Assert.assertEquals(ByteBuffer.wrap(bytes), roundTrip(kryo, buffer));
+            Assert.assertEquals(5, buffer.remaining());
+        }
+    }
+
+    @Test
+    public void testOnlyTheRemainingBytesAreWritten() {
+        Map conf = Utils.readDefaultConfig();
+        Kryo kryo = SerializationFactory.getKryo(conf);
+        byte[] bytes = {1, 2, 3, 4, 5};
+        ByteBuffer heap = ByteBuffer.wrap(bytes, 1, 3).slice();
+        ByteBuffer direct = direct(bytes);
+        direct.position(1);
+        direct.limit(4);
+        ByteBuffer expected = ByteBuffer.wrap(new byte[] {2, 3, 4});
+        Assert.assertEquals(expected, roundTrip(kryo, heap));
+        Assert.assertEquals(expected, roundTrip(kryo, direct.slice()));
+        Assert.assertEquals(expected, roundTrip(kryo, direct));
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.serialization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.utils.Utils;
+import org.junit.Assert;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class LazyValuesTest extends TestCase {
+    private final Map conf = Utils.readDefaultConfig();
+
+    private List<Object> sample() {
+        return new ArrayList<Object>(Arrays.<Object>asList("key", 7L, null, 2.5));
+    }
+
+    @Test
+    public void testFieldsAreReadOnFirstAccess() throws Exception {
+        byte[] ser = new KryoValuesSerializer(conf).serialize(sample());
+        KryoValuesDeserializer deserializer = new KryoValuesDeserializer(conf);
+        Assert.assertTrue(deserializer.canDeserializeLazily());
+
+        LazyValues values = deserializer.deserializeLazily(ser, 0, ser.length);
+        Assert.assertEquals(4, values.size());
+        Assert.assertEquals(0, values.read());
+        Assert.assertEquals("key", values.get(0));
+        Assert.assertEquals(1, values.read());
+        Assert.assertEquals(2.5, values.get(3));
+        Assert.assertEquals(4, values.read());
+        Assert.assertEquals(sample(), values);
+    }
+
+    @Test
+    public void testReadFromRangeOfBuffer() throws Exception {
+        byte[] ser = new KryoValuesSerializer(conf).serialize(sample());
+        byte[] frame = new byte[ser.length + 8];
+        System.arraycopy(ser, 0, frame, 5, ser.length);
+
+        LazyValues values = new KryoValuesDeserializer(conf).deserializeLazily(frame, 5, ser.length);
+        Assert.assertEquals(sample(), values);
+    }
+
+    @Test
+    public void testUnmodifiedValuesAreWrittenAsReceived() throws Exception {
+        KryoValuesSerializer serializer = new KryoValuesSerializer(conf);
+        byte[] ser = serializer.serialize(sample());
+        LazyValues values = new KryoValuesDeserializer(conf).deserializeLazily(ser, 0, ser.length);
+        values.get(0);
+
+        Assert.assertArrayEquals(ser, serializer.serialize(values));
+    }
+
+    @Test
+    public void testModifiedValuesAreSerializedAgain() throws Exception {
+        KryoValuesSerializer serializer = new KryoValuesSerializer(conf);
+        byte[] ser = serializer.serialize(sample());
+        KryoValuesDeserializer deserializer = new KryoValuesDeserializer(conf);
+        LazyValues values = deserializer.deserializeLazily(ser, 0, ser.length);
+        Assert.assertEquals("key", values.set(0, "other"));
+
+        List<Object> expected = sample();
+        expected.set(0, "other");
+        Assert.assertEquals(expected, deserializer.deserialize(serializer.serialize(values)));
+    }
+
+    @Test
+    public void testFieldsChangedInPlaceAreSerializedAgain() throws Exception {
+        KryoValuesSerializer serializer = new KryoValuesSerializer(conf);
+        Map<String, Long> counts = new HashMap<String, Long>();
+        counts.put("a", 1L);
+        byte[] ser = serializer.serialize(new ArrayList<Object>(Arrays.<Object>asList("key", counts)));
+        KryoValuesDeserializer deserializer = new KryoValuesDeserializer(conf);
+        LazyValues values = deserializer.deserializeLazily(ser, 0, ser.length);
+        ((Map<String, Long>) values.get(1)).put("a", 2L);
+
+        List<Object> received = deserializer.deserialize(serializer.serialize(values));
+        Assert.assertEquals(2L, ((Map) received.get(1)).get("a"));
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.serialization;
+
+import java.util.Arrays;
+import java.util.List;
+
+import backtype.storm.Config;
+import backtype.storm.generated.StormTopology;
+import backtype.storm.testing.TestWordSpout;
+import backtype.storm.task.GeneralTopologyContext;
+import backtype.storm.topology.TopologyBuilder;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.PrimitiveValues;
+import backtype.storm.tuple.TupleImpl;
+import backtype.storm.tuple.Values;
+import backtype.storm.utils.Utils;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.Assert;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TupleSchemaTest extends TestCase {
+
+    @Test
+    public void testRoundTrip() {
+        TupleSchema schema = new TupleSchema(Arrays.asList("long", "int", "double", "float", "boolean", "string", "bytes"));
+        List<Object> values = new Values(-3L, 42, 1.5, 2.5f, true, "word", new byte[] {1, 2});
+        Assert.assertTrue(schema.fits(values));
+
+        Output out = new Output(64, -1);
+        schema.write(values, out);
+        PrimitiveValues read = schema.read(new Input(out.toBytes()));
+
+        Assert.assertEquals(values.subList(0, 6), read.subList(0, 6));
+        Assert.assertArrayEquals(new byte[] {1, 2}, (byte[]) read.get(6));
+        Assert.assertEquals(-3L, read.getLong(0));
+    }
+
+    @Test
+    public void testNulls() {
+        TupleSchema schema = new TupleSchema(Arrays.asList("string", "bytes"));
+        List<Object> values = new Values(null, null);
+        Assert.assertTrue(schema.fits(values));
+
+        Output out = new Output(64, -1);
+        schema.write(values, out);
+        Assert.assertEquals(values, schema.read(new Input(out.toBytes())));
+    }
+
+    @Test
+    public void testMismatchedValuesDoNotFit() {
+        TupleSchema schema = new TupleSchema(Arrays.asList("long", "string"));
+        Assert.assertFalse(schema.fits(new Values(1, "word")));
+        Assert.assertFalse(schema.fits(new Values(null, "word")));
+        Assert.assertFalse(schema.fits(new Values(1L)));
+    }
+
+    @Test
+    public void testUnknownType() {
+        try {
+            new TupleSchema(Arrays.asList("long", "date"));
+            Assert.fail("expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testTypedGetters() {
+        PrimitiveValues values = new PrimitiveValues(3);
+        values.setLong(0, 7L);
+        values.setDouble(1, 0.5);
+        values.setObject(2, "word");
+        Assert.assertTrue(values.isPrimitive(0));
+        Assert.assertFalse(values.isPrimitive(2));
+        Assert.assertEquals(7L, values.getLong(0));
+        Assert.assertEquals(0.5, values.getDouble(1), 0.0);
+        try {
+            values.getInt(0);
+            Assert.fail("expected a ClassCastException");
+        } catch (ClassCastException e) {
+        }
+    }
+
+    @Test
+    public void testPrimitiveGettersOfTuple() {
+        GeneralTopologyContext context = mock(GeneralTopologyContext.class);
+        when(context.getComponentId(1)).thenReturn("spout");
+        when(context.getComponentOutputFields("spout", Utils.DEFAULT_STREAM_ID)).thenReturn(new Fields("count", "ratio"));
+
+        PrimitiveValues primitives = new PrimitiveValues(2);
+        primitives.setLong(0, 7L);
+        primitives.setDouble(1, 0.5);
+        TupleImpl tuple = new TupleImpl(context, primitives, 1, Utils.DEFAULT_STREAM_ID);
+        Assert.assertEquals(7L, tuple.getLongPrimitive(0));
+        Assert.assertEquals(0.5, tuple.getDoublePrimitiveByField("ratio"), 0.0);
+
+        TupleImpl boxed = new TupleImpl(context, new Values(7L, 0.5), 1, Utils.DEFAULT_STREAM_ID);
+        Assert.assertEquals(7L, boxed.getLongPrimitiveByField("count"));
+        Assert.assertEquals(0.5, boxed.getDoublePrimitive(1), 0.0);
+        try {
+            tuple.getIntegerPrimitive(0);
+            Assert.fail("expected a ClassCastException");
+        } catch (ClassCastException e) {
+        }
+    }
+
+    @Test
+    public void testValidateAgainstTopology() {
+        TopologyBuilder builder = new TopologyBuilder();
+        builder.setSpout("words", new TestWordSpout());
+        StormTopology topology = builder.createTopology();
+
+        Config conf = new Config();
+        conf.declareTupleSchema("words", Utils.DEFAULT_STREAM_ID, "string");
+        TupleSchema.validate(conf, topology);
+
+        conf.declareTupleSchema("words", Utils.DEFAULT_STREAM_ID, "string", "long");
+        assertInvalid(conf, topology);
+
+        conf = new Config();
+        conf.declareTupleSchema("words", "other", "string");
+        assertInvalid(conf, topology);
+
+        conf = new Config();
+        conf.declareTupleSchema("counts", Utils.DEFAULT_STREAM_ID, "string");
+        assertInvalid(conf, topology);
+    }
+
+    @Test
+    public void testDeclareUnknownType() {
+        try {
+            new Config().declareTupleSchema("words", Utils.DEFAULT_STREAM_ID, "date");
+            Assert.fail("expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    private static void assertInvalid(Config conf, StormTopology topology) {
+        try {
+            TupleSchema.validate(conf, topology);
+            Assert.fail("expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
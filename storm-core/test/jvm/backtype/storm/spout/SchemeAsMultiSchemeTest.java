@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.spout;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+import org.junit.Assert;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class SchemeAsMultiSchemeTest extends TestCase {
+
+    // a scheme that only knows byte[]
+    private static class LengthScheme implements Scheme {
+        @Override
+        public List<Object> deserialize(byte[] ser) {
+            return new Values(ser.length, ser[0]);
+        }
+
+        @Override
+        public Fields getOutputFields() {
+            return new Fields("length", "first");
+        }
+    }
+
+    @Test
+    public void testPlainSchemeGetsTheRemainingBytes() {
+        SchemeAsMultiScheme scheme = new SchemeAsMultiScheme(new LengthScheme());
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5});
+        buffer.position(2);
+        Iterator<List<Object>> tuples = scheme.deserialize(buffer).iterator();
+        Assert.assertEquals(new Values(3, (byte) 3), tuples.next());
+        Assert.assertFalse(tuples.hasNext());
+    }
+
+    @Test
+    public void testPlainSchemeGetsDirectBuffers() {
+        SchemeAsMultiScheme scheme = new SchemeAsMultiScheme(new LengthScheme());
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+        buffer.put(new byte[] {7, 8, 9, 10});
+        buffer.flip();
+        Assert.assertEquals(new Values(4, (byte) 7), scheme.deserialize(buffer).iterator().next());
+    }
+
+    @Test
+    public void testRawByteBufferMultiSchemeSharesTheInput() {
+        RawByteBufferMultiScheme scheme = new RawByteBufferMultiScheme();
+        byte[] bytes = {1, 2, 3, 4, 5};
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(1);
+        buffer.limit(4);
+        Iterator<List<Object>> tuples = scheme.deserialize(buffer).iterator();
+        ByteBuffer emitted = (ByteBuffer) tuples.next().get(0);
+        Assert.assertFalse(tuples.hasNext());
+        Assert.assertEquals(ByteBuffer.wrap(new byte[] {2, 3, 4}), emitted);
+        Assert.assertEquals(0, emitted.position());
+        bytes[1] = 9;
+        Assert.assertEquals(9, emitted.get(0));
+
+        Assert.assertEquals(ByteBuffer.wrap(bytes), scheme.deserialize(bytes).iterator().next().get(0));
+        Assert.assertEquals(new Fields("bytes").toList(), scheme.getOutputFields().toList());
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.stats;
+
+import java.util.Map;
+
+import backtype.storm.utils.Time;
+import org.junit.Assert;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class RollingStatsTest extends TestCase {
+    private static final int[] BUCKETS = {30, 540};
+
+    @Test
+    public void testCountsExpireWithTheirWindow() {
+        Time.startSimulating();
+        try {
+            Time.advanceTime(1000 * 1000);
+            RollingCounts counts = new RollingCounts(20, BUCKETS);
+            counts.add("a", 1);
+            counts.add("a", 2);
+            counts.add("b", 5);
+            Assert.assertEquals(600, counts.windowSecs(0));
+            Assert.assertEquals(Long.valueOf(3), counts.values(0).get("a"));
+            Assert.assertEquals(Long.valueOf(5), counts.values(RollingStats.ALL_TIME).get("b"));
+
+            Time.advanceTime(599 * 1000);
+            counts.add("a", 1);
+            Map<Object, Long> tenMinutes = counts.values(0);
+            Assert.assertEquals(Long.valueOf(1), tenMinutes.get("a"));
+            Assert.assertFalse(tenMinutes.containsKey("b"));
+            Assert.assertEquals(Long.valueOf(4), counts.values(1).get("a"));
+            Assert.assertEquals(Long.valueOf(4), counts.values(RollingStats.ALL_TIME).get("a"));
+        } finally {
+            Time.stopSimulating();
+        }
+    }
+
+    @Test
+    public void testLatencyMeansAndPercentiles() {
+        RollingLatencies latencies = new RollingLatencies(20, BUCKETS);
+        for(int i=1; i<=1000; i++) {
+            latencies.record("s", i);
+        }
+        Assert.assertEquals(500.5, latencies.means(0).get("s"), 0.001);
+        Assert.assertEquals(500.5, latencies.means(RollingStats.ALL_TIME).get("s"), 0.001);
+        Assert.assertEquals(500, latencies.percentiles(0.5).get("s"), 500 / 16.0);
+        Assert.assertEquals(990, latencies.percentiles(0.99).get("s"), 990 / 16.0);
+        Assert.assertEquals(999, latencies.percentiles(0.999).get("s"), 999 / 16.0);
+        Assert.assertFalse(latencies.means(0).containsKey("t"));
+    }
+
+    @Test
+    public void testHistogramBucketsCoverEveryLatency() {
+        for(long latency=0; latency<=RollingLatencies.MAX_LATENCY; latency+=1 + latency / 1000) {
+            int index = RollingLatencies.index(latency);
+            Assert.assertTrue(index < RollingLatencies.HISTOGRAM_SIZE);
+            long lowest = RollingLatencies.lowest(index);
+            Assert.assertTrue(lowest <= latency && latency < lowest + RollingLatencies.width(index));
+        }
+    }
+}
@@ -17,7 +17,9 @@
  */
 package backtype.storm.utils;
 
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.lmax.disruptor.BlockingWaitStrategy;
@@ -84,6 +86,166 @@ public class DisruptorQueueTest extends TestCase {
     }
 
 
+    @Test
+    public void testPublishedBeforeConsumerStartedComesFirst() {
+        // more than the ring holds, and more than one staging segment
+        DisruptorQueue queue = createQueue("staging", 16);
+        for (int i = 0; i < 3000; i++) {
+            queue.publish(i);
+        }
+        queue.consumerStarted();
+        queue.publish(3000);
+
+        final AtomicInteger next = new AtomicInteger(0);
+        queue.consumeBatch(new EventHandler<Object>() {
+            @Override
+            public void onEvent(Object obj, long sequence, boolean endOfBatch) {
+                Assert.assertEquals(next.getAndIncrement(), obj);
+            }
+        });
+        Assert.assertEquals(3001, next.get());
+    }
+
+    @Test
+    public void testBackpressureWaterMarks() {
+        AtomicInteger throttledQueues = new AtomicInteger(0);
+        DisruptorQueue queue = createQueue("backpressure", 16);
+        queue.enableBackpressure(throttledQueues, 0.5, 0.25);
+        queue.consumerStarted();
+        EventHandler<Object> ignore = new EventHandler<Object>() {
+            @Override
+            public void onEvent(Object obj, long sequence, boolean endOfBatch) {
+            }
+        };
+        queue.consumeBatch(ignore);
+
+        for (int i = 0; i < 7; i++) {
+            queue.publish("msg");
+        }
+        Assert.assertFalse(queue.isThrottled());
+        queue.publish("msg");
+        Assert.assertTrue(queue.isThrottled());
+        Assert.assertEquals(1, throttledQueues.get());
+
+        queue.consumeBatch(ignore);
+        Assert.assertFalse(queue.isThrottled());
+        Assert.assertEquals(0, throttledQueues.get());
+    }
+
+    @Test
+    public void testThrottleRacingDrain() {
+        AtomicInteger throttledQueues = new AtomicInteger(0);
+        DisruptorQueue queue = createQueue("backpressureRace", 16);
+        queue.enableBackpressure(throttledQueues, 0.5, 0.25);
+        queue.consumerStarted();
+        EventHandler<Object> ignore = new EventHandler<Object>() {
+            @Override
+            public void onEvent(Object obj, long sequence, boolean endOfBatch) {
+            }
+        };
+        queue.consumeBatch(ignore);
+
+        // a producer saw the queue at the high water mark, then the consumer drained it before the producer
+        // set the throttle flag
+        Assert.assertEquals(0, queue.population());
+        queue.checkHighWaterMark(8);
+        Assert.assertFalse(queue.isThrottled());
+        Assert.assertEquals(0, throttledQueues.get());
+
+        // the consumer saw the queue at the low water mark, then producers filled it before the flag was cleared
+        for (int i = 0; i < 8; i++) {
+            queue.publish("msg");
+        }
+        Assert.assertTrue(queue.isThrottled());
+        queue.checkLowWaterMark(0);
+        Assert.assertTrue(queue.isThrottled());
+        Assert.assertEquals(1, throttledQueues.get());
+
+        queue.consumeBatch(ignore);
+        Assert.assertFalse(queue.isThrottled());
+        Assert.assertEquals(0, throttledQueues.get());
+    }
+
+    @Test
+    public void testProducerBatching() throws InsufficientCapacityException {
+        DisruptorQueue queue = createQueue("producerBatching", 16);
+        queue.enableProducerBatching(4);
+        queue.batchOnCurrentThread();
+        queue.consumerStarted();
+        final AtomicInteger consumed = new AtomicInteger(0);
+        EventHandler<Object> count = new EventHandler<Object>() {
+            @Override
+            public void onEvent(Object obj, long sequence, boolean endOfBatch) {
+                consumed.incrementAndGet();
+            }
+        };
+        queue.consumeBatch(count);
+
+        for (int i = 0; i < 3; i++) {
+            queue.publishBatched("msg", true);
+        }
+        Assert.assertEquals(0, queue.population());
+        queue.publishBatched("msg", true);
+        Assert.assertEquals(4, queue.population());
+        queue.publishBatched("msg", true);
+        Assert.assertTrue(queue.flushBatch(false));
+        Assert.assertEquals(5, queue.population());
+
+        queue.consumeBatch(count);
+        Assert.assertEquals(5, consumed.get());
+        Map state = (Map) queue.getState();
+        Assert.assertEquals(2.5, (Double) state.get("avg_batch_size"), 0.0001);
+    }
+
+    @Test
+    public void testOtherThreadsPublishDirectly() throws InterruptedException {
+        final DisruptorQueue queue = createQueue("otherThreads", 16);
+        queue.enableProducerBatching(4);
+        queue.batchOnCurrentThread();
+        queue.consumerStarted();
+        queue.consumeBatch(new EventHandler<Object>() {
+            @Override
+            public void onEvent(Object obj, long sequence, boolean endOfBatch) {
+            }
+        });
+
+        // like the reader thread of a ShellBolt, which never flushes
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.publishBatched("msg", true);
+                } catch (InsufficientCapacityException e) {
+                    throw new RuntimeException(e);
+                }
+                Assert.assertTrue(queue.flushBatch(false));
+            }
+        });
+        other.start();
+        other.join();
+        Assert.assertEquals(1, queue.population());
+    }
+
+    @Test
+    public void testParkingWaitStrategyTimesOut() {
+        DisruptorQueue queue = new DisruptorQueue("parking", new MultiThreadedClaimStrategy(16),
+                new ParkingWaitStrategy(), 5);
+        queue.consumerStarted();
+        final AtomicInteger consumed = new AtomicInteger(0);
+        EventHandler<Object> count = new EventHandler<Object>() {
+            @Override
+            public void onEvent(Object obj, long sequence, boolean endOfBatch) {
+                consumed.incrementAndGet();
+            }
+        };
+        // drains the cache flush marker
+        queue.consumeBatchWhenAvailable(count);
+        queue.consumeBatchWhenAvailable(count);
+        queue.publish("msg");
+        queue.consumeBatchWhenAvailable(count);
+        Assert.assertEquals(1, consumed.get());
+    }
+
     private void run(Runnable producer, Runnable consumer)
             throws InterruptedException {
 
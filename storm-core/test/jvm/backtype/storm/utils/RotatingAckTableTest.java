@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.utils;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class RotatingAckTableTest extends TestCase {
+
+    @Test
+    public void testTreeCompletes() {
+        RotatingAckTable table = new RotatingAckTable(2);
+        Assert.assertEquals(RotatingAckTable.PENDING, table.init(1L, 5L, 7));
+        Assert.assertEquals(RotatingAckTable.PENDING, table.ack(1L, 5L ^ 9L));
+        Assert.assertEquals(RotatingAckTable.COMPLETE, table.ack(1L, 9L));
+        Assert.assertEquals(7, table.lastSpoutTask());
+        Assert.assertFalse(table.containsKey(1L));
+        Assert.assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testAckBeforeInit() {
+        RotatingAckTable table = new RotatingAckTable(2);
+        Assert.assertEquals(RotatingAckTable.PENDING, table.ack(1L, 3L));
+        Assert.assertEquals(RotatingAckTable.COMPLETE, table.init(1L, 3L, 4));
+        Assert.assertEquals(4, table.lastSpoutTask());
+    }
+
+    @Test
+    public void testFail() {
+        RotatingAckTable table = new RotatingAckTable(2);
+        Assert.assertEquals(RotatingAckTable.PENDING, table.fail(1L));
+        Assert.assertEquals(RotatingAckTable.FAILED, table.init(1L, 3L, 4));
+        Assert.assertEquals(4, table.lastSpoutTask());
+        Assert.assertFalse(table.containsKey(1L));
+    }
+
+    @Test
+    public void testRotateExpiresIdleTrees() {
+        RotatingAckTable table = new RotatingAckTable(2);
+        table.init(1L, 3L, 4);
+        table.init(2L, 3L, 4);
+        Assert.assertEquals(0, table.rotate());
+        // touching a tree moves it into the newest bucket
+        table.ack(2L, 1L);
+        Assert.assertEquals(1, table.rotate());
+        Assert.assertFalse(table.containsKey(1L));
+        Assert.assertTrue(table.containsKey(2L));
+        Assert.assertEquals(RotatingAckTable.COMPLETE, table.ack(2L, 2L));
+    }
+
+    @Test
+    public void testManyTrees() {
+        RotatingAckTable table = new RotatingAckTable(3, 16);
+        Random random = new Random(42);
+        long[] ids = new long[10000];
+        long[] vals = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = random.nextLong();
+            vals[i] = random.nextLong() | 1L;
+            Assert.assertEquals(RotatingAckTable.PENDING, table.init(ids[i], vals[i], i));
+        }
+        Assert.assertEquals(ids.length, table.size());
+        // complete every other tree, the rest must survive the removals
+        for (int i = 0; i < ids.length; i += 2) {
+            Assert.assertEquals(RotatingAckTable.COMPLETE, table.ack(ids[i], vals[i]));
+            Assert.assertEquals(i, table.lastSpoutTask());
+        }
+        for (int i = 0; i < ids.length; i++) {
+            Assert.assertEquals(i % 2 == 1, table.containsKey(ids[i]));
+        }
+        Assert.assertEquals(ids.length / 2, table.size());
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package backtype.storm.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class StagingBufferTest extends TestCase {
+    private static final int PRODUCERS = 8;
+
+    @Test
+    public void testDrainInOrder() throws Exception {
+        StagingBuffer buffer = new StagingBuffer();
+        for (int i = 0; i < StagingBuffer.SEGMENT_SIZE * 2 + 5; i++) {
+            Assert.assertTrue(buffer.add(i == 7 ? null : i));
+        }
+        int count = buffer.close();
+        Assert.assertFalse(buffer.add("late"));
+        Assert.assertEquals(StagingBuffer.SEGMENT_SIZE * 2 + 5, count);
+        Assert.assertEquals(count, buffer.close());
+
+        final AtomicInteger next = new AtomicInteger(0);
+        buffer.drain(count, new StagingBuffer.Handler() {
+            @Override
+            public void onStaged(Object obj) {
+                int i = next.getAndIncrement();
+                Assert.assertEquals(i == 7 ? null : i, obj);
+            }
+        });
+        Assert.assertEquals(count, next.get());
+    }
+
+    @Test
+    public void testCloseRacesProducersAcrossSegments() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            final StagingBuffer buffer = new StagingBuffer();
+            final CountDownLatch start = new CountDownLatch(1);
+            final int[] added = new int[PRODUCERS];
+            final AtomicInteger total = new AtomicInteger(0);
+            List<Thread> producers = new ArrayList<Thread>();
+            for (int p = 0; p < PRODUCERS; p++) {
+                final int producer = p;
+                Thread t = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        // values are producer * 1000000 + sequence
+                        int i = 0;
+                        while (buffer.add(producer * 1000000 + i)) {
+                            i++;
+                            total.incrementAndGet();
+                        }
+                        added[producer] = i;
+                    }
+                };
+                t.start();
+                producers.add(t);
+            }
+            start.countDown();
+            // close while producers are still crossing segment boundaries
+            int closeAfter = StagingBuffer.SEGMENT_SIZE * (2 + round % 3) + round;
+            while (total.get() < closeAfter) {
+                Thread.yield();
+            }
+            final int count = buffer.close();
+
+            final int[] seen = new int[PRODUCERS];
+            final AtomicInteger drained = new AtomicInteger(0);
+            buffer.drain(count, new StagingBuffer.Handler() {
+                @Override
+                public void onStaged(Object obj) {
+                    int v = (Integer) obj;
+                    int producer = v / 1000000;
+                    // each producer's objects come out in the order it added them
+                    Assert.assertEquals(seen[producer], v % 1000000);
+                    seen[producer]++;
+                    drained.incrementAndGet();
+                }
+            });
+            for (Thread t : producers) {
+                t.join();
+            }
+            Assert.assertEquals(count, drained.get());
+            for (int p = 0; p < PRODUCERS; p++) {
+                Assert.assertEquals(added[p], seen[p]);
+            }
+        }
+    }
+}